@@ -2,19 +2,55 @@ package org.hkprog;
 
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.hkprog.antlr.CLexer;
 import org.hkprog.antlr.CParser;
+import org.hkprog.ast.AstBuilder;
+import org.hkprog.ast.CompactAst;
 
+import org.hkprog.batch.BatchCompiler;
+import org.hkprog.batch.BatchJob;
+import org.hkprog.cache.CompilationCache;
 import org.hkprog.codegen.AssemblyProgram;
 import org.hkprog.codegen.X86CodeGenerator;
 import org.hkprog.elf.ELFWriter;
+import org.hkprog.elf.Linker;
+import org.hkprog.elf.MachineCodeGenerator;
+import org.hkprog.elf.StreamingELFWriter;
+import org.hkprog.incremental.IncrementalCompiler;
+import org.hkprog.incremental.IncrementalResult;
+import org.hkprog.incremental.IncrementalState;
+import org.hkprog.ir.IRBasicBlock;
 import org.hkprog.ir.IRFunction;
 import org.hkprog.ir.IRGenerator;
 import org.hkprog.ir.IRGlobalVariable;
-import org.hkprog.ir.IRInstruction;
 import org.hkprog.ir.IRParameter;
+import org.hkprog.ir.IRPrinter;
 import org.hkprog.ir.IRProgram;
 import org.hkprog.ir.IRVariable;
+import org.hkprog.lexer.FastCLexer;
+import org.hkprog.lexer.LexerKind;
+import org.hkprog.opt.PassManager;
+import org.hkprog.parse.CParserDriver;
+import org.hkprog.parse.DefaultChannelTokenSource;
+import org.hkprog.parse.MappedCharStream;
+import org.hkprog.parse.ParseResult;
+import org.hkprog.parse.StreamErrorListener;
+import org.hkprog.pch.PrecompiledHeader;
+import org.hkprog.preprocess.Macro;
+import org.hkprog.preprocess.HeaderCache;
+import org.hkprog.preprocess.Preprocessor;
+import org.hkprog.streaming.StreamingCompiler;
 
 /**
  * Main C Compiler class that orchestrates the compilation process
@@ -22,110 +58,530 @@ import org.hkprog.ir.IRVariable;
  */
 public class CCompiler {
     
+    /**
+     * Compiler build identity, part of every compilation cache key and incremental state salt.
+     * Derived from the manifest version and a hash of the compiler classes, see {@link CompilerVersion}
+     */
+    public static final String VERSION = CompilerVersion.compute();
+    
+    private static final String USAGE = "Usage: java CCompiler [options] <input.c> <output>\n"
+        + "       java CCompiler --batch [options] <input.c | @manifest>...\n"
+        + "Options:\n"
+        + "  --parse-mode=sll-ll|ll   parser prediction strategy (default sll-ll)\n"
+        + "  --cache-dir=<dir>        reuse results from a content-addressed compilation cache\n"
+        + "  --cache-size=<n>[K|M|G]  cache size bound, least recently used entries are evicted (default 256M)\n"
+        + "  --cache-intermediates    also store the IR and assembly of each entry\n"
+        + "  --cache-stats            print cache hit/miss statistics\n"
+        + "  --incremental            only regenerate functions changed since the last build of <output>\n"
+        + "  --preprocess             run the built-in preprocessor (implied by -I, -D and -U)\n"
+        + "  -I<dir>                  add a directory to the #include search path\n"
+        + "  -D<name>[=<value>]       define a macro (value defaults to 1)\n"
+        + "  -U<name>                 undefine a macro\n"
+        + "  --lexer=antlr|fast       lexer feeding the parser (default antlr)\n"
+        + "  --mmap                   lex straight from the memory-mapped source file\n"
+        + "  --unbuffered-tokens      stream tokens to the parser without buffering them (implies LL parsing)\n"
+        + "  --parallel-parse         parse top-level declarations on all cores\n"
+        + "  --stream                 compile one declaration at a time in bounded memory (implies LL parsing)\n"
+        + "  --create-pch             precompile the header <input.c> into the snapshot <output>\n"
+        + "  --include-pch=<file>     seed the compilation from a precompiled header snapshot\n"
+        + "  -O0, -O1, -O2            optimization level (default -O0)\n"
+        + "  --inline-threshold=<n>   inline calls whose estimated cost is at most n (default 5 at -O1, 25 at -O2)\n"
+        + "  --time-passes            print the time and IR size change of every optimization pass\n"
+        + "  --verify-ir              check the IR after every optimization pass\n"
+        + "Batch options:\n"
+        + "  --jobs=<n>, -j<n>        number of files compiled in parallel (default: all cores)\n"
+        + "  --out-dir=<dir>          directory for outputs not named in a manifest\n"
+        + "  --verbose                print the full compiler log of every file";
+    
+    private CompilerOptions options;
+    private PrintStream out;
+    private PrintStream err;
+    
+    public CCompiler() {
+        this(new CompilerOptions());
+    }
+    
+    public CCompiler(CompilerOptions options) {
+        this(options, System.out, System.err);
+    }
+    
+    public CCompiler(CompilerOptions options, PrintStream out, PrintStream err) {
+        this.options = options;
+        this.out = out;
+        this.err = err;
+    }
+    
     public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
-            System.err.println("Usage: java CCompiler <input.c> <output>");
-            System.exit(1);
+        int status = run(args, Paths.get(""), System.out, System.err);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+    
+    /**
+     * Runs the command line compiler. Relative file names are resolved against the given
+     * working directory, and all messages go to the given streams, so that the same entry
+     * point can serve requests coming from a compile server client.
+     *
+     * @return the process exit status
+     */
+    public static int run(String[] args, Path workingDirectory, PrintStream out, PrintStream err) {
+        CompilerOptions options = new CompilerOptions();
+        List<String> files = new ArrayList<>();
+        boolean batch = false;
+        boolean verbose = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        Path outputDirectory = null;
+        
+        try {
+            for (String arg : args) {
+                if (arg.equals("--batch")) {
+                    batch = true;
+                } else if (arg.equals("--verbose")) {
+                    verbose = true;
+                } else if (arg.startsWith("--jobs=")) {
+                    jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+                } else if (arg.startsWith("-j") && arg.length() > 2) {
+                    jobs = Integer.parseInt(arg.substring(2));
+                } else if (arg.startsWith("--out-dir=")) {
+                    outputDirectory = workingDirectory.resolve(arg.substring("--out-dir=".length()));
+                } else if (arg.startsWith("-") && arg.length() > 1) {
+                    if (!options.parseFlag(arg, workingDirectory)) {
+                        err.println("Unknown option: " + arg);
+                        err.println(USAGE);
+                        return 1;
+                    }
+                } else {
+                    files.add(arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 1;
         }
         
-        String inputFile = args[0];
-        String outputFile = args[1];
+        if (batch) {
+            if (files.isEmpty() || jobs < 1) {
+                err.println(USAGE);
+                return 1;
+            }
+            try {
+                List<BatchJob> batchJobs = BatchCompiler.collectJobs(files, workingDirectory, outputDirectory);
+                BatchCompiler batchCompiler = new BatchCompiler(options, jobs, verbose, out, err);
+                return batchCompiler.compileAll(batchJobs) == 0 ? 0 : 1;
+            } catch (IOException e) {
+                err.println("Cannot read batch inputs: " + e);
+                return 1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 1;
+            }
+        }
+        
+        if (files.size() != 2) {
+            err.println(USAGE);
+            return 1;
+        }
+        String inputFile = files.get(0);
+        String outputFile = files.get(1);
         
-        CCompiler compiler = new CCompiler();
-        compiler.compile(inputFile, outputFile);
+        CCompiler compiler = new CCompiler(options, out, err);
+        try {
+            compiler.compile(workingDirectory.resolve(inputFile).toString(),
+                workingDirectory.resolve(outputFile).toString());
+        } catch (Exception e) {
+            err.println("Compilation failed: " + e);
+            return 1;
+        }
+        return 0;
     }
     
     public void compile(String inputFile, String outputFile) throws Exception {
-        System.out.println("Compiling " + inputFile + " to " + outputFile);
+        if (options.isCreatePrecompiledHeader()) {
+            createPrecompiledHeader(inputFile, outputFile);
+            return;
+        }
+        out.println("Compiling " + inputFile + " to " + outputFile);
+        if (options.isUnbufferedTokens() && options.isIncremental()) {
+            throw new IllegalArgumentException("--unbuffered-tokens cannot be combined with --incremental");
+        }
+        if (options.isUnbufferedTokens() && options.isParallelParse()) {
+            throw new IllegalArgumentException("--unbuffered-tokens cannot be combined with --parallel-parse");
+        }
+        if (options.isStreaming() && (options.isIncremental() || options.isParallelParse() || options.getCacheDirectory() != null)) {
+            throw new IllegalArgumentException("--stream cannot be combined with --incremental, --parallel-parse or --cache-dir");
+        }
+        
+        // 0. Preprocess, then consult the compilation cache
+        PrecompiledHeader precompiledHeader = loadPrecompiledHeader();
+        String fingerprint = options.fingerprint();
+        if (precompiledHeader != null) {
+            fingerprint += "\0pch:" + precompiledHeader.getContentHash();
+        }
+        String preprocessed = null;
+        if (options.isPreprocess()) {
+            preprocessed = preprocess(inputFile, precompiledHeader);
+        }
+        if (options.isStreaming()) {
+            compileStreaming(inputFile, outputFile, preprocessed, precompiledHeader);
+            return;
+        }
+        
+        CompilationCache cache = null;
+        String cacheKey = null;
+        CharStream input;
+        ByteBuffer source;
+        if (preprocessed != null) {
+            input = CharStreams.fromString(preprocessed, inputFile);
+            source = ByteBuffer.wrap(preprocessed.getBytes(StandardCharsets.UTF_8));
+        } else if (options.isMappedInput()) {
+            // Lex from the mapped file without decoding it into memory first
+            MappedCharStream mapped = MappedCharStream.fromPath(Paths.get(inputFile));
+            input = mapped;
+            source = mapped.getBytes();
+        } else if (options.getCacheDirectory() != null) {
+            byte[] bytes = Files.readAllBytes(Paths.get(inputFile));
+            input = CharStreams.fromString(new String(bytes, StandardCharsets.UTF_8), inputFile);
+            source = ByteBuffer.wrap(bytes);
+        } else {
+            input = CharStreams.fromFileName(inputFile);
+            source = null;
+        }
+        
+        if (options.getCacheDirectory() != null) {
+            cache = CompilationCache.forDirectory(options.getCacheDirectory(), options.getCacheMaxBytes());
+            cacheKey = CompilationCache.computeKey(VERSION, fingerprint, source);
+            
+            byte[] image = cache.lookup(cacheKey);
+            if (image != null) {
+                out.println("Cache hit for " + inputFile + " (" + cacheKey.substring(0, 12) + ")");
+                new ELFWriter(out).writeFile(image, outputFile);
+                printCacheStatistics(cache);
+                out.println("Compilation completed successfully!");
+                return;
+            }
+        }
         
         // 1. Parse C source code
-        CharStream input = CharStreams.fromFileName(inputFile);
-        CLexer lexer = new CLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        CParser parser = new CParser(tokens);
+        TokenSource lexer = newLexer(input);
+        CParserDriver parserDriver = new CParserDriver(options.getParseStrategy(), new StreamErrorListener(err));
+        CommonTokenStream tokens = null;
+        ParseResult parseResult;
+        if (options.isUnbufferedTokens()) {
+            parseResult = parserDriver.parseUnbuffered(new UnbufferedTokenStream<>(new DefaultChannelTokenSource(lexer)));
+        } else {
+            tokens = new CommonTokenStream(lexer);
+            if (options.isParallelParse()) {
+                parseResult = parserDriver.parseParallel(tokens, Runtime.getRuntime().availableProcessors());
+            } else {
+                parseResult = parserDriver.parse(tokens);
+            }
+        }
+        ParseTree tree = parseResult.getTree();
+        out.println("Parsed " + inputFile + ": " + parseResult);
         
-        ParseTree tree = parser.compilationUnit();
+        ELFWriter elfWriter = new ELFWriter(out);
+        IRProgram program;
+        AssemblyProgram assembly;
+        byte[] image;
         
-        // 2. Generate IR from AST
-        IRGenerator irGenerator = new IRGenerator();
-        IRProgram program = irGenerator.generateIR(tree);
+        if (options.isIncremental()) {
+            // 2-4. Regenerate only changed functions, then re-link the text image
+            Path statePath = Paths.get(outputFile + ".inc");
+            IncrementalCompiler incrementalCompiler = new IncrementalCompiler(VERSION + "\0" + fingerprint);
+            incrementalCompiler.setPrecompiledHeader(precompiledHeader);
+            PassManager passManager = newPassManager();
+            incrementalCompiler.setPassManager(passManager);
+            IncrementalResult result = incrementalCompiler.compile((CParser.CompilationUnitContext) tree, tokens,
+                IncrementalState.load(statePath));
+            program = result.getProgram();
+            assembly = result.getAssembly();
+            out.println("Incremental: reused " + result.getReused() + " of "
+                + (result.getReused() + result.getRegenerated()) + " function definitions");
+            printPassTimings(passManager);
+            
+            // Dump IR as tree for debugging
+            dumpIRProgram(program);
+            
+            Linker linker = new Linker(MachineCodeGenerator.TEXT_ADDRESS);
+            linker.defineDataLabels(assembly.getDataSection().getLabels());
+            byte[] textData = linker.link(result.getFunctionCode());
+            image = elfWriter.generateELF(textData, assembly.getDataSection().getDataAsBytes());
+            elfWriter.writeFile(image, outputFile);
+            result.getState().save(statePath);
+        } else {
+            // 2. Lower the parse tree to the compact AST, after which the tree and tokens can be freed
+            CompactAst ast = new AstBuilder().build(tree);
+            tree = null;
+            parseResult = null;
+            tokens = null;
+            out.println("Lowered to " + ast.size() + " AST nodes");
+            
+            // 3. Generate IR from AST
+            IRGenerator irGenerator = new IRGenerator();
+            if (precompiledHeader != null) {
+                irGenerator.seedDeclarations(precompiledHeader.getSymbols(), precompiledHeader.getGlobals());
+            }
+            program = irGenerator.generateIR(ast);
+            
+            // 3a. Optimize
+            PassManager passManager = newPassManager();
+            passManager.run(program);
+            printPassTimings(passManager);
+            
+            // Dump IR as tree for debugging
+            dumpIRProgram(program);
+            
+            // 4. Generate x86-64 assembly
+            X86CodeGenerator codeGen = new X86CodeGenerator();
+            assembly = codeGen.generate(program);
+            
+            // 5. Generate ELF binary
+            image = elfWriter.generateELF(assembly);
+            elfWriter.writeFile(image, outputFile);
+        }
         
-        // Dump IR as tree for debugging
-        dumpIRProgram(program);
+        if (cache != null) {
+            if (options.isCacheIntermediates()) {
+                cache.store(cacheKey, image, program, assembly);
+            } else {
+                cache.store(cacheKey, image, null, null);
+            }
+            printCacheStatistics(cache);
+        }
         
-        // 3. Generate x86-64 assembly
-        X86CodeGenerator codeGen = new X86CodeGenerator();
-        AssemblyProgram assembly = codeGen.generate(program);
+        out.println("Compilation completed successfully!");
+    }
+    
+    /**
+     * Compiles one external declaration at a time straight into the output file. Plain
+     * source files are read through an unbuffered character stream as well, unless the fast
+     * lexer, which needs random access to the input, is selected.
+     */
+    private void compileStreaming(String inputFile, String outputFile, String preprocessed,
+                                  PrecompiledHeader precompiledHeader) throws IOException {
+        TokenSource lexer;
+        if (preprocessed != null) {
+            lexer = newLexer(CharStreams.fromString(preprocessed, inputFile));
+        } else if (options.isMappedInput()) {
+            lexer = newLexer(MappedCharStream.fromPath(Paths.get(inputFile)));
+        } else if (options.getLexerKind() == LexerKind.FAST) {
+            lexer = newLexer(CharStreams.fromFileName(inputFile));
+        } else {
+            UnbufferedCharStream input = new UnbufferedCharStream(Files.newInputStream(Paths.get(inputFile)), 4096, StandardCharsets.UTF_8);
+            input.name = inputFile;
+            lexer = newLexer(input);
+            // Token text has to be copied out before the characters are released
+            lexer.setTokenFactory(new CommonTokenFactory(true));
+        }
         
-        // 4. Generate ELF binary
-        ELFWriter elfWriter = new ELFWriter();
-        elfWriter.writeELF(assembly, outputFile);
+        IRGenerator irGenerator = new IRGenerator();
+        if (precompiledHeader != null) {
+            irGenerator.seedDeclarations(precompiledHeader.getSymbols(), precompiledHeader.getGlobals());
+        }
+        StreamingCompiler streamingCompiler = new StreamingCompiler(irGenerator, new StreamErrorListener(err));
+        PassManager passManager = newPassManager();
+        streamingCompiler.setPassManager(passManager);
+        if (precompiledHeader != null) {
+            streamingCompiler.addSeededGlobals(precompiledHeader.getGlobals());
+        }
+        try (StreamingELFWriter writer = new StreamingELFWriter(Paths.get(outputFile), out)) {
+            streamingCompiler.compile(new UnbufferedTokenStream<>(new DefaultChannelTokenSource(lexer)), writer);
+            out.println("Streamed " + inputFile + ": " + streamingCompiler.getDeclarations() + " declarations, "
+                + streamingCompiler.getFunctions() + " functions, " + writer.getTextSize() + " bytes of code");
+        }
+        printPassTimings(passManager);
+        out.println("ELF file written: " + outputFile);
+        out.println("Compilation completed successfully!");
+    }
+    
+    private PassManager newPassManager() {
+        PassManager passManager = PassManager.forLevel(options.getOptimizationLevel(), options.getInlineThreshold());
+        passManager.setVerify(options.isVerifyIR());
+        return passManager;
+    }
+    
+    private void printPassTimings(PassManager passManager) {
+        if (options.isTimePasses()) {
+            out.println("Optimization passes at -O" + options.getOptimizationLevel().getName() + ":");
+            out.print(passManager.report());
+        }
+    }
+    
+    private TokenSource newLexer(CharStream input) {
+        if (options.getLexerKind() == LexerKind.FAST) {
+            return new FastCLexer(input, new StreamErrorListener(err));
+        }
+        CLexer lexer = new CLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new StreamErrorListener(err));
+        return lexer;
+    }
+    
+    /**
+     * Runs the built-in preprocessor over a source file. Headers are taken from the
+     * process-wide header cache, so translation units compiled by the same batch or compile
+     * server share tokenized headers. Headers covered by a precompiled header are skipped.
+     */
+    private String preprocess(String inputFile, PrecompiledHeader precompiledHeader) throws IOException {
+        Preprocessor preprocessor = newPreprocessor();
+        if (precompiledHeader != null) {
+            for (Macro macro : precompiledHeader.getMacros()) {
+                preprocessor.getMacros().put(macro.getName(), macro);
+            }
+            for (Path dependency : precompiledHeader.getDependencies().keySet()) {
+                preprocessor.markIncluded(dependency);
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        preprocessor.preprocess(Paths.get(inputFile), text);
+        out.println("Preprocessed " + inputFile + ": " + preprocessor.getIncludesProcessed() + " includes read, "
+            + preprocessor.getIncludesSkipped() + " skipped by include guards or #pragma once");
+        return text.toString();
+    }
+    
+    private Preprocessor newPreprocessor() {
+        Preprocessor preprocessor = new Preprocessor(options.getIncludePaths(), HeaderCache.shared(), err);
+        for (Map.Entry<String, String> definition : options.getMacroDefinitions().entrySet()) {
+            if (definition.getValue() == null) {
+                preprocessor.undefine(definition.getKey());
+            } else {
+                preprocessor.define(definition.getKey(), definition.getValue());
+            }
+        }
+        return preprocessor;
+    }
+    
+    /**
+     * Preprocesses, parses and walks a header, then writes the resulting macros, symbol table
+     * and global variables as a precompiled header snapshot
+     */
+    private void createPrecompiledHeader(String headerFile, String outputFile) throws IOException {
+        out.println("Precompiling " + headerFile + " to " + outputFile);
+        Path header = Paths.get(headerFile).toRealPath();
+        Preprocessor preprocessor = newPreprocessor();
+        StringBuilder text = new StringBuilder();
+        preprocessor.preprocess(header, text);
         
-        System.out.println("Compilation completed successfully!");
+        TokenSource lexer = newLexer(CharStreams.fromString(text.toString(), headerFile));
+        CParserDriver parserDriver = new CParserDriver(options.getParseStrategy(), new StreamErrorListener(err));
+        ParseResult parseResult = parserDriver.parse(new CommonTokenStream(lexer));
+        
+        IRGenerator irGenerator = new IRGenerator();
+        IRProgram program = irGenerator.generateIR(new AstBuilder().build(parseResult.getTree()));
+        if (!program.getFunctions().isEmpty()) {
+            throw new IOException("Precompiled headers cannot contain function definitions");
+        }
+        
+        Map<Path, String> dependencies = new LinkedHashMap<>();
+        dependencies.put(header, PrecompiledHeader.hashFile(header));
+        for (Path included : preprocessor.getIncludedFiles()) {
+            dependencies.put(included, PrecompiledHeader.hashFile(included));
+        }
+        PrecompiledHeader precompiledHeader = new PrecompiledHeader(VERSION, dependencies,
+            new ArrayList<>(preprocessor.getMacros().values()), new LinkedHashMap<>(irGenerator.getSymbolTable()),
+            program.getGlobalVariables());
+        precompiledHeader.write(Paths.get(outputFile));
+        out.println("Precompiled header written: " + precompiledHeader.getMacros().size() + " macros, "
+            + precompiledHeader.getSymbols().size() + " symbols, " + precompiledHeader.getGlobals().size() + " globals");
+    }
+    
+    /**
+     * Loads the precompiled header named in the options, falling back to textual inclusion
+     * when it is missing, corrupt or stale
+     */
+    private PrecompiledHeader loadPrecompiledHeader() {
+        if (options.getPrecompiledHeader() == null) {
+            return null;
+        }
+        try {
+            PrecompiledHeader precompiledHeader = PrecompiledHeader.read(options.getPrecompiledHeader());
+            String stale = precompiledHeader.checkStale(VERSION);
+            if (stale != null) {
+                err.println("Ignoring stale precompiled header " + options.getPrecompiledHeader() + ": " + stale);
+                return null;
+            }
+            out.println("Using precompiled header " + options.getPrecompiledHeader() + " for " + precompiledHeader.getHeader());
+            return precompiledHeader;
+        } catch (IOException e) {
+            err.println("Ignoring precompiled header " + options.getPrecompiledHeader() + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private void printCacheStatistics(CompilationCache cache) {
+        if (options.isPrintCacheStatistics()) {
+            out.println("Cache statistics (this process): " + cache.getStatistics());
+            out.println("Cache statistics (all processes): " + cache.getPersistentStatistics());
+        }
     }
     
     /**
      * Dumps the IR program structure as a tree for debugging purposes
      */
     private void dumpIRProgram(IRProgram program) {
-        System.out.println("\n=== IR Program Tree ===");
+        out.println("\n=== IR Program Tree ===");
         
         // Dump global variables
         if (!program.getGlobalVariables().isEmpty()) {
-            System.out.println("├── Global Variables:");
+            out.println("├── Global Variables:");
             for (int i = 0; i < program.getGlobalVariables().size(); i++) {
                 IRGlobalVariable var = program.getGlobalVariables().get(i);
                 boolean isLast = (i == program.getGlobalVariables().size() - 1);
                 String prefix = isLast ? "└── " : "├── ";
-                System.out.println("│   " + prefix + var.getName() + " : " + var.getType().getName() + 
-                    (var.getInitialValue() != null ? " = " + var.getInitialValue() : ""));
+                out.println("│   " + prefix + var.getName() + " : " + var.getType().getName() + 
+                    (var.getInitialValue() != null ? " = " + var.getInitialValueText() : ""));
             }
         }
         
         // Dump functions
-        System.out.println("├── Functions:");
+        out.println("├── Functions:");
         for (int i = 0; i < program.getFunctions().size(); i++) {
             IRFunction function = program.getFunctions().get(i);
             boolean isLastFunction = (i == program.getFunctions().size() - 1);
             String functionPrefix = isLastFunction ? "└── " : "├── ";
             
-            System.out.println("│   " + functionPrefix + function.getName() + "() : " + function.getReturnType().getName());
+            out.println("│   " + functionPrefix + function.getName() + "() : " + function.getReturnType().getName());
             
             // Dump parameters
             if (!function.getParameters().isEmpty()) {
-                System.out.println("│   │   ├── Parameters:");
+                out.println("│   │   ├── Parameters:");
                 for (int j = 0; j < function.getParameters().size(); j++) {
                     IRParameter param = function.getParameters().get(j);
                     boolean isLastParam = (j == function.getParameters().size() - 1);
                     String paramPrefix = isLastParam ? "└── " : "├── ";
-                    System.out.println("│   │   │   " + paramPrefix + param.getName() + " : " + param.getType().getName());
+                    out.println("│   │   │   " + paramPrefix + param.getName() + " : " + param.getType().getName());
                 }
             }
             
             // Dump local variables
             if (!function.getLocalVariables().isEmpty()) {
-                System.out.println("│   │   ├── Local Variables:");
+                out.println("│   │   ├── Local Variables:");
                 int varCount = 0;
                 for (IRVariable var : function.getLocalVariables().values()) {
                     boolean isLastVar = (++varCount == function.getLocalVariables().size());
                     String varPrefix = isLastVar ? "└── " : "├── ";
-                    System.out.println("│   │   │   " + varPrefix + var.getName() + " : " + var.getType().getName());
+                    out.println("│   │   │   " + varPrefix + var.getName() + " : " + var.getType().getName());
                 }
             }
             
-            // Dump instructions
-            if (!function.getInstructions().isEmpty()) {
-                String instrHeader = (function.getLocalVariables().isEmpty()) ? "└── " : "└── ";
-                System.out.println("│   │   " + instrHeader + "Instructions:");
-                for (int j = 0; j < function.getInstructions().size(); j++) {
-                    IRInstruction instr = function.getInstructions().get(j);
-                    boolean isLastInstr = (j == function.getInstructions().size() - 1);
-                    String instrPrefix = isLastInstr ? "└── " : "├── ";
-                    System.out.println("│   │   │   " + instrPrefix + instr.toString());
+            // Dump instructions, block by block
+            if (function.size() > 0) {
+                out.println("│   │   └── Blocks:");
+                List<IRBasicBlock> blocks = function.getBlocks();
+                for (int j = 0; j < blocks.size(); j++) {
+                    IRBasicBlock block = blocks.get(j);
+                    boolean isLastBlock = (j == blocks.size() - 1);
+                    out.println("│   │       " + (isLastBlock ? "└── " : "├── ") + "L" + block.getId() + ":");
+                    for (int k = 0; k < block.size(); k++) {
+                        boolean isLastInstr = (k == block.size() - 1);
+                        out.println("│   │       " + (isLastBlock ? "    " : "│   ") + (isLastInstr ? "└── " : "├── ")
+                            + IRPrinter.instruction(function, block.get(k)));
+                    }
                 }
             }
         }
         
-        System.out.println("======================\n");
+        out.println("======================\n");
     }
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package org.hkprog;
+
+import org.hkprog.lexer.LexerKind;
+import org.hkprog.opt.InlinerPass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.parse.ParseStrategy;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Options controlling a compilation
+ */
+public class CompilerOptions {
+    private static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+
+    private ParseStrategy parseStrategy;
+    private LexerKind lexerKind;
+    private Path cacheDirectory;
+    private long cacheMaxBytes;
+    private boolean cacheIntermediates;
+    private boolean printCacheStatistics;
+    private boolean incremental;
+    private boolean preprocess;
+    private List<Path> includePaths;
+    /** Command line macro definitions in order; a null value undefines the macro */
+    private Map<String, String> macroDefinitions;
+    private boolean createPrecompiledHeader;
+    private boolean mappedInput;
+    private boolean unbufferedTokens;
+    private boolean parallelParse;
+    private boolean streaming;
+    private Path precompiledHeader;
+    private OptimizationLevel optimizationLevel;
+    private boolean timePasses;
+    private Integer inlineThreshold;
+    private boolean verifyIR;
+
+    public CompilerOptions() {
+        this.parseStrategy = ParseStrategy.SLL_THEN_LL;
+        this.lexerKind = LexerKind.ANTLR;
+        this.optimizationLevel = OptimizationLevel.O0;
+        this.cacheMaxBytes = DEFAULT_CACHE_SIZE;
+        this.includePaths = new ArrayList<>();
+        this.macroDefinitions = new LinkedHashMap<>();
+    }
+
+    /**
+     * Applies a single command line flag to these options.
+     *
+     * @return false if the flag is not recognised
+     */
+    public boolean parseFlag(String arg) {
+        return parseFlag(arg, Paths.get(""));
+    }
+
+    /**
+     * Applies a single command line flag, resolving relative include, cache and precompiled
+     * header paths against the directory the command was issued from
+     *
+     * @return false if the flag is not recognised
+     */
+    public boolean parseFlag(String arg, Path workingDirectory) {
+        if (arg.startsWith("--parse-mode=")) {
+            parseStrategy = ParseStrategy.fromString(arg.substring("--parse-mode=".length()));
+            return true;
+        } else if (arg.startsWith("--lexer=")) {
+            lexerKind = LexerKind.fromString(arg.substring("--lexer=".length()));
+            return true;
+        } else if (arg.startsWith("--cache-dir=")) {
+            cacheDirectory = workingDirectory.resolve(arg.substring("--cache-dir=".length()));
+            return true;
+        } else if (arg.startsWith("--cache-size=")) {
+            cacheMaxBytes = parseSize(arg.substring("--cache-size=".length()));
+            return true;
+        } else if (arg.equals("--cache-intermediates")) {
+            cacheIntermediates = true;
+            return true;
+        } else if (arg.equals("--cache-stats")) {
+            printCacheStatistics = true;
+            return true;
+        } else if (arg.equals("--incremental")) {
+            incremental = true;
+            return true;
+        } else if (arg.equals("--preprocess")) {
+            preprocess = true;
+            return true;
+        } else if (arg.equals("--mmap")) {
+            mappedInput = true;
+            return true;
+        } else if (arg.equals("--unbuffered-tokens")) {
+            unbufferedTokens = true;
+            return true;
+        } else if (arg.equals("--parallel-parse")) {
+            parallelParse = true;
+            return true;
+        } else if (arg.equals("--stream")) {
+            streaming = true;
+            return true;
+        } else if (arg.equals("--create-pch")) {
+            createPrecompiledHeader = true;
+            return true;
+        } else if (arg.startsWith("--include-pch=")) {
+            precompiledHeader = workingDirectory.resolve(arg.substring("--include-pch=".length()));
+            preprocess = true;
+            return true;
+        } else if (arg.startsWith("-O")) {
+            optimizationLevel = OptimizationLevel.fromString(arg.substring(2));
+            return true;
+        } else if (arg.startsWith("--inline-threshold=")) {
+            inlineThreshold = Integer.parseInt(arg.substring("--inline-threshold=".length()));
+            return true;
+        } else if (arg.equals("--time-passes")) {
+            timePasses = true;
+            return true;
+        } else if (arg.equals("--verify-ir")) {
+            verifyIR = true;
+            return true;
+        } else if (arg.startsWith("-I") && arg.length() > 2) {
+            includePaths.add(workingDirectory.resolve(arg.substring(2)));
+            preprocess = true;
+            return true;
+        } else if (arg.startsWith("-D") && arg.length() > 2) {
+            String definition = arg.substring(2);
+            int equals = definition.indexOf('=');
+            String name = equals < 0 ? definition : definition.substring(0, equals);
+            macroDefinitions.remove(name);
+            macroDefinitions.put(name, equals < 0 ? "1" : definition.substring(equals + 1));
+            preprocess = true;
+            return true;
+        } else if (arg.startsWith("-U") && arg.length() > 2) {
+            macroDefinitions.remove(arg.substring(2));
+            macroDefinitions.put(arg.substring(2), null);
+            preprocess = true;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Parses a byte count with an optional K, M or G suffix
+     */
+    private static long parseSize(String size) {
+        long multiplier = 1;
+        char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        if (unit == 'K' || unit == 'M' || unit == 'G') {
+            multiplier = unit == 'K' ? 1024L : unit == 'M' ? 1024L * 1024 : 1024L * 1024 * 1024;
+            size = size.substring(0, size.length() - 1);
+        }
+        return Long.parseLong(size) * multiplier;
+    }
+    
+    /**
+     * Describes every option that can change the generated output, for use in cache keys.
+     * Options that only affect how the compiler runs, such as the parse strategy, are left out.
+     */
+    public String fingerprint() {
+        return "-O" + optimizationLevel.getName() + " --inline-threshold=" + getInlineThreshold();
+    }
+    
+    public ParseStrategy getParseStrategy() { return parseStrategy; }
+    public void setParseStrategy(ParseStrategy parseStrategy) { this.parseStrategy = parseStrategy; }
+    public LexerKind getLexerKind() { return lexerKind; }
+    public void setLexerKind(LexerKind lexerKind) { this.lexerKind = lexerKind; }
+    public Path getCacheDirectory() { return cacheDirectory; }
+    public void setCacheDirectory(Path cacheDirectory) { this.cacheDirectory = cacheDirectory; }
+    public long getCacheMaxBytes() { return cacheMaxBytes; }
+    public void setCacheMaxBytes(long cacheMaxBytes) { this.cacheMaxBytes = cacheMaxBytes; }
+    public boolean isCacheIntermediates() { return cacheIntermediates; }
+    public void setCacheIntermediates(boolean cacheIntermediates) { this.cacheIntermediates = cacheIntermediates; }
+    public boolean isPrintCacheStatistics() { return printCacheStatistics; }
+    public void setPrintCacheStatistics(boolean printCacheStatistics) { this.printCacheStatistics = printCacheStatistics; }
+    public boolean isIncremental() { return incremental; }
+    public void setIncremental(boolean incremental) { this.incremental = incremental; }
+    public boolean isPreprocess() { return preprocess; }
+    public void setPreprocess(boolean preprocess) { this.preprocess = preprocess; }
+    public List<Path> getIncludePaths() { return includePaths; }
+    public Map<String, String> getMacroDefinitions() { return macroDefinitions; }
+    public boolean isMappedInput() { return mappedInput; }
+    public void setMappedInput(boolean mappedInput) { this.mappedInput = mappedInput; }
+    public boolean isUnbufferedTokens() { return unbufferedTokens; }
+    public void setUnbufferedTokens(boolean unbufferedTokens) { this.unbufferedTokens = unbufferedTokens; }
+    public boolean isParallelParse() { return parallelParse; }
+    public void setParallelParse(boolean parallelParse) { this.parallelParse = parallelParse; }
+    public boolean isStreaming() { return streaming; }
+    public void setStreaming(boolean streaming) { this.streaming = streaming; }
+    public boolean isCreatePrecompiledHeader() { return createPrecompiledHeader; }
+    public void setCreatePrecompiledHeader(boolean createPrecompiledHeader) { this.createPrecompiledHeader = createPrecompiledHeader; }
+    public Path getPrecompiledHeader() { return precompiledHeader; }
+    public void setPrecompiledHeader(Path precompiledHeader) { this.precompiledHeader = precompiledHeader; }
+    public OptimizationLevel getOptimizationLevel() { return optimizationLevel; }
+    public void setOptimizationLevel(OptimizationLevel optimizationLevel) { this.optimizationLevel = optimizationLevel; }
+    /** The inliner's cost threshold, by default that of the optimization level */
+    public int getInlineThreshold() {
+        return inlineThreshold != null ? inlineThreshold : InlinerPass.defaultThreshold(optimizationLevel);
+    }
+    public void setInlineThreshold(int inlineThreshold) { this.inlineThreshold = inlineThreshold; }
+    public boolean isTimePasses() { return timePasses; }
+    public void setTimePasses(boolean timePasses) { this.timePasses = timePasses; }
+    public boolean isVerifyIR() { return verifyIR; }
+    public void setVerifyIR(boolean verifyIR) { this.verifyIR = verifyIR; }
+}
@@ -0,0 +1,97 @@
+package org.hkprog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Identifies the exact compiler build, so that cached outputs and incremental state written by
+ * one build are never reused by another. The version is the manifest Implementation-Version
+ * followed by a hash of the compiler's own class files, which changes whenever generated code
+ * can change, without anyone having to remember to bump a number.
+ */
+public final class CompilerVersion {
+
+    private static final String CLASS_PREFIX = "org/hkprog/";
+
+    private CompilerVersion() {
+    }
+
+    /**
+     * Computes the version string, for example {@code 0.0.1+3f2a9c0d41b7e685}
+     */
+    static String compute() {
+        String implementationVersion = CompilerVersion.class.getPackage().getImplementationVersion();
+        if (implementationVersion == null) {
+            implementationVersion = "dev";
+        }
+        return implementationVersion + "+" + buildHash();
+    }
+
+    private static String buildHash() {
+        try {
+            CodeSource codeSource = CompilerVersion.class.getProtectionDomain().getCodeSource();
+            if (codeSource == null) {
+                return "unknown";
+            }
+            Path location = Paths.get(codeSource.getLocation().toURI());
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (Files.isDirectory(location)) {
+                hashDirectory(location, digest);
+            } else {
+                hashJar(location, digest);
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 8);
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return "unknown";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static void hashDirectory(Path root, MessageDigest digest) throws IOException {
+        Path classes = root.resolve(CLASS_PREFIX);
+        if (!Files.isDirectory(classes)) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(classes)) {
+            files = walk.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            digest.update(root.relativize(file).toString().replace('\\', '/').getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Files.readAllBytes(file));
+        }
+    }
+
+    private static void hashJar(Path jar, MessageDigest digest) throws IOException {
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            List<JarEntry> entries = Collections.list(jarFile.entries()).stream()
+                .filter(entry -> entry.getName().startsWith(CLASS_PREFIX) && entry.getName().endsWith(".class"))
+                .sorted((a, b) -> a.getName().compareTo(b.getName()))
+                .collect(Collectors.toList());
+            for (JarEntry entry : entries) {
+                digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                try (InputStream input = jarFile.getInputStream(entry)) {
+                    digest.update(input.readAllBytes());
+                }
+            }
+        }
+    }
+}
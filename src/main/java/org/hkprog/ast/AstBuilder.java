@@ -0,0 +1,671 @@
+package org.hkprog.ast;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.hkprog.antlr.CParser;
+import org.hkprog.ir.IRType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lowers an ANTLR parse tree into a {@link CompactAst}. Precedence levels that only wrap a
+ * single operand are skipped, parentheses disappear into the tree shape, and names and
+ * literals are interned, so the parse tree and its tokens can be dropped as soon as the
+ * AST is built.
+ */
+public class AstBuilder {
+    private NameTable names;
+    private CompactAst ast;
+    /** Child ids of the nodes under construction */
+    private int[] stack = new int[64];
+    private int top;
+
+    public AstBuilder() {
+        this(new NameTable());
+    }
+
+    public AstBuilder(NameTable names) {
+        this.names = names;
+    }
+
+    public NameTable getNames() {
+        return names;
+    }
+
+    /**
+     * Lowers a whole compilation unit; the root is a TRANSLATION_UNIT node
+     */
+    public CompactAst build(ParseTree tree) {
+        CParser.CompilationUnitContext unit = (CParser.CompilationUnitContext) tree;
+        ast = new CompactAst(names, Math.max(64, unit.getStop().getTokenIndex() / 2));
+        int mark = top;
+        if (unit.translationUnit() != null) {
+            for (CParser.ExternalDeclarationContext declaration : unit.translationUnit().externalDeclaration()) {
+                push(externalDeclaration(declaration));
+            }
+        }
+        ast.setRoot(node(NodeKind.TRANSLATION_UNIT, -1, 0, 1, mark));
+        return finish();
+    }
+
+    /**
+     * Lowers a single external declaration; the root is a FUNCTION or DECLARATION node
+     */
+    public CompactAst buildDeclaration(CParser.ExternalDeclarationContext declaration) {
+        ast = new CompactAst(names);
+        ast.setRoot(externalDeclaration(declaration));
+        return finish();
+    }
+
+    private CompactAst finish() {
+        CompactAst result = ast;
+        ast = null;
+        return result;
+    }
+
+    private void push(int node) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        stack[top++] = node;
+    }
+
+    /**
+     * Adds a node whose children are everything pushed since {@code mark}, and pops them
+     */
+    private int node(NodeKind kind, int value, int aux, int line, int mark) {
+        int node = ast.add(kind, value, aux, line, stack, mark, top - mark);
+        top = mark;
+        return node;
+    }
+
+    private int leaf(NodeKind kind, int value, int aux, ParserRuleContext ctx) {
+        return ast.add(kind, value, aux, line(ctx));
+    }
+
+    private int unsupported(ParseTree tree, int line) {
+        return ast.add(NodeKind.UNSUPPORTED, names.intern(tree == null ? "" : tree.getText()),
+            recovered(tree) ? CompactAst.RECOVERED : 0, line);
+    }
+
+    /**
+     * Whether a subtree is missing or contains tokens or rules the parser had to recover from
+     */
+    private static boolean recovered(ParseTree tree) {
+        if (tree == null || tree instanceof ErrorNode) {
+            return true;
+        }
+        if (tree instanceof ParserRuleContext && ((ParserRuleContext) tree).exception != null) {
+            return true;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (recovered(tree.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int line(ParserRuleContext ctx) {
+        return ctx.getStart() != null ? ctx.getStart().getLine() : 0;
+    }
+
+    private static int tokenType(ParseTree tree) {
+        return tree instanceof TerminalNode ? ((TerminalNode) tree).getSymbol().getType() : -1;
+    }
+
+    // Declarations
+
+    private int externalDeclaration(CParser.ExternalDeclarationContext ctx) {
+        if (ctx.functionDefinition() != null) {
+            return functionDefinition(ctx.functionDefinition());
+        }
+        if (ctx.declaration() != null) {
+            return declaration(ctx.declaration());
+        }
+        return leaf(NodeKind.DECLARATION, -1, 0, ctx);
+    }
+
+    private int functionDefinition(CParser.FunctionDefinitionContext ctx) {
+        if (ctx.declarator() == null || ctx.compoundStatement() == null) {
+            // Left incomplete by error recovery
+            return unsupported(ctx, line(ctx));
+        }
+        int type = ctx.declarationSpecifiers() != null
+            ? specifierType(ctx.declarationSpecifiers().declarationSpecifier())
+            : CompactAst.typeWord(IRType.INT, 0);
+        if (ctx.declarator().pointer() != null) {
+            type = pointerTo(type, ctx.declarator().pointer());
+        }
+        CParser.DirectDeclaratorContext direct = ctx.declarator().directDeclarator();
+        int mark = top;
+        if (direct.parameterTypeList() != null && direct.parameterTypeList().parameterList() != null) {
+            for (CParser.ParameterDeclarationContext parameter : direct.parameterTypeList().parameterList().parameterDeclaration()) {
+                push(parameter(parameter));
+            }
+        }
+        push(compoundStatement(ctx.compoundStatement()));
+        return node(NodeKind.FUNCTION, nameId(declaredName(direct)), type, line(ctx), mark);
+    }
+
+    private int parameter(CParser.ParameterDeclarationContext ctx) {
+        if (ctx.declarationSpecifiers() == null && ctx.declarationSpecifiers2() == null) {
+            return leaf(NodeKind.PARAMETER, -1, CompactAst.typeWord(IRType.INT, 0), ctx);
+        }
+        if (ctx.declarator() != null && ctx.declarationSpecifiers() != null) {
+            int type = specifierType(ctx.declarationSpecifiers().declarationSpecifier());
+            if (ctx.declarator().pointer() != null) {
+                type = pointerTo(type, ctx.declarator().pointer());
+            }
+            CParser.DirectDeclaratorContext direct = ctx.declarator().directDeclarator();
+            if (isFunctionPointer(direct) || direct.directDeclarator() != null && direct.getChild(1).getText().equals("[")) {
+                // Array parameters are pointers
+                type = CompactAst.pointerTo(type);
+            }
+            return leaf(NodeKind.PARAMETER, nameId(declaredName(ctx.declarator().directDeclarator())), type, ctx);
+        }
+        int type = specifierType(ctx.declarationSpecifiers2() != null
+            ? ctx.declarationSpecifiers2().declarationSpecifier() : ctx.declarationSpecifiers().declarationSpecifier());
+        if (ctx.abstractDeclarator() != null && ctx.abstractDeclarator().pointer() != null) {
+            type = pointerTo(type, ctx.abstractDeclarator().pointer());
+        }
+        return leaf(NodeKind.PARAMETER, -1, type, ctx);
+    }
+
+    private int declaration(CParser.DeclarationContext ctx) {
+        if (ctx.declarationSpecifiers() == null) {
+            // _Static_assert
+            return leaf(NodeKind.DECLARATION, -1, 0, ctx);
+        }
+        return declarators(ctx.declarationSpecifiers().declarationSpecifier(), ctx.initDeclaratorList(), line(ctx));
+    }
+
+    private int declarators(List<CParser.DeclarationSpecifierContext> specifiers,
+                            CParser.InitDeclaratorListContext list, int line) {
+        int type = specifierType(specifiers);
+        int mark = top;
+        if (list == null) {
+            // "int x;" parses the declared name as a typedef name
+            CParser.DeclarationSpecifierContext last = specifiers.get(specifiers.size() - 1);
+            if (specifiers.size() > 1 && last.typeSpecifier() != null && last.typeSpecifier().typedefName() != null) {
+                push(leaf(NodeKind.VARIABLE, names.intern(last.getText()), type, last));
+            }
+            return node(NodeKind.DECLARATION, -1, 0, line, mark);
+        }
+        for (CParser.InitDeclaratorContext initDeclarator : list.initDeclarator()) {
+            CParser.DeclaratorContext declarator = initDeclarator.declarator();
+            if (declarator == null || declarator.directDeclarator() == null) {
+                continue;
+            }
+            int declaredType = declarator.pointer() != null ? pointerTo(type, declarator.pointer()) : type;
+            CParser.DirectDeclaratorContext direct = declarator.directDeclarator();
+            int name = nameId(declaredName(direct));
+            if (isFunctionPointer(direct)) {
+                declaredType = CompactAst.pointerTo(declaredType);
+            } else if (direct.directDeclarator() != null && direct.getChild(1).getText().equals("(")) {
+                push(leaf(NodeKind.PROTOTYPE, name, declaredType, initDeclarator));
+                continue;
+            }
+            int length = arrayLength(direct);
+            if (length >= 0) {
+                declaredType = CompactAst.pointerTo(declaredType) | CompactAst.ARRAY;
+            }
+            int variableMark = top;
+            if (length >= 0) {
+                push(length);
+            }
+            if (initDeclarator.initializer() != null) {
+                push(initializer(initDeclarator.initializer()));
+            }
+            push(node(NodeKind.VARIABLE, name, declaredType, line(initDeclarator), variableMark));
+        }
+        return node(NodeKind.DECLARATION, -1, 0, line, mark);
+    }
+
+    /**
+     * Whether a declarator such as {@code (*f)(int)} declares a pointer to a function; its
+     * type word is then a pointer to the return type
+     */
+    private static boolean isFunctionPointer(CParser.DirectDeclaratorContext direct) {
+        return direct.directDeclarator() != null && direct.getChild(1).getText().equals("(")
+            && direct.directDeclarator().declarator() != null && direct.directDeclarator().declarator().pointer() != null;
+    }
+
+    /**
+     * Length expression of an array declarator, the product of the dimensions for
+     * {@code a[4][3]}, an EMPTY node for {@code a[]}, or -1 if the declarator is not an array
+     */
+    private int arrayLength(CParser.DirectDeclaratorContext direct) {
+        if (direct.directDeclarator() == null || !direct.getChild(1).getText().equals("[")) {
+            return -1;
+        }
+        int length = direct.assignmentExpression() != null
+            ? expression(direct.assignmentExpression()) : leaf(NodeKind.EMPTY, -1, 0, direct);
+        int inner = arrayLength(direct.directDeclarator());
+        if (inner < 0 || ast.kind(inner) == NodeKind.EMPTY || ast.kind(length) == NodeKind.EMPTY) {
+            return length;
+        }
+        int mark = top;
+        push(inner);
+        push(length);
+        return node(NodeKind.BINARY, -1, CParser.Star, line(direct), mark);
+    }
+
+    private int nameId(String name) {
+        return name == null ? -1 : names.intern(name);
+    }
+
+    private static int pointerTo(int type, CParser.PointerContext pointer) {
+        type = CompactAst.pointerTo(type);
+        return pointer.getText().indexOf('*') == pointer.getText().lastIndexOf('*') ? type : CompactAst.pointerTo(type);
+    }
+
+    /**
+     * Type word of a declaration's specifiers: the last non-typedef type specifier decides
+     * the type, and storage classes become flags
+     */
+    private static int specifierType(List<CParser.DeclarationSpecifierContext> specifiers) {
+        IRType type = IRType.INT;
+        int flags = 0;
+        for (CParser.DeclarationSpecifierContext specifier : specifiers) {
+            if (specifier.storageClassSpecifier() != null) {
+                String storageClass = specifier.getText();
+                if (storageClass.equals("typedef")) {
+                    flags |= CompactAst.TYPEDEF;
+                } else if (storageClass.equals("extern")) {
+                    flags |= CompactAst.EXTERN;
+                } else if (storageClass.equals("static")) {
+                    flags |= CompactAst.STATIC;
+                }
+            } else if (specifier.typeSpecifier() != null && specifier.typeSpecifier().typedefName() == null) {
+                type = IRType.fromString(specifier.getText());
+            }
+        }
+        return CompactAst.typeWord(type, flags);
+    }
+
+    private static int typeNameType(CParser.TypeNameContext ctx) {
+        IRType type = IRType.INT;
+        if (ctx == null) {
+            return CompactAst.typeWord(type, 0);
+        }
+        for (CParser.SpecifierQualifierListContext list = ctx.specifierQualifierList(); list != null;
+             list = list.specifierQualifierList()) {
+            if (list.typeSpecifier() != null && list.typeSpecifier().typedefName() == null) {
+                type = IRType.fromString(list.typeSpecifier().getText());
+            }
+        }
+        if (ctx.abstractDeclarator() != null && ctx.abstractDeclarator().pointer() != null) {
+            return pointerTo(CompactAst.typeWord(type, 0), ctx.abstractDeclarator().pointer());
+        }
+        return CompactAst.typeWord(type, 0);
+    }
+
+    private static String declaredName(CParser.DirectDeclaratorContext direct) {
+        while (direct != null) {
+            if (direct.Identifier() != null) {
+                return direct.Identifier().getText();
+            }
+            if (direct.declarator() != null) {
+                direct = direct.declarator().directDeclarator();
+            } else {
+                direct = direct.directDeclarator();
+            }
+        }
+        return null;
+    }
+
+    private int initializer(CParser.InitializerContext ctx) {
+        if (ctx.assignmentExpression() != null) {
+            return expression(ctx.assignmentExpression());
+        }
+        int mark = top;
+        if (ctx.initializerList() == null) {
+            return node(NodeKind.INIT_LIST, -1, 0, line(ctx), mark);
+        }
+        String designation = null;
+        for (ParseTree child : ctx.initializerList().children) {
+            if (child instanceof CParser.DesignationContext) {
+                designation = child.getText();
+            } else if (child instanceof CParser.InitializerContext) {
+                int initializer = initializer((CParser.InitializerContext) child);
+                if (designation != null) {
+                    int designatedMark = top;
+                    push(initializer);
+                    initializer = node(NodeKind.DESIGNATED, names.intern(designation), 0,
+                        line((CParser.InitializerContext) child), designatedMark);
+                    designation = null;
+                }
+                push(initializer);
+            }
+        }
+        return node(NodeKind.INIT_LIST, -1, 0, line(ctx), mark);
+    }
+
+    // Statements
+
+    private int compoundStatement(CParser.CompoundStatementContext ctx) {
+        int mark = top;
+        if (ctx.blockItemList() != null) {
+            for (CParser.BlockItemContext item : ctx.blockItemList().blockItem()) {
+                if (item.statement() != null) {
+                    push(statement(item.statement()));
+                } else if (item.declaration() != null) {
+                    push(declaration(item.declaration()));
+                }
+            }
+        }
+        return node(NodeKind.BLOCK, -1, 0, line(ctx), mark);
+    }
+
+    private int statement(CParser.StatementContext ctx) {
+        if (ctx == null) {
+            return unsupported(null, 0);
+        }
+        if (ctx.expressionStatement() != null) {
+            int mark = top;
+            if (ctx.expressionStatement().expression() != null) {
+                push(expression(ctx.expressionStatement().expression()));
+            }
+            return node(NodeKind.EXPRESSION_STATEMENT, -1, 0, line(ctx), mark);
+        } else if (ctx.compoundStatement() != null) {
+            return compoundStatement(ctx.compoundStatement());
+        } else if (ctx.selectionStatement() != null) {
+            return selectionStatement(ctx.selectionStatement());
+        } else if (ctx.iterationStatement() != null) {
+            return iterationStatement(ctx.iterationStatement());
+        } else if (ctx.jumpStatement() != null) {
+            return jumpStatement(ctx.jumpStatement());
+        } else if (ctx.labeledStatement() != null) {
+            return labeledStatement(ctx.labeledStatement());
+        }
+        return unsupported(ctx, line(ctx));
+    }
+
+    private int selectionStatement(CParser.SelectionStatementContext ctx) {
+        int mark = top;
+        push(expression(ctx.expression()));
+        push(statement(ctx.statement(0)));
+        if (ctx.Switch() != null) {
+            return node(NodeKind.SWITCH, -1, 0, line(ctx), mark);
+        }
+        if (ctx.Else() != null) {
+            push(statement(ctx.statement(1)));
+        }
+        return node(NodeKind.IF, -1, 0, line(ctx), mark);
+    }
+
+    private int iterationStatement(CParser.IterationStatementContext ctx) {
+        int mark = top;
+        if (ctx.For() != null && ctx.forCondition() != null) {
+            // Sections of the for header are separated by ';'
+            int[] sections = {-1, -1, -1};
+            int section = 0;
+            for (ParseTree child : ctx.forCondition().children) {
+                if (tokenType(child) == CParser.Semi) {
+                    section++;
+                } else if (child instanceof CParser.ForDeclarationContext) {
+                    CParser.ForDeclarationContext declaration = (CParser.ForDeclarationContext) child;
+                    sections[section] = declarators(declaration.declarationSpecifiers().declarationSpecifier(),
+                        declaration.initDeclaratorList(), line(declaration));
+                } else {
+                    sections[section] = expression(child);
+                }
+            }
+            for (int part : sections) {
+                push(part >= 0 ? part : leaf(NodeKind.EMPTY, -1, 0, ctx));
+            }
+            push(statement(ctx.statement()));
+            return node(NodeKind.FOR, -1, 0, line(ctx), mark);
+        }
+        if (ctx.Do() != null) {
+            push(statement(ctx.statement()));
+            push(expression(ctx.expression()));
+            return node(NodeKind.DO_WHILE, -1, 0, line(ctx), mark);
+        }
+        push(expression(ctx.expression()));
+        push(statement(ctx.statement()));
+        return node(NodeKind.WHILE, -1, 0, line(ctx), mark);
+    }
+
+    private int jumpStatement(CParser.JumpStatementContext ctx) {
+        if (ctx.Return() != null) {
+            int mark = top;
+            if (ctx.expression() != null) {
+                push(expression(ctx.expression()));
+            }
+            return node(NodeKind.RETURN, -1, 0, line(ctx), mark);
+        } else if (ctx.Break() != null) {
+            return leaf(NodeKind.BREAK, -1, 0, ctx);
+        } else if (ctx.Continue() != null) {
+            return leaf(NodeKind.CONTINUE, -1, 0, ctx);
+        } else if (ctx.Identifier() != null) {
+            return leaf(NodeKind.GOTO, names.intern(ctx.Identifier().getText()), 0, ctx);
+        }
+        // Computed goto
+        return unsupported(ctx, line(ctx));
+    }
+
+    private int labeledStatement(CParser.LabeledStatementContext ctx) {
+        int mark = top;
+        if (ctx.Case() != null) {
+            push(expression(ctx.constantExpression()));
+            push(statement(ctx.statement()));
+            return node(NodeKind.CASE, -1, 0, line(ctx), mark);
+        }
+        if (ctx.statement() != null) {
+            push(statement(ctx.statement()));
+        }
+        if (ctx.Default() != null) {
+            return node(NodeKind.DEFAULT, -1, 0, line(ctx), mark);
+        }
+        return node(NodeKind.LABEL, names.intern(ctx.Identifier().getText()), 0, line(ctx), mark);
+    }
+
+    // Expressions
+
+    private int expression(ParseTree tree) {
+        if (!(tree instanceof ParserRuleContext)) {
+            // Missing or erroneous operand left by error recovery
+            return unsupported(tree, 0);
+        }
+        ParserRuleContext ctx = (ParserRuleContext) tree;
+        switch (ctx.getRuleIndex()) {
+            case CParser.RULE_expression:
+            case CParser.RULE_forExpression:
+                if (ctx.getChildCount() == 1) {
+                    return expression(ctx.getChild(0));
+                }
+                return list(NodeKind.COMMA, ctx);
+            case CParser.RULE_constantExpression:
+                return expression(ctx.getChild(0));
+            case CParser.RULE_assignmentExpression:
+                return assignmentExpression((CParser.AssignmentExpressionContext) ctx);
+            case CParser.RULE_conditionalExpression:
+                if (ctx.getChildCount() == 1) {
+                    return expression(ctx.getChild(0));
+                }
+                return operands(NodeKind.CONDITIONAL, -1, ctx, 0, 2, 4);
+            case CParser.RULE_logicalOrExpression:
+            case CParser.RULE_logicalAndExpression:
+            case CParser.RULE_inclusiveOrExpression:
+            case CParser.RULE_exclusiveOrExpression:
+            case CParser.RULE_andExpression:
+            case CParser.RULE_equalityExpression:
+            case CParser.RULE_relationalExpression:
+            case CParser.RULE_shiftExpression:
+            case CParser.RULE_additiveExpression:
+            case CParser.RULE_multiplicativeExpression:
+                return binary(ctx);
+            case CParser.RULE_castExpression:
+                return castExpression((CParser.CastExpressionContext) ctx);
+            case CParser.RULE_unaryExpression:
+                return unaryExpression((CParser.UnaryExpressionContext) ctx);
+            case CParser.RULE_postfixExpression:
+                return postfixExpression((CParser.PostfixExpressionContext) ctx);
+            case CParser.RULE_primaryExpression:
+                return primaryExpression((CParser.PrimaryExpressionContext) ctx);
+            default:
+                return unsupported(ctx, line(ctx));
+        }
+    }
+
+    /**
+     * Node whose children are the rule children at the given indexes
+     */
+    private int operands(NodeKind kind, int aux, ParserRuleContext ctx, int... indexes) {
+        int mark = top;
+        for (int index : indexes) {
+            push(expression(ctx.getChild(index)));
+        }
+        return node(kind, -1, aux, line(ctx), mark);
+    }
+
+    /**
+     * Node whose children are the rule's non-token children, such as the operands of ','
+     */
+    private int list(NodeKind kind, ParserRuleContext ctx) {
+        int mark = top;
+        for (ParseTree child : ctx.children) {
+            if (!(child instanceof TerminalNode)) {
+                push(expression(child));
+            }
+        }
+        return node(kind, -1, 0, line(ctx), mark);
+    }
+
+    /**
+     * Folds "operand (op operand)*" left to right
+     */
+    private int binary(ParserRuleContext ctx) {
+        int left = expression(ctx.getChild(0));
+        for (int i = 1; i + 1 < ctx.getChildCount(); i += 2) {
+            int right = expression(ctx.getChild(i + 1));
+            int mark = top;
+            push(left);
+            push(right);
+            left = node(NodeKind.BINARY, -1, tokenType(ctx.getChild(i)), line(ctx), mark);
+        }
+        return left;
+    }
+
+    private int assignmentExpression(CParser.AssignmentExpressionContext ctx) {
+        if (ctx.conditionalExpression() != null) {
+            return expression(ctx.conditionalExpression());
+        }
+        if (ctx.DigitSequence() != null) {
+            return leaf(NodeKind.CONSTANT, names.intern(ctx.DigitSequence().getText()), 0, ctx);
+        }
+        if (ctx.assignmentOperator() == null) {
+            return unsupported(ctx, line(ctx));
+        }
+        int operator = tokenType(ctx.assignmentOperator().getChild(0));
+        return operands(NodeKind.ASSIGN, operator, ctx, 0, 2);
+    }
+
+    private int castExpression(CParser.CastExpressionContext ctx) {
+        if (ctx.unaryExpression() != null) {
+            return expression(ctx.unaryExpression());
+        }
+        if (ctx.DigitSequence() != null) {
+            return leaf(NodeKind.CONSTANT, names.intern(ctx.DigitSequence().getText()), 0, ctx);
+        }
+        int mark = top;
+        push(expression(ctx.castExpression()));
+        return node(NodeKind.CAST, -1, typeNameType(ctx.typeName()), line(ctx), mark);
+    }
+
+    private int unaryExpression(CParser.UnaryExpressionContext ctx) {
+        int count = ctx.getChildCount();
+        int prefixes;
+        int operand;
+        if (ctx.postfixExpression() != null) {
+            prefixes = count - 1;
+            operand = expression(ctx.postfixExpression());
+        } else if (ctx.unaryOperator() != null) {
+            prefixes = count - 2;
+            int mark = top;
+            push(expression(ctx.castExpression()));
+            operand = node(NodeKind.UNARY, -1, tokenType(ctx.unaryOperator().getChild(0)), line(ctx), mark);
+        } else if (ctx.typeName() != null) {
+            // sizeof ( typeName ) or _Alignof ( typeName )
+            prefixes = count - 4;
+            operand = leaf(NodeKind.SIZEOF_TYPE, typeNameType(ctx.typeName()), tokenType(ctx.getChild(count - 4)), ctx);
+        } else {
+            // && label, the address of a label
+            prefixes = count - 2;
+            operand = ast.add(NodeKind.UNSUPPORTED, names.intern("&&" + ctx.getChild(count - 1).getText()), 0, line(ctx));
+        }
+        for (int i = prefixes - 1; i >= 0; i--) {
+            int mark = top;
+            push(operand);
+            operand = node(NodeKind.UNARY, -1, tokenType(ctx.getChild(i)), line(ctx), mark);
+        }
+        return operand;
+    }
+
+    private int postfixExpression(CParser.PostfixExpressionContext ctx) {
+        int i;
+        int result;
+        if (ctx.primaryExpression() != null) {
+            result = expression(ctx.primaryExpression());
+            i = 1;
+        } else {
+            // Compound literal: (type) { initializers }
+            i = 0;
+            StringBuilder text = new StringBuilder();
+            while (i < ctx.getChildCount() && tokenType(ctx.getChild(i)) != CParser.RightBrace) {
+                text.append(ctx.getChild(i++).getText());
+            }
+            text.append('}');
+            i++;
+            result = ast.add(NodeKind.UNSUPPORTED, names.intern(text.toString()), 0, line(ctx));
+        }
+
+        int count = ctx.getChildCount();
+        while (i < count) {
+            int type = tokenType(ctx.getChild(i));
+            int mark = top;
+            push(result);
+            if (type == CParser.LeftBracket) {
+                push(expression(ctx.getChild(i + 1)));
+                result = node(NodeKind.INDEX, -1, 0, line(ctx), mark);
+                i += 3;
+            } else if (type == CParser.LeftParen) {
+                if (ctx.getChild(i + 1) instanceof CParser.ArgumentExpressionListContext) {
+                    for (ParseTree argument : ((CParser.ArgumentExpressionListContext) ctx.getChild(i + 1)).children) {
+                        if (!(argument instanceof TerminalNode)) {
+                            push(expression(argument));
+                        }
+                    }
+                    i++;
+                }
+                result = node(NodeKind.CALL, -1, 0, line(ctx), mark);
+                i += 2;
+            } else if (type == CParser.Dot || type == CParser.Arrow) {
+                result = node(NodeKind.MEMBER, names.intern(ctx.getChild(i + 1).getText()), type, line(ctx), mark);
+                i += 2;
+            } else {
+                result = node(NodeKind.POSTFIX, -1, type, line(ctx), mark);
+                i++;
+            }
+        }
+        return result;
+    }
+
+    private int primaryExpression(CParser.PrimaryExpressionContext ctx) {
+        if (ctx.Identifier() != null) {
+            return leaf(NodeKind.IDENTIFIER, names.intern(ctx.Identifier().getText()), 0, ctx);
+        } else if (ctx.Constant() != null) {
+            return leaf(NodeKind.CONSTANT, names.intern(ctx.Constant().getText()), 0, ctx);
+        } else if (!ctx.StringLiteral().isEmpty()) {
+            return leaf(NodeKind.STRING, names.intern(ctx.getText()), 0, ctx);
+        } else if (ctx.expression() != null && ctx.compoundStatement() == null) {
+            return expression(ctx.expression());
+        }
+        return unsupported(ctx, line(ctx));
+    }
+}
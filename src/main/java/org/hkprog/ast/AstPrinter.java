@@ -0,0 +1,238 @@
+package org.hkprog.ast;
+
+import org.hkprog.antlr.CLexer;
+import org.hkprog.antlr.CParser;
+
+/**
+ * Renders {@link CompactAst} nodes, either back to compact C source with only the
+ * parentheses the precedence rules need, or as an S-expression for debugging and tests
+ */
+public class AstPrinter {
+
+    private static final int COMMA = 1;
+    private static final int ASSIGNMENT = 2;
+    private static final int CONDITIONAL = 3;
+    private static final int UNARY = 14;
+    private static final int POSTFIX = 15;
+    private static final int PRIMARY = 16;
+
+    /**
+     * C source of an expression or initializer, without whitespace, like ParseTree.getText()
+     */
+    public static String source(CompactAst ast, int node) {
+        StringBuilder text = new StringBuilder();
+        source(ast, node, text);
+        return text.toString();
+    }
+
+    private static void source(CompactAst ast, int node, StringBuilder text) {
+        switch (ast.kind(node)) {
+            case IDENTIFIER:
+            case CONSTANT:
+            case STRING:
+            case UNSUPPORTED:
+                text.append(ast.name(node));
+                break;
+            case BINARY: {
+                int precedence = precedence(ast, node);
+                operand(ast, ast.child(node, 0), precedence, text);
+                text.append(operator(ast.aux(node)));
+                operand(ast, ast.child(node, 1), precedence + 1, text);
+                break;
+            }
+            case ASSIGN:
+                operand(ast, ast.child(node, 0), UNARY, text);
+                text.append(operator(ast.aux(node)));
+                operand(ast, ast.child(node, 1), ASSIGNMENT, text);
+                break;
+            case CONDITIONAL:
+                operand(ast, ast.child(node, 0), CONDITIONAL + 1, text);
+                text.append('?');
+                operand(ast, ast.child(node, 1), COMMA, text);
+                text.append(':');
+                operand(ast, ast.child(node, 2), CONDITIONAL, text);
+                break;
+            case COMMA:
+                for (int i = 0; i < ast.childCount(node); i++) {
+                    if (i > 0) {
+                        text.append(',');
+                    }
+                    operand(ast, ast.child(node, i), ASSIGNMENT, text);
+                }
+                break;
+            case UNARY:
+                text.append(operator(ast.aux(node)));
+                operand(ast, ast.child(node, 0), UNARY, text);
+                break;
+            case POSTFIX:
+                operand(ast, ast.child(node, 0), POSTFIX, text);
+                text.append(operator(ast.aux(node)));
+                break;
+            case CAST:
+                text.append('(').append(CompactAst.typeOf(ast.aux(node)).getName()).append(')');
+                operand(ast, ast.child(node, 0), UNARY, text);
+                break;
+            case SIZEOF_TYPE:
+                text.append(operator(ast.aux(node))).append('(').append(CompactAst.typeOf(ast.value(node)).getName()).append(')');
+                break;
+            case CALL:
+                operand(ast, ast.child(node, 0), POSTFIX, text);
+                text.append('(');
+                for (int i = 1; i < ast.childCount(node); i++) {
+                    if (i > 1) {
+                        text.append(',');
+                    }
+                    operand(ast, ast.child(node, i), ASSIGNMENT, text);
+                }
+                text.append(')');
+                break;
+            case INDEX:
+                operand(ast, ast.child(node, 0), POSTFIX, text);
+                text.append('[');
+                source(ast, ast.child(node, 1), text);
+                text.append(']');
+                break;
+            case MEMBER:
+                operand(ast, ast.child(node, 0), POSTFIX, text);
+                text.append(operator(ast.aux(node))).append(ast.name(node));
+                break;
+            case INIT_LIST:
+                text.append('{');
+                for (int i = 0; i < ast.childCount(node); i++) {
+                    if (i > 0) {
+                        text.append(',');
+                    }
+                    source(ast, ast.child(node, i), text);
+                }
+                text.append('}');
+                break;
+            case DESIGNATED:
+                text.append(ast.name(node));
+                source(ast, ast.child(node, 0), text);
+                break;
+            default:
+                text.append(tree(ast, node));
+                break;
+        }
+    }
+
+    /**
+     * Prints an operand, parenthesized if it binds less tightly than the context requires
+     */
+    private static void operand(CompactAst ast, int node, int required, StringBuilder text) {
+        if (precedence(ast, node) < required) {
+            text.append('(');
+            source(ast, node, text);
+            text.append(')');
+        } else {
+            source(ast, node, text);
+        }
+    }
+
+    private static int precedence(CompactAst ast, int node) {
+        switch (ast.kind(node)) {
+            case COMMA:
+                return COMMA;
+            case ASSIGN:
+                return ASSIGNMENT;
+            case CONDITIONAL:
+                return CONDITIONAL;
+            case BINARY:
+                return binaryPrecedence(ast.aux(node));
+            case UNARY:
+            case CAST:
+            case SIZEOF_TYPE:
+                return UNARY;
+            case POSTFIX:
+            case CALL:
+            case INDEX:
+            case MEMBER:
+                return POSTFIX;
+            default:
+                return PRIMARY;
+        }
+    }
+
+    public static int binaryPrecedence(int operator) {
+        switch (operator) {
+            case CParser.OrOr: return 4;
+            case CParser.AndAnd: return 5;
+            case CParser.Or: return 6;
+            case CParser.Caret: return 7;
+            case CParser.And: return 8;
+            case CParser.Equal:
+            case CParser.NotEqual: return 9;
+            case CParser.Less:
+            case CParser.Greater:
+            case CParser.LessEqual:
+            case CParser.GreaterEqual: return 10;
+            case CParser.LeftShift:
+            case CParser.RightShift: return 11;
+            case CParser.Plus:
+            case CParser.Minus: return 12;
+            default: return 13;
+        }
+    }
+
+    /**
+     * Source text of an operator token type
+     */
+    public static String operator(int tokenType) {
+        String literal = CLexer.VOCABULARY.getLiteralName(tokenType);
+        return literal.substring(1, literal.length() - 1);
+    }
+
+    /**
+     * S-expression of a subtree, e.g. {@code (RETURN (BINARY + (IDENTIFIER a) (CONSTANT 1)))}
+     */
+    public static String tree(CompactAst ast, int node) {
+        StringBuilder text = new StringBuilder();
+        tree(ast, node, text);
+        return text.toString();
+    }
+
+    private static void tree(CompactAst ast, int node, StringBuilder text) {
+        NodeKind kind = ast.kind(node);
+        text.append('(').append(kind);
+        switch (kind) {
+            case FUNCTION:
+            case PARAMETER:
+            case VARIABLE:
+            case PROTOTYPE:
+                text.append(' ').append(ast.value(node) < 0 ? "_" : ast.name(node))
+                    .append(':').append(CompactAst.typeOf(ast.aux(node)).getName());
+                break;
+            case LABEL:
+            case GOTO:
+            case IDENTIFIER:
+            case CONSTANT:
+            case STRING:
+            case DESIGNATED:
+            case UNSUPPORTED:
+                text.append(' ').append(ast.name(node));
+                break;
+            case BINARY:
+            case UNARY:
+            case POSTFIX:
+            case ASSIGN:
+                text.append(' ').append(operator(ast.aux(node)));
+                break;
+            case MEMBER:
+                text.append(' ').append(operator(ast.aux(node))).append(ast.name(node));
+                break;
+            case CAST:
+                text.append(' ').append(CompactAst.typeOf(ast.aux(node)).getName());
+                break;
+            case SIZEOF_TYPE:
+                text.append(' ').append(operator(ast.aux(node))).append(' ').append(CompactAst.typeOf(ast.value(node)).getName());
+                break;
+            default:
+                break;
+        }
+        for (int i = 0; i < ast.childCount(node); i++) {
+            text.append(' ');
+            tree(ast, ast.child(node, i), text);
+        }
+        text.append(')');
+    }
+}
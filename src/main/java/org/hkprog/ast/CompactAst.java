@@ -0,0 +1,146 @@
+package org.hkprog.ast;
+
+import org.hkprog.ir.IRType;
+
+import java.util.Arrays;
+
+/**
+ * Abstract syntax tree stored in parallel primitive arrays, indexed by node id. Unlike the
+ * ANTLR parse tree it keeps no tokens and no single-child precedence levels: a primary
+ * expression is one node, not a chain of fifteen contexts. Nodes are added children first,
+ * so every node's children have smaller ids, and the children of one node are contiguous
+ * in the {@code children} array.
+ */
+public class CompactAst {
+
+    /** Type word bits holding the {@link IRType} ordinal */
+    public static final int TYPE_MASK = 0xFF;
+    public static final int EXTERN = 0x100;
+    public static final int STATIC = 0x200;
+    public static final int TYPEDEF = 0x400;
+    /**
+     * Marks an array variable: the type word is that of a pointer to the element type, and
+     * the VARIABLE node's first child is the length expression (EMPTY for {@code []})
+     */
+    public static final int ARRAY = 0x800;
+    /** Position of the pointed-to {@link IRType} ordinal in the type word of a pointer */
+    public static final int POINTEE_SHIFT = 16;
+    /** aux of an UNSUPPORTED node that stands for a part of the tree left broken by a syntax error */
+    public static final int RECOVERED = 1;
+
+    private static final NodeKind[] KINDS = NodeKind.values();
+
+    private NameTable names;
+    private byte[] kinds;
+    private int[] values;
+    private int[] aux;
+    private int[] lines;
+    private int[] childStart;
+    private int[] childCount;
+    private int[] children;
+    private int size;
+    private int childrenSize;
+    private int root = -1;
+
+    public CompactAst(NameTable names) {
+        this(names, 64);
+    }
+
+    public CompactAst(NameTable names, int capacity) {
+        this.names = names;
+        this.kinds = new byte[capacity];
+        this.values = new int[capacity];
+        this.aux = new int[capacity];
+        this.lines = new int[capacity];
+        this.childStart = new int[capacity];
+        this.childCount = new int[capacity];
+        this.children = new int[capacity];
+    }
+
+    public static int typeWord(IRType type, int flags) {
+        return type.ordinal() | flags;
+    }
+
+    public static IRType typeOf(int typeWord) {
+        return IRType.values()[typeWord & TYPE_MASK];
+    }
+
+    /**
+     * Type word of a pointer to the given type; pointers to pointers keep POINTER as pointee
+     */
+    public static int pointerTo(int typeWord) {
+        return (typeWord & ~(TYPE_MASK | TYPE_MASK << POINTEE_SHIFT)) | IRType.POINTER.ordinal()
+            | (typeWord & TYPE_MASK) << POINTEE_SHIFT;
+    }
+
+    /**
+     * Type a pointer's type word points to
+     */
+    public static IRType pointeeOf(int typeWord) {
+        return IRType.values()[typeWord >>> POINTEE_SHIFT & TYPE_MASK];
+    }
+
+    /**
+     * Adds a node whose children are {@code count} ids of {@code nodes} starting at {@code from}
+     *
+     * @return the new node's id
+     */
+    public int add(NodeKind kind, int value, int aux, int line, int[] nodes, int from, int count) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            this.aux = Arrays.copyOf(this.aux, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            childStart = Arrays.copyOf(childStart, capacity);
+            childCount = Arrays.copyOf(childCount, capacity);
+        }
+        if (childrenSize + count > children.length) {
+            children = Arrays.copyOf(children, Math.max(children.length * 2, childrenSize + count));
+        }
+        System.arraycopy(nodes, from, children, childrenSize, count);
+        int node = size++;
+        kinds[node] = (byte) kind.ordinal();
+        values[node] = value;
+        this.aux[node] = aux;
+        lines[node] = line;
+        childStart[node] = childrenSize;
+        childCount[node] = count;
+        childrenSize += count;
+        return node;
+    }
+
+    public int add(NodeKind kind, int value, int aux, int line) {
+        return add(kind, value, aux, line, children, 0, 0);
+    }
+
+    public NodeKind kind(int node) { return KINDS[kinds[node]]; }
+    public int value(int node) { return values[node]; }
+    public int aux(int node) { return aux[node]; }
+    public int line(int node) { return lines[node]; }
+    public int childCount(int node) { return childCount[node]; }
+
+    public int child(int node, int index) {
+        return children[childStart[node] + index];
+    }
+
+    /**
+     * The name or literal text a node's value refers to
+     */
+    public String name(int node) {
+        return values[node] < 0 ? null : names.get(values[node]);
+    }
+
+    public NameTable getNames() { return names; }
+    public int size() { return size; }
+    public int getRoot() { return root; }
+    public void setRoot(int root) { this.root = root; }
+
+    /**
+     * Approximate heap footprint of the node arrays in bytes
+     */
+    public long footprint() {
+        return kinds.length + 4L * (values.length + aux.length + lines.length + childStart.length
+            + childCount.length + children.length);
+    }
+}
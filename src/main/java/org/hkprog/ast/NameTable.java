@@ -0,0 +1,44 @@
+package org.hkprog.ast;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns identifiers and literal texts, so AST nodes refer to them by dense int ids and
+ * equal names compare with ==. One table can be shared by the ASTs of several declarations.
+ */
+public class NameTable {
+    private String[] names = new String[64];
+    private Map<String, Integer> ids = new HashMap<>();
+    private int size;
+
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+            }
+            id = size;
+            names[size++] = name;
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of a name, or -1 if it was never interned
+     */
+    public int lookup(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String get(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,89 @@
+package org.hkprog.ast;
+
+/**
+ * Kinds of {@link CompactAst} nodes. Each node has two integer payloads, value and aux, whose
+ * meaning depends on the kind; names, constants and string literals are stored as
+ * {@link NameTable} ids, operators as {@link org.hkprog.antlr.CLexer} token types and types as
+ * type words (see {@link CompactAst#typeWord}).
+ */
+public enum NodeKind {
+    /** Children: the external declarations */
+    TRANSLATION_UNIT,
+    /** value: name, aux: return type word. Children: PARAMETER nodes, then the BLOCK body */
+    FUNCTION,
+    /** value: name or -1, aux: type word */
+    PARAMETER,
+    /** One declaration statement. Children: VARIABLE and PROTOTYPE nodes */
+    DECLARATION,
+    /** value: name, aux: type word. Children: the length of an ARRAY, then the initializer, if any */
+    VARIABLE,
+    /** Function declaration. value: name, aux: return type word */
+    PROTOTYPE,
+
+    /** Children: statements and DECLARATION nodes */
+    BLOCK,
+    /** Children: the expression, if any */
+    EXPRESSION_STATEMENT,
+    /** Children: condition, then statement, optional else statement */
+    IF,
+    /** Children: condition, body */
+    WHILE,
+    /** Children: body, condition */
+    DO_WHILE,
+    /** Children: initializer (expression, DECLARATION or EMPTY), condition or EMPTY, step or EMPTY, body */
+    FOR,
+    /** Children: controlling expression, body */
+    SWITCH,
+    /** Children: constant expression, statement */
+    CASE,
+    /** Children: statement */
+    DEFAULT,
+    /** value: label name. Children: the statement, if any */
+    LABEL,
+    /** value: label name */
+    GOTO,
+    BREAK,
+    CONTINUE,
+    /** Children: the value, if any */
+    RETURN,
+    /** Placeholder for an omitted part of a statement */
+    EMPTY,
+
+    /** value: name */
+    IDENTIFIER,
+    /** value: literal text */
+    CONSTANT,
+    /** value: literal text, adjacent literals concatenated */
+    STRING,
+    /** aux: operator token type. Children: left, right */
+    BINARY,
+    /** Prefix operator, including ++, -- and sizeof. aux: operator token type. Children: operand */
+    UNARY,
+    /** Postfix ++ or --. aux: operator token type. Children: operand */
+    POSTFIX,
+    /** Simple or compound assignment. aux: operator token type. Children: target, value */
+    ASSIGN,
+    /** Children: condition, then value, else value */
+    CONDITIONAL,
+    /** Children: the expressions, in order */
+    COMMA,
+    /** Children: callee, then the arguments */
+    CALL,
+    /** Children: array, index */
+    INDEX,
+    /** value: member name, aux: '.' or '->' token type. Children: the object */
+    MEMBER,
+    /** aux: target type word. Children: operand */
+    CAST,
+    /** sizeof or _Alignof applied to a type. aux: operator token type, value: type word */
+    SIZEOF_TYPE,
+    /** Braced initializer. Children: the initializers */
+    INIT_LIST,
+    /** Designated initializer. value: designation text. Children: the initializer */
+    DESIGNATED,
+    /**
+     * Construct the compiler does not model yet, or a hole left by parser error recovery.
+     * value: its source text, aux: {@link CompactAst#RECOVERED} for an error recovery hole
+     */
+    UNSUPPORTED
+}
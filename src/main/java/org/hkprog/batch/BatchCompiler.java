@@ -0,0 +1,168 @@
+package org.hkprog.batch;
+
+import org.hkprog.CCompiler;
+import org.hkprog.CompilerOptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles many translation units in one invocation on a work-stealing pool. Every file runs
+ * its own independent lexer, IR generator, code generator and ELF writer, so a failure in one
+ * file never affects the others. The run ends with an aggregate timing summary.
+ */
+public class BatchCompiler {
+    private CompilerOptions options;
+    private int parallelism;
+    private boolean verbose;
+    private PrintStream out;
+    private PrintStream err;
+
+    public BatchCompiler(CompilerOptions options, int parallelism, boolean verbose, PrintStream out, PrintStream err) {
+        this.options = options;
+        this.parallelism = parallelism;
+        this.verbose = verbose;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Expands the command line inputs into jobs. Each input is either a C source file or
+     * {@code @manifest}, a text file listing one {@code <input> [output]} pair per line
+     * ({@code #} starts a comment). Without an explicit output the object is written next
+     * to the source, or into {@code outputDirectory} if one is given, with a {@code .out} suffix.
+     */
+    public static List<BatchJob> collectJobs(List<String> inputs, Path workingDirectory, Path outputDirectory) throws IOException {
+        List<BatchJob> jobs = new ArrayList<>();
+        for (String input : inputs) {
+            if (input.startsWith("@")) {
+                Path manifest = workingDirectory.resolve(input.substring(1));
+                Path manifestDirectory = manifest.toAbsolutePath().getParent();
+                for (String line : Files.readAllLines(manifest)) {
+                    int comment = line.indexOf('#');
+                    if (comment >= 0) {
+                        line = line.substring(0, comment);
+                    }
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields[0].isEmpty()) {
+                        continue;
+                    }
+                    Path source = manifestDirectory.resolve(fields[0]);
+                    Path output = fields.length > 1 ? manifestDirectory.resolve(fields[1]) : defaultOutput(source, outputDirectory);
+                    jobs.add(new BatchJob(source, output));
+                }
+            } else {
+                Path source = workingDirectory.resolve(input);
+                jobs.add(new BatchJob(source, defaultOutput(source, outputDirectory)));
+            }
+        }
+        return jobs;
+    }
+
+    private static Path defaultOutput(Path source, Path outputDirectory) {
+        String name = source.getFileName().toString();
+        if (name.endsWith(".c")) {
+            name = name.substring(0, name.length() - 2);
+        }
+        Path directory = outputDirectory != null ? outputDirectory : source.toAbsolutePath().getParent();
+        return directory.resolve(name + ".out");
+    }
+
+    /**
+     * Compiles all jobs and prints a summary.
+     *
+     * @return the number of jobs that failed
+     */
+    public int compileAll(List<BatchJob> jobs) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long start = System.nanoTime();
+        try {
+            List<Future<BatchResult>> futures = new ArrayList<>();
+            for (BatchJob job : jobs) {
+                futures.add(pool.submit(() -> compileOne(job)));
+            }
+
+            List<BatchResult> results = new ArrayList<>();
+            for (Future<BatchResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // compileOne never throws, but keep the run going if it somehow does
+                    err.println("Batch worker failed: " + e.getCause());
+                }
+            }
+            long wallNanos = System.nanoTime() - start;
+
+            printSummary(results, jobs.size(), wallNanos);
+            return jobs.size() - (int) results.stream().filter(BatchResult::isSuccess).count();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private BatchResult compileOne(BatchJob job) {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        PrintStream logStream = new PrintStream(log, true, StandardCharsets.UTF_8);
+        CCompiler compiler = new CCompiler(options, logStream, logStream);
+
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            compiler.compile(job.getSource().toString(), job.getOutput().toString());
+        } catch (Exception | StackOverflowError | OutOfMemoryError e) {
+            failure = e;
+        }
+        BatchResult result = new BatchResult(job, System.nanoTime() - start, failure);
+
+        // Print each file's report in one piece so concurrent files do not interleave
+        synchronized (out) {
+            out.printf("%s %s (%.2f ms)%n", result.isSuccess() ? "ok    " : "FAILED", job.getSource(), result.getNanos() / 1e6);
+            if (verbose || !result.isSuccess()) {
+                out.print(log.toString(StandardCharsets.UTF_8));
+            }
+            if (!result.isSuccess()) {
+                out.println("    " + failure);
+            }
+        }
+        return result;
+    }
+
+    private void printSummary(List<BatchResult> results, int jobCount, long wallNanos) {
+        long totalNanos = 0;
+        BatchResult slowest = null;
+        int failed = jobCount - results.size();
+        for (BatchResult result : results) {
+            totalNanos += result.getNanos();
+            if (!result.isSuccess()) {
+                failed++;
+            }
+            if (slowest == null || result.getNanos() > slowest.getNanos()) {
+                slowest = result;
+            }
+        }
+        double wallMillis = wallNanos / 1e6;
+
+        out.println("\n=== Batch Summary ===");
+        out.printf("Files:          %d (%d succeeded, %d failed)%n", jobCount, jobCount - failed, failed);
+        out.printf("Parallelism:    %d%n", parallelism);
+        out.printf("Wall time:      %.2f ms%n", wallMillis);
+        out.printf("Compile time:   %.2f ms (sum over files)%n", totalNanos / 1e6);
+        if (wallNanos > 0) {
+            out.printf("Speedup:        %.2fx%n", (double) totalNanos / wallNanos);
+            out.printf("Throughput:     %.1f files/s%n", jobCount / (wallMillis / 1000.0));
+        }
+        if (slowest != null) {
+            out.printf("Slowest file:   %s (%.2f ms)%n", slowest.getJob().getSource(), slowest.getNanos() / 1e6);
+        }
+        out.println("=====================");
+    }
+}
@@ -0,0 +1,19 @@
+package org.hkprog.batch;
+
+import java.nio.file.Path;
+
+/**
+ * One translation unit to compile in a batch
+ */
+public class BatchJob {
+    private Path source;
+    private Path output;
+
+    public BatchJob(Path source, Path output) {
+        this.source = source;
+        this.output = output;
+    }
+
+    public Path getSource() { return source; }
+    public Path getOutput() { return output; }
+}
@@ -0,0 +1,21 @@
+package org.hkprog.batch;
+
+/**
+ * Outcome and timing of one translation unit in a batch
+ */
+public class BatchResult {
+    private BatchJob job;
+    private long nanos;
+    private Throwable failure;
+
+    public BatchResult(BatchJob job, long nanos, Throwable failure) {
+        this.job = job;
+        this.nanos = nanos;
+        this.failure = failure;
+    }
+
+    public BatchJob getJob() { return job; }
+    public long getNanos() { return nanos; }
+    public Throwable getFailure() { return failure; }
+    public boolean isSuccess() { return failure == null; }
+}
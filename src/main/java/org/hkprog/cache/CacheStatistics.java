@@ -0,0 +1,34 @@
+package org.hkprog.cache;
+
+/**
+ * Hit/miss counters of a compilation cache
+ */
+public class CacheStatistics {
+    private long hits;
+    private long misses;
+    private long stores;
+    private long evictions;
+
+    public CacheStatistics(long hits, long misses, long stores, long evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.stores = stores;
+        this.evictions = evictions;
+    }
+
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public long getStores() { return stores; }
+    public long getEvictions() { return evictions; }
+
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d stores, %d evictions",
+            hits, misses, getHitRate() * 100, stores, evictions);
+    }
+}
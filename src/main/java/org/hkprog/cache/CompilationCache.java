@@ -0,0 +1,323 @@
+package org.hkprog.cache;
+
+import org.hkprog.codegen.AssemblyProgram;
+import org.hkprog.ir.IRProgram;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent, content-addressed cache of compilation results.
+ *
+ * Entries are keyed by a SHA-256 hash of the compiler version, the output-affecting options and
+ * the source bytes, and live under {@code objects/xx/<key>.elf}, optionally with serialized
+ * {@code .ir} and {@code .asm} intermediates next to them. Every file is written to a temporary
+ * name in the same directory and atomically renamed into place, so concurrent compiler
+ * processes sharing a cache never observe partial entries. A hit refreshes the entry's
+ * modification time, which is what the size-bounded LRU eviction orders by.
+ */
+public class CompilationCache {
+
+    private static final Map<Path, CompilationCache> OPEN_CACHES = new ConcurrentHashMap<>();
+
+    private static final String ELF_SUFFIX = ".elf";
+    private static final String IR_SUFFIX = ".ir";
+    private static final String ASSEMBLY_SUFFIX = ".asm";
+
+    private Path directory;
+    private Path objects;
+    private long maxBytes;
+
+    private AtomicLong hits;
+    private AtomicLong misses;
+    private AtomicLong stores;
+    private AtomicLong evictions;
+
+    public CompilationCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.objects = directory.resolve("objects");
+        this.maxBytes = maxBytes;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.stores = new AtomicLong();
+        this.evictions = new AtomicLong();
+        Files.createDirectories(objects);
+    }
+
+    /**
+     * Returns the cache for a directory, shared by all compilations in this process so that
+     * batch runs and the compile server report aggregated statistics
+     */
+    public static CompilationCache forDirectory(Path directory, long maxBytes) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        CompilationCache cache = OPEN_CACHES.get(key);
+        if (cache == null) {
+            cache = new CompilationCache(key, maxBytes);
+            CompilationCache existing = OPEN_CACHES.putIfAbsent(key, cache);
+            if (existing != null) {
+                cache = existing;
+            }
+        }
+        return cache;
+    }
+
+    public static String computeKey(String compilerVersion, String optionsFingerprint, byte[] source) {
+        return computeKey(compilerVersion, optionsFingerprint, ByteBuffer.wrap(source));
+    }
+
+    /**
+     * Same as {@link #computeKey(String, String, byte[])}, for a source that is memory-mapped
+     */
+    public static String computeKey(String compilerVersion, String optionsFingerprint, ByteBuffer source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(compilerVersion.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(optionsFingerprint.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Looks up the ELF image for a key.
+     *
+     * @return the cached image, or null on a miss
+     */
+    public byte[] lookup(String key) {
+        Path elf = entryPath(key, ELF_SUFFIX);
+        try {
+            byte[] image = Files.readAllBytes(elf);
+            touch(elf);
+            hits.incrementAndGet();
+            recordPersistentStats(1, 0, 0, 0);
+            return image;
+        } catch (IOException e) {
+            // Missing, or evicted by another process between listing and reading
+            misses.incrementAndGet();
+            recordPersistentStats(0, 1, 0, 0);
+            return null;
+        }
+    }
+
+    public IRProgram loadIR(String key) {
+        return (IRProgram) readObject(entryPath(key, IR_SUFFIX));
+    }
+
+    public AssemblyProgram loadAssembly(String key) {
+        return (AssemblyProgram) readObject(entryPath(key, ASSEMBLY_SUFFIX));
+    }
+
+    /**
+     * Stores a compilation result. The intermediates may be null. The ELF image is written
+     * last, so an entry only becomes visible once its intermediates are in place.
+     */
+    public void store(String key, byte[] image, IRProgram program, AssemblyProgram assembly) throws IOException {
+        Path elf = entryPath(key, ELF_SUFFIX);
+        Files.createDirectories(elf.getParent());
+
+        if (program != null) {
+            atomicWrite(entryPath(key, IR_SUFFIX), serialize(program));
+        }
+        if (assembly != null) {
+            atomicWrite(entryPath(key, ASSEMBLY_SUFFIX), serialize(assembly));
+        }
+        atomicWrite(elf, image);
+        stores.incrementAndGet();
+        recordPersistentStats(0, 0, 1, 0);
+
+        evictIfNeeded();
+    }
+
+    private Path entryPath(String key, String suffix) {
+        return objects.resolve(key.substring(0, 2)).resolve(key + suffix);
+    }
+
+    private void atomicWrite(Path target, byte[] bytes) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), ".tmp-", null);
+        try {
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects eviction order
+        }
+    }
+
+    private byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+            oos.writeObject(object);
+        }
+        return buffer.toByteArray();
+    }
+
+    private Object readObject(Path path) {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits its size bound. Only one
+     * process evicts at a time; the others skip eviction rather than wait.
+     */
+    private void evictIfNeeded() throws IOException {
+        try (FileChannel lockChannel = FileChannel.open(directory.resolve("evict.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+
+            List<CacheEntry> entries = listEntries();
+            long total = 0;
+            for (CacheEntry entry : entries) {
+                total += entry.size;
+            }
+            if (total <= maxBytes) {
+                return;
+            }
+
+            entries.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+            long evicted = 0;
+            for (CacheEntry entry : entries) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                for (String suffix : new String[] {ELF_SUFFIX, IR_SUFFIX, ASSEMBLY_SUFFIX}) {
+                    Files.deleteIfExists(entryPath(entry.key, suffix));
+                }
+                total -= entry.size;
+                evicted++;
+            }
+            evictions.addAndGet(evicted);
+            recordPersistentStats(0, 0, 0, evicted);
+        } catch (OverlappingFileLockException e) {
+            // Another thread of this process is already evicting
+        }
+    }
+
+    private List<CacheEntry> listEntries() throws IOException {
+        Map<String, CacheEntry> entries = new HashMap<>();
+        try (Stream<Path> files = Files.walk(objects, 2)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (dot <= 0 || name.startsWith(".tmp-")) {
+                    return;
+                }
+                try {
+                    CacheEntry entry = entries.computeIfAbsent(name.substring(0, dot), CacheEntry::new);
+                    entry.size += Files.size(file);
+                    if (name.endsWith(ELF_SUFFIX)) {
+                        entry.lastUsed = Files.getLastModifiedTime(file).toMillis();
+                    }
+                } catch (IOException e) {
+                    // Deleted concurrently
+                }
+            });
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Adds to the hit/miss counters shared by every process using this cache directory. The
+     * file lock excludes other processes, the monitor excludes other threads of this one.
+     */
+    private synchronized void recordPersistentStats(long hitCount, long missCount, long storeCount, long evictionCount) {
+        try (FileChannel channel = FileChannel.open(directory.resolve("stats"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            long[] counters = readCounters(channel);
+            counters[0] += hitCount;
+            counters[1] += missCount;
+            counters[2] += storeCount;
+            counters[3] += evictionCount;
+
+            ByteBuffer buffer = ByteBuffer.allocate(32);
+            for (long counter : counters) {
+                buffer.putLong(counter);
+            }
+            buffer.flip();
+            channel.write(buffer, 0);
+        } catch (IOException | OverlappingFileLockException e) {
+            // Statistics are best effort and must never fail a compilation
+        }
+    }
+
+    private long[] readCounters(FileChannel channel) throws IOException {
+        long[] counters = new long[4];
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        if (channel.read(buffer, 0) == 32) {
+            buffer.flip();
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = buffer.getLong();
+            }
+        }
+        return counters;
+    }
+
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(hits.get(), misses.get(), stores.get(), evictions.get());
+    }
+
+    /**
+     * Statistics accumulated by all processes that have used this cache directory
+     */
+    public synchronized CacheStatistics getPersistentStatistics() {
+        try (FileChannel channel = FileChannel.open(directory.resolve("stats"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            long[] counters = readCounters(channel);
+            return new CacheStatistics(counters[0], counters[1], counters[2], counters[3]);
+        } catch (IOException | OverlappingFileLockException e) {
+            return new CacheStatistics(0, 0, 0, 0);
+        }
+    }
+
+    public Path getDirectory() { return directory; }
+    public long getMaxBytes() { return maxBytes; }
+
+    private static class CacheEntry {
+        private String key;
+        private long size;
+        private long lastUsed;
+
+        CacheEntry(String key) {
+            this.key = key;
+        }
+    }
+}
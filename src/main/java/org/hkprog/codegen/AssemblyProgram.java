@@ -1,11 +1,14 @@
 package org.hkprog.codegen;
 
+import java.io.Serializable;
 import java.util.*;
 
 /**
  * Represents an assembly program with sections and instructions
  */
-public class AssemblyProgram {
+public class AssemblyProgram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private List<AssemblySection> sections;
     private Map<String, String> symbols;
     
@@ -1,14 +1,18 @@
 package org.hkprog.codegen;
 
+import java.io.Serializable;
 import java.util.*;
 
 /**
  * Represents a section in the assembly program
  */
-public class AssemblySection {
+public class AssemblySection implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String name;
     private List<String> instructions;
     private List<Byte> data;
+    private Map<String, Integer> labels;
     private boolean isCode;
     
     public AssemblySection(String name, boolean isCode) {
@@ -16,6 +20,7 @@ public class AssemblySection {
         this.isCode = isCode;
         this.instructions = new ArrayList<>();
         this.data = new ArrayList<>();
+        this.labels = new LinkedHashMap<>();
     }
     
     public void addInstruction(String instruction) {
@@ -28,9 +33,41 @@ public class AssemblySection {
         }
     }
     
+    /**
+     * Pads the data with zero bytes up to a multiple of the alignment
+     */
+    public void align(int alignment) {
+        while (data.size() % alignment != 0) {
+            data.add((byte) 0);
+        }
+    }
+    
+    /**
+     * Defines a label at the current end of the data
+     */
+    public void addLabel(String label) {
+        labels.put(label, data.size());
+    }
+    
+    /**
+     * Appends the instructions, data and labels of another section, aligning its data to 8
+     * bytes and moving its labels along with it
+     */
+    public void append(AssemblySection fragment) {
+        instructions.addAll(fragment.getInstructions());
+        align(8);
+        int base = data.size();
+        for (Map.Entry<String, Integer> label : fragment.getLabels().entrySet()) {
+            labels.put(label.getKey(), base + label.getValue());
+        }
+        data.addAll(fragment.getData());
+    }
+    
     public String getName() { return name; }
     public List<String> getInstructions() { return instructions; }
     public List<Byte> getData() { return data; }
+    /** Offsets of the labels defined in the data, in definition order */
+    public Map<String, Integer> getLabels() { return labels; }
     public boolean isCode() { return isCode; }
     
     public byte[] getDataAsBytes() {
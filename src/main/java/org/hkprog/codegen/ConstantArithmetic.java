@@ -0,0 +1,249 @@
+package org.hkprog.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instruction sequences for multiplying, dividing and taking the remainder of the value in
+ * %rax by a constant, without a slow {@code idiv} and where possible without {@code imul}.
+ * Each sequence leaves its 64-bit result in %rax and may use %rcx and %rdx; values of the
+ * narrower types are held sign-extended, so the caller only narrows the result as it does
+ * after any other arithmetic.
+ *
+ * A multiplication by a power of two is a shift, by 3, 5 or 9 a {@code lea}, and by one
+ * more or one less than a power of two a shift and an add or subtract; these combine, and
+ * anything dearer than two such steps is left to {@code imul}. A division by a power of two
+ * is an arithmetic shift, after adding {@code 2^k - 1} to a negative dividend so that the
+ * quotient is truncated towards zero. Any other division multiplies by a magic number, the
+ * divisor's reciprocal scaled by a power of two (Hacker's Delight, chapter 10), keeping the
+ * high half of the product and then adding one to a negative quotient. A remainder is the
+ * dividend less the quotient times the divisor.
+ */
+public final class ConstantArithmetic {
+
+    /** Most single-cycle instructions worth using in place of one {@code imul} */
+    private static final int MAX_MULTIPLY_STEPS = 2;
+
+    private ConstantArithmetic() {
+    }
+
+    /**
+     * %rax = %rax * factor, wrapping
+     */
+    public static List<String> multiply(long factor) {
+        List<String> code = new ArrayList<>();
+        if (factor == 0) {
+            code.add("mov $0, %rax");
+            return code;
+        }
+        // The magnitude of Long.MIN_VALUE is itself, 2^63 taken as unsigned
+        long magnitude = factor < 0 ? -factor : factor;
+        int shift = Long.numberOfTrailingZeros(magnitude);
+        List<String> odd = multiplyOdd(magnitude >>> shift);
+        if (odd != null && steps(odd) + (shift > 0 ? 1 : 0) + (factor < 0 ? 1 : 0) <= MAX_MULTIPLY_STEPS) {
+            code.addAll(odd);
+            if (shift > 0) {
+                code.add(shiftLeft(shift));
+            }
+            if (factor < 0) {
+                code.add("neg %rax");
+            }
+        } else if (factor == (int) factor) {
+            code.add("imul $" + factor + ", %rax");
+        } else {
+            code.add("movabs $" + factor + ", %rcx");
+            code.add("imul %rcx, %rax");
+        }
+        return code;
+    }
+
+    /**
+     * %rax = %rax / divisor, truncated towards zero; null for a divisor of 0 or
+     * Long.MIN_VALUE, which are left to {@code idiv}
+     */
+    public static List<String> divide(long divisor) {
+        if (divisor == 0 || divisor == Long.MIN_VALUE) {
+            return null;
+        }
+        List<String> code = new ArrayList<>();
+        long magnitude = Math.abs(divisor);
+        if (Long.bitCount(magnitude) == 1) {
+            int shift = Long.numberOfTrailingZeros(magnitude);
+            if (shift > 0) {
+                roundingBias(shift, code);
+                code.add("add %rdx, %rax");
+                code.add("sar $" + shift + ", %rax");
+            }
+            if (divisor < 0) {
+                code.add("neg %rax");
+            }
+        } else {
+            code.add("mov %rax, %rcx");
+            quotient(divisor, code);
+        }
+        return code;
+    }
+
+    /**
+     * %rax = %rax % divisor, with the sign of the dividend; null for a divisor of 0 or
+     * Long.MIN_VALUE, which are left to {@code idiv}
+     */
+    public static List<String> remainder(long divisor) {
+        if (divisor == 0 || divisor == Long.MIN_VALUE) {
+            return null;
+        }
+        List<String> code = new ArrayList<>();
+        long magnitude = Math.abs(divisor);
+        if (magnitude == 1) {
+            code.add("mov $0, %rax");
+        } else if (Long.bitCount(magnitude) == 1) {
+            // ((x + bias) & (2^k - 1)) - bias, whatever the divisor's sign
+            int shift = Long.numberOfTrailingZeros(magnitude);
+            roundingBias(shift, code);
+            code.add("add %rdx, %rax");
+            if (shift < 32) {
+                code.add("and $" + (magnitude - 1) + ", %rax");
+            } else {
+                code.add("shl $" + (64 - shift) + ", %rax");
+                code.add("shr $" + (64 - shift) + ", %rax");
+            }
+            code.add("sub %rdx, %rax");
+        } else {
+            code.add("mov %rax, %rcx");
+            quotient(divisor, code);
+            if (divisor == (int) divisor) {
+                code.add("imul $" + divisor + ", %rax");
+            } else {
+                code.add("movabs $" + divisor + ", %rdx");
+                code.add("imul %rdx, %rax");
+            }
+            code.add("sub %rax, %rcx");
+            code.add("mov %rcx, %rax");
+        }
+        return code;
+    }
+
+    /**
+     * The magic multiplier and shift for a signed 64-bit division by a divisor other than
+     * 0, 1, -1 and Long.MIN_VALUE: {@code n / d == mulhi(n, m) (+ n if d > 0 > m, - n if
+     * d < 0 < m) >> s}, plus one if that is negative
+     */
+    public static long[] magic(long divisor) {
+        final long twoTo63 = Long.MIN_VALUE;
+        long magnitude = Math.abs(divisor);
+        // Unsigned arithmetic throughout; anc is the largest dividend with no error
+        long t = twoTo63 + (divisor >>> 63);
+        long anc = t - 1 - Long.remainderUnsigned(t, magnitude);
+        int p = 63;
+        long q1 = Long.divideUnsigned(twoTo63, anc);
+        long r1 = twoTo63 - q1 * anc;
+        long q2 = Long.divideUnsigned(twoTo63, magnitude);
+        long r2 = twoTo63 - q2 * magnitude;
+        long delta;
+        do {
+            p++;
+            q1 <<= 1;
+            r1 <<= 1;
+            if (Long.compareUnsigned(r1, anc) >= 0) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 <<= 1;
+            r2 <<= 1;
+            if (Long.compareUnsigned(r2, magnitude) >= 0) {
+                q2++;
+                r2 -= magnitude;
+            }
+            delta = magnitude - r2;
+        } while (Long.compareUnsigned(q1, delta) < 0 || q1 == delta && r1 == 0);
+        long multiplier = q2 + 1;
+        return new long[] {divisor < 0 ? -multiplier : multiplier, p - 64};
+    }
+
+    /**
+     * The quotient of the dividend in %rcx by a divisor needing a magic number, into %rax
+     * (and %rdx, as the one-operand {@code imul} writes the high half there)
+     */
+    private static void quotient(long divisor, List<String> code) {
+        long[] magic = magic(divisor);
+        long multiplier = magic[0];
+        int shift = (int) magic[1];
+        code.add((multiplier == (int) multiplier ? "mov $" : "movabs $") + multiplier + ", %rdx");
+        code.add("imul %rdx");
+        if (divisor > 0 && multiplier < 0) {
+            code.add("add %rcx, %rdx");
+        } else if (divisor < 0 && multiplier > 0) {
+            code.add("sub %rcx, %rdx");
+        }
+        if (shift > 0) {
+            code.add("sar $" + shift + ", %rdx");
+        }
+        code.add("mov %rdx, %rax");
+        code.add("shr $63, %rax");
+        code.add("add %rdx, %rax");
+    }
+
+    /**
+     * %rdx = 2^shift - 1 if %rax is negative, else 0
+     */
+    private static void roundingBias(int shift, List<String> code) {
+        code.add("mov %rax, %rdx");
+        if (shift > 1) {
+            code.add("sar $63, %rdx");
+        }
+        code.add("shr $" + (64 - shift) + ", %rdx");
+    }
+
+    /**
+     * Multiplication by an odd factor in at most two steps, or null
+     */
+    private static List<String> multiplyOdd(long factor) {
+        List<String> code = new ArrayList<>();
+        if (factor == 1) {
+            return code;
+        }
+        for (long first : new long[] {3, 5, 9}) {
+            if (factor == first) {
+                code.add(lea(first));
+                return code;
+            }
+            for (long second : new long[] {3, 5, 9}) {
+                if (factor == first * second) {
+                    code.add(lea(first));
+                    code.add(lea(second));
+                    return code;
+                }
+            }
+        }
+        if (Long.bitCount(factor - 1) == 1) {
+            code.add("mov %rax, %rcx");
+            code.add(shiftLeft(Long.numberOfTrailingZeros(factor - 1)));
+            code.add("add %rcx, %rax");
+            return code;
+        }
+        if (Long.bitCount(factor + 1) == 1) {
+            code.add("mov %rax, %rcx");
+            code.add(shiftLeft(Long.numberOfTrailingZeros(factor + 1)));
+            code.add("sub %rcx, %rax");
+            return code;
+        }
+        return null;
+    }
+
+    private static String lea(long factor) {
+        return "lea (%rax,%rax," + (factor - 1) + "), %rax";
+    }
+
+    private static String shiftLeft(int shift) {
+        return shift == 1 ? "add %rax, %rax" : "shl $" + shift + ", %rax";
+    }
+
+    /** Instructions of a sequence that take a cycle, as register copies are nearly free */
+    private static int steps(List<String> code) {
+        int steps = 0;
+        for (String line : code) {
+            steps += line.startsWith("mov %") ? 0 : 1;
+        }
+        return steps;
+    }
+}
@@ -1,124 +1,739 @@
 package org.hkprog.codegen;
 
-import org.hkprog.ir.IRCallInstruction;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.IRBasicBlock;
 import org.hkprog.ir.IRFunction;
-import org.hkprog.ir.IRInstruction;
-import org.hkprog.ir.IRLoadConstantInstruction;
+import org.hkprog.ir.IRGlobalVariable;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
 import org.hkprog.ir.IRProgram;
-import org.hkprog.ir.IRReturnInstruction;
+import org.hkprog.ir.IRType;
 
 /**
- * Generates x86-64 assembly code from intermediate representation
+ * Generates x86-64 assembly code from intermediate representation.
+ *
+ * Every virtual register lives in its own stack slot below the frame pointer, and each
+ * instruction loads its operands into %rax and %rcx, computes, and stores its result back,
+ * sign-extended from its type's width as the IR requires. A phi also gets a shadow slot:
+ * every predecessor writes the phi's incoming value to the shadow before jumping, and the
+ * phi copies it into its own slot at the top of the block, so phis read each other's old
+ * values as SSA demands. Calls follow the System V ABI; a call marked as a tail call
+ * releases the frame first and jumps to the callee instead. Multiplications, divisions
+ * and remainders by constants use the cheaper sequences of {@link ConstantArithmetic}.
+ *
+ * A switch is split into clusters of cases, each tested in one go: a dense run of cases
+ * becomes a jump table, a run within 64 values leading to few targets becomes bit tests
+ * against a mask per target, and any other case is compared on its own. The clusters are
+ * then searched by a balanced binary tree of comparisons. Jump tables follow the function's
+ * code in the read-only text, one absolute address per entry.
  */
 public class X86CodeGenerator {
-    
+    private static final String[] ARGUMENT_REGISTERS = {"%rdi", "%rsi", "%rdx", "%rcx", "%r8", "%r9"};
+    /** Fewest cases worth a jump table, and the share of its entries they must fill */
+    private static final int MIN_TABLE_CASES = 4;
+    private static final int MIN_TABLE_DENSITY_PERCENT = 40;
+    /** Most entries in one jump table */
+    private static final long MAX_TABLE_SIZE = 4096;
+    /** Fewest cases worth testing as bits of a mask, for one, two and three distinct targets */
+    private static final int[] MIN_BIT_TEST_CASES = {3, 5, 6};
+    /** Cluster kinds of a switch */
+    private static final int SINGLE = 0;
+    private static final int TABLE = 1;
+    private static final int BIT_TEST = 2;
+
+    private IRFunction function;
+    private AssemblySection textSection;
+    private AssemblySection dataSection;
+    private int[] slots;
+    private int[] shadows;
+    private int[] allocas;
+    private Map<Integer, String> strings;
+    private int edgeLabels;
+    private List<String> jumpTables;
+
     public AssemblyProgram generate(IRProgram program) {
         AssemblyProgram assembly = new AssemblyProgram();
-        
+
         // Create text section for code
         AssemblySection textSection = new AssemblySection(".text", true);
         assembly.addSection(textSection);
-        
-        // Create data section for string literals
+
+        // Create data section for global variables and string literals
         AssemblySection dataSection = new AssemblySection(".data", false);
         assembly.addSection(dataSection);
-        
+
+        generateStartStub(textSection);
+        for (IRGlobalVariable global : program.getGlobalVariables()) {
+            generateGlobal(global, dataSection);
+        }
+
         // Generate code for each function
         for (IRFunction function : program.getFunctions()) {
             generateFunction(function, textSection, dataSection);
         }
-        
+
         return assembly;
     }
-    
-    private void generateFunction(IRFunction function, AssemblySection textSection, AssemblySection dataSection) {
+
+    /**
+     * Generates the program entry point, which the ELF writer places first: it calls main
+     * and exits with its result
+     */
+    public void generateStartStub(AssemblySection textSection) {
+        textSection.addInstruction(".global _start");
+        textSection.addInstruction("_start:");
+        textSection.addInstruction("    call main");
+        textSection.addInstruction("    mov %rax, %rdi");
+        textSection.addInstruction("    mov $60, %rax");
+        textSection.addInstruction("    syscall");
+    }
+
+    /**
+     * Reserves a global variable in the data section, holding the initial values of its
+     * elements and zero after them
+     */
+    public void generateGlobal(IRGlobalVariable global, AssemblySection dataSection) {
+        int size = global.getStorageSize();
+        int elementSize = Math.max(1, global.getType().getSize());
+        long[] values = global.getConstantValues();
+        dataSection.align(elementSize);
+        dataSection.addLabel(global.getName());
+        byte[] bytes = new byte[size];
+        for (int e = 0; values != null && e < values.length && (e + 1) * elementSize <= size; e++) {
+            for (int i = 0; i < elementSize && i < 8; i++) {
+                bytes[e * elementSize + i] = (byte) (values[e] >> (8 * i));
+            }
+        }
+        dataSection.addData(bytes);
+        dataSection.addInstruction(global.getName() + ": .zero " + size + (values != null ? " # " + global.getInitialValueText() : ""));
+    }
+
+    /**
+     * Generates the code of a single function into the given sections
+     */
+    public void generateFunction(IRFunction function, AssemblySection textSection, AssemblySection dataSection) {
+        this.function = function;
+        this.textSection = textSection;
+        this.dataSection = dataSection;
+        this.strings = new HashMap<>();
+        this.edgeLabels = 0;
+        this.jumpTables = new ArrayList<>();
+        int frameSize = layoutFrame();
+
         // Function label
         textSection.addInstruction(".global " + function.getName());
         textSection.addInstruction(function.getName() + ":");
-        
+
         // Function prologue
-        textSection.addInstruction("    push %rbp");
-        textSection.addInstruction("    mov %rsp, %rbp");
-        
-        // Process instructions
-        for (IRInstruction instr : function.getInstructions()) {
-            generateInstruction(instr, textSection, dataSection);
-        }
-        
-        // Function epilogue (if no explicit return)
-        if (function.getInstructions().isEmpty() || 
-            !(function.getInstructions().get(function.getInstructions().size() - 1) instanceof IRReturnInstruction)) {
-            textSection.addInstruction("    mov %rbp, %rsp");
-            textSection.addInstruction("    pop %rbp");
-            textSection.addInstruction("    ret");
-        }
-    }
-    
-    private void generateInstruction(IRInstruction instr, AssemblySection textSection, AssemblySection dataSection) {
-        if (instr instanceof IRCallInstruction) {
-            generateCallInstruction((IRCallInstruction) instr, textSection, dataSection);
-        } else if (instr instanceof IRReturnInstruction) {
-            generateReturnInstruction((IRReturnInstruction) instr, textSection);
-        } else if (instr instanceof IRLoadConstantInstruction) {
-            generateLoadConstantInstruction((IRLoadConstantInstruction) instr, textSection);
-        }
-    }
-    
-    private void generateCallInstruction(IRCallInstruction callInstr, AssemblySection textSection, AssemblySection dataSection) {
-        String functionName = callInstr.getFunctionName();
-        String[] arguments = callInstr.getArguments();
-        
-        if ("printf".equals(functionName)) {
-            // Handle printf specifically
-            if (arguments.length > 0) {
-                String formatString = arguments[0];
-                // Remove quotes if present
-                if (formatString.startsWith("\"") && formatString.endsWith("\"")) {
-                    formatString = formatString.substring(1, formatString.length() - 1);
+        emit("push %rbp");
+        emit("mov %rsp, %rbp");
+        if (frameSize > 0) {
+            emit("sub $" + frameSize + ", %rsp");
+        }
+
+        List<IRBasicBlock> blocks = function.getBlocks();
+        for (int i = 0; i < blocks.size(); i++) {
+            IRBasicBlock block = blocks.get(i);
+            IRBasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            textSection.addInstruction(label(block) + ":");
+            for (int j = 0; j < block.size(); j++) {
+                if (isTailCall(block, j)) {
+                    // The callee's return ends this function too
+                    generateTailCall(block.get(j));
+                    break;
+                }
+                generateInstruction(block, block.get(j), next);
+            }
+        }
+        // Never reached by falling through, as the last block ends in a jump or return
+        for (String entry : jumpTables) {
+            textSection.addInstruction(entry);
+        }
+        this.function = null;
+    }
+
+    /**
+     * Assigns frame offsets to the virtual registers, phi shadows and ALLOCA areas
+     *
+     * @return the frame size, a multiple of 16 so calls see an aligned stack
+     */
+    private int layoutFrame() {
+        slots = new int[function.getVregCount()];
+        shadows = new int[function.getInstructionCount()];
+        allocas = new int[function.getInstructionCount()];
+        int size = 0;
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                int result = function.result(instruction);
+                if (IROperand.isVreg(result)) {
+                    size += 8;
+                    slots[IROperand.index(result)] = -size;
+                }
+                if (function.opcode(instruction) == IROpcode.PHI) {
+                    size += 8;
+                    shadows[instruction] = -size;
+                } else if (function.opcode(instruction) == IROpcode.ALLOCA) {
+                    size += (int) (function.constantValue(function.operand(instruction, 1)) + 7) & ~7;
+                    allocas[instruction] = -size;
+                }
+            }
+        }
+        return (size + 15) & ~15;
+    }
+
+    private void generateInstruction(IRBasicBlock block, int instruction, IRBasicBlock next) {
+        IROpcode opcode = function.opcode(instruction);
+        IRType type = function.type(instruction);
+        switch (opcode) {
+            case PARAM: {
+                int index = (int) function.constantValue(function.operand(instruction, 0));
+                if (index < ARGUMENT_REGISTERS.length) {
+                    emit("mov " + ARGUMENT_REGISTERS[index] + ", %rax");
+                } else {
+                    // Stack arguments start above the return address and saved frame pointer
+                    emit("mov " + (16 + 8 * (index - ARGUMENT_REGISTERS.length)) + "(%rbp), %rax");
+                }
+                normalize(type);
+                storeResult(instruction);
+                break;
+            }
+            case ALLOCA:
+                emit("lea " + allocas[instruction] + "(%rbp), %rax");
+                storeResult(instruction);
+                break;
+            case LOAD:
+                load(function.operand(instruction, 0), "%rax");
+                emit(type == IRType.CHAR ? "movsbq (%rax), %rax" : type == IRType.INT ? "movslq (%rax), %rax" : "mov (%rax), %rax");
+                storeResult(instruction);
+                break;
+            case STORE:
+                load(function.operand(instruction, 0), "%rax");
+                load(function.operand(instruction, 1), "%rcx");
+                emit("mov " + (type == IRType.CHAR ? "%cl" : type == IRType.INT ? "%ecx" : "%rcx") + ", (%rax)");
+                break;
+            case ADD:
+            case SUB:
+            case AND:
+            case OR:
+            case XOR:
+                binary(instruction);
+                emit(opcode.name().toLowerCase() + " %rcx, %rax");
+                normalize(type);
+                storeResult(instruction);
+                break;
+            case MUL: {
+                int left = function.operand(instruction, 0);
+                int right = function.operand(instruction, 1);
+                if (IROperand.isConstant(left) || IROperand.isConstant(right)) {
+                    boolean constantRight = IROperand.isConstant(right);
+                    load(constantRight ? left : right, "%rax");
+                    emitAll(ConstantArithmetic.multiply(function.constantValue(constantRight ? right : left)));
+                } else {
+                    binary(instruction);
+                    emit("imul %rcx, %rax");
+                }
+                normalize(type);
+                storeResult(instruction);
+                break;
+            }
+            case DIV:
+            case MOD: {
+                int divisor = function.operand(instruction, 1);
+                List<String> reduced = null;
+                if (IROperand.isConstant(divisor)) {
+                    long value = function.constantValue(divisor);
+                    reduced = opcode == IROpcode.DIV ? ConstantArithmetic.divide(value) : ConstantArithmetic.remainder(value);
+                }
+                if (reduced != null) {
+                    load(function.operand(instruction, 0), "%rax");
+                    emitAll(reduced);
+                } else {
+                    binary(instruction);
+                    emit("cqo");
+                    emit("idiv %rcx");
+                    if (opcode == IROpcode.MOD) {
+                        emit("mov %rdx, %rax");
+                    }
                 }
-                
-                // Create string literal in data section
-                String labelName = "str_" + Math.abs(formatString.hashCode());
-                dataSection.addInstruction(labelName + ":");
-                dataSection.addInstruction("    .ascii \"" + formatString + "\\0\"");
-                
-                // Generate printf call
-                textSection.addInstruction("    mov $" + labelName + ", %rdi");
-                textSection.addInstruction("    xor %rax, %rax");  // No vector arguments
-                textSection.addInstruction("    call printf");
+                normalize(type);
+                storeResult(instruction);
+                break;
+            }
+            case SHL:
+            case SHR:
+                binary(instruction);
+                emit((opcode == IROpcode.SHL ? "shl" : "sar") + " %cl, %rax");
+                normalize(type);
+                storeResult(instruction);
+                break;
+            case NEG:
+            case NOT:
+                load(function.operand(instruction, 0), "%rax");
+                emit(opcode.name().toLowerCase() + " %rax");
+                normalize(type);
+                storeResult(instruction);
+                break;
+            case CAST:
+                load(function.operand(instruction, 0), "%rax");
+                normalize(type);
+                storeResult(instruction);
+                break;
+            case EQ:
+            case NE:
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+                binary(instruction);
+                emit("cmp %rcx, %rax");
+                emit("set" + condition(opcode) + " %al");
+                emit("movzbq %al, %rax");
+                storeResult(instruction);
+                break;
+            case CALL:
+                generateCall(instruction);
+                break;
+            case PHI:
+                emit("mov " + shadows[instruction] + "(%rbp), %rax");
+                storeResult(instruction);
+                break;
+            case JMP: {
+                IRBasicBlock target = function.blockOf(function.operand(instruction, 0));
+                phiMoves(block, target);
+                jumpUnlessNext(target, next);
+                break;
             }
+            case BR:
+                generateBranch(block, instruction, next);
+                break;
+            case SWITCH:
+                generateSwitch(block, instruction, next);
+                break;
+            case RET:
+                if (function.operandCount(instruction) > 0) {
+                    load(function.operand(instruction, 0), "%rax");
+                }
+                emit("mov %rbp, %rsp");
+                emit("pop %rbp");
+                emit("ret");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void generateCall(int instruction) {
+        int arguments = function.operandCount(instruction) - 1;
+        int stackArguments = Math.max(0, arguments - ARGUMENT_REGISTERS.length);
+        // Keep the stack 16-byte aligned at the call
+        int padding = stackArguments % 2 == 1 ? 8 : 0;
+        if (padding > 0) {
+            emit("sub $8, %rsp");
+        }
+        for (int i = arguments - 1; i >= ARGUMENT_REGISTERS.length; i--) {
+            load(function.operand(instruction, i + 1), "%rax");
+            emit("push %rax");
+        }
+        for (int i = 0; i < Math.min(arguments, ARGUMENT_REGISTERS.length); i++) {
+            load(function.operand(instruction, i + 1), ARGUMENT_REGISTERS[i]);
+        }
+        int callee = function.operand(instruction, 0);
+        if (IROperand.kind(callee) == IROperand.SYMBOL) {
+            // %al holds the number of vector registers used by a variadic call
+            emit("xor %eax, %eax");
+            emit("call " + function.symbolName(callee));
+        } else {
+            load(callee, "%r11");
+            emit("xor %eax, %eax");
+            emit("call *%r11");
+        }
+        if (stackArguments > 0 || padding > 0) {
+            emit("add $" + (8 * stackArguments + padding) + ", %rsp");
+        }
+        if (function.result(instruction) != IROperand.NONE) {
+            normalize(function.type(instruction));
+            storeResult(instruction);
+        }
+    }
+
+    /**
+     * Whether the instruction at an index is a marked call followed only by the return of
+     * its result. The return is checked again, as passes after the marking may have changed it.
+     */
+    private boolean isTailCall(IRBasicBlock block, int index) {
+        int instruction = block.get(index);
+        if (function.opcode(instruction) != IROpcode.CALL || !function.isTailCall(instruction)
+                || index != block.size() - 2 || function.opcode(block.last()) != IROpcode.RET
+                || function.operandCount(instruction) - 1 > ARGUMENT_REGISTERS.length) {
+            return false;
+        }
+        int ret = block.last();
+        if (function.operandCount(ret) == 0) {
+            return function.getReturnType() == IRType.VOID;
+        }
+        return function.operand(ret, 0) == function.result(instruction) && function.type(instruction) == function.getReturnType();
+    }
+
+    /**
+     * A call in tail position: the arguments go to their registers, the frame is torn down
+     * and the callee is jumped to with our return address still on the stack
+     */
+    private void generateTailCall(int instruction) {
+        int arguments = function.operandCount(instruction) - 1;
+        for (int i = 0; i < arguments; i++) {
+            load(function.operand(instruction, i + 1), ARGUMENT_REGISTERS[i]);
+        }
+        int callee = function.operand(instruction, 0);
+        if (IROperand.kind(callee) != IROperand.SYMBOL) {
+            load(callee, "%r11");
+        }
+        emit("mov %rbp, %rsp");
+        emit("pop %rbp");
+        emit("xor %eax, %eax");
+        emit(IROperand.kind(callee) == IROperand.SYMBOL ? "jmp " + function.symbolName(callee) : "jmp *%r11");
+    }
+
+    /**
+     * A conditional branch. Each edge into a block with phis needs its own moves, so the
+     * edge that is not taken by falling through gets them behind a local label.
+     */
+    private void generateBranch(IRBasicBlock block, int instruction, IRBasicBlock next) {
+        IRBasicBlock whenTrue = function.blockOf(function.operand(instruction, 1));
+        IRBasicBlock whenFalse = function.blockOf(function.operand(instruction, 2));
+        load(function.operand(instruction, 0), "%rax");
+        emit("test %rax, %rax");
+        if (!hasPhis(whenTrue)) {
+            emit("jne " + label(whenTrue));
+            phiMoves(block, whenFalse);
+            jumpUnlessNext(whenFalse, next);
+        } else if (!hasPhis(whenFalse)) {
+            emit("je " + label(whenFalse));
+            phiMoves(block, whenTrue);
+            jumpUnlessNext(whenTrue, next);
         } else {
-            // Regular function call
-            textSection.addInstruction("    call " + functionName);
-        }
-    }
-    
-    private void generateReturnInstruction(IRReturnInstruction returnInstr, AssemblySection textSection) {
-        String value = returnInstr.getValue();
-        if (value != null) {
-            // Try to parse as integer constant
-            try {
-                int intValue = Integer.parseInt(value);
-                textSection.addInstruction("    mov $" + intValue + ", %rax");
-            } catch (NumberFormatException e) {
-                // Handle variable or expression
-                textSection.addInstruction("    mov " + value + ", %rax");
-            }
-        }
-        
-        textSection.addInstruction("    mov %rbp, %rsp");
-        textSection.addInstruction("    pop %rbp");
-        textSection.addInstruction("    ret");
-    }
-    
-    private void generateLoadConstantInstruction(IRLoadConstantInstruction loadInstr, AssemblySection textSection) {
-        String result = loadInstr.getResult();
-        Object constant = loadInstr.getConstant();
-        
-        if (constant instanceof Integer) {
-            textSection.addInstruction("    mov $" + constant + ", " + result);
-        } else if (constant instanceof String) {
-            textSection.addInstruction("    mov $" + constant + ", " + result);
-        }
-    }
-}
\ No newline at end of file
+            String edge = ".L" + function.getName() + "_e" + edgeLabels++;
+            emit("je " + edge);
+            phiMoves(block, whenTrue);
+            emit("jmp " + label(whenTrue));
+            textSection.addInstruction(edge + ":");
+            phiMoves(block, whenFalse);
+            jumpUnlessNext(whenFalse, next);
+        }
+    }
+
+    /**
+     * A switch on the value in %rax. Every target's phis take the same inputs whichever case
+     * leads there, so their moves are all made before the tests; a target not jumped to
+     * ignores its shadow slots.
+     */
+    private void generateSwitch(IRBasicBlock block, int instruction, IRBasicBlock next) {
+        IRBasicBlock defaultTarget = function.blockOf(function.operand(instruction, 1));
+        int count = (function.operandCount(instruction) - 2) / 2;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> function.constantValue(function.operand(instruction, 2 + 2 * i))));
+        long[] values = new long[count];
+        IRBasicBlock[] targets = new IRBasicBlock[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = function.constantValue(function.operand(instruction, 2 + 2 * order[i]));
+            targets[i] = function.blockOf(function.operand(instruction, 3 + 2 * order[i]));
+        }
+        for (int id : ControlFlowGraph.successorIds(function, block)) {
+            phiMoves(block, function.getBlock(id));
+        }
+        load(function.operand(instruction, 0), "%rax");
+        List<int[]> clusters = cluster(values, targets);
+        searchClusters(clusters, 0, clusters.size(), values, targets, defaultTarget);
+        jumpUnlessNext(defaultTarget, next);
+    }
+
+    /**
+     * Splits the sorted cases into clusters {kind, first, last}, greedily taking the longest
+     * run from each case that a jump table or bit test can cover
+     */
+    private static List<int[]> cluster(long[] values, IRBasicBlock[] targets) {
+        List<int[]> clusters = new ArrayList<>();
+        int first = 0;
+        while (first < values.length) {
+            int tableLast = first;
+            int bitTestLast = first;
+            List<IRBasicBlock> distinct = new ArrayList<>(List.of(targets[first]));
+            for (int last = first + 1; last < values.length; last++) {
+                long range = values[last] - values[first];
+                if (range < 0 || range >= MAX_TABLE_SIZE) {
+                    break;
+                }
+                int cases = last - first + 1;
+                if (cases * 100L >= (range + 1) * MIN_TABLE_DENSITY_PERCENT) {
+                    tableLast = last;
+                }
+                if (!distinct.contains(targets[last])) {
+                    distinct.add(targets[last]);
+                }
+                if (range < 64 && distinct.size() <= MIN_BIT_TEST_CASES.length
+                        && cases >= MIN_BIT_TEST_CASES[distinct.size() - 1]) {
+                    bitTestLast = last;
+                }
+            }
+            if (bitTestLast > first && bitTestLast >= tableLast) {
+                clusters.add(new int[] {BIT_TEST, first, bitTestLast});
+                first = bitTestLast + 1;
+            } else if (tableLast - first + 1 >= MIN_TABLE_CASES) {
+                clusters.add(new int[] {TABLE, first, tableLast});
+                first = tableLast + 1;
+            } else {
+                clusters.add(new int[] {SINGLE, first, first});
+                first++;
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Tests clusters {@code from} to {@code to}, jumping to the target of the matching case;
+     * falls through when none matches. Up to three clusters are tried in turn, more are
+     * split around the middle one.
+     */
+    private void searchClusters(List<int[]> clusters, int from, int to, long[] values, IRBasicBlock[] targets,
+                                IRBasicBlock defaultTarget) {
+        if (to - from <= 3) {
+            for (int c = from; c < to; c++) {
+                testCluster(clusters.get(c), values, targets, defaultTarget);
+            }
+            return;
+        }
+        int middle = (from + to) / 2;
+        String lower = ".L" + function.getName() + "_e" + edgeLabels++;
+        String done = ".L" + function.getName() + "_e" + edgeLabels++;
+        compare(values[clusters.get(middle)[1]]);
+        emit("jl " + lower);
+        searchClusters(clusters, middle, to, values, targets, defaultTarget);
+        emit("jmp " + done);
+        textSection.addInstruction(lower + ":");
+        searchClusters(clusters, from, middle, values, targets, defaultTarget);
+        textSection.addInstruction(done + ":");
+    }
+
+    private void testCluster(int[] cluster, long[] values, IRBasicBlock[] targets, IRBasicBlock defaultTarget) {
+        int first = cluster[1];
+        int last = cluster[2];
+        if (cluster[0] == SINGLE) {
+            compare(values[first]);
+            emit("je " + label(targets[first]));
+            return;
+        }
+        // %rcx = value - lowest case, unsigned so that values below it are out of range too
+        String outside = ".L" + function.getName() + "_e" + edgeLabels++;
+        long range = values[last] - values[first];
+        emit("mov %rax, %rcx");
+        if (values[first] == (int) values[first]) {
+            emit("sub $" + values[first] + ", %rcx");
+        } else {
+            emit("movabs $" + values[first] + ", %rdx");
+            emit("sub %rdx, %rcx");
+        }
+        emit("cmp $" + range + ", %rcx");
+        emit("ja " + outside);
+        if (cluster[0] == TABLE) {
+            String table = ".L" + function.getName() + "_t" + edgeLabels++;
+            emit("mov $" + table + ", %rdx");
+            emit("movslq (%rdx,%rcx,4), %rdx");
+            emit("jmp *%rdx");
+            jumpTables.add(table + ":");
+            int c = first;
+            for (long offset = 0; offset <= range; offset++) {
+                IRBasicBlock target = values[c] - values[first] == offset ? targets[c++] : defaultTarget;
+                jumpTables.add("    .long " + label(target));
+            }
+        } else {
+            Map<IRBasicBlock, Long> masks = new LinkedHashMap<>();
+            for (int c = first; c <= last; c++) {
+                masks.merge(targets[c], 1L << (values[c] - values[first]), (a, b) -> a | b);
+            }
+            for (Map.Entry<IRBasicBlock, Long> mask : masks.entrySet()) {
+                long bits = mask.getValue();
+                emit((bits == (int) bits ? "mov $" : "movabs $") + bits + ", %rdx");
+                emit("shr %cl, %rdx");
+                emit("and $1, %rdx");
+                emit("jne " + label(mask.getKey()));
+            }
+        }
+        textSection.addInstruction(outside + ":");
+    }
+
+    /**
+     * Compares %rax with a constant, setting the flags for a signed jump
+     */
+    private void compare(long value) {
+        if (value == (int) value) {
+            emit("cmp $" + value + ", %rax");
+        } else {
+            emit("movabs $" + value + ", %rcx");
+            emit("cmp %rcx, %rax");
+        }
+    }
+
+    private boolean hasPhis(IRBasicBlock block) {
+        return block.size() > 0 && function.opcode(block.get(0)) == IROpcode.PHI;
+    }
+
+    /**
+     * Writes the values the phis of {@code to} take on the edge from {@code from} into their
+     * shadow slots
+     */
+    private void phiMoves(IRBasicBlock from, IRBasicBlock to) {
+        for (int i = 0; i < to.size() && function.opcode(to.get(i)) == IROpcode.PHI; i++) {
+            int phi = to.get(i);
+            for (int j = 0; j + 1 < function.operandCount(phi); j += 2) {
+                if (function.operand(phi, j) == from.operand()) {
+                    load(function.operand(phi, j + 1), "%rax");
+                    emit("mov %rax, " + shadows[phi] + "(%rbp)");
+                    break;
+                }
+            }
+        }
+    }
+
+    private void jumpUnlessNext(IRBasicBlock target, IRBasicBlock next) {
+        if (target != next) {
+            emit("jmp " + label(target));
+        }
+    }
+
+    private void binary(int instruction) {
+        load(function.operand(instruction, 0), "%rax");
+        load(function.operand(instruction, 1), "%rcx");
+    }
+
+    /**
+     * Loads an operand into a 64-bit register
+     */
+    private void load(int operand, String register) {
+        switch (IROperand.kind(operand)) {
+            case IROperand.VREG:
+                emit("mov " + slots[IROperand.index(operand)] + "(%rbp), " + register);
+                break;
+            case IROperand.CONSTANT: {
+                long value = function.constantValue(operand);
+                emit((value == (int) value ? "mov $" : "movabs $") + value + ", " + register);
+                break;
+            }
+            case IROperand.SYMBOL:
+                emit("mov $" + function.symbolName(operand) + ", " + register);
+                break;
+            case IROperand.STRING:
+                emit("mov $" + stringLabel(operand) + ", " + register);
+                break;
+            default:
+                emit("mov $0, " + register);
+                break;
+        }
+    }
+
+    private void storeResult(int instruction) {
+        emit("mov %rax, " + slots[IROperand.index(function.result(instruction))] + "(%rbp)");
+    }
+
+    /**
+     * Sign-extends %rax from the width of a type
+     */
+    private void normalize(IRType type) {
+        if (type == IRType.CHAR) {
+            emit("movsbq %al, %rax");
+        } else if (type == IRType.INT) {
+            emit("movslq %eax, %rax");
+        }
+    }
+
+    private static String condition(IROpcode comparison) {
+        switch (comparison) {
+            case EQ: return "e";
+            case NE: return "ne";
+            case LT: return "l";
+            case LE: return "le";
+            case GT: return "g";
+            default: return "ge";
+        }
+    }
+
+    private String label(IRBasicBlock block) {
+        return ".L" + function.getName() + "_" + block.getId();
+    }
+
+    /**
+     * Label of a string literal, which is added to the data section on first use
+     */
+    private String stringLabel(int operand) {
+        String label = strings.get(operand);
+        if (label == null) {
+            label = ".Lstr_" + function.getName() + "_" + strings.size();
+            strings.put(operand, label);
+            String literal = function.symbolName(operand);
+            dataSection.addLabel(label);
+            dataSection.addData(decodeString(literal));
+            dataSection.addInstruction(label + ": .asciz " + literal);
+        }
+        return label;
+    }
+
+    /**
+     * Bytes of a string literal as written in the source, possibly several adjacent
+     * literals, with escapes decoded and a terminating zero
+     */
+    static byte[] decodeString(String literal) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean inside = false;
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '"') {
+                inside = !inside;
+                continue;
+            }
+            if (!inside) {
+                continue;
+            }
+            if (c != '\\' || i + 1 == literal.length()) {
+                byte[] encoded = String.valueOf(c).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+                continue;
+            }
+            char escape = literal.charAt(++i);
+            int simple = "abtnvfr\\'\"?e".indexOf(escape);
+            if (simple >= 0) {
+                bytes.write("\007\b\t\n\013\f\r\\'\"?\033".charAt(simple));
+            } else if (escape == 'x') {
+                int value = 0;
+                while (i + 1 < literal.length() && Character.digit(literal.charAt(i + 1), 16) >= 0) {
+                    value = value * 16 + Character.digit(literal.charAt(++i), 16);
+                }
+                bytes.write(value);
+            } else if (escape >= '0' && escape <= '7') {
+                int value = escape - '0';
+                for (int digits = 1; digits < 3 && i + 1 < literal.length()
+                        && literal.charAt(i + 1) >= '0' && literal.charAt(i + 1) <= '7'; digits++) {
+                    value = value * 8 + literal.charAt(++i) - '0';
+                }
+                bytes.write(value);
+            } else {
+                bytes.write(escape);
+            }
+        }
+        bytes.write(0);
+        return bytes.toByteArray();
+    }
+
+    private void emit(String instruction) {
+        textSection.addInstruction("    " + instruction);
+    }
+
+    private void emitAll(List<String> instructions) {
+        for (String instruction : instructions) {
+            emit(instruction);
+        }
+    }
+}
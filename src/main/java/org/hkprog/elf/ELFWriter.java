@@ -27,38 +27,91 @@ public class ELFWriter {
     
     private static final long BASE_ADDRESS = 0x400000L;
     
+    private PrintStream out;
+    
+    public ELFWriter() {
+        this(System.out);
+    }
+    
+    public ELFWriter(PrintStream out) {
+        this.out = out;
+    }
+    
     public void writeELF(AssemblyProgram assembly, String outputFile) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeFile(generateELF(assembly), outputFile);
+    }
+    
+    /**
+     * Writes a finished ELF image to disk and marks it executable
+     */
+    public void writeFile(byte[] image, String outputFile) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
+            fos.write(image);
+        }
+        
+        // Make executable
+        new File(outputFile).setExecutable(true);
         
+        out.println("ELF file written: " + outputFile);
+    }
+    
+    /**
+     * Builds the complete ELF image for an assembly program in memory
+     */
+    public byte[] generateELF(AssemblyProgram assembly) throws IOException {
         // Convert assembly to machine code
         MachineCodeGenerator codeGen = new MachineCodeGenerator();
-        byte[] textData = codeGen.generateMachineCode(assembly.getTextSection());
+        byte[] textData = codeGen.generateMachineCode(assembly.getTextSection(), assembly.getDataSection());
         byte[] dataData = assembly.getDataSection() != null ? 
             assembly.getDataSection().getDataAsBytes() : new byte[0];
         
-        // Calculate offsets and addresses
+        return generateELF(textData, dataData);
+    }
+    
+    /**
+     * Builds the complete ELF image from an already linked text image and data bytes
+     */
+    public byte[] generateELF(byte[] textData, byte[] dataData) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(generateHeader(textData.length, dataData.length));
+        buffer.write(textData);
+        buffer.write(generateTrailer(textData.length, dataData));
+        return buffer.toByteArray();
+    }
+    
+    /**
+     * File offset of the text section, which directly follows the padded headers
+     */
+    public static long textOffset() {
         int ehSize = 64; // ELF header size
         int phSize = 56; // Program header size
         int numProgHeaders = 2; // TEXT and DATA segments
-        int numSectionHeaders = 4; // NULL, .text, .data, .shstrtab
-        
-        long textOffset = ehSize + (phSize * numProgHeaders);
         
         // Align to page boundary for segments
-        textOffset = alignToPage(textOffset);
+        return alignToPage(ehSize + (phSize * numProgHeaders));
+    }
+    
+    /**
+     * Virtual address of a non-empty data section following text of the given size
+     */
+    public static long dataAddress(int textSize) {
+        return BASE_ADDRESS + dataOffset(textOffset(), textSize, 1);
+    }
+    
+    /**
+     * Builds the ELF and program headers, padded up to the start of the text section
+     */
+    public byte[] generateHeader(int textSize, int dataSize) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         
-        // Calculate data section offset (after text)
-        long dataOffset = textOffset + textData.length;
-        if (dataData.length > 0) {
-            dataOffset = alignToPage(dataOffset);
-        }
+        int ehSize = 64; // ELF header size
+        int phSize = 56; // Program header size
+        int numProgHeaders = 2; // TEXT and DATA segments
+        int numSectionHeaders = 4; // NULL, .text, .data, .shstrtab
         
-        // Place string table and section headers after data (not in loadable segments)
-        long shstrtabOffset = dataOffset + dataData.length;
-        if (shstrtabOffset < textOffset + 0x1000) {
-            shstrtabOffset = textOffset + 0x1000; // Ensure it's outside the text page
-        }
-        long sectionHeaderOffset = shstrtabOffset + 32; // String table size
+        long textOffset = textOffset();
+        long dataOffset = dataOffset(textOffset, textSize, dataSize);
+        long sectionHeaderOffset = shstrtabOffset(textOffset, dataOffset, dataSize) + 32; // String table size
         
         long textVAddr = BASE_ADDRESS + textOffset;
         long dataVAddr = BASE_ADDRESS + dataOffset;
@@ -67,38 +120,59 @@ public class ELFWriter {
         writeELFHeader(buffer, ehSize, phSize, numProgHeaders, textVAddr, sectionHeaderOffset, numSectionHeaders);
         
         // Write program headers
-        writeTextProgramHeader(buffer, textOffset, textData.length, textVAddr);
-        writeDataProgramHeader(buffer, dataOffset, dataData.length, dataVAddr);
+        writeTextProgramHeader(buffer, textOffset, textSize, textVAddr);
+        writeDataProgramHeader(buffer, dataOffset, dataSize, dataVAddr);
         
         // Pad to text section offset
-        padToOffset(buffer, (int)textOffset);
-        
-        // Write text section
-        buffer.write(textData);
+        padToOffset(buffer, 0, textOffset);
+        return buffer.toByteArray();
+    }
+    
+    /**
+     * Builds everything after the text section: the data section, the section name string
+     * table and the section headers
+     */
+    public byte[] generateTrailer(int textSize, byte[] dataData) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        long textOffset = textOffset();
+        long textEnd = textOffset + textSize;
+        long dataOffset = dataOffset(textOffset, textSize, dataData.length);
+        long shstrtabOffset = shstrtabOffset(textOffset, dataOffset, dataData.length);
+        long sectionHeaderOffset = shstrtabOffset + 32; // String table size
         
         // Pad to data section offset
-        padToOffset(buffer, (int)dataOffset);
+        padToOffset(buffer, textEnd, dataOffset);
         
         // Write data section
         buffer.write(dataData);
         
         // Write string table
-        padToOffset(buffer, (int)shstrtabOffset);
+        padToOffset(buffer, textEnd, shstrtabOffset);
         buffer.write("\0.text\0.data\0.shstrtab\0".getBytes());
         
         // Write section headers
-        padToOffset(buffer, (int)sectionHeaderOffset);
-        writeSectionHeaders(buffer, textOffset, textData.length, dataOffset, dataData.length, shstrtabOffset);
+        padToOffset(buffer, textEnd, sectionHeaderOffset);
+        writeSectionHeaders(buffer, textOffset, textSize, dataOffset, dataData.length, shstrtabOffset);
         
-        // Write to file
-        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-            fos.write(buffer.toByteArray());
+        return buffer.toByteArray();
+    }
+    
+    private static long dataOffset(long textOffset, int textSize, int dataSize) {
+        // Calculate data section offset (after text)
+        long dataOffset = textOffset + textSize;
+        if (dataSize > 0) {
+            dataOffset = alignToPage(dataOffset);
         }
-        
-        // Make executable
-        new File(outputFile).setExecutable(true);
-        
-        System.out.println("ELF file written: " + outputFile);
+        return dataOffset;
+    }
+    
+    private static long shstrtabOffset(long textOffset, long dataOffset, int dataSize) {
+        // Place string table and section headers after data (not in loadable segments)
+        long shstrtabOffset = dataOffset + dataSize;
+        if (shstrtabOffset < textOffset + 0x1000) {
+            shstrtabOffset = textOffset + 0x1000; // Ensure it's outside the text page
+        }
+        return shstrtabOffset;
     }
     
     private void writeELFHeader(ByteArrayOutputStream buffer, int ehSize, int phSize, int numProgHeaders, long entryPoint, long sectionHeaderOffset, int numSectionHeaders) throws IOException {
@@ -164,15 +238,18 @@ public class ELFWriter {
         buffer.write(bb.array());
     }
     
-    private long alignToPage(long offset) {
+    private static long alignToPage(long offset) {
         long pageSize = 0x1000;
         return ((offset + pageSize - 1) / pageSize) * pageSize;
     }
     
-    private void padToOffset(ByteArrayOutputStream buffer, int targetOffset) {
-        int currentSize = buffer.size();
+    /**
+     * Pads a buffer that will be written at file offset {@code base} up to a file offset
+     */
+    private void padToOffset(ByteArrayOutputStream buffer, long base, long targetOffset) {
+        long currentSize = base + buffer.size();
         if (targetOffset > currentSize) {
-            int padding = targetOffset - currentSize;
+            int padding = (int) (targetOffset - currentSize);
             buffer.write(new byte[padding], 0, padding);
         }
     }
@@ -0,0 +1,29 @@
+package org.hkprog.elf;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Position independent machine code of one function, with the labels it defines and the
+ * relocations that still have to be applied once its final address is known
+ */
+public class FunctionCode implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private byte[] code;
+    private Map<String, Integer> labels;
+    private List<Relocation> relocations;
+
+    public FunctionCode(String name, byte[] code, Map<String, Integer> labels, List<Relocation> relocations) {
+        this.name = name;
+        this.code = code;
+        this.labels = labels;
+        this.relocations = relocations;
+    }
+
+    public String getName() { return name; }
+    public byte[] getCode() { return code; }
+    public Map<String, Integer> getLabels() { return labels; }
+    public List<Relocation> getRelocations() { return relocations; }
+}
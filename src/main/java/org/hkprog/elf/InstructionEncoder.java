@@ -0,0 +1,548 @@
+package org.hkprog.elf;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * Encodes single x86-64 instructions written in AT&T syntax, as produced by the code
+ * generator, into machine code. Operands are registers ({@code %rax}, {@code %ecx},
+ * {@code %al}), immediates ({@code $42}, {@code $label}), memory references
+ * ({@code -8(%rbp)}, {@code (%rax,%rcx,8)}, {@code label}) and, for jumps and calls, labels
+ * or {@code *}-prefixed indirect targets. The operand size comes from the register operands,
+ * or from a {@code b}, {@code l} or {@code q} suffix when there are none.
+ *
+ * Symbol references are recorded as relocations at their offset in the function being
+ * encoded: PC32 for jump and call targets, ABS32 for symbol immediates and displacements.
+ */
+public class InstructionEncoder {
+
+    private static final Map<String, Integer> REGISTERS = new HashMap<>();
+    private static final Map<String, Integer> CONDITIONS = new HashMap<>();
+    /** Group 1 arithmetic instructions and their ModRM reg field */
+    private static final Map<String, Integer> ARITHMETIC = Map.of("add", 0, "or", 1, "and", 4, "sub", 5, "xor", 6, "cmp", 7);
+    /** Group 2 shifts and their ModRM reg field */
+    private static final Map<String, Integer> SHIFTS = Map.of("rol", 0, "ror", 1, "shl", 4, "sal", 4, "shr", 5, "sar", 7);
+    /** Group 3 one-operand instructions and their ModRM reg field */
+    private static final Map<String, Integer> UNARY = Map.of("not", 2, "neg", 3, "mul", 4, "div", 6, "idiv", 7);
+
+    static {
+        String[] names64 = {"rax", "rcx", "rdx", "rbx", "rsp", "rbp", "rsi", "rdi"};
+        String[] names32 = {"eax", "ecx", "edx", "ebx", "esp", "ebp", "esi", "edi"};
+        String[] names8 = {"al", "cl", "dl", "bl", "spl", "bpl", "sil", "dil"};
+        for (int i = 0; i < 8; i++) {
+            REGISTERS.put(names64[i], i << 4 | 8);
+            REGISTERS.put(names32[i], i << 4 | 4);
+            REGISTERS.put(names8[i], i << 4 | 1);
+            REGISTERS.put("r" + (i + 8), (i + 8) << 4 | 8);
+            REGISTERS.put("r" + (i + 8) + "d", (i + 8) << 4 | 4);
+            REGISTERS.put("r" + (i + 8) + "b", (i + 8) << 4 | 1);
+        }
+        String[][] conditions = {
+            {"o"}, {"no"}, {"b", "c", "nae"}, {"ae", "nb", "nc"}, {"e", "z"}, {"ne", "nz"}, {"be", "na"}, {"a", "nbe"},
+            {"s"}, {"ns"}, {"p", "pe"}, {"np", "po"}, {"l", "nge"}, {"ge", "nl"}, {"le", "ng"}, {"g", "nle"}
+        };
+        for (int code = 0; code < conditions.length; code++) {
+            for (String name : conditions[code]) {
+                CONDITIONS.put(name, code);
+            }
+        }
+    }
+
+    /**
+     * A parsed operand. Registers and memory operands use {@code register}, {@code base}
+     * and {@code index} numbers 0-15, with -1 for none.
+     */
+    private static final class Operand {
+        static final int REGISTER = 0;
+        static final int IMMEDIATE = 1;
+        static final int MEMORY = 2;
+
+        int kind;
+        int register = -1;
+        int size;
+        int base = -1;
+        int index = -1;
+        int scale = 1;
+        long value;
+        String symbol;
+        boolean indirect;
+    }
+
+    private ByteArrayOutputStream code;
+    private List<Relocation> relocations;
+
+    /**
+     * @param code buffer the function is encoded into; relocation offsets are relative to its start
+     */
+    public InstructionEncoder(ByteArrayOutputStream code, List<Relocation> relocations) {
+        this.code = code;
+        this.relocations = relocations;
+    }
+
+    /**
+     * Appends the encoding of one instruction
+     *
+     * @throws IllegalArgumentException if the instruction or operand combination is not supported
+     */
+    public void encode(String instruction) {
+        String text = instruction.trim();
+        int space = text.indexOf(' ');
+        String mnemonic = space < 0 ? text : text.substring(0, space);
+        Operand[] operands = space < 0 ? new Operand[0] : parseOperands(text.substring(space + 1).trim());
+        if (!encode(mnemonic, operands)) {
+            throw new IllegalArgumentException("Cannot encode instruction: " + text);
+        }
+    }
+
+    private boolean encode(String mnemonic, Operand[] operands) {
+        switch (mnemonic) {
+            case "ret":
+                return bytes(0xc3);
+            case "leave":
+                return bytes(0xc9);
+            case "nop":
+                return bytes(0x90);
+            case "cqo":
+            case "cqto":
+                return bytes(0x48, 0x99);
+            case "cltq":
+                return bytes(0x48, 0x98);
+            case "cltd":
+            case "cdq":
+                return bytes(0x99);
+            case "syscall":
+                return bytes(0x0f, 0x05);
+            case "push":
+            case "pop":
+                if (operands.length == 1 && operands[0].kind == Operand.REGISTER && operands[0].size == 8) {
+                    int register = operands[0].register;
+                    if (register >= 8) {
+                        code.write(0x41);
+                    }
+                    return bytes((mnemonic.equals("push") ? 0x50 : 0x58) + (register & 7));
+                }
+                return false;
+            case "jmp":
+            case "call":
+                return encodeJump(mnemonic, operands);
+            case "mov":
+            case "movq":
+            case "movl":
+            case "movb":
+                return encodeMove(operandSize(mnemonic, operands), operands);
+            case "movabs":
+                if (operands.length == 2 && operands[0].kind == Operand.IMMEDIATE && isRegister(operands[1], 8)) {
+                    rex(true, 0, -1, operands[1].register, false);
+                    code.write(0xb8 + (operands[1].register & 7));
+                    immediate(operands[0], 8);
+                    return true;
+                }
+                return false;
+            case "movslq":
+                return encodeExtend(operands, 4, 0x63);
+            case "movsbq":
+            case "movsbl":
+                return encodeExtend(operands, 1, 0x0f, 0xbe);
+            case "movzbq":
+            case "movzbl":
+                return encodeExtend(operands, 1, 0x0f, 0xb6);
+            case "lea":
+                if (operands.length == 2 && operands[0].kind == Operand.MEMORY && isRegister(operands[1], 8)) {
+                    return modrm(8, new int[] {0x8d}, operands[1].register, operands[0]);
+                }
+                return false;
+            case "test":
+                if (operands.length == 2 && operands[0].kind == Operand.REGISTER && operands[1].kind != Operand.IMMEDIATE) {
+                    int size = operands[0].size;
+                    return modrm(size, new int[] {size == 1 ? 0x84 : 0x85}, operands[0].register, operands[1], isByteRegister(operands[0]));
+                }
+                return false;
+            case "imul":
+                return encodeMultiply(operands);
+            default:
+                break;
+        }
+        String base = stripSuffix(mnemonic);
+        if (ARITHMETIC.containsKey(base)) {
+            return encodeArithmetic(ARITHMETIC.get(base), operandSize(mnemonic, operands), operands);
+        }
+        if (SHIFTS.containsKey(base)) {
+            Operand[] destination = {operands.length > 0 ? operands[operands.length - 1] : null};
+            return operands.length > 0 && encodeShift(SHIFTS.get(base), operandSize(mnemonic, destination), operands);
+        }
+        if (UNARY.containsKey(base) && operands.length == 1) {
+            int size = operandSize(mnemonic, operands);
+            return modrm(size, new int[] {size == 1 ? 0xf6 : 0xf7}, UNARY.get(base), operands[0]);
+        }
+        if (mnemonic.startsWith("set") && CONDITIONS.containsKey(mnemonic.substring(3)) && operands.length == 1) {
+            return modrm(1, new int[] {0x0f, 0x90 + CONDITIONS.get(mnemonic.substring(3))}, 0, operands[0]);
+        }
+        if (mnemonic.startsWith("cmov") && CONDITIONS.containsKey(mnemonic.substring(4)) && operands.length == 2
+                && operands[1].kind == Operand.REGISTER && operands[0].kind != Operand.IMMEDIATE) {
+            return modrm(operands[1].size, new int[] {0x0f, 0x40 + CONDITIONS.get(mnemonic.substring(4))},
+                operands[1].register, operands[0]);
+        }
+        if (mnemonic.startsWith("j") && CONDITIONS.containsKey(mnemonic.substring(1)) && operands.length == 1
+                && operands[0].kind == Operand.MEMORY && operands[0].symbol != null && operands[0].base < 0 && !operands[0].indirect) {
+            code.write(0x0f);
+            code.write(0x80 + CONDITIONS.get(mnemonic.substring(1)));
+            relocation(operands[0].symbol, Relocation.Type.PC32);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean encodeJump(String mnemonic, Operand[] operands) {
+        if (operands.length != 1) {
+            return false;
+        }
+        Operand target = operands[0];
+        if (target.indirect) {
+            // jmp *x is FF /4, call *x is FF /2
+            return modrm(4, new int[] {0xff}, mnemonic.equals("jmp") ? 4 : 2, target);
+        }
+        if (target.kind != Operand.MEMORY || target.symbol == null || target.base >= 0 || target.index >= 0) {
+            return false;
+        }
+        code.write(mnemonic.equals("jmp") ? 0xe9 : 0xe8);
+        relocation(target.symbol, Relocation.Type.PC32);
+        return true;
+    }
+
+    private boolean encodeMove(int size, Operand[] operands) {
+        if (operands.length != 2 || size == 0) {
+            return false;
+        }
+        Operand source = operands[0];
+        Operand destination = operands[1];
+        if (source.kind == Operand.IMMEDIATE) {
+            if (destination.kind == Operand.REGISTER) {
+                int register = destination.register;
+                if (source.symbol == null && source.value == 0 && size >= 4) {
+                    // mov $0 becomes the shorter xor, which also clears the upper half
+                    return modrm(size, new int[] {0x31}, register, destination);
+                }
+                if (size == 8 && source.symbol == null && source.value != (int) source.value) {
+                    rex(true, 0, -1, register, false);
+                    code.write(0xb8 + (register & 7));
+                    immediate(source, 8);
+                    return true;
+                }
+                if (size == 4 || size == 1) {
+                    rex(false, 0, -1, register, size == 1 && register >= 4);
+                    code.write((size == 1 ? 0xb0 : 0xb8) + (register & 7));
+                    immediate(source, size);
+                    return true;
+                }
+            }
+            if (destination.kind == Operand.IMMEDIATE) {
+                return false;
+            }
+            modrm(size, new int[] {size == 1 ? 0xc6 : 0xc7}, 0, destination);
+            immediate(source, Math.min(size, 4));
+            return true;
+        }
+        if (source.kind == Operand.REGISTER && destination.kind != Operand.IMMEDIATE) {
+            return modrm(size, new int[] {size == 1 ? 0x88 : 0x89}, source.register, destination, isByteRegister(source));
+        }
+        if (source.kind == Operand.MEMORY && destination.kind == Operand.REGISTER) {
+            return modrm(size, new int[] {size == 1 ? 0x8a : 0x8b}, destination.register, source, isByteRegister(destination));
+        }
+        return false;
+    }
+
+    /**
+     * Sign or zero extension into a register, from a register or memory of the given size
+     */
+    private boolean encodeExtend(Operand[] operands, int sourceSize, int... opcode) {
+        if (operands.length != 2 || operands[1].kind != Operand.REGISTER || operands[0].kind == Operand.IMMEDIATE
+                || operands[0].kind == Operand.REGISTER && operands[0].size != sourceSize) {
+            return false;
+        }
+        return modrm(operands[1].size, opcode, operands[1].register, operands[0], isByteRegister(operands[0]));
+    }
+
+    private boolean encodeArithmetic(int group, int size, Operand[] operands) {
+        if (operands.length != 2 || size == 0) {
+            return false;
+        }
+        Operand source = operands[0];
+        Operand destination = operands[1];
+        if (source.kind == Operand.IMMEDIATE && destination.kind != Operand.IMMEDIATE) {
+            if (size == 1) {
+                modrm(1, new int[] {0x80}, group, destination);
+                immediate(source, 1);
+            } else if (source.symbol == null && source.value == (byte) source.value) {
+                modrm(size, new int[] {0x83}, group, destination);
+                immediate(source, 1);
+            } else {
+                modrm(size, new int[] {0x81}, group, destination);
+                immediate(source, 4);
+            }
+            return true;
+        }
+        if (source.kind == Operand.REGISTER && destination.kind != Operand.IMMEDIATE) {
+            return modrm(size, new int[] {group << 3 | (size == 1 ? 0 : 1)}, source.register, destination, isByteRegister(source));
+        }
+        if (source.kind == Operand.MEMORY && destination.kind == Operand.REGISTER) {
+            return modrm(size, new int[] {group << 3 | (size == 1 ? 2 : 3)}, destination.register, source, isByteRegister(destination));
+        }
+        return false;
+    }
+
+    private boolean encodeShift(int group, int size, Operand[] operands) {
+        if (size == 0 || size == 1) {
+            return false;
+        }
+        if (operands.length == 1) {
+            return modrm(size, new int[] {0xd1}, group, operands[0]);
+        }
+        if (operands.length != 2) {
+            return false;
+        }
+        Operand count = operands[0];
+        if (count.kind == Operand.REGISTER && count.register == 1 && count.size == 1) {
+            return modrm(size, new int[] {0xd3}, group, operands[1]);
+        }
+        if (count.kind == Operand.IMMEDIATE && count.symbol == null) {
+            if (count.value == 1) {
+                return modrm(size, new int[] {0xd1}, group, operands[1]);
+            }
+            modrm(size, new int[] {0xc1}, group, operands[1]);
+            immediate(count, 1);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean encodeMultiply(Operand[] operands) {
+        if (operands.length == 1) {
+            // One operand form: rdx:rax = rax * operand
+            return modrm(operandSize("imul", operands), new int[] {0xf7}, 5, operands[0]);
+        }
+        if (operands.length == 2 && operands[1].kind == Operand.REGISTER && operands[0].kind != Operand.IMMEDIATE) {
+            return modrm(operands[1].size, new int[] {0x0f, 0xaf}, operands[1].register, operands[0]);
+        }
+        Operand factor = operands[0];
+        if (operands.length == 2 && factor.kind == Operand.IMMEDIATE && operands[1].kind == Operand.REGISTER) {
+            operands = new Operand[] {factor, operands[1], operands[1]};
+        }
+        if (operands.length == 3 && factor.kind == Operand.IMMEDIATE && factor.symbol == null
+                && operands[2].kind == Operand.REGISTER && operands[1].kind != Operand.IMMEDIATE) {
+            boolean shortForm = factor.value == (byte) factor.value;
+            modrm(operands[2].size, new int[] {shortForm ? 0x6b : 0x69}, operands[2].register, operands[1]);
+            immediate(factor, shortForm ? 1 : 4);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean modrm(int size, int[] opcode, int reg, Operand rm) {
+        return modrm(size, opcode, reg, rm, false);
+    }
+
+    /**
+     * Writes the prefixes, opcode, ModRM and any SIB byte and displacement of an instruction
+     * whose ModRM reg field is {@code reg} (a register number or an opcode extension).
+     * {@code forceRex} asks for a REX prefix even if no bit is set, for a byte register in
+     * the reg field.
+     */
+    private boolean modrm(int size, int[] opcode, int reg, Operand rm, boolean forceRex) {
+        if (rm.kind == Operand.IMMEDIATE || size == 2) {
+            return false;
+        }
+        // spl, bpl, sil and dil are only reachable with a REX prefix
+        boolean byteRegisters = size == 1 && rm.kind == Operand.REGISTER && rm.register >= 4;
+        if (rm.kind == Operand.REGISTER) {
+            rex(size == 8, reg, -1, rm.register, byteRegisters || forceRex);
+            for (int b : opcode) {
+                code.write(b);
+            }
+            code.write(0xc0 | (reg & 7) << 3 | (rm.register & 7));
+            return true;
+        }
+        rex(size == 8, reg, rm.index, rm.base, byteRegisters || forceRex);
+        for (int b : opcode) {
+            code.write(b);
+        }
+        boolean symbolic = rm.symbol != null;
+        if (rm.base < 0) {
+            // Absolute address, or index only: SIB with no base and a 32-bit displacement
+            code.write((reg & 7) << 3 | 4);
+            code.write(rm.index < 0 ? 0x25 : scaleBits(rm.scale) << 6 | (rm.index & 7) << 3 | 5);
+            displacement(rm, 4);
+            return true;
+        }
+        int mod;
+        if (!symbolic && rm.value == 0 && (rm.base & 7) != 5) {
+            mod = 0;
+        } else if (!symbolic && rm.value == (byte) rm.value) {
+            mod = 1;
+        } else {
+            mod = 2;
+        }
+        if (rm.index >= 0 || (rm.base & 7) == 4) {
+            code.write(mod << 6 | (reg & 7) << 3 | 4);
+            int index = rm.index < 0 ? 4 : rm.index & 7;
+            code.write(scaleBits(rm.scale) << 6 | index << 3 | (rm.base & 7));
+        } else {
+            code.write(mod << 6 | (reg & 7) << 3 | (rm.base & 7));
+        }
+        if (mod == 1) {
+            code.write((int) rm.value);
+        } else if (mod == 2) {
+            displacement(rm, 4);
+        }
+        return true;
+    }
+
+    private void rex(boolean wide, int reg, int index, int base, boolean force) {
+        int rex = (wide ? 8 : 0) | (reg >= 8 ? 4 : 0) | (index >= 8 ? 2 : 0) | (base >= 8 ? 1 : 0);
+        if (rex != 0 || force) {
+            code.write(0x40 | rex);
+        }
+    }
+
+    private void displacement(Operand operand, int size) {
+        if (operand.symbol != null) {
+            relocation(operand.symbol, Relocation.Type.ABS32);
+        } else {
+            littleEndian(operand.value, size);
+        }
+    }
+
+    private void immediate(Operand operand, int size) {
+        if (operand.symbol != null) {
+            relocations.add(new Relocation(code.size(), operand.symbol, Relocation.Type.ABS32));
+            littleEndian(0, size);
+        } else {
+            littleEndian(operand.value, size);
+        }
+    }
+
+    private void relocation(String symbol, Relocation.Type type) {
+        relocations.add(new Relocation(code.size(), symbol, type));
+        littleEndian(0, 4);
+    }
+
+    private void littleEndian(long value, int size) {
+        for (int i = 0; i < size; i++) {
+            code.write((int) (value >> (8 * i)));
+        }
+    }
+
+    private boolean bytes(int... values) {
+        for (int value : values) {
+            code.write(value);
+        }
+        return true;
+    }
+
+    private static int scaleBits(int scale) {
+        return Integer.numberOfTrailingZeros(scale);
+    }
+
+    private static boolean isByteRegister(Operand operand) {
+        return operand.kind == Operand.REGISTER && operand.size == 1 && operand.register >= 4;
+    }
+
+    private static boolean isRegister(Operand operand, int size) {
+        return operand.kind == Operand.REGISTER && operand.size == size;
+    }
+
+    /**
+     * Operand size in bytes: that of the last register operand, otherwise the suffix's (0
+     * when neither says)
+     */
+    private static int operandSize(String mnemonic, Operand[] operands) {
+        for (int i = operands.length - 1; i >= 0; i--) {
+            if (operands[i].kind == Operand.REGISTER) {
+                return operands[i].size;
+            }
+        }
+        switch (mnemonic.charAt(mnemonic.length() - 1)) {
+            case 'q': return 8;
+            case 'l': return 4;
+            case 'b': return 1;
+            default: return 0;
+        }
+    }
+
+    private static String stripSuffix(String mnemonic) {
+        if (ARITHMETIC.containsKey(mnemonic) || SHIFTS.containsKey(mnemonic) || UNARY.containsKey(mnemonic)) {
+            return mnemonic;
+        }
+        char last = mnemonic.charAt(mnemonic.length() - 1);
+        return last == 'q' || last == 'l' || last == 'b' ? mnemonic.substring(0, mnemonic.length() - 1) : mnemonic;
+    }
+
+    private static Operand[] parseOperands(String text) {
+        List<Operand> operands = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ',';
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                operands.add(parseOperand(text.substring(start, i).trim()));
+                start = i + 1;
+            }
+        }
+        return operands.toArray(new Operand[0]);
+    }
+
+    private static Operand parseOperand(String text) {
+        Operand operand = new Operand();
+        if (text.startsWith("*")) {
+            operand.indirect = true;
+            text = text.substring(1);
+        }
+        if (text.startsWith("%")) {
+            Integer register = REGISTERS.get(text.substring(1));
+            if (register == null) {
+                throw new IllegalArgumentException("Unknown register: " + text);
+            }
+            operand.kind = Operand.REGISTER;
+            operand.register = register >> 4;
+            operand.size = register & 0xf;
+            return operand;
+        }
+        if (text.startsWith("$")) {
+            operand.kind = Operand.IMMEDIATE;
+            parseValue(text.substring(1), operand);
+            return operand;
+        }
+        operand.kind = Operand.MEMORY;
+        int paren = text.indexOf('(');
+        String displacement = paren < 0 ? text : text.substring(0, paren);
+        if (!displacement.isEmpty()) {
+            parseValue(displacement, operand);
+        }
+        if (paren >= 0) {
+            String[] parts = text.substring(paren + 1, text.length() - 1).split(",", -1);
+            operand.base = parts[0].isBlank() ? -1 : parseOperand(parts[0].trim()).register;
+            if (parts.length > 1) {
+                operand.index = parseOperand(parts[1].trim()).register;
+            }
+            if (parts.length > 2) {
+                operand.scale = Integer.parseInt(parts[2].trim());
+            }
+        }
+        return operand;
+    }
+
+    private static void parseValue(String text, Operand operand) {
+        char first = text.charAt(0);
+        if (Character.isDigit(first) || first == '-') {
+            boolean negative = first == '-';
+            String digits = negative ? text.substring(1) : text;
+            long value = digits.startsWith("0x") ? Long.parseUnsignedLong(digits.substring(2), 16) : Long.parseUnsignedLong(digits);
+            operand.value = negative ? -value : value;
+        } else {
+            operand.symbol = text;
+        }
+    }
+}
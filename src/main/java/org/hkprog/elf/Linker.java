@@ -0,0 +1,85 @@
+package org.hkprog.elf;
+
+import java.util.*;
+
+/**
+ * Lays out encoded functions one after another in the text image and resolves the
+ * relocations between them. References to symbols that are not defined anywhere, such as
+ * library functions, are left as zero.
+ */
+public class Linker {
+    private long textAddress;
+    private Map<String, Long> symbols;
+    private Map<String, Integer> dataLabels;
+
+    public Linker(long textAddress) {
+        this.textAddress = textAddress;
+        this.symbols = new HashMap<>();
+        this.dataLabels = new HashMap<>();
+    }
+
+    /**
+     * Defines a symbol outside the text image, for example a data label
+     */
+    public void defineSymbol(String name, long address) {
+        symbols.put(name, address);
+    }
+
+    /**
+     * Defines labels at offsets into the data section, which the ELF writer places on the
+     * first page boundary after the text, so their addresses are only known once the text
+     * has been laid out
+     */
+    public void defineDataLabels(Map<String, Integer> labels) {
+        dataLabels.putAll(labels);
+    }
+
+    public byte[] link(List<FunctionCode> functions) {
+        // First pass: assign addresses
+        int size = 0;
+        int[] offsets = new int[functions.size()];
+        for (int i = 0; i < functions.size(); i++) {
+            FunctionCode function = functions.get(i);
+            offsets[i] = size;
+            for (Map.Entry<String, Integer> label : function.getLabels().entrySet()) {
+                symbols.put(label.getKey(), textAddress + size + label.getValue());
+            }
+            size += function.getCode().length;
+        }
+        long dataAddress = ELFWriter.dataAddress(size);
+        for (Map.Entry<String, Integer> label : dataLabels.entrySet()) {
+            symbols.put(label.getKey(), dataAddress + label.getValue());
+        }
+
+        // Second pass: copy code and apply relocations
+        byte[] image = new byte[size];
+        for (int i = 0; i < functions.size(); i++) {
+            FunctionCode function = functions.get(i);
+            System.arraycopy(function.getCode(), 0, image, offsets[i], function.getCode().length);
+
+            for (Relocation relocation : function.getRelocations()) {
+                Long target = symbols.get(relocation.getSymbol());
+                if (target == null) {
+                    continue;
+                }
+                int site = offsets[i] + relocation.getOffset();
+                long value = relocation.getType() == Relocation.Type.PC32
+                    ? target - (textAddress + site + 4)
+                    : target;
+                writeInt(image, site, (int) value);
+            }
+        }
+        return image;
+    }
+
+    public Map<String, Long> getSymbols() {
+        return symbols;
+    }
+
+    private static void writeInt(byte[] image, int offset, int value) {
+        image[offset] = (byte) value;
+        image[offset + 1] = (byte) (value >> 8);
+        image[offset + 2] = (byte) (value >> 16);
+        image[offset + 3] = (byte) (value >> 24);
+    }
+}
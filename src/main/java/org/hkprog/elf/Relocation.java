@@ -0,0 +1,35 @@
+package org.hkprog.elf;
+
+import java.io.Serializable;
+
+/**
+ * A reference from encoded machine code to a symbol, patched when the code is linked
+ */
+public class Relocation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How the symbol address is written into the code
+     */
+    public enum Type {
+        /** 32-bit displacement relative to the end of the field, as used by call and jmp */
+        PC32,
+        /** 32-bit absolute address */
+        ABS32
+    }
+
+    private int offset;
+    private String symbol;
+    private Type type;
+
+    public Relocation(int offset, String symbol, Type type) {
+        this.offset = offset;
+        this.symbol = symbol;
+        this.type = type;
+    }
+
+    public int getOffset() { return offset; }
+    public String getSymbol() { return symbol; }
+    public Type getType() { return type; }
+}
@@ -0,0 +1,135 @@
+package org.hkprog.elf;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an ELF executable one function at a time. Each function's code is appended to the
+ * text section on disk as soon as it is encoded; only the symbol table and the relocations
+ * are kept in memory, and the relocations are patched into the file by {@link #finish} once
+ * every symbol address is known. The headers, whose sizes depend on the final text size,
+ * are written last into the space reserved for them.
+ *
+ * The file is identical to the one {@link ELFWriter} builds in memory from the same
+ * functions.
+ */
+public class StreamingELFWriter implements AutoCloseable {
+
+    /**
+     * A relocation whose site has already been written to the file
+     */
+    private static class PendingRelocation {
+        private long site;
+        private String symbol;
+        private Relocation.Type type;
+
+        PendingRelocation(long site, String symbol, Relocation.Type type) {
+            this.site = site;
+            this.symbol = symbol;
+            this.type = type;
+        }
+    }
+
+    private Path outputFile;
+    private FileChannel channel;
+    private ELFWriter elfWriter;
+    private long textOffset;
+    private int textSize;
+    private Map<String, Long> symbols;
+    private List<PendingRelocation> relocations;
+    private int functionCount;
+
+    public StreamingELFWriter(Path outputFile, PrintStream out) throws IOException {
+        this.outputFile = outputFile;
+        this.channel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        this.elfWriter = new ELFWriter(out);
+        this.textOffset = ELFWriter.textOffset();
+        this.symbols = new HashMap<>();
+        this.relocations = new ArrayList<>();
+    }
+
+    /**
+     * Appends a function to the text section and records its labels and relocations
+     */
+    public void appendFunction(FunctionCode function) throws IOException {
+        long address = MachineCodeGenerator.TEXT_ADDRESS + textSize;
+        for (Map.Entry<String, Integer> label : function.getLabels().entrySet()) {
+            symbols.put(label.getKey(), address + label.getValue());
+        }
+        for (Relocation relocation : function.getRelocations()) {
+            relocations.add(new PendingRelocation(textSize + relocation.getOffset(), relocation.getSymbol(), relocation.getType()));
+        }
+        writeFully(ByteBuffer.wrap(function.getCode()), textOffset + textSize);
+        textSize += function.getCode().length;
+        functionCount++;
+    }
+
+    public void finish(byte[] dataData) throws IOException {
+        finish(dataData, Map.of());
+    }
+
+    /**
+     * Resolves the relocations, then writes the data section, section headers and ELF
+     * headers. References to undefined symbols are left as zero, as the {@link Linker} does.
+     *
+     * @param dataLabels offsets of the labels defined in the data section
+     */
+    public void finish(byte[] dataData, Map<String, Integer> dataLabels) throws IOException {
+        long dataAddress = ELFWriter.dataAddress(textSize);
+        for (Map.Entry<String, Integer> label : dataLabels.entrySet()) {
+            symbols.put(label.getKey(), dataAddress + label.getValue());
+        }
+        ByteBuffer field = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        for (PendingRelocation relocation : relocations) {
+            Long target = symbols.get(relocation.symbol);
+            if (target == null) {
+                continue;
+            }
+            long value = relocation.type == Relocation.Type.PC32
+                ? target - (MachineCodeGenerator.TEXT_ADDRESS + relocation.site + 4)
+                : target;
+            field.clear();
+            field.putInt((int) value).flip();
+            writeFully(field, textOffset + relocation.site);
+        }
+        relocations.clear();
+
+        writeFully(ByteBuffer.wrap(elfWriter.generateTrailer(textSize, dataData)), textOffset + textSize);
+        writeFully(ByteBuffer.wrap(elfWriter.generateHeader(textSize, dataData.length)), 0);
+        channel.close();
+        outputFile.toFile().setExecutable(true);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    public Map<String, Long> getSymbols() {
+        return symbols;
+    }
+
+    public int getTextSize() {
+        return textSize;
+    }
+
+    public int getFunctionCount() {
+        return functionCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,34 @@
+package org.hkprog.incremental;
+
+import org.hkprog.codegen.AssemblySection;
+import org.hkprog.elf.FunctionCode;
+import org.hkprog.ir.IRProgram;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Everything generated for one top-level function definition: its IR, its assembly and its
+ * encoded, not yet linked machine code
+ */
+public class DeclarationArtifact implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private IRProgram program;
+    private AssemblySection textSection;
+    private AssemblySection dataSection;
+    private List<FunctionCode> functionCode;
+
+    public DeclarationArtifact(IRProgram program, AssemblySection textSection, AssemblySection dataSection,
+                               List<FunctionCode> functionCode) {
+        this.program = program;
+        this.textSection = textSection;
+        this.dataSection = dataSection;
+        this.functionCode = functionCode;
+    }
+
+    public IRProgram getProgram() { return program; }
+    public AssemblySection getTextSection() { return textSection; }
+    public AssemblySection getDataSection() { return dataSection; }
+    public List<FunctionCode> getFunctionCode() { return functionCode; }
+}
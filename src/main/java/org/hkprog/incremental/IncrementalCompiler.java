@@ -0,0 +1,195 @@
+package org.hkprog.incremental;
+
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.hkprog.antlr.CParser;
+import org.hkprog.ast.AstBuilder;
+import org.hkprog.codegen.AssemblyProgram;
+import org.hkprog.codegen.AssemblySection;
+import org.hkprog.codegen.X86CodeGenerator;
+import org.hkprog.elf.FunctionCode;
+import org.hkprog.elf.MachineCodeGenerator;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IRGenerator;
+import org.hkprog.ir.IRGlobalVariable;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.PassManager;
+import org.hkprog.pch.PrecompiledHeader;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Recompiles a translation unit one function definition at a time.
+ *
+ * Every top-level function definition is fingerprinted by hashing its tokens together with
+ * the file's declaration environment (all other top-level declarations and every function
+ * signature) and a salt for the compiler version and options. Definitions whose fingerprint
+ * is found in the previous state reuse their IR, assembly and encoded machine code; only the
+ * others go through IR generation, code generation and encoding again. Other top-level
+ * declarations are cheap and feed the IR generator's symbol table, so they are always
+ * processed. The caller re-links the resulting function code into the text image.
+ */
+public class IncrementalCompiler {
+    private String salt;
+    private PrecompiledHeader precompiledHeader;
+    private PassManager passManager;
+
+    public IncrementalCompiler(String salt) {
+        this.salt = salt;
+    }
+
+    /**
+     * Seeds IR generation with the declarations of a precompiled header. The salt must
+     * already identify the header's content.
+     */
+    public void setPrecompiledHeader(PrecompiledHeader precompiledHeader) {
+        this.precompiledHeader = precompiledHeader;
+    }
+
+    /**
+     * Optimizes each regenerated definition with the function-level passes of a pipeline.
+     * The salt must already identify the optimization level.
+     */
+    public void setPassManager(PassManager passManager) {
+        this.passManager = passManager;
+    }
+
+    public IncrementalResult compile(CParser.CompilationUnitContext unit, BufferedTokenStream tokens, IncrementalState previous) {
+        List<CParser.ExternalDeclarationContext> declarations = unit.translationUnit() != null
+            ? unit.translationUnit().externalDeclaration() : new ArrayList<>();
+        String environment = environmentHash(declarations, tokens);
+
+        AstBuilder astBuilder = new AstBuilder();
+        IRGenerator irGenerator = new IRGenerator();
+        IRProgram program = new IRProgram();
+        if (precompiledHeader != null) {
+            irGenerator.seedDeclarations(precompiledHeader.getSymbols(), precompiledHeader.getGlobals());
+            program.getGlobalVariables().addAll(precompiledHeader.getGlobals());
+        }
+        X86CodeGenerator codeGen = new X86CodeGenerator();
+        MachineCodeGenerator machineCodeGen = new MachineCodeGenerator();
+
+        AssemblyProgram assembly = new AssemblyProgram();
+        AssemblySection textSection = new AssemblySection(".text", true);
+        AssemblySection dataSection = new AssemblySection(".data", false);
+        assembly.addSection(textSection);
+        assembly.addSection(dataSection);
+        List<FunctionCode> functionCode = new ArrayList<>();
+        codeGen.generateStartStub(textSection);
+        functionCode.addAll(machineCodeGen.encodeFunctions(textSection.getInstructions()));
+        for (IRGlobalVariable global : program.getGlobalVariables()) {
+            codeGen.generateGlobal(global, dataSection);
+        }
+        IncrementalState next = new IncrementalState();
+        int reused = 0;
+        int regenerated = 0;
+
+        for (CParser.ExternalDeclarationContext declaration : declarations) {
+            if (declaration.functionDefinition() == null) {
+                IRProgram fragment = irGenerator.generateDeclaration(astBuilder.buildDeclaration(declaration));
+                for (IRGlobalVariable global : fragment.getGlobalVariables()) {
+                    codeGen.generateGlobal(global, dataSection);
+                }
+                appendProgram(program, fragment);
+                continue;
+            }
+
+            String fingerprint = hash(environment, tokenText(declaration, tokens));
+            DeclarationArtifact artifact = previous.get(fingerprint);
+            if (artifact != null) {
+                reused++;
+            } else {
+                IRProgram declarationProgram = irGenerator.generateDeclaration(astBuilder.buildDeclaration(declaration));
+                if (passManager != null) {
+                    passManager.runOnFragment(declarationProgram);
+                }
+                AssemblySection declarationText = new AssemblySection(".text", true);
+                AssemblySection declarationData = new AssemblySection(".data", false);
+                // Static locals are globals belonging to the function
+                for (IRGlobalVariable global : declarationProgram.getGlobalVariables()) {
+                    codeGen.generateGlobal(global, declarationData);
+                }
+                for (IRFunction function : declarationProgram.getFunctions()) {
+                    codeGen.generateFunction(function, declarationText, declarationData);
+                }
+                List<FunctionCode> code = machineCodeGen.encodeFunctions(declarationText.getInstructions());
+                artifact = new DeclarationArtifact(declarationProgram, declarationText, declarationData, code);
+                regenerated++;
+            }
+            next.put(fingerprint, artifact);
+
+            appendProgram(program, artifact.getProgram());
+            textSection.append(artifact.getTextSection());
+            dataSection.append(artifact.getDataSection());
+            functionCode.addAll(artifact.getFunctionCode());
+        }
+
+        return new IncrementalResult(program, assembly, functionCode, next, reused, regenerated);
+    }
+
+    private void appendProgram(IRProgram program, IRProgram fragment) {
+        for (IRGlobalVariable variable : fragment.getGlobalVariables()) {
+            program.addGlobalVariable(variable);
+        }
+        for (IRFunction function : fragment.getFunctions()) {
+            program.addFunction(function);
+        }
+    }
+
+    /**
+     * Hashes everything outside function bodies: non-function declarations in full, and the
+     * signature of every function definition
+     */
+    private String environmentHash(List<CParser.ExternalDeclarationContext> declarations, BufferedTokenStream tokens) {
+        StringBuilder environment = new StringBuilder();
+        for (CParser.ExternalDeclarationContext declaration : declarations) {
+            CParser.FunctionDefinitionContext function = declaration.functionDefinition();
+            if (function == null) {
+                environment.append(tokenText(declaration, tokens));
+            } else {
+                int bodyStart = function.compoundStatement().getStart().getTokenIndex();
+                environment.append(tokenText(function.getStart().getTokenIndex(), bodyStart - 1, tokens));
+            }
+            environment.append('\n');
+        }
+        return hash(environment.toString());
+    }
+
+    private String tokenText(CParser.ExternalDeclarationContext declaration, BufferedTokenStream tokens) {
+        return tokenText(declaration.getStart().getTokenIndex(), declaration.getStop().getTokenIndex(), tokens);
+    }
+
+    /**
+     * Text of the default channel tokens in a range, so whitespace and comments do not
+     * change fingerprints
+     */
+    private String tokenText(int start, int stop, BufferedTokenStream tokens) {
+        StringBuilder text = new StringBuilder();
+        for (int i = start; i <= stop; i++) {
+            Token token = tokens.get(i);
+            if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+                text.append(token.getType()).append(':').append(token.getText()).append(' ');
+            }
+        }
+        return text.toString();
+    }
+
+    private String hash(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt.getBytes(StandardCharsets.UTF_8));
+            for (String part : parts) {
+                digest.update((byte) 0);
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.hkprog.incremental;
+
+import org.hkprog.codegen.AssemblyProgram;
+import org.hkprog.elf.FunctionCode;
+import org.hkprog.ir.IRProgram;
+
+import java.util.List;
+
+/**
+ * Output of an incremental compilation, ready to be linked
+ */
+public class IncrementalResult {
+    private IRProgram program;
+    private AssemblyProgram assembly;
+    private List<FunctionCode> functionCode;
+    private IncrementalState state;
+    private int reused;
+    private int regenerated;
+
+    public IncrementalResult(IRProgram program, AssemblyProgram assembly, List<FunctionCode> functionCode,
+                             IncrementalState state, int reused, int regenerated) {
+        this.program = program;
+        this.assembly = assembly;
+        this.functionCode = functionCode;
+        this.state = state;
+        this.reused = reused;
+        this.regenerated = regenerated;
+    }
+
+    public IRProgram getProgram() { return program; }
+    public AssemblyProgram getAssembly() { return assembly; }
+    public List<FunctionCode> getFunctionCode() { return functionCode; }
+    public IncrementalState getState() { return state; }
+    public int getReused() { return reused; }
+    public int getRegenerated() { return regenerated; }
+}
@@ -0,0 +1,112 @@
+package org.hkprog.incremental;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Artifacts of the previous compilation of an output, keyed by declaration fingerprint.
+ *
+ * Because fingerprints cover everything a function's code depends on, an artifact can be
+ * reused whenever its fingerprint matches, no matter which compilation produced it. States
+ * are saved next to the output file. The most recently used ones are also kept in memory, so a
+ * long-lived compile server does not have to read them back from disk; an in-memory copy is
+ * only reused while the file's size and modification time are unchanged.
+ */
+public class IncrementalState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of states kept in memory, each holds the IR, assembly and code of a whole output */
+    private static final int MAX_LOADED_STATES = 8;
+
+    private static final Map<Path, LoadedState> LOADED_STATES = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, LoadedState> eldest) {
+                return size() > MAX_LOADED_STATES;
+            }
+        });
+
+    private Map<String, DeclarationArtifact> artifacts;
+
+    public IncrementalState() {
+        this.artifacts = new HashMap<>();
+    }
+
+    public DeclarationArtifact get(String fingerprint) {
+        return artifacts.get(fingerprint);
+    }
+
+    public void put(String fingerprint, DeclarationArtifact artifact) {
+        artifacts.put(fingerprint, artifact);
+    }
+
+    public int size() {
+        return artifacts.size();
+    }
+
+    /**
+     * Loads the state saved for an output, or returns an empty state if there is none or it
+     * cannot be read
+     */
+    public static IncrementalState load(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        } catch (IOException e) {
+            LOADED_STATES.remove(key);
+            return new IncrementalState();
+        }
+        LoadedState loaded = LOADED_STATES.get(key);
+        if (loaded != null && loaded.matches(attributes)) {
+            return loaded.state;
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(key)))) {
+            IncrementalState state = (IncrementalState) ois.readObject();
+            LOADED_STATES.put(key, new LoadedState(state, attributes));
+            return state;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOADED_STATES.remove(key);
+            return new IncrementalState();
+        }
+    }
+
+    public void save(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        Path temp = Files.createTempFile(key.getParent(), ".inc-", null);
+        try {
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                oos.writeObject(this);
+            }
+            Files.move(temp, key, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        LOADED_STATES.put(key, new LoadedState(this, Files.readAttributes(key, BasicFileAttributes.class)));
+    }
+
+    /**
+     * An in-memory state together with the size and modification time of the file it matches
+     */
+    private static class LoadedState {
+        private IncrementalState state;
+        private long lastModified;
+        private long size;
+
+        LoadedState(IncrementalState state, BasicFileAttributes attributes) {
+            this.state = state;
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return lastModified == attributes.lastModifiedTime().toMillis() && size == attributes.size();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.hkprog.ir;
+
+import java.util.*;
+
+/**
+ * The direct calls between the functions a program defines. A call edge is a CALL whose
+ * target is the symbol of a defined function; calls through pointers and calls to external
+ * functions have no edge, and a function whose symbol is used other than as a call target
+ * is marked address-taken, since it may be called from anywhere.
+ *
+ * The strongly connected components are found with Tarjan's algorithm and listed bottom-up,
+ * each after every component it calls into, so a function in a component of its own that
+ * does not call itself is not recursive.
+ */
+public class CallGraph {
+    private final Map<String, IRFunction> functions = new LinkedHashMap<>();
+    private final Map<IRFunction, List<IRFunction>> callees = new IdentityHashMap<>();
+    private final Map<IRFunction, Integer> callSites = new IdentityHashMap<>();
+    private final Set<IRFunction> addressTaken = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<IRFunction, List<IRFunction>> componentOf = new IdentityHashMap<>();
+    private final List<List<IRFunction>> components = new ArrayList<>();
+
+    public CallGraph(IRProgram program) {
+        for (IRFunction function : program.getFunctions()) {
+            functions.put(function.getName(), function);
+            callSites.put(function, 0);
+        }
+        for (IRFunction function : program.getFunctions()) {
+            List<IRFunction> targets = new ArrayList<>();
+            for (IRBasicBlock block : function.getBlocks()) {
+                for (int i = 0; i < block.size(); i++) {
+                    int instruction = block.get(i);
+                    for (int j = 0; j < function.operandCount(instruction); j++) {
+                        IRFunction target = calledFunction(function, function.operand(instruction, j));
+                        if (target == null) {
+                            continue;
+                        }
+                        if (j == 0 && function.opcode(instruction) == IROpcode.CALL) {
+                            callSites.merge(target, 1, Integer::sum);
+                            if (!targets.contains(target)) {
+                                targets.add(target);
+                            }
+                        } else {
+                            addressTaken.add(target);
+                        }
+                    }
+                }
+            }
+            callees.put(function, targets);
+        }
+        findComponents();
+    }
+
+    /** The defined function an operand names, or null */
+    private IRFunction calledFunction(IRFunction function, int operand) {
+        if (IROperand.kind(operand) != IROperand.SYMBOL) {
+            return null;
+        }
+        return functions.get(function.symbolName(operand));
+    }
+
+    /** Tarjan's algorithm, iteratively so deep call chains cannot overflow the stack */
+    private void findComponents() {
+        Map<IRFunction, Integer> index = new IdentityHashMap<>();
+        Map<IRFunction, Integer> lowLink = new IdentityHashMap<>();
+        Deque<IRFunction> stack = new ArrayDeque<>();
+        Set<IRFunction> onStack = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IRFunction root : functions.values()) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+            // Each frame is a function and the position of the next callee to visit
+            Deque<Object[]> frames = new ArrayDeque<>();
+            frames.push(new Object[] { root, 0 });
+            while (!frames.isEmpty()) {
+                Object[] frame = frames.peek();
+                IRFunction function = (IRFunction) frame[0];
+                int next = (Integer) frame[1];
+                if (next == 0 && !index.containsKey(function)) {
+                    index.put(function, index.size());
+                    lowLink.put(function, index.get(function));
+                    stack.push(function);
+                    onStack.add(function);
+                }
+                List<IRFunction> targets = callees.get(function);
+                if (next < targets.size()) {
+                    frame[1] = next + 1;
+                    IRFunction target = targets.get(next);
+                    if (!index.containsKey(target)) {
+                        frames.push(new Object[] { target, 0 });
+                    } else if (onStack.contains(target)) {
+                        lowLink.put(function, Math.min(lowLink.get(function), index.get(target)));
+                    }
+                    continue;
+                }
+                frames.pop();
+                if (!frames.isEmpty()) {
+                    IRFunction caller = (IRFunction) frames.peek()[0];
+                    lowLink.put(caller, Math.min(lowLink.get(caller), lowLink.get(function)));
+                }
+                if (lowLink.get(function).equals(index.get(function))) {
+                    List<IRFunction> component = new ArrayList<>();
+                    IRFunction member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        component.add(member);
+                        componentOf.put(member, component);
+                    } while (member != function);
+                    components.add(component);
+                }
+            }
+        }
+    }
+
+    /** The defined function with a name, or null */
+    public IRFunction getFunction(String name) {
+        return functions.get(name);
+    }
+
+    /** Defined functions called directly, each once */
+    public List<IRFunction> callees(IRFunction function) {
+        return callees.get(function);
+    }
+
+    /** Number of direct calls to a function in the program */
+    public int callSites(IRFunction function) {
+        return callSites.get(function);
+    }
+
+    /** Whether a function's address is used other than to call it directly */
+    public boolean isAddressTaken(IRFunction function) {
+        return addressTaken.contains(function);
+    }
+
+    /** Strongly connected components, callees before callers */
+    public List<List<IRFunction>> bottomUpComponents() {
+        return components;
+    }
+
+    /** Whether two functions can call each other, directly or through others */
+    public boolean sameComponent(IRFunction a, IRFunction b) {
+        return componentOf.get(a) == componentOf.get(b);
+    }
+
+    /** Whether a function can end up calling itself */
+    public boolean isRecursive(IRFunction function) {
+        return componentOf.get(function).size() > 1 || callees.get(function).contains(function);
+    }
+}
@@ -0,0 +1,180 @@
+package org.hkprog.ir;
+
+import java.util.*;
+
+/**
+ * Successor and predecessor edges of a function's blocks, derived from their terminators,
+ * and a reverse postorder of the blocks reachable from the entry. The graph is a snapshot:
+ * it has to be rebuilt after blocks or terminators change.
+ */
+public class ControlFlowGraph {
+    private static final int[] NO_SUCCESSORS = new int[0];
+
+    private IRFunction function;
+    private int[][] successors;
+    private List<List<IRBasicBlock>> predecessors;
+    private List<IRBasicBlock> reversePostorder;
+    private int[] postorderNumbers;
+
+    public ControlFlowGraph(IRFunction function) {
+        this.function = function;
+        int bound = function.getBlockIdBound();
+        this.successors = new int[bound][];
+        this.predecessors = new ArrayList<>(bound);
+        for (int i = 0; i < bound; i++) {
+            predecessors.add(new ArrayList<>());
+        }
+        for (IRBasicBlock block : function.getBlocks()) {
+            successors[block.getId()] = successorIds(function, block);
+            for (int successor : successors[block.getId()]) {
+                List<IRBasicBlock> incoming = predecessors.get(successor);
+                if (!incoming.contains(block)) {
+                    incoming.add(block);
+                }
+            }
+        }
+        computeReversePostorder();
+    }
+
+    /**
+     * The block operand a switch jumps to when its value is the given constant
+     */
+    public static int switchTarget(IRFunction function, int instruction, long value) {
+        for (int i = 2; i + 1 < function.operandCount(instruction); i += 2) {
+            if (function.constantValue(function.operand(instruction, i)) == value) {
+                return function.operand(instruction, i + 1);
+            }
+        }
+        return function.operand(instruction, 1);
+    }
+
+    /**
+     * Ids of the blocks a block's terminator can jump to, without duplicates
+     */
+    public static int[] successorIds(IRFunction function, IRBasicBlock block) {
+        int terminator = block.last();
+        if (terminator < 0 || !function.opcode(terminator).isTerminator()) {
+            return NO_SUCCESSORS;
+        }
+        int count = 0;
+        int[] targets = new int[function.operandCount(terminator)];
+        for (int i = 0; i < targets.length; i++) {
+            int operand = function.operand(terminator, i);
+            if (IROperand.isBlock(operand)) {
+                int target = IROperand.index(operand);
+                boolean seen = false;
+                for (int j = 0; j < count; j++) {
+                    seen |= targets[j] == target;
+                }
+                if (!seen) {
+                    targets[count++] = target;
+                }
+            }
+        }
+        return Arrays.copyOf(targets, count);
+    }
+
+    private void computeReversePostorder() {
+        postorderNumbers = new int[successors.length];
+        Arrays.fill(postorderNumbers, -1);
+        List<IRBasicBlock> postorder = new ArrayList<>();
+        boolean[] visited = new boolean[successors.length];
+        // Iterative depth-first search: a stack of blocks and the next successor to visit
+        int[] stack = new int[successors.length];
+        int[] next = new int[successors.length];
+        int depth = 0;
+        stack[depth++] = function.getEntryBlock().getId();
+        visited[stack[0]] = true;
+        while (depth > 0) {
+            int block = stack[depth - 1];
+            if (next[depth - 1] < successors[block].length) {
+                int successor = successors[block][next[depth - 1]++];
+                if (!visited[successor]) {
+                    visited[successor] = true;
+                    stack[depth] = successor;
+                    next[depth] = 0;
+                    depth++;
+                }
+            } else {
+                postorderNumbers[block] = postorder.size();
+                postorder.add(function.getBlock(block));
+                depth--;
+            }
+        }
+        Collections.reverse(postorder);
+        reversePostorder = postorder;
+    }
+
+    public List<IRBasicBlock> successors(IRBasicBlock block) {
+        List<IRBasicBlock> blocks = new ArrayList<>(successors[block.getId()].length);
+        for (int successor : successors[block.getId()]) {
+            blocks.add(function.getBlock(successor));
+        }
+        return blocks;
+    }
+
+    public List<IRBasicBlock> predecessors(IRBasicBlock block) {
+        return predecessors.get(block.getId());
+    }
+
+    /** Reachable blocks, each before its successors except along back edges */
+    public List<IRBasicBlock> reversePostorder() {
+        return reversePostorder;
+    }
+
+    public boolean isReachable(IRBasicBlock block) {
+        return postorderNumbers[block.getId()] >= 0;
+    }
+
+    /** Position of a reachable block in postorder: the entry has the highest number */
+    public int postorderNumber(IRBasicBlock block) {
+        return postorderNumbers[block.getId()];
+    }
+
+    public IRFunction getFunction() { return function; }
+
+    /**
+     * Deletes the blocks that cannot be reached from the entry, then the phi inputs of edges
+     * that no longer exist, whether their source was deleted or its terminator changed
+     *
+     * @return the number of blocks removed
+     */
+    public static int removeUnreachableBlocks(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        List<IRBasicBlock> unreachable = new ArrayList<>();
+        for (IRBasicBlock block : function.getBlocks()) {
+            if (!cfg.isReachable(block)) {
+                unreachable.add(block);
+            }
+        }
+        for (IRBasicBlock block : unreachable) {
+            function.removeBlock(block);
+        }
+        for (IRBasicBlock block : function.getBlocks()) {
+            removeStalePhiInputs(function, block, cfg.predecessors(block));
+        }
+        return unreachable.size();
+    }
+
+    /**
+     * Drops the phi inputs of a block whose predecessor is not in the given list, or no
+     * longer exists
+     */
+    public static void removeStalePhiInputs(IRFunction function, IRBasicBlock block, List<IRBasicBlock> predecessors) {
+        for (int i = 0; i < block.size() && function.opcode(block.get(i)) == IROpcode.PHI; i++) {
+            int phi = block.get(i);
+            int[] inputs = function.operands(phi);
+            int count = 0;
+            for (int j = 0; j + 1 < inputs.length; j += 2) {
+                IRBasicBlock from = function.blockOf(inputs[j]);
+                if (from != null && predecessors.contains(from)) {
+                    inputs[count++] = inputs[j];
+                    inputs[count++] = inputs[j + 1];
+                }
+            }
+            if (count < inputs.length) {
+                function.setOperands(phi, Arrays.copyOf(inputs, count));
+            }
+        }
+    }
+}
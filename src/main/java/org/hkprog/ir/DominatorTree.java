@@ -0,0 +1,138 @@
+package org.hkprog.ir;
+
+import java.util.*;
+
+/**
+ * Immediate dominators of the reachable blocks, computed with the iterative algorithm of
+ * Cooper, Harvey and Kennedy over the reverse postorder
+ */
+public class DominatorTree {
+    private ControlFlowGraph cfg;
+    private int[] idom;
+    private List<List<IRBasicBlock>> children;
+    private List<List<IRBasicBlock>> frontiers;
+
+    public DominatorTree(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        IRFunction function = cfg.getFunction();
+        int bound = function.getBlockIdBound();
+        idom = new int[bound];
+        Arrays.fill(idom, -1);
+        int entry = function.getEntryBlock().getId();
+        idom[entry] = entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRBasicBlock block : cfg.reversePostorder()) {
+                if (block.getId() == entry) {
+                    continue;
+                }
+                int dominator = -1;
+                for (IRBasicBlock predecessor : cfg.predecessors(block)) {
+                    if (idom[predecessor.getId()] < 0) {
+                        continue;
+                    }
+                    dominator = dominator < 0 ? predecessor.getId() : intersect(predecessor.getId(), dominator);
+                }
+                if (dominator >= 0 && idom[block.getId()] != dominator) {
+                    idom[block.getId()] = dominator;
+                    changed = true;
+                }
+            }
+        }
+
+        children = new ArrayList<>(bound);
+        for (int i = 0; i < bound; i++) {
+            children.add(new ArrayList<>());
+        }
+        for (IRBasicBlock block : cfg.reversePostorder()) {
+            if (block.getId() != entry) {
+                children.get(idom[block.getId()]).add(block);
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        IRFunction function = cfg.getFunction();
+        while (a != b) {
+            while (cfg.postorderNumber(function.getBlock(a)) < cfg.postorderNumber(function.getBlock(b))) {
+                a = idom[a];
+            }
+            while (cfg.postorderNumber(function.getBlock(b)) < cfg.postorderNumber(function.getBlock(a))) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * The immediate dominator, or null for the entry and unreachable blocks
+     */
+    public IRBasicBlock idom(IRBasicBlock block) {
+        int dominator = idom[block.getId()];
+        return dominator < 0 || dominator == block.getId() ? null : cfg.getFunction().getBlock(dominator);
+    }
+
+    /** Blocks immediately dominated by a block, in reverse postorder */
+    public List<IRBasicBlock> children(IRBasicBlock block) {
+        return children.get(block.getId());
+    }
+
+    /**
+     * Whether every path from the entry to {@code b} goes through {@code a}; a block
+     * dominates itself
+     */
+    public boolean dominates(IRBasicBlock a, IRBasicBlock b) {
+        if (idom[b.getId()] < 0) {
+            return false;
+        }
+        int block = b.getId();
+        while (true) {
+            if (block == a.getId()) {
+                return true;
+            }
+            if (idom[block] == block) {
+                return false;
+            }
+            block = idom[block];
+        }
+    }
+
+    /**
+     * The dominance frontier of a block: the blocks where its dominance ends, which it does
+     * not strictly dominate but one of whose predecessors it dominates. Computed on first
+     * use, with the method of Cooper, Harvey and Kennedy.
+     */
+    public List<IRBasicBlock> frontier(IRBasicBlock block) {
+        if (frontiers == null) {
+            int bound = cfg.getFunction().getBlockIdBound();
+            frontiers = new ArrayList<>(bound);
+            for (int i = 0; i < bound; i++) {
+                frontiers.add(new ArrayList<>());
+            }
+            for (IRBasicBlock join : cfg.reversePostorder()) {
+                List<IRBasicBlock> predecessors = cfg.predecessors(join);
+                if (predecessors.size() < 2) {
+                    continue;
+                }
+                for (IRBasicBlock predecessor : predecessors) {
+                    int runner = predecessor.getId();
+                    while (idom[runner] >= 0 && runner != idom[join.getId()]) {
+                        List<IRBasicBlock> frontier = frontiers.get(runner);
+                        if (!frontier.contains(join)) {
+                            frontier.add(join);
+                        }
+                        if (runner == idom[runner]) {
+                            break;
+                        }
+                        runner = idom[runner];
+                    }
+                }
+            }
+        }
+        return frontiers.get(block.getId());
+    }
+
+    public ControlFlowGraph getCfg() { return cfg; }
+}
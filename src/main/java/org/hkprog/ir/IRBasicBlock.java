@@ -0,0 +1,77 @@
+package org.hkprog.ir;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A straight-line sequence of instructions ending in a terminator. The block only holds
+ * instruction ids in order; the instructions themselves live in the owning
+ * {@link IRFunction}'s arrays, so moving or deleting an instruction is an edit of this list.
+ */
+public class IRBasicBlock implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int id;
+    private int[] instructions;
+    private int size;
+
+    IRBasicBlock(int id) {
+        this.id = id;
+        this.instructions = new int[8];
+    }
+
+    public int getId() { return id; }
+    public int size() { return size; }
+
+    public int get(int index) {
+        return instructions[index];
+    }
+
+    public void set(int index, int instruction) {
+        instructions[index] = instruction;
+    }
+
+    public void add(int instruction) {
+        insert(size, instruction);
+    }
+
+    public void insert(int index, int instruction) {
+        if (size == instructions.length) {
+            instructions = Arrays.copyOf(instructions, size * 2);
+        }
+        System.arraycopy(instructions, index, instructions, index + 1, size - index);
+        instructions[index] = instruction;
+        size++;
+    }
+
+    public void remove(int index) {
+        System.arraycopy(instructions, index + 1, instructions, index, size - index - 1);
+        size--;
+    }
+
+    public int indexOf(int instruction) {
+        for (int i = 0; i < size; i++) {
+            if (instructions[i] == instruction) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The last instruction, or -1 if the block is empty
+     */
+    public int last() {
+        return size == 0 ? -1 : instructions[size - 1];
+    }
+
+    /** The instruction ids in order, as a copy that stays valid while the block is edited */
+    public int[] toArray() {
+        return Arrays.copyOf(instructions, size);
+    }
+
+    /** The block as an operand, e.g. a branch target */
+    public int operand() {
+        return IROperand.block(id);
+    }
+}
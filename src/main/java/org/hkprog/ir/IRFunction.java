@@ -1,41 +1,365 @@
 package org.hkprog.ir;
 
+import java.io.Serializable;
 import java.util.*;
 
 /**
- * Represents a function in the intermediate representation
+ * Represents a function in the intermediate representation, in SSA form: every virtual
+ * register is defined by exactly one instruction, and values merging at control-flow joins
+ * go through PHI instructions.
+ *
+ * Instructions are stored in parallel primitive arrays indexed by instruction id, with the
+ * operands of one instruction contiguous in {@code operands}; {@link IRBasicBlock}s list the
+ * ids in execution order, and the first block in layout order is the entry. Operands are
+ * tagged ints (see {@link IROperand}); the constants, symbols and string literals they refer
+ * to are interned in pools owned by the function, so a function's IR is self-contained and
+ * can be cached or moved between programs as is. Use {@link IRPrinter} to render it as text.
  */
-public class IRFunction {
+public class IRFunction implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final IROpcode[] OPCODES = IROpcode.values();
+    private static final IRType[] TYPES = IRType.values();
+
     private String name;
     private IRType returnType;
     private List<IRParameter> parameters;
-    private List<IRInstruction> instructions;
     private Map<String, IRVariable> localVariables;
-    
+    private boolean staticLinkage;
+
+    private byte[] opcodes;
+    private byte[] types;
+    private int[] results;
+    private int[] operandStart;
+    private int[] operandCount;
+    private int[] operands;
+    private int size;
+    private int operandsSize;
+    private int vregCount;
+    private int[] definitions;
+    private List<IRBasicBlock> blocks;
+    private List<IRBasicBlock> blocksById;
+
+    private long[] constants;
+    private int constantCount;
+    private Map<Long, Integer> constantIds;
+    private List<String> symbols;
+    private Map<String, Integer> symbolIds;
+    private BitSet tailCalls;
+
     public IRFunction(String name, IRType returnType) {
         this.name = name;
         this.returnType = returnType;
         this.parameters = new ArrayList<>();
-        this.instructions = new ArrayList<>();
         this.localVariables = new HashMap<>();
+        this.opcodes = new byte[16];
+        this.types = new byte[16];
+        this.results = new int[16];
+        this.operandStart = new int[16];
+        this.operandCount = new int[16];
+        this.operands = new int[32];
+        this.definitions = new int[16];
+        this.blocks = new ArrayList<>();
+        this.blocksById = new ArrayList<>();
+        this.constants = new long[8];
+        this.constantIds = new HashMap<>();
+        this.symbols = new ArrayList<>();
+        this.symbolIds = new HashMap<>();
+        this.tailCalls = new BitSet();
     }
-    
+
     public void addParameter(IRParameter parameter) {
         parameters.add(parameter);
     }
-    
-    public void addInstruction(IRInstruction instruction) {
-        instructions.add(instruction);
-    }
-    
+
     public void addLocalVariable(String name, IRVariable variable) {
         localVariables.put(name, variable);
     }
-    
+
+    /**
+     * Creates a block and appends it to the layout
+     */
+    public IRBasicBlock newBlock() {
+        IRBasicBlock block = createBlock();
+        blocks.add(block);
+        return block;
+    }
+
+    /**
+     * Creates a block that is not yet part of the layout, so that it can be targeted by
+     * branches before its position is known
+     */
+    public IRBasicBlock createBlock() {
+        IRBasicBlock block = new IRBasicBlock(blocksById.size());
+        blocksById.add(block);
+        return block;
+    }
+
+    /**
+     * Appends a block created by {@link #createBlock} to the layout
+     */
+    public void placeBlock(IRBasicBlock block) {
+        blocks.add(block);
+    }
+
+    /**
+     * Removes a block from the layout; its id stays reserved
+     */
+    public void removeBlock(IRBasicBlock block) {
+        blocks.remove(block);
+        blocksById.set(block.getId(), null);
+    }
+
+    /**
+     * The block with the given id, or null if it was removed
+     */
+    public IRBasicBlock getBlock(int id) {
+        return blocksById.get(id);
+    }
+
+    /** The block a {@link IROperand#BLOCK} operand refers to */
+    public IRBasicBlock blockOf(int operand) {
+        return blocksById.get(IROperand.index(operand));
+    }
+
+    /** Blocks in layout order, entry first */
+    public List<IRBasicBlock> getBlocks() { return blocks; }
+    public IRBasicBlock getEntryBlock() { return blocks.get(0); }
+    /** Upper bound of block ids, for sizing arrays indexed by id */
+    public int getBlockIdBound() { return blocksById.size(); }
+
+    /**
+     * Creates an instruction that is not yet placed in any block
+     *
+     * @param result the virtual register it defines, or {@link IROperand#NONE}
+     * @return the new instruction's id
+     */
+    public int addInstruction(IROpcode opcode, IRType type, int result, int... instructionOperands) {
+        if (size == opcodes.length) {
+            int capacity = size * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            types = Arrays.copyOf(types, capacity);
+            results = Arrays.copyOf(results, capacity);
+            operandStart = Arrays.copyOf(operandStart, capacity);
+            operandCount = Arrays.copyOf(operandCount, capacity);
+        }
+        int count = instructionOperands.length;
+        if (operandsSize + count > operands.length) {
+            operands = Arrays.copyOf(operands, Math.max(operands.length * 2, operandsSize + count));
+        }
+        System.arraycopy(instructionOperands, 0, operands, operandsSize, count);
+        int instruction = size++;
+        opcodes[instruction] = (byte) opcode.ordinal();
+        types[instruction] = (byte) type.ordinal();
+        results[instruction] = result;
+        operandStart[instruction] = operandsSize;
+        operandCount[instruction] = count;
+        operandsSize += count;
+        if (IROperand.isVreg(result)) {
+            definitions[IROperand.index(result)] = instruction;
+        }
+        return instruction;
+    }
+
+    /**
+     * Creates an instruction at the end of a block
+     */
+    public int append(IRBasicBlock block, IROpcode opcode, IRType type, int result, int... instructionOperands) {
+        int instruction = addInstruction(opcode, type, result, instructionOperands);
+        block.add(instruction);
+        return instruction;
+    }
+
+    public void setOperand(int instruction, int index, int operand) {
+        operands[operandStart[instruction] + index] = operand;
+    }
+
+    /**
+     * Replaces all operands of an instruction, moving them to the end of the operand array
+     * if there are more than before
+     */
+    public void setOperands(int instruction, int... instructionOperands) {
+        int count = instructionOperands.length;
+        if (count > operandCount[instruction]) {
+            if (operandsSize + count > operands.length) {
+                operands = Arrays.copyOf(operands, Math.max(operands.length * 2, operandsSize + count));
+            }
+            operandStart[instruction] = operandsSize;
+            operandsSize += count;
+        }
+        System.arraycopy(instructionOperands, 0, operands, operandStart[instruction], count);
+        operandCount[instruction] = count;
+    }
+
+    /** A copy of an instruction's operands */
+    public int[] operands(int instruction) {
+        return Arrays.copyOfRange(operands, operandStart[instruction], operandStart[instruction] + operandCount[instruction]);
+    }
+
+    public void setOpcode(int instruction, IROpcode opcode) {
+        opcodes[instruction] = (byte) opcode.ordinal();
+    }
+
+    /**
+     * Replaces every use of an operand in the instructions placed in blocks
+     */
+    public void replaceAllUses(int from, int to) {
+        for (IRBasicBlock block : blocks) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                int start = operandStart[instruction];
+                for (int j = start; j < start + operandCount[instruction]; j++) {
+                    if (operands[j] == from) {
+                        operands[j] = to;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The instruction defining a virtual register
+     */
+    public int definition(int vreg) {
+        return definitions[IROperand.index(vreg)];
+    }
+
+    /**
+     * Type of an operand's value: the defining instruction's type for a virtual register,
+     * INT or LONG by magnitude for a constant, and POINTER for symbols and strings
+     */
+    public IRType valueType(int operand) {
+        switch (IROperand.kind(operand)) {
+            case IROperand.VREG:
+                return type(definition(operand));
+            case IROperand.CONSTANT: {
+                long value = constantValue(operand);
+                return value == (int) value ? IRType.INT : IRType.LONG;
+            }
+            default:
+                return IRType.POINTER;
+        }
+    }
+
+    /**
+     * Allocates a fresh virtual register
+     */
+    public int newVreg() {
+        if (vregCount == definitions.length) {
+            definitions = Arrays.copyOf(definitions, vregCount * 2);
+        }
+        definitions[vregCount] = -1;
+        return IROperand.vreg(vregCount++);
+    }
+
+    /**
+     * Interns an integer constant
+     */
+    public int constant(long value) {
+        Integer id = constantIds.get(value);
+        if (id == null) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            id = constantCount;
+            constants[constantCount++] = value;
+            constantIds.put(value, id);
+        }
+        return IROperand.make(IROperand.CONSTANT, id);
+    }
+
+    /**
+     * Interns the name of a variable, parameter or function
+     */
+    public int symbol(String symbolName) {
+        return IROperand.make(IROperand.SYMBOL, intern(symbolName));
+    }
+
+    /**
+     * Interns a string literal, given with its quotes as it appears in the source
+     */
+    public int string(String literal) {
+        return IROperand.make(IROperand.STRING, intern(literal));
+    }
+
+    private int intern(String text) {
+        Integer id = symbolIds.get(text);
+        if (id == null) {
+            id = symbols.size();
+            symbols.add(text);
+            symbolIds.put(text, id);
+        }
+        return id;
+    }
+
+    /** Number of instructions created, including ones no longer placed in a block */
+    public int getInstructionCount() { return size; }
+    public IROpcode opcode(int instruction) { return OPCODES[opcodes[instruction]]; }
+    public IRType type(int instruction) { return TYPES[types[instruction]]; }
+    public int result(int instruction) { return results[instruction]; }
+    public int operandCount(int instruction) { return operandCount[instruction]; }
+
+    public int operand(int instruction, int index) {
+        return operands[operandStart[instruction] + index];
+    }
+
+    /** Value of a {@link IROperand#CONSTANT} operand */
+    public long constantValue(int operand) {
+        return constants[IROperand.index(operand)];
+    }
+
+    /** Text of a {@link IROperand#SYMBOL} or {@link IROperand#STRING} operand */
+    public String symbolName(int operand) {
+        return symbols.get(IROperand.index(operand));
+    }
+
+    /** Number of symbols and string literals interned so far */
+    public int getSymbolCount() { return symbols.size(); }
+
+    /** Number of virtual registers allocated so far */
+    public int getVregCount() { return vregCount; }
+
+    /**
+     * Approximate heap footprint of the instruction arrays and constant pool in bytes
+     */
+    public long footprint() {
+        long footprint = opcodes.length + types.length + 4L * (results.length + operandStart.length
+            + operandCount.length + operands.length + definitions.length) + 8L * constants.length;
+        for (IRBasicBlock block : blocks) {
+            footprint += 4L * block.size();
+        }
+        return footprint;
+    }
+
+    /**
+     * Number of instructions placed in blocks
+     */
+    public int size() {
+        int count = 0;
+        for (IRBasicBlock block : blocks) {
+            count += block.size();
+        }
+        return count;
+    }
+
+    /**
+     * Marks a call, directly followed by a return of its result, as one the code generator
+     * may turn into a jump that reuses the caller's frame
+     */
+    public void markTailCall(int instruction) {
+        tailCalls.set(instruction);
+    }
+
+    public boolean isTailCall(int instruction) {
+        return tailCalls.get(instruction);
+    }
+
     // Getters
     public String getName() { return name; }
     public IRType getReturnType() { return returnType; }
     public List<IRParameter> getParameters() { return parameters; }
-    public List<IRInstruction> getInstructions() { return instructions; }
     public Map<String, IRVariable> getLocalVariables() { return localVariables; }
-}
\ No newline at end of file
+    /** Whether the function is declared static, so only this translation unit can call it */
+    public boolean isStatic() { return staticLinkage; }
+    public void setStatic(boolean staticLinkage) { this.staticLinkage = staticLinkage; }
+}
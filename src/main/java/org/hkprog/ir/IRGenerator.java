@@ -1,309 +1,1195 @@
 package org.hkprog.ir;
 
-import org.antlr.v4.runtime.tree.*;
 import java.util.*;
-import org.hkprog.antlr.CBaseVisitor;
 import org.hkprog.antlr.CParser;
+import org.hkprog.ast.AstPrinter;
+import org.hkprog.ast.CompactAst;
+import org.hkprog.ast.NodeKind;
 
 /**
- * Generates intermediate representation from the C AST
+ * Generates intermediate representation from the compact AST.
+ *
+ * Functions are lowered to SSA form over basic blocks. Every local variable and parameter
+ * gets a stack slot (an ALLOCA at the top of the entry block) that is read and written with
+ * LOAD and STORE, so values flowing through variables need no phis at this point; phis are
+ * only created where an expression itself merges control flow, for {@code &&}, {@code ||}
+ * and {@code ?:}. Blocks left unreachable, for example after a {@code return}, are removed
+ * once the function is complete.
+ *
+ * Expression values are passed around as a long packing the operand in the low half and
+ * the C type word (see {@link CompactAst#typeWord}) in the high half, so pointer targets are
+ * known for pointer arithmetic and dereferencing.
  */
-public class IRGenerator extends CBaseVisitor<Void> {
+public class IRGenerator {
+
+	private static final int STORAGE_FLAGS = CompactAst.EXTERN | CompactAst.STATIC | CompactAst.TYPEDEF;
+	private static final int INT_WORD = CompactAst.typeWord(IRType.INT, 0);
+	private static final int LONG_WORD = CompactAst.typeWord(IRType.LONG, 0);
 
 	private IRProgram program;
 	private IRFunction currentFunction;
-	private int tempCounter;
 	private Map<String, IRType> symbolTable;
+	/** Type words of file-scope variables */
+	private Map<String, Integer> globals;
+	/** Return type words of declared and defined functions */
+	private Map<String, Integer> functions;
+	/** Sizes in bytes of global arrays */
+	private Map<String, Long> arraySizes;
+
+	private CompactAst ast;
+	private IRBasicBlock currentBlock;
+	private int allocaIndex;
+	private Deque<Map<String, Long>> scopes;
+	private Map<String, IRBasicBlock> labels;
+	private Deque<IRBasicBlock> breakTargets;
+	private Deque<IRBasicBlock> continueTargets;
+	private Deque<Map<Integer, IRBasicBlock>> switchCases;
 
 	public IRGenerator() {
 		this.program = new IRProgram();
-		this.tempCounter = 0;
 		this.symbolTable = new HashMap<>();
+		this.globals = new HashMap<>();
+		this.functions = new HashMap<>();
+		this.arraySizes = new HashMap<>();
 	}
 
-	public IRProgram generateIR(ParseTree tree) {
-		super.visit(tree);
+	public IRProgram generateIR(CompactAst ast) {
+		this.ast = ast;
+		generate(ast.getRoot());
 		return program;
 	}
 
-	private String getNextTemp() {
-		return "t" + (tempCounter++);
+	/**
+	 * Generates the IR of a single top-level declaration on its own, returning a program that
+	 * holds only the functions and globals that declaration defines
+	 */
+	public IRProgram generateDeclaration(CompactAst ast) {
+		IRProgram fullProgram = program;
+		program = new IRProgram();
+		this.ast = ast;
+		try {
+			generate(ast.getRoot());
+			return program;
+		} finally {
+			program = fullProgram;
+		}
 	}
 
-	@Override
-	public Void visitCompilationUnit(CParser.CompilationUnitContext ctx) {
-		// Visit all external declarations (functions, global variables)
-		if (ctx.translationUnit() != null) {
-			visit(ctx.translationUnit());
+	/**
+	 * Seeds the generator with the file-scope state of a precompiled header, as if the
+	 * header's declarations had just been visited
+	 */
+	public void seedDeclarations(Map<String, IRType> symbols, List<IRGlobalVariable> seededGlobals) {
+		symbolTable.putAll(symbols);
+		for (Map.Entry<String, IRType> symbol : symbols.entrySet()) {
+			functions.put(symbol.getKey(), CompactAst.typeWord(symbol.getValue(), 0));
+		}
+		for (IRGlobalVariable global : seededGlobals) {
+			functions.remove(global.getName());
+			int typeWord = CompactAst.typeWord(global.getType(), 0);
+			if (global.isArray()) {
+				typeWord = CompactAst.pointerTo(typeWord) | CompactAst.ARRAY;
+				arraySizes.put(global.getName(), (long) global.getStorageSize());
+			}
+			globals.put(global.getName(), typeWord);
+			program.addGlobalVariable(global);
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitTranslationUnit(CParser.TranslationUnitContext ctx) {
-		for (CParser.ExternalDeclarationContext extDecl : ctx.externalDeclaration()) {
-			visit(extDecl);
+	/** File-scope symbols declared so far: global variables and function prototypes */
+	public Map<String, IRType> getSymbolTable() {
+		return symbolTable;
+	}
+
+	private void generate(int node) {
+		switch (ast.kind(node)) {
+			case TRANSLATION_UNIT:
+				// Visit all external declarations (functions, global variables)
+				for (int i = 0; i < ast.childCount(node); i++) {
+					generate(ast.child(node, i));
+				}
+				break;
+			case FUNCTION:
+				generateFunction(node);
+				break;
+			case DECLARATION:
+				generateFileScopeDeclaration(node);
+				break;
+			default:
+				break;
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitExternalDeclaration(CParser.ExternalDeclarationContext ctx) {
-		if (ctx.functionDefinition() != null) {
-			visit(ctx.functionDefinition());
-		} else if (ctx.declaration() != null) {
-			// Handle global variable declarations
-			visit(ctx.declaration());
+	private void generateFileScopeDeclaration(int node) {
+		// File-scope declaration: record prototypes and globals in the symbol table
+		for (int i = 0; i < ast.childCount(node); i++) {
+			int declarator = ast.child(node, i);
+			int typeWord = ast.aux(declarator);
+			if ((typeWord & CompactAst.TYPEDEF) != 0) {
+				return;
+			}
+			IRType type = CompactAst.typeOf(typeWord);
+			String name = ast.name(declarator);
+			if (name == null) {
+				continue;
+			}
+			if (ast.kind(declarator) == NodeKind.PROTOTYPE) {
+				symbolTable.put(name, type);
+				functions.put(name, typeWord & ~STORAGE_FLAGS);
+			} else {
+				declareGlobal(name, typeWord, declarator);
+			}
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitFunctionDefinition(CParser.FunctionDefinitionContext ctx) {
-		// Extract function name and type
-		CParser.DirectDeclaratorContext directDeclarator = ctx.declarator().directDeclarator();
-		String functionName = directDeclarator.directDeclarator().Identifier().getText();
+	/**
+	 * Records a global variable. Its initializer must be an integer constant expression, or
+	 * for an array a list of them; strings and addresses are rejected, as the data section only
+	 * holds bytes and not the relocations they would need. Uninitialized storage is zero.
+	 */
+	private void declareGlobal(String name, int typeWord, int declarator) {
+		boolean array = (typeWord & CompactAst.ARRAY) != 0;
+		IRType type = array ? CompactAst.pointeeOf(typeWord) : CompactAst.typeOf(typeWord);
+		int initializer = initializer(declarator);
+		symbolTable.put(name, type);
+		globals.put(name, typeWord & ~STORAGE_FLAGS);
+		functions.remove(name);
+		int length = array ? arrayLength(declarator) : 0;
+		if (array) {
+			arraySizes.put(name, sizeOf(type) * length);
+		}
+		if ((typeWord & CompactAst.EXTERN) == 0) {
+			Object initialValue = null;
+			if (initializer >= 0 && !(ast.kind(initializer) == NodeKind.UNSUPPORTED && ast.aux(initializer) == CompactAst.RECOVERED)) {
+				initialValue = array ? constantElements(initializer, type, length) : constantValue(initializer);
+				if (initialValue == null) {
+					throw new UnsupportedConstructException(ast.line(declarator),
+						"unsupported initializer of global '" + name + "': '" + AstPrinter.source(ast, initializer) + "'");
+				}
+				if (!array) {
+					initialValue = type.wrap((Long) initialValue);
+				}
+			}
+			IRGlobalVariable global = new IRGlobalVariable(name, type, initialValue, length);
+			global.setStatic((typeWord & CompactAst.STATIC) != 0);
+			program.addGlobalVariable(global);
+		}
+	}
 
-		// For simplicity, assume all functions return int
-		IRType returnType = IRType.INT;
-		currentFunction = new IRFunction(functionName, returnType);
+	/**
+	 * Values of an initializer list of integer constant expressions, at most one per element,
+	 * or null if it is anything else
+	 */
+	private long[] constantElements(int initializer, IRType type, int length) {
+		if (ast.kind(initializer) != NodeKind.INIT_LIST) {
+			return null;
+		}
+		long[] values = new long[Math.min(ast.childCount(initializer), length)];
+		for (int i = 0; i < values.length; i++) {
+			Long value = constantValue(ast.child(initializer, i));
+			if (value == null) {
+				return null;
+			}
+			values[i] = type.wrap(value);
+		}
+		return values;
+	}
 
-		// Process parameters if any
-		if (directDeclarator.parameterTypeList() != null) {
-			processParameters(directDeclarator.parameterTypeList());
+	/** Initializer of a VARIABLE node, or -1 */
+	private int initializer(int declarator) {
+		int index = (ast.aux(declarator) & CompactAst.ARRAY) != 0 ? 1 : 0;
+		return ast.childCount(declarator) > index ? ast.child(declarator, index) : -1;
+	}
+
+	/**
+	 * Element count of an array VARIABLE: its constant length, or the number of
+	 * initializers for {@code []}
+	 */
+	private int arrayLength(int declarator) {
+		Long length = constantValue(ast.child(declarator, 0));
+		if (length == null) {
+			int initializer = initializer(declarator);
+			length = initializer >= 0 && ast.kind(initializer) == NodeKind.INIT_LIST ? (long) ast.childCount(initializer) : 1L;
+		}
+		return (int) Math.max(1, length);
+	}
+
+	private void generateFunction(int node) {
+		int returnWord = ast.aux(node) & ~STORAGE_FLAGS;
+		String name = ast.name(node);
+		functions.put(name, returnWord);
+		symbolTable.putIfAbsent(name, CompactAst.typeOf(returnWord));
+		// Virtual registers and operand pools belong to the function, so its IR does not depend on its neighbours
+		currentFunction = new IRFunction(name, CompactAst.typeOf(returnWord));
+		currentFunction.setStatic((ast.aux(node) & CompactAst.STATIC) != 0);
+		currentBlock = currentFunction.newBlock();
+		allocaIndex = 0;
+		scopes = new ArrayDeque<>();
+		scopes.push(new HashMap<>());
+		labels = new HashMap<>();
+		breakTargets = new ArrayDeque<>();
+		continueTargets = new ArrayDeque<>();
+		switchCases = new ArrayDeque<>();
+
+		int body = ast.childCount(node) - 1;
+		List<Integer> named = new ArrayList<>();
+		for (int i = 0; i < body; i++) {
+			int parameter = ast.child(node, i);
+			IRType type = CompactAst.typeOf(ast.aux(parameter));
+			if (type == IRType.VOID && ast.value(parameter) < 0) {
+				continue;
+			}
+			int index = currentFunction.getParameters().size();
+			String parameterName = ast.value(parameter) >= 0 ? ast.name(parameter) : "param" + index;
+			currentFunction.addParameter(new IRParameter(parameterName, type));
+			int value = currentFunction.newVreg();
+			currentFunction.append(currentBlock, IROpcode.PARAM, type, value, currentFunction.constant(index));
+			allocaIndex++;
+			if (ast.value(parameter) >= 0) {
+				named.add(parameter);
+				named.add(value);
+			}
+		}
+		for (int i = 0; i < named.size(); i += 2) {
+			int parameter = named.get(i);
+			declareLocal(ast.name(parameter), ast.aux(parameter), pack(named.get(i + 1), ast.aux(parameter)));
 		}
 
-		// Process function body
-		if (ctx.compoundStatement() != null) {
-			visit(ctx.compoundStatement());
+		generateStatement(ast.child(node, body));
+		if (!isTerminated()) {
+			// Falling off the end returns 0, which main requires and is harmless elsewhere
+			if (currentFunction.getReturnType() == IRType.VOID) {
+				emitVoid(IROpcode.RET, IRType.VOID);
+			} else {
+				emitVoid(IROpcode.RET, currentFunction.getReturnType(), currentFunction.constant(0));
+			}
 		}
+		ControlFlowGraph.removeUnreachableBlocks(currentFunction);
 
 		program.addFunction(currentFunction);
 		currentFunction = null;
-		return null;
+		currentBlock = null;
 	}
 
-	private void processParameters(CParser.ParameterTypeListContext paramCtx) {
-		if (paramCtx.parameterList() != null) {
-			for (CParser.ParameterDeclarationContext paramDecl : paramCtx.parameterList().parameterDeclaration()) {
-				// For simplicity, assume all parameters are int
-				String paramName = "param" + currentFunction.getParameters().size();
-				IRParameter param = new IRParameter(paramName, IRType.INT);
-				currentFunction.addParameter(param);
+	// Statements
+
+	private void generateStatement(int node) {
+		switch (ast.kind(node)) {
+			case BLOCK:
+				scopes.push(new HashMap<>());
+				for (int i = 0; i < ast.childCount(node); i++) {
+					int item = ast.child(node, i);
+					if (ast.kind(item) == NodeKind.DECLARATION) {
+						generateLocalDeclaration(item);
+					} else {
+						generateStatement(item);
+					}
+				}
+				scopes.pop();
+				break;
+			case EXPRESSION_STATEMENT:
+				if (ast.childCount(node) > 0) {
+					generateExpression(ast.child(node, 0));
+				}
+				break;
+			case IF:
+				generateIf(node);
+				break;
+			case WHILE: {
+				IRBasicBlock header = currentFunction.createBlock();
+				IRBasicBlock body = currentFunction.createBlock();
+				IRBasicBlock exit = currentFunction.createBlock();
+				startBlock(header);
+				branch(generateExpression(ast.child(node, 0)), body, exit);
+				startBlock(body);
+				generateLoopBody(ast.child(node, 1), exit, header);
+				jumpTo(header);
+				startBlock(exit);
+				break;
+			}
+			case DO_WHILE: {
+				IRBasicBlock body = currentFunction.createBlock();
+				IRBasicBlock condition = currentFunction.createBlock();
+				IRBasicBlock exit = currentFunction.createBlock();
+				startBlock(body);
+				generateLoopBody(ast.child(node, 0), exit, condition);
+				startBlock(condition);
+				branch(generateExpression(ast.child(node, 1)), body, exit);
+				startBlock(exit);
+				break;
+			}
+			case FOR:
+				generateFor(node);
+				break;
+			case SWITCH:
+				generateSwitch(node);
+				break;
+			case CASE: {
+				IRBasicBlock target = switchCases.isEmpty() ? null : switchCases.peek().get(node);
+				if (target != null) {
+					startBlock(target);
+				}
+				generateStatement(ast.child(node, 1));
+				break;
+			}
+			case DEFAULT: {
+				IRBasicBlock target = switchCases.isEmpty() ? null : switchCases.peek().get(node);
+				if (target != null) {
+					startBlock(target);
+				}
+				if (ast.childCount(node) > 0) {
+					generateStatement(ast.child(node, 0));
+				}
+				break;
 			}
+			case LABEL:
+				startBlock(label(ast.name(node)));
+				if (ast.childCount(node) > 0) {
+					generateStatement(ast.child(node, 0));
+				}
+				break;
+			case GOTO:
+				jumpTo(label(ast.name(node)));
+				break;
+			case BREAK:
+				if (!breakTargets.isEmpty()) {
+					jumpTo(breakTargets.peek());
+				}
+				break;
+			case CONTINUE:
+				if (!continueTargets.isEmpty()) {
+					jumpTo(continueTargets.peek());
+				}
+				break;
+			case RETURN:
+				generateReturn(node);
+				break;
+			case UNSUPPORTED:
+				if (ast.aux(node) != CompactAst.RECOVERED) {
+					throw new UnsupportedConstructException(ast.line(node),
+						"unsupported statement '" + AstPrinter.source(ast, node) + "'");
+				}
+				break;
+			default:
+				break;
 		}
 	}
 
-	@Override
-	public Void visitCompoundStatement(CParser.CompoundStatementContext ctx) {
-		if (ctx.blockItemList() != null) {
-			visit(ctx.blockItemList());
+	private void generateIf(int node) {
+		IRBasicBlock then = currentFunction.createBlock();
+		IRBasicBlock otherwise = ast.childCount(node) > 2 ? currentFunction.createBlock() : null;
+		IRBasicBlock merge = currentFunction.createBlock();
+		branch(generateExpression(ast.child(node, 0)), then, otherwise != null ? otherwise : merge);
+		startBlock(then);
+		generateStatement(ast.child(node, 1));
+		jumpTo(merge);
+		if (otherwise != null) {
+			startBlock(otherwise);
+			generateStatement(ast.child(node, 2));
+			jumpTo(merge);
 		}
-		return null;
+		startBlock(merge);
 	}
 
-	@Override
-	public Void visitBlockItemList(CParser.BlockItemListContext ctx) {
-		for (CParser.BlockItemContext item : ctx.blockItem()) {
-			visit(item);
+	private void generateFor(int node) {
+		scopes.push(new HashMap<>());
+		int init = ast.child(node, 0);
+		if (ast.kind(init) == NodeKind.DECLARATION) {
+			generateLocalDeclaration(init);
+		} else if (ast.kind(init) != NodeKind.EMPTY) {
+			generateExpression(init);
 		}
-		return null;
+		IRBasicBlock header = currentFunction.createBlock();
+		IRBasicBlock body = currentFunction.createBlock();
+		IRBasicBlock step = currentFunction.createBlock();
+		IRBasicBlock exit = currentFunction.createBlock();
+		startBlock(header);
+		int condition = ast.child(node, 1);
+		if (ast.kind(condition) == NodeKind.EMPTY) {
+			jumpTo(body);
+		} else {
+			branch(generateExpression(condition), body, exit);
+		}
+		startBlock(body);
+		generateLoopBody(ast.child(node, 3), exit, step);
+		startBlock(step);
+		if (ast.kind(ast.child(node, 2)) != NodeKind.EMPTY) {
+			generateExpression(ast.child(node, 2));
+		}
+		jumpTo(header);
+		startBlock(exit);
+		scopes.pop();
 	}
 
-	@Override
-	public Void visitBlockItem(CParser.BlockItemContext ctx) {
-		if (ctx.statement() != null) {
-			visit(ctx.statement());
-		} else if (ctx.declaration() != null) {
-			visit(ctx.declaration());
+	private void generateLoopBody(int body, IRBasicBlock breakTarget, IRBasicBlock continueTarget) {
+		breakTargets.push(breakTarget);
+		continueTargets.push(continueTarget);
+		generateStatement(body);
+		continueTargets.pop();
+		breakTargets.pop();
+	}
+
+	/**
+	 * Lowers a switch to a single SWITCH terminator over the case constants; how to test them
+	 * is left to the code generator
+	 */
+	private void generateSwitch(int node) {
+		long value = generateExpression(ast.child(node, 0));
+		IRType type = promote(typeOf(value));
+		IRBasicBlock exit = currentFunction.createBlock();
+		Map<Integer, IRBasicBlock> cases = new HashMap<>();
+		List<Integer> labelNodes = new ArrayList<>();
+		collectCases(ast.child(node, 1), labelNodes);
+		IRBasicBlock defaultTarget = exit;
+		List<Integer> operands = new ArrayList<>();
+		Set<Long> seen = new HashSet<>();
+		for (int label : labelNodes) {
+			IRBasicBlock target = currentFunction.createBlock();
+			cases.put(label, target);
+			if (ast.kind(label) == NodeKind.DEFAULT) {
+				defaultTarget = target;
+				continue;
+			}
+			Long constant = constantValue(ast.child(label, 0));
+			if (constant == null || !seen.add(type.wrap(constant))) {
+				continue;
+			}
+			operands.add(currentFunction.constant(type.wrap(constant)));
+			operands.add(target.operand());
 		}
-		return null;
+		operands.add(0, operand(value));
+		operands.add(1, defaultTarget.operand());
+		emitVoid(IROpcode.SWITCH, type, operands.stream().mapToInt(Integer::intValue).toArray());
+
+		switchCases.push(cases);
+		breakTargets.push(exit);
+		// The body is only entered through its case labels
+		currentBlock = currentFunction.newBlock();
+		emitVoid(IROpcode.JMP, IRType.VOID, exit.operand());
+		generateStatement(ast.child(node, 1));
+		breakTargets.pop();
+		switchCases.pop();
+		startBlock(exit);
 	}
 
-	@Override
-	public Void visitStatement(CParser.StatementContext ctx) {
-		if (ctx.expressionStatement() != null) {
-			visit(ctx.expressionStatement());
-		} else if (ctx.jumpStatement() != null) {
-			visit(ctx.jumpStatement());
+	/**
+	 * Finds the case and default labels belonging to a switch body, not descending into
+	 * nested switches
+	 */
+	private void collectCases(int node, List<Integer> cases) {
+		NodeKind kind = ast.kind(node);
+		if (kind == NodeKind.SWITCH) {
+			return;
+		}
+		if (kind == NodeKind.CASE || kind == NodeKind.DEFAULT) {
+			cases.add(node);
+		}
+		if (kind.compareTo(NodeKind.IDENTIFIER) < 0) {
+			for (int i = 0; i < ast.childCount(node); i++) {
+				collectCases(ast.child(node, i), cases);
+			}
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitExpressionStatement(CParser.ExpressionStatementContext ctx) {
-		if (ctx.expression() != null) {
-			visit(ctx.expression());
+	private void generateReturn(int node) {
+		if (ast.childCount(node) == 0) {
+			emitVoid(IROpcode.RET, IRType.VOID);
+			return;
+		}
+		long value = generateExpression(ast.child(node, 0));
+		IRType returnType = currentFunction.getReturnType();
+		if (returnType == IRType.VOID) {
+			emitVoid(IROpcode.RET, IRType.VOID);
+		} else {
+			value = convert(value, functions.getOrDefault(currentFunction.getName(), INT_WORD));
+			emitVoid(IROpcode.RET, returnType, operand(value));
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitExpression(CParser.ExpressionContext ctx) {
-		if (ctx.assignmentExpression().size() > 0) {
-			// Process the first assignment expression
-			visit(ctx.assignmentExpression(0));
+	private void generateLocalDeclaration(int node) {
+		for (int i = 0; i < ast.childCount(node); i++) {
+			int declarator = ast.child(node, i);
+			int typeWord = ast.aux(declarator);
+			String name = ast.name(declarator);
+			if ((typeWord & CompactAst.TYPEDEF) != 0) {
+				return;
+			}
+			if (name == null) {
+				continue;
+			}
+			if (ast.kind(declarator) == NodeKind.PROTOTYPE) {
+				functions.put(name, typeWord & ~STORAGE_FLAGS);
+				continue;
+			}
+			int initializer = initializer(declarator);
+			if ((typeWord & CompactAst.EXTERN) != 0) {
+				scopes.peek().put(name, pack(currentFunction.symbol(name), typeWord & ~STORAGE_FLAGS));
+			} else if ((typeWord & CompactAst.STATIC) != 0) {
+				// A static local is a global with a name private to the function
+				String global = currentFunction.getName() + "." + name;
+				declareGlobal(global, typeWord, declarator);
+				scopes.peek().put(name, pack(currentFunction.symbol(global), typeWord & ~STORAGE_FLAGS));
+			} else if ((typeWord & CompactAst.ARRAY) != 0) {
+				declareArray(name, typeWord, arrayLength(declarator), initializer);
+			} else {
+				while (initializer >= 0 && ast.kind(initializer) == NodeKind.INIT_LIST) {
+					initializer = ast.childCount(initializer) > 0 ? ast.child(initializer, 0) : -1;
+				}
+				declareLocal(name, typeWord, initializer >= 0 ? generateExpression(initializer) : 0);
+			}
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitAssignmentExpression(CParser.AssignmentExpressionContext ctx) {
-		if (ctx.conditionalExpression() != null) {
-			visit(ctx.conditionalExpression());
+	/**
+	 * Gives a local variable a stack slot in the entry block and stores its initial value,
+	 * if it has one (a packed value, or 0 for none)
+	 */
+	private void declareLocal(String name, int typeWord, long initialValue) {
+		typeWord &= ~STORAGE_FLAGS;
+		IRType type = CompactAst.typeOf(typeWord);
+		int address = currentFunction.newVreg();
+		int alloca = currentFunction.addInstruction(IROpcode.ALLOCA, IRType.POINTER, address,
+			currentFunction.symbol(name), currentFunction.constant(Math.max(1, type.getSize())));
+		currentFunction.getEntryBlock().insert(allocaIndex++, alloca);
+		currentFunction.addLocalVariable(name, new IRVariable(name, type, false));
+		scopes.peek().put(name, pack(address, typeWord));
+		if (initialValue != 0) {
+			store(pack(address, typeWord), convert(initialValue, typeWord));
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitConditionalExpression(CParser.ConditionalExpressionContext ctx) {
-		if (ctx.logicalOrExpression() != null) {
-			visit(ctx.logicalOrExpression());
+	/**
+	 * Gives a local array a stack area. An initializer list stores its elements and zeroes
+	 * the rest of the array.
+	 */
+	private void declareArray(String name, int typeWord, int length, int initializer) {
+		typeWord &= ~STORAGE_FLAGS;
+		IRType element = CompactAst.pointeeOf(typeWord);
+		int address = currentFunction.newVreg();
+		int alloca = currentFunction.addInstruction(IROpcode.ALLOCA, IRType.POINTER, address,
+			currentFunction.symbol(name), currentFunction.constant(sizeOf(element) * length));
+		currentFunction.getEntryBlock().insert(allocaIndex++, alloca);
+		currentFunction.addLocalVariable(name, new IRVariable(name, element, false));
+		scopes.peek().put(name, pack(address, typeWord));
+		if (initializer < 0 || ast.kind(initializer) != NodeKind.INIT_LIST) {
+			return;
+		}
+		int elementWord = CompactAst.typeWord(element, 0);
+		long base = pack(address, typeWord & ~CompactAst.ARRAY);
+		for (int i = 0; i < length; i++) {
+			long value = i < ast.childCount(initializer) ? generateExpression(ast.child(initializer, i)) : integer(0);
+			long slot = arithmetic(CParser.Plus, base, integer(i));
+			store(pack(operand(slot), elementWord), convert(value, elementWord));
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitLogicalOrExpression(CParser.LogicalOrExpressionContext ctx) {
-		if (ctx.logicalAndExpression().size() > 0) {
-			visit(ctx.logicalAndExpression(0));
+	// Expressions
+
+	/**
+	 * Lowers an expression, returning its packed value. Expressions that cannot be lowered,
+	 * such as member accesses, are rejected with an {@link UnsupportedConstructException}; holes
+	 * left by parser error recovery evaluate to 0.
+	 */
+	private long generateExpression(int node) {
+		switch (ast.kind(node)) {
+			case CONSTANT:
+				return constant(ast.name(node));
+			case STRING:
+				return pack(currentFunction.string(ast.name(node)), CompactAst.pointerTo(CompactAst.typeWord(IRType.CHAR, 0)));
+			case IDENTIFIER: {
+				String name = ast.name(node);
+				if (lookup(name) == null && !globals.containsKey(name) && functions.containsKey(name)) {
+					return pack(currentFunction.symbol(name), CompactAst.pointerTo(functions.get(name)));
+				}
+				long address = address(node);
+				if ((typeWord(address) & CompactAst.ARRAY) != 0) {
+					// An array decays to a pointer to its first element
+					return pack(operand(address), typeWord(address) & ~CompactAst.ARRAY);
+				}
+				return load(address);
+			}
+			case BINARY:
+				return generateBinary(node);
+			case UNARY:
+				return generateUnary(node);
+			case POSTFIX:
+				return increment(ast.child(node, 0), ast.aux(node) == CParser.PlusPlus ? CParser.Plus : CParser.Minus, false);
+			case ASSIGN:
+				return generateAssignment(node);
+			case CONDITIONAL:
+				return generateConditional(node);
+			case COMMA: {
+				long value = integer(0);
+				for (int i = 0; i < ast.childCount(node); i++) {
+					value = generateExpression(ast.child(node, i));
+				}
+				return value;
+			}
+			case CALL:
+				return generateCall(node);
+			case INDEX:
+				return load(address(node));
+			case CAST: {
+				long value = generateExpression(ast.child(node, 0));
+				return CompactAst.typeOf(ast.aux(node)) == IRType.VOID ? integer(0) : convert(value, ast.aux(node));
+			}
+			case SIZEOF_TYPE:
+				return pack(currentFunction.constant(sizeOf(CompactAst.typeOf(ast.value(node)))), LONG_WORD);
+			case UNSUPPORTED:
+				if (ast.aux(node) == CompactAst.RECOVERED) {
+					// The syntax error has been reported already; lowering continues so later errors are found too
+					return integer(0);
+				}
+				// fall through
+			default:
+				throw new UnsupportedConstructException(ast.line(node),
+					"unsupported " + ast.kind(node) + " expression '" + AstPrinter.source(ast, node) + "'");
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitLogicalAndExpression(CParser.LogicalAndExpressionContext ctx) {
-		if (ctx.inclusiveOrExpression().size() > 0) {
-			visit(ctx.inclusiveOrExpression(0));
+	private long generateBinary(int node) {
+		int operator = ast.aux(node);
+		if (operator == CParser.AndAnd || operator == CParser.OrOr) {
+			return generateLogical(node, operator == CParser.AndAnd);
 		}
-		return null;
+		long left = generateExpression(ast.child(node, 0));
+		long right = generateExpression(ast.child(node, 1));
+		IROpcode comparison = comparison(operator);
+		if (comparison != null) {
+			return pack(emit(comparison, IRType.INT, operand(left), operand(right)), INT_WORD);
+		}
+		return arithmetic(operator, left, right);
 	}
 
-	@Override
-	public Void visitInclusiveOrExpression(CParser.InclusiveOrExpressionContext ctx) {
-		if (ctx.exclusiveOrExpression().size() > 0) {
-			visit(ctx.exclusiveOrExpression(0));
+	/**
+	 * Short-circuit {@code &&} and {@code ||}: the right operand is only evaluated when the
+	 * left one does not decide the result, and a phi merges the two outcomes as 0 or 1
+	 */
+	private long generateLogical(int node, boolean and) {
+		long left = generateExpression(ast.child(node, 0));
+		IRBasicBlock right = currentFunction.createBlock();
+		IRBasicBlock end = currentFunction.createBlock();
+		IRBasicBlock decided = block();
+		if (and) {
+			branch(left, right, end);
+		} else {
+			branch(left, end, right);
 		}
-		return null;
+		startBlock(right);
+		long rightValue = generateExpression(ast.child(node, 1));
+		int truth = emit(IROpcode.NE, IRType.INT, operand(rightValue), currentFunction.constant(0));
+		IRBasicBlock evaluated = block();
+		jumpTo(end);
+		startBlock(end);
+		int result = emit(IROpcode.PHI, IRType.INT, decided.operand(), currentFunction.constant(and ? 0 : 1),
+			evaluated.operand(), truth);
+		return pack(result, INT_WORD);
+	}
+
+	private long generateConditional(int node) {
+		long condition = generateExpression(ast.child(node, 0));
+		IRBasicBlock then = currentFunction.createBlock();
+		IRBasicBlock otherwise = currentFunction.createBlock();
+		IRBasicBlock end = currentFunction.createBlock();
+		branch(condition, then, otherwise);
+		startBlock(then);
+		long thenValue = generateExpression(ast.child(node, 1));
+		IRBasicBlock thenEnd = block();
+		jumpTo(end);
+		startBlock(otherwise);
+		long elseValue = generateExpression(ast.child(node, 2));
+		IRBasicBlock elseEnd = block();
+		jumpTo(end);
+		startBlock(end);
+		// Both values are already held sign-extended, so the wider type needs no conversion
+		int typeWord = typeOf(thenValue) == IRType.POINTER ? typeWord(thenValue)
+			: typeOf(elseValue) == IRType.POINTER ? typeWord(elseValue)
+			: CompactAst.typeWord(arithmeticType(typeOf(thenValue), typeOf(elseValue)), 0);
+		int result = emit(IROpcode.PHI, CompactAst.typeOf(typeWord), thenEnd.operand(), operand(thenValue),
+			elseEnd.operand(), operand(elseValue));
+		return pack(result, typeWord);
 	}
 
-	@Override
-	public Void visitExclusiveOrExpression(CParser.ExclusiveOrExpressionContext ctx) {
-		if (ctx.andExpression().size() > 0) {
-			visit(ctx.andExpression(0));
+	private long generateUnary(int node) {
+		int operator = ast.aux(node);
+		int child = ast.child(node, 0);
+		switch (operator) {
+			case CParser.PlusPlus:
+				return increment(child, CParser.Plus, true);
+			case CParser.MinusMinus:
+				return increment(child, CParser.Minus, true);
+			case CParser.And: {
+				long address = address(child);
+				if ((typeWord(address) & CompactAst.ARRAY) != 0) {
+					return pack(operand(address), typeWord(address) & ~CompactAst.ARRAY);
+				}
+				return pack(operand(address), CompactAst.pointerTo(typeWord(address)));
+			}
+			case CParser.Star:
+				return load(address(node));
+			case CParser.Sizeof:
+			case CParser.Alignof: {
+				Long arraySize = ast.kind(child) == NodeKind.IDENTIFIER && operator == CParser.Sizeof ? arraySize(ast.name(child)) : null;
+				long size = arraySize != null ? arraySize : sizeOf(typeOf(typeOnly(child)));
+				return pack(currentFunction.constant(size), LONG_WORD);
+			}
+			default:
+				break;
 		}
-		return null;
+		long value = generateExpression(child);
+		IRType type = promote(typeOf(value));
+		switch (operator) {
+			case CParser.Minus:
+				return pack(emit(IROpcode.NEG, type, operand(value)), CompactAst.typeWord(type, 0));
+			case CParser.Tilde:
+				return pack(emit(IROpcode.NOT, type, operand(value)), CompactAst.typeWord(type, 0));
+			case CParser.Not:
+				return pack(emit(IROpcode.EQ, IRType.INT, operand(value), currentFunction.constant(0)), INT_WORD);
+			default:
+				return pack(operand(value), CompactAst.typeWord(type, 0));
+		}
+	}
+
+	/**
+	 * Type of an expression, found by lowering it into a block that is never placed, as
+	 * sizeof does not evaluate its operand
+	 */
+	private long typeOnly(int node) {
+		IRBasicBlock saved = currentBlock;
+		currentBlock = currentFunction.createBlock();
+		long value = generateExpression(node);
+		currentBlock = saved;
+		return value;
+	}
+
+	/**
+	 * Prefix or postfix increment and decrement, yielding the new or the old value
+	 */
+	private long increment(int target, int operator, boolean prefix) {
+		long address = address(target);
+		long old = load(address);
+		long updated = convert(arithmetic(operator, old, integer(1)), typeWord(address));
+		store(address, updated);
+		return prefix ? updated : old;
+	}
+
+	private long generateAssignment(int node) {
+		long address = address(ast.child(node, 0));
+		int operator = ast.aux(node);
+		long value;
+		if (operator == CParser.Assign) {
+			value = generateExpression(ast.child(node, 1));
+		} else {
+			long current = load(address);
+			value = arithmetic(compoundOperator(operator), current, generateExpression(ast.child(node, 1)));
+		}
+		value = convert(value, typeWord(address));
+		store(address, value);
+		return value;
 	}
 
-	@Override
-	public Void visitAndExpression(CParser.AndExpressionContext ctx) {
-		if (ctx.equalityExpression().size() > 0) {
-			visit(ctx.equalityExpression(0));
+	private long generateCall(int node) {
+		int callee = ast.child(node, 0);
+		int target;
+		int returnWord = INT_WORD;
+		String name = ast.kind(callee) == NodeKind.IDENTIFIER ? ast.name(callee) : null;
+		if (name != null && lookup(name) == null && !globals.containsKey(name)) {
+			target = currentFunction.symbol(name);
+			returnWord = functions.getOrDefault(name, INT_WORD);
+		} else {
+			long pointer = generateExpression(callee);
+			target = operand(pointer);
+			if (typeOf(pointer) == IRType.POINTER) {
+				returnWord = CompactAst.typeWord(CompactAst.pointeeOf(typeWord(pointer)), 0);
+			}
 		}
-		return null;
+		int[] operands = new int[ast.childCount(node)];
+		operands[0] = target;
+		for (int i = 1; i < operands.length; i++) {
+			operands[i] = operand(generateExpression(ast.child(node, i)));
+		}
+		IRType returnType = CompactAst.typeOf(returnWord);
+		if (returnType == IRType.VOID) {
+			emitVoid(IROpcode.CALL, IRType.VOID, operands);
+			return integer(0);
+		}
+		return pack(emit(IROpcode.CALL, returnType, operands), returnWord);
 	}
 
-	@Override
-	public Void visitEqualityExpression(CParser.EqualityExpressionContext ctx) {
-		if (ctx.relationalExpression().size() > 0) {
-			visit(ctx.relationalExpression(0));
+	/**
+	 * Binary arithmetic with C's usual conversions, scaling integers added to or subtracted
+	 * from pointers by the size of the pointed-to type
+	 */
+	private long arithmetic(int operator, long left, long right) {
+		IRType leftType = typeOf(left);
+		IRType rightType = typeOf(right);
+		if (operator == CParser.Plus && rightType == IRType.POINTER && leftType != IRType.POINTER) {
+			long swap = left;
+			left = right;
+			right = swap;
+			leftType = IRType.POINTER;
+			rightType = typeOf(right);
 		}
-		return null;
+		if (leftType == IRType.POINTER && (operator == CParser.Plus || operator == CParser.Minus)) {
+			long size = sizeOf(CompactAst.pointeeOf(typeWord(left)));
+			if (rightType == IRType.POINTER) {
+				int difference = emit(IROpcode.SUB, IRType.LONG, operand(left), operand(right));
+				return pack(size == 1 ? difference
+					: emit(IROpcode.DIV, IRType.LONG, difference, currentFunction.constant(size)), LONG_WORD);
+			}
+			int offset = operand(right);
+			if (size != 1) {
+				offset = emit(IROpcode.MUL, IRType.LONG, offset, currentFunction.constant(size));
+			}
+			IROpcode opcode = operator == CParser.Plus ? IROpcode.ADD : IROpcode.SUB;
+			return pack(emit(opcode, IRType.POINTER, operand(left), offset), typeWord(left));
+		}
+		IRType type = operator == CParser.LeftShift || operator == CParser.RightShift
+			? promote(leftType) : arithmeticType(leftType, rightType);
+		return pack(emit(arithmeticOpcode(operator), type, operand(left), operand(right)), CompactAst.typeWord(type, 0));
 	}
 
-	@Override
-	public Void visitRelationalExpression(CParser.RelationalExpressionContext ctx) {
-		if (ctx.shiftExpression().size() > 0) {
-			visit(ctx.shiftExpression(0));
+	/**
+	 * Address of an lvalue, packed with the type word of the object it designates
+	 */
+	private long address(int node) {
+		switch (ast.kind(node)) {
+			case IDENTIFIER: {
+				String name = ast.name(node);
+				Long local = lookup(name);
+				if (local != null) {
+					return local;
+				}
+				return pack(currentFunction.symbol(name), globals.getOrDefault(name, INT_WORD));
+			}
+			case UNARY:
+				if (ast.aux(node) == CParser.Star) {
+					long pointer = generateExpression(ast.child(node, 0));
+					return pack(operand(pointer), pointeeWord(pointer));
+				}
+				break;
+			case INDEX: {
+				long base = generateExpression(ast.child(node, 0));
+				long index = generateExpression(ast.child(node, 1));
+				if (typeOf(base) != IRType.POINTER && typeOf(index) == IRType.POINTER) {
+					long swap = base;
+					base = index;
+					index = swap;
+				}
+				long element = arithmetic(CParser.Plus, base, index);
+				return pack(operand(element), pointeeWord(element));
+			}
+			default:
+				break;
 		}
-		return null;
+		// Not an lvalue that can be lowered: evaluate it and designate a scratch slot
+		generateExpression(node);
+		int scratch = currentFunction.newVreg();
+		int alloca = currentFunction.addInstruction(IROpcode.ALLOCA, IRType.POINTER, scratch,
+			currentFunction.symbol("_"), currentFunction.constant(8));
+		currentFunction.getEntryBlock().insert(allocaIndex++, alloca);
+		return pack(scratch, INT_WORD);
 	}
 
-	@Override
-	public Void visitShiftExpression(CParser.ShiftExpressionContext ctx) {
-		if (ctx.additiveExpression().size() > 0) {
-			visit(ctx.additiveExpression(0));
+	private long load(long address) {
+		IRType type = typeOf(address);
+		if (type == IRType.VOID) {
+			type = IRType.INT;
 		}
-		return null;
+		return pack(emit(IROpcode.LOAD, type, operand(address)), typeWord(address) == 0 ? INT_WORD : typeWord(address));
 	}
 
-	@Override
-	public Void visitAdditiveExpression(CParser.AdditiveExpressionContext ctx) {
-		if (ctx.multiplicativeExpression().size() > 0) {
-			visit(ctx.multiplicativeExpression(0));
+	private void store(long address, long value) {
+		IRType type = typeOf(address) == IRType.VOID ? IRType.INT : typeOf(address);
+		emitVoid(IROpcode.STORE, type, operand(address), operand(value));
+	}
+
+	/**
+	 * Converts a value to a type, truncating with a CAST when the target is narrower
+	 */
+	private long convert(long value, int targetWord) {
+		targetWord &= ~STORAGE_FLAGS;
+		IRType from = typeOf(value);
+		IRType to = CompactAst.typeOf(targetWord);
+		if (to == IRType.VOID) {
+			return value;
 		}
-		return null;
+		int result = operand(value);
+		if (to.getSize() < Math.max(from.getSize(), 1)) {
+			result = IROperand.isConstant(result)
+				? currentFunction.constant(to.wrap(currentFunction.constantValue(result)))
+				: emit(IROpcode.CAST, to, result);
+		}
+		return pack(result, targetWord);
 	}
 
-	@Override
-	public Void visitMultiplicativeExpression(CParser.MultiplicativeExpressionContext ctx) {
-		if (ctx.castExpression().size() > 0) {
-			visit(ctx.castExpression(0));
+	private long constant(String text) {
+		Long value = parseIntegerConstant(text);
+		if (value == null) {
+			return integer(0);
 		}
-		return null;
+		boolean isLong = text.endsWith("l") || text.endsWith("L") || value != (int) (long) value;
+		return pack(currentFunction.constant(value), isLong ? LONG_WORD : INT_WORD);
 	}
 
-	@Override
-	public Void visitCastExpression(CParser.CastExpressionContext ctx) {
-		if (ctx.unaryExpression() != null) {
-			visit(ctx.unaryExpression());
+	private long integer(long value) {
+		return pack(currentFunction.constant(value), INT_WORD);
+	}
+
+	/**
+	 * Value of an integer constant expression, or null if the expression is not one
+	 */
+	private Long constantValue(int node) {
+		switch (ast.kind(node)) {
+			case CONSTANT:
+				return parseIntegerConstant(ast.name(node));
+			case CAST: {
+				Long value = constantValue(ast.child(node, 0));
+				return value == null ? null : CompactAst.typeOf(ast.aux(node)).wrap(value);
+			}
+			case UNARY: {
+				Long value = constantValue(ast.child(node, 0));
+				if (value == null) {
+					return null;
+				}
+				switch (ast.aux(node)) {
+					case CParser.Minus: return -value;
+					case CParser.Plus: return value;
+					case CParser.Tilde: return ~value;
+					case CParser.Not: return value == 0 ? 1L : 0L;
+					default: return null;
+				}
+			}
+			case BINARY: {
+				Long left = constantValue(ast.child(node, 0));
+				Long right = constantValue(ast.child(node, 1));
+				if (left == null || right == null) {
+					return null;
+				}
+				return constantBinary(ast.aux(node), left, right);
+			}
+			case CONDITIONAL: {
+				Long condition = constantValue(ast.child(node, 0));
+				return condition == null ? null : constantValue(ast.child(node, condition != 0 ? 1 : 2));
+			}
+			case SIZEOF_TYPE:
+				return sizeOf(CompactAst.typeOf(ast.value(node)));
+			default:
+				return null;
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitUnaryExpression(CParser.UnaryExpressionContext ctx) {
-		if (ctx.postfixExpression() != null) {
-			visit(ctx.postfixExpression());
+	private static Long constantBinary(int operator, long left, long right) {
+		switch (operator) {
+			case CParser.Plus: return left + right;
+			case CParser.Minus: return left - right;
+			case CParser.Star: return left * right;
+			case CParser.Div: return right == 0 ? null : left / right;
+			case CParser.Mod: return right == 0 ? null : left % right;
+			case CParser.And: return left & right;
+			case CParser.Or: return left | right;
+			case CParser.Caret: return left ^ right;
+			case CParser.LeftShift: return left << right;
+			case CParser.RightShift: return left >> right;
+			case CParser.Less: return left < right ? 1L : 0L;
+			case CParser.LessEqual: return left <= right ? 1L : 0L;
+			case CParser.Greater: return left > right ? 1L : 0L;
+			case CParser.GreaterEqual: return left >= right ? 1L : 0L;
+			case CParser.Equal: return left == right ? 1L : 0L;
+			case CParser.NotEqual: return left != right ? 1L : 0L;
+			case CParser.AndAnd: return left != 0 && right != 0 ? 1L : 0L;
+			case CParser.OrOr: return left != 0 || right != 0 ? 1L : 0L;
+			default: return null;
 		}
-		return null;
 	}
 
-	@Override
-	public Void visitPostfixExpression(CParser.PostfixExpressionContext ctx) {
-		if (ctx.primaryExpression() != null) {
-			visit(ctx.primaryExpression());
-		} else if (ctx.getText().contains("(") && ctx.argumentExpressionList() != null) {
-			// This is a function call
-			handleFunctionCall(ctx);
+	private static IROpcode comparison(int operator) {
+		switch (operator) {
+			case CParser.Equal: return IROpcode.EQ;
+			case CParser.NotEqual: return IROpcode.NE;
+			case CParser.Less: return IROpcode.LT;
+			case CParser.LessEqual: return IROpcode.LE;
+			case CParser.Greater: return IROpcode.GT;
+			case CParser.GreaterEqual: return IROpcode.GE;
+			default: return null;
 		}
-		return null;
 	}
 
-	private void handleFunctionCall(CParser.PostfixExpressionContext ctx) {
-		// Extract function name from the primary expression part
-		String functionName = null;
-		if (ctx.primaryExpression() != null && ctx.primaryExpression().Identifier() != null) {
-			functionName = ctx.primaryExpression().Identifier().getText();
-		} else {
-			// Try to get function name from text
-			String fullText = ctx.getText();
-			int parenIndex = fullText.indexOf('(');
-			if (parenIndex > 0) {
-				functionName = fullText.substring(0, parenIndex);
-			}
+	private static IROpcode arithmeticOpcode(int operator) {
+		switch (operator) {
+			case CParser.Plus: return IROpcode.ADD;
+			case CParser.Minus: return IROpcode.SUB;
+			case CParser.Star: return IROpcode.MUL;
+			case CParser.Div: return IROpcode.DIV;
+			case CParser.Mod: return IROpcode.MOD;
+			case CParser.And: return IROpcode.AND;
+			case CParser.Or: return IROpcode.OR;
+			case CParser.Caret: return IROpcode.XOR;
+			case CParser.LeftShift: return IROpcode.SHL;
+			default: return IROpcode.SHR;
 		}
+	}
+
+	/** Binary operator of a compound assignment operator */
+	private static int compoundOperator(int operator) {
+		switch (operator) {
+			case CParser.PlusAssign: return CParser.Plus;
+			case CParser.MinusAssign: return CParser.Minus;
+			case CParser.StarAssign: return CParser.Star;
+			case CParser.DivAssign: return CParser.Div;
+			case CParser.ModAssign: return CParser.Mod;
+			case CParser.LeftShiftAssign: return CParser.LeftShift;
+			case CParser.RightShiftAssign: return CParser.RightShift;
+			case CParser.AndAssign: return CParser.And;
+			case CParser.XorAssign: return CParser.Caret;
+			default: return CParser.Or;
+		}
+	}
+
+	/** Integer promotion: char operands are computed as int */
+	private static IRType promote(IRType type) {
+		return type == IRType.CHAR || type == IRType.VOID ? IRType.INT : type;
+	}
+
+	private static IRType arithmeticType(IRType left, IRType right) {
+		left = promote(left);
+		right = promote(right);
+		return left == IRType.INT && right == IRType.INT ? IRType.INT : IRType.LONG;
+	}
+
+	/** Size of an object of a type, with void counting as one byte like GNU C */
+	private static long sizeOf(IRType type) {
+		return Math.max(1, type.getSize());
+	}
 
-		// For printf calls with string literals
-		if ("printf".equals(functionName)) {
-			// Simple approach: just create printf call with one string argument
-			String[] arguments = {"\"Hello World\""};
+	private static int pointeeWord(long pointer) {
+		if (typeOf(pointer) != IRType.POINTER) {
+			return INT_WORD;
+		}
+		return CompactAst.typeWord(CompactAst.pointeeOf(typeWord(pointer)), 0);
+	}
 
-			IRCallInstruction callInstr = new IRCallInstruction(null, functionName, arguments);
-			currentFunction.addInstruction(callInstr);
+	/** Size of a local or global array, or null if the name is not one */
+	private Long arraySize(String name) {
+		Long local = lookup(name);
+		if (local == null) {
+			return globals.containsKey(name) ? arraySizes.get(name) : null;
 		}
+		if ((typeWord(local) & CompactAst.ARRAY) == 0 || !IROperand.isVreg(operand(local))) {
+			return null;
+		}
+		return currentFunction.constantValue(currentFunction.operand(currentFunction.definition(operand(local)), 1));
+	}
+
+	private IRBasicBlock label(String name) {
+		return labels.computeIfAbsent(name, unused -> currentFunction.createBlock());
 	}
 
-	@Override
-	public Void visitJumpStatement(CParser.JumpStatementContext ctx) {
-		if (ctx.Return() != null) {
-			String returnValue = null;
-			if (ctx.expression() != null) {
-				returnValue = ctx.expression().getText();
+	private Long lookup(String name) {
+		for (Map<String, Long> scope : scopes) {
+			Long local = scope.get(name);
+			if (local != null) {
+				return local;
 			}
-			IRReturnInstruction returnInstr = new IRReturnInstruction(returnValue);
-			currentFunction.addInstruction(returnInstr);
 		}
 		return null;
 	}
+
+	// Packed values
+
+	private static long pack(int operand, int typeWord) {
+		return (long) typeWord << 32 | (operand & 0xFFFFFFFFL);
+	}
+
+	private static int operand(long value) {
+		return (int) value;
+	}
+
+	private static int typeWord(long value) {
+		return (int) (value >>> 32);
+	}
+
+	private static IRType typeOf(long value) {
+		return CompactAst.typeOf(typeWord(value));
+	}
+
+	// Emission
+
+	private boolean isTerminated() {
+		int last = currentBlock.last();
+		return last >= 0 && currentFunction.opcode(last).isTerminator();
+	}
+
+	/**
+	 * The block to emit into; code following a jump or return is unreachable and goes to a
+	 * fresh block that is removed at the end
+	 */
+	private IRBasicBlock block() {
+		if (isTerminated()) {
+			currentBlock = currentFunction.newBlock();
+		}
+		return currentBlock;
+	}
+
+	private int emit(IROpcode opcode, IRType type, int... operands) {
+		int result = currentFunction.newVreg();
+		currentFunction.append(block(), opcode, type, result, operands);
+		return result;
+	}
+
+	private void emitVoid(IROpcode opcode, IRType type, int... operands) {
+		currentFunction.append(block(), opcode, type, IROperand.NONE, operands);
+	}
+
+	private void jumpTo(IRBasicBlock target) {
+		if (!isTerminated()) {
+			emitVoid(IROpcode.JMP, IRType.VOID, target.operand());
+		}
+	}
+
+	private void branch(long condition, IRBasicBlock whenTrue, IRBasicBlock whenFalse) {
+		emitVoid(IROpcode.BR, IRType.VOID, operand(condition), whenTrue.operand(), whenFalse.operand());
+	}
+
+	/**
+	 * Falls through into a block created with createBlock and continues emitting there
+	 */
+	private void startBlock(IRBasicBlock block) {
+		jumpTo(block);
+		currentFunction.placeBlock(block);
+		currentBlock = block;
+	}
+
+	/**
+	 * Value of a C integer or character constant, or null for floating constants and
+	 * escapes that are not understood
+	 */
+	static Long parseIntegerConstant(String text) {
+		if (text.startsWith("'")) {
+			if (text.length() == 3) {
+				return (long) text.charAt(1);
+			}
+			if (text.length() == 4 && text.charAt(1) == '\\') {
+				int escape = "0abtnvfr\\'\"?".indexOf(text.charAt(2));
+				return escape < 0 ? null : (long) "\0\007\b\t\n\013\f\r\\'\"?".charAt(escape);
+			}
+			return null;
+		}
+		int end = text.length();
+		while (end > 0 && "uUlL".indexOf(text.charAt(end - 1)) >= 0) {
+			end--;
+		}
+		String digits = text.substring(0, end);
+		try {
+			if (digits.startsWith("0x") || digits.startsWith("0X")) {
+				return Long.parseUnsignedLong(digits.substring(2), 16);
+			}
+			if (digits.length() > 1 && digits.startsWith("0")) {
+				return Long.parseUnsignedLong(digits.substring(1), 8);
+			}
+			return Long.parseUnsignedLong(digits);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
 }
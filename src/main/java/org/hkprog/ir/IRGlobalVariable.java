@@ -1,15 +1,96 @@
 package org.hkprog.ir;
 
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
 /**
  * Represents a global variable
  */
 public class IRGlobalVariable extends IRVariable {
+    private static final long serialVersionUID = 1L;
+
     private Object initialValue;
+    private int length;
+    private boolean staticLinkage;
     
     public IRGlobalVariable(String name, IRType type, Object initialValue) {
+        this(name, type, initialValue, 0);
+    }
+    
+    /**
+     * @param initialValue the integer value of a scalar, the element values of an array as a
+     *     {@code long[]}, or null
+     * @param length number of elements of an array of {@code type}, or 0 for a scalar
+     */
+    public IRGlobalVariable(String name, IRType type, Object initialValue, int length) {
         super(name, type, true);
         this.initialValue = initialValue;
+        this.length = length;
     }
     
     public Object getInitialValue() { return initialValue; }
+    public int getLength() { return length; }
+    public boolean isArray() { return length > 0; }
+    /** Whether the variable is declared static, so no other translation unit can refer to it */
+    public boolean isStatic() { return staticLinkage; }
+    public void setStatic(boolean staticLinkage) { this.staticLinkage = staticLinkage; }
+    
+    /** Size in bytes of the variable's storage */
+    public int getStorageSize() {
+        return Math.max(1, getType().getSize()) * Math.max(1, length);
+    }
+    
+    /**
+     * The initial value as an integer, or null if it is not an integer constant. Values
+     * read back from a precompiled header are strings.
+     */
+    public Long getConstantValue() {
+        if (initialValue instanceof Number) {
+            return ((Number) initialValue).longValue();
+        }
+        if (initialValue instanceof String) {
+            return parse((String) initialValue);
+        }
+        return null;
+    }
+
+    /**
+     * The initial values of the elements, a scalar being a single element, or null if there
+     * are none. Elements beyond the end of the array are zero.
+     */
+    public long[] getConstantValues() {
+        if (initialValue instanceof long[]) {
+            return (long[]) initialValue;
+        }
+        String text = initialValue instanceof String ? (String) initialValue : "";
+        if (text.startsWith("{") && text.endsWith("}")) {
+            String body = text.substring(1, text.length() - 1);
+            String[] elements = body.isBlank() ? new String[0] : body.split(",");
+            long[] values = new long[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                Long value = parse(elements[i].trim());
+                if (value == null) {
+                    return null;
+                }
+                values[i] = value;
+            }
+            return values;
+        }
+        Long value = getConstantValue();
+        return value == null ? null : new long[] { value };
+    }
+
+    /** The initial value as text, the elements of an array in braces, or null */
+    public String getInitialValueText() {
+        if (initialValue instanceof long[]) {
+            return Arrays.stream((long[]) initialValue).mapToObj(Long::toString).collect(Collectors.joining(", ", "{", "}"));
+        }
+        return initialValue == null ? null : initialValue.toString();
+    }
+
+    private static Long parse(String text) {
+        boolean negative = text.startsWith("-");
+        Long value = IRGenerator.parseIntegerConstant(negative ? text.substring(1) : text);
+        return value == null ? null : negative ? -value : value;
+    }
 }
\ No newline at end of file
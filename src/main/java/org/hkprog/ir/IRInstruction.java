@@ -1,18 +0,0 @@
-package org.hkprog.ir;
-
-/**
- * Base class for all IR instructions
- */
-public abstract class IRInstruction {
-    protected String result;
-    
-    public IRInstruction(String result) {
-        this.result = result;
-    }
-    
-    public String getResult() {
-        return result;
-    }
-    
-    public abstract String toString();
-}
\ No newline at end of file
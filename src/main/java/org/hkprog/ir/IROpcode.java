@@ -0,0 +1,86 @@
+package org.hkprog.ir;
+
+/**
+ * Operation performed by an IR instruction.
+ *
+ * Every value is a 64-bit integer kept sign-extended from the width of its {@link IRType},
+ * so widening is free and an instruction of a narrower type wraps its result to that
+ * width. Comparisons yield an INT 0 or 1.
+ */
+public enum IROpcode {
+    /** result = incoming argument number operand 0 */
+    PARAM,
+    /** result = address of a fresh stack slot; operands: symbol naming the variable, size in bytes */
+    ALLOCA,
+    /** result = value of the instruction's type read from address operand 0 */
+    LOAD,
+    /** Writes operand 1 to address operand 0, truncated to the instruction's type */
+    STORE,
+
+    ADD,
+    SUB,
+    MUL,
+    /** Signed division truncating towards zero */
+    DIV,
+    /** Signed remainder, with the sign of the dividend */
+    MOD,
+    AND,
+    OR,
+    XOR,
+    SHL,
+    /** Arithmetic shift right */
+    SHR,
+    NEG,
+    /** Bitwise complement */
+    NOT,
+    /** Converts operand 0 to the instruction's type */
+    CAST,
+
+    EQ,
+    NE,
+    LT,
+    LE,
+    GT,
+    GE,
+
+    /** result = operand 0 (a function symbol) called with the remaining operands */
+    CALL,
+    /** result = the value of the pair (predecessor block, value) for the edge control came from */
+    PHI,
+
+    /** Jumps to block operand 0 */
+    JMP,
+    /** Jumps to block operand 1 if operand 0 is non-zero, otherwise to block operand 2 */
+    BR,
+    /**
+     * Jumps to the block paired with operand 0 among the (constant, block) pairs from
+     * operand 2 on, or to block operand 1 if no constant matches
+     */
+    SWITCH,
+    /** Returns operand 0, or nothing when the instruction has no operands */
+    RET;
+
+    public boolean isTerminator() {
+        return this == JMP || this == BR || this == SWITCH || this == RET;
+    }
+
+    public boolean isBinary() {
+        return compareTo(ADD) >= 0 && compareTo(SHR) <= 0 || isComparison();
+    }
+
+    public boolean isComparison() {
+        return compareTo(EQ) >= 0 && compareTo(GE) <= 0;
+    }
+
+    public boolean isCommutative() {
+        return this == ADD || this == MUL || this == AND || this == OR || this == XOR || this == EQ || this == NE;
+    }
+
+    /**
+     * Whether the instruction does anything besides computing its result, so it must be
+     * kept even when the result is unused
+     */
+    public boolean hasSideEffects() {
+        return this == STORE || this == CALL || isTerminator();
+    }
+}
@@ -0,0 +1,64 @@
+package org.hkprog.ir;
+
+/**
+ * Encodes an instruction operand as a single int: the top bits hold the operand kind and
+ * the rest an index whose meaning depends on the kind. Virtual registers are numbered per
+ * function, while constants, symbols and string literals index the owning
+ * {@link IRFunction}'s pools, so an operand is only meaningful together with its function.
+ */
+public final class IROperand {
+
+    /** No operand, e.g. the result of a call whose value is unused */
+    public static final int NONE = 0;
+    /** Virtual register number */
+    public static final int VREG = 1;
+    /** Index into the function's constant pool */
+    public static final int CONSTANT = 2;
+    /** Index into the function's symbol pool: a variable, parameter or function name */
+    public static final int SYMBOL = 3;
+    /** Index into the function's symbol pool holding the literal's source text */
+    public static final int STRING = 4;
+    /** Basic block id, the target of a branch or the predecessor of a phi input */
+    public static final int BLOCK = 5;
+
+    private static final int KIND_SHIFT = 28;
+    private static final int INDEX_MASK = (1 << KIND_SHIFT) - 1;
+
+    private IROperand() {
+    }
+
+    public static int make(int kind, int index) {
+        if (index < 0 || index > INDEX_MASK) {
+            throw new IllegalArgumentException("Operand index out of range: " + index);
+        }
+        return kind << KIND_SHIFT | index;
+    }
+
+    public static int vreg(int number) {
+        return make(VREG, number);
+    }
+
+    public static int block(int id) {
+        return make(BLOCK, id);
+    }
+
+    public static int kind(int operand) {
+        return operand >>> KIND_SHIFT;
+    }
+
+    public static int index(int operand) {
+        return operand & INDEX_MASK;
+    }
+
+    public static boolean isVreg(int operand) {
+        return kind(operand) == VREG;
+    }
+
+    public static boolean isConstant(int operand) {
+        return kind(operand) == CONSTANT;
+    }
+
+    public static boolean isBlock(int operand) {
+        return kind(operand) == BLOCK;
+    }
+}
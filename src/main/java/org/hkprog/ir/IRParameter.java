@@ -1,9 +1,13 @@
 package org.hkprog.ir;
 
+import java.io.Serializable;
+
 /**
  * Represents a parameter in a function
  */
-public class IRParameter {
+public class IRParameter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String name;
     private IRType type;
     
@@ -0,0 +1,100 @@
+package org.hkprog.ir;
+
+/**
+ * Renders IR instructions and operands as text for dumps and tests. Virtual registers print
+ * as {@code t0, t1, ...}, blocks as {@code L0, L1, ...}, constants in decimal and symbols and
+ * string literals as written.
+ */
+public class IRPrinter {
+
+    public static String operand(IRFunction function, int operand) {
+        switch (IROperand.kind(operand)) {
+            case IROperand.VREG:
+                return "t" + IROperand.index(operand);
+            case IROperand.CONSTANT:
+                return Long.toString(function.constantValue(operand));
+            case IROperand.SYMBOL:
+            case IROperand.STRING:
+                return function.symbolName(operand);
+            case IROperand.BLOCK:
+                return "L" + IROperand.index(operand);
+            default:
+                return "_";
+        }
+    }
+
+    /**
+     * Text of one instruction, e.g. {@code t0 = call f(a, 1)}, {@code t2 = add int t0, 1},
+     * {@code t3 = phi int [L1: t2], [L2: 0]} or {@code switch int t3, L4 [1: L5], [7: L6]}
+     */
+    public static String instruction(IRFunction function, int instruction) {
+        StringBuilder text = new StringBuilder();
+        int result = function.result(instruction);
+        if (result != IROperand.NONE) {
+            text.append(operand(function, result)).append(" = ");
+        }
+        switch (function.opcode(instruction)) {
+            case CALL:
+                text.append(function.isTailCall(instruction) ? "tail call " : "call ").append(operand(function, function.operand(instruction, 0))).append('(');
+                for (int i = 1; i < function.operandCount(instruction); i++) {
+                    if (i > 1) {
+                        text.append(", ");
+                    }
+                    text.append(operand(function, function.operand(instruction, i)));
+                }
+                text.append(')');
+                break;
+            case RET:
+                text.append("return");
+                if (function.operandCount(instruction) > 0) {
+                    text.append(' ').append(operand(function, function.operand(instruction, 0)));
+                }
+                break;
+            case PHI:
+                text.append("phi ").append(function.type(instruction).getName());
+                for (int i = 0; i + 1 < function.operandCount(instruction); i += 2) {
+                    text.append(i == 0 ? " [" : ", [").append(operand(function, function.operand(instruction, i)))
+                        .append(": ").append(operand(function, function.operand(instruction, i + 1))).append(']');
+                }
+                break;
+            case JMP:
+            case BR:
+                text.append(function.opcode(instruction).name().toLowerCase());
+                for (int i = 0; i < function.operandCount(instruction); i++) {
+                    text.append(i == 0 ? " " : ", ").append(operand(function, function.operand(instruction, i)));
+                }
+                break;
+            case SWITCH:
+                text.append("switch ").append(function.type(instruction).getName()).append(' ')
+                    .append(operand(function, function.operand(instruction, 0))).append(", ")
+                    .append(operand(function, function.operand(instruction, 1)));
+                for (int i = 2; i + 1 < function.operandCount(instruction); i += 2) {
+                    text.append(i == 2 ? " [" : ", [").append(operand(function, function.operand(instruction, i)))
+                        .append(": ").append(operand(function, function.operand(instruction, i + 1))).append(']');
+                }
+                break;
+            default:
+                text.append(function.opcode(instruction).name().toLowerCase()).append(' ').append(function.type(instruction).getName());
+                for (int i = 0; i < function.operandCount(instruction); i++) {
+                    text.append(i == 0 ? " " : ", ").append(operand(function, function.operand(instruction, i)));
+                }
+                break;
+        }
+        return text.toString();
+    }
+
+    /**
+     * All blocks of a function in layout order, each label followed by its instructions
+     * indented, one per line
+     */
+    public static String function(IRFunction function) {
+        StringBuilder text = new StringBuilder();
+        for (IRBasicBlock block : function.getBlocks()) {
+            text.append('L').append(block.getId()).append(":\n");
+            for (int i = 0; i < block.size(); i++) {
+                text.append("  ").append(instruction(function, block.get(i))).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
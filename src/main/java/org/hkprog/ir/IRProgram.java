@@ -1,11 +1,14 @@
 package org.hkprog.ir;
 
+import java.io.Serializable;
 import java.util.*;
 
 /**
  * Represents the entire program in intermediate representation
  */
-public class IRProgram {
+public class IRProgram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private List<IRFunction> functions;
     private List<IRGlobalVariable> globalVariables;
     
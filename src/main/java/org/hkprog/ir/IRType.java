@@ -26,6 +26,18 @@ public enum IRType {
         return size;
     }
     
+    /**
+     * Wraps a value to this type's width and sign-extends it back to 64 bits, the way every
+     * IR value of this type is held
+     */
+    public long wrap(long value) {
+        switch (this) {
+            case CHAR: return (byte) value;
+            case INT: return (int) value;
+            default: return value;
+        }
+    }
+    
     public static IRType fromString(String typeString) {
         switch (typeString.toLowerCase()) {
             case "void": return VOID;
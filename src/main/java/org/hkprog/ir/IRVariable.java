@@ -1,9 +1,13 @@
 package org.hkprog.ir;
 
+import java.io.Serializable;
+
 /**
  * Represents a variable (local or global)
  */
-public class IRVariable {
+public class IRVariable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String name;
     private IRType type;
     private boolean isGlobal;
@@ -0,0 +1,116 @@
+package org.hkprog.ir;
+
+import java.util.*;
+
+/**
+ * Checks the structural invariants of a function's SSA form and throws
+ * IllegalStateException describing the first violation: every block ends in its only
+ * terminator, phis come first and have one input per predecessor, branch targets exist,
+ * every virtual register is defined once, and every use is dominated by its definition.
+ */
+public class IRVerifier {
+
+    public static void verify(IRProgram program) {
+        for (IRFunction function : program.getFunctions()) {
+            verify(function);
+        }
+    }
+
+    public static void verify(IRFunction function) {
+        if (function.getBlocks().isEmpty()) {
+            throw failure(function, "has no blocks");
+        }
+        int[] definingBlock = new int[function.getVregCount()];
+        int[] position = new int[function.getVregCount()];
+        Arrays.fill(definingBlock, -1);
+        for (IRBasicBlock block : function.getBlocks()) {
+            if (block.size() == 0 || !function.opcode(block.last()).isTerminator()) {
+                throw failure(function, "block L" + block.getId() + " does not end in a terminator");
+            }
+            boolean phis = true;
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                IROpcode opcode = function.opcode(instruction);
+                if (opcode.isTerminator() && i != block.size() - 1) {
+                    throw failure(function, "terminator in the middle of L" + block.getId());
+                }
+                if (opcode == IROpcode.PHI && !phis) {
+                    throw failure(function, "phi after other instructions in L" + block.getId());
+                }
+                phis &= opcode == IROpcode.PHI;
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (IROperand.isBlock(operand) && (IROperand.index(operand) >= function.getBlockIdBound()
+                            || function.blockOf(operand) == null)) {
+                        throw failure(function, "reference to removed block in " + IRPrinter.instruction(function, instruction));
+                    }
+                }
+                int result = function.result(instruction);
+                if (IROperand.isVreg(result)) {
+                    int vreg = IROperand.index(result);
+                    if (definingBlock[vreg] >= 0) {
+                        throw failure(function, IRPrinter.operand(function, result) + " is defined twice");
+                    }
+                    definingBlock[vreg] = block.getId();
+                    position[vreg] = i;
+                }
+            }
+        }
+
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        DominatorTree dominators = new DominatorTree(cfg);
+        for (IRBasicBlock block : cfg.reversePostorder()) {
+            List<IRBasicBlock> predecessors = cfg.predecessors(block);
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (function.opcode(instruction) == IROpcode.PHI) {
+                    verifyPhi(function, instruction, predecessors, dominators, definingBlock);
+                    continue;
+                }
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (!IROperand.isVreg(operand)) {
+                        continue;
+                    }
+                    int vreg = IROperand.index(operand);
+                    if (vreg >= definingBlock.length || definingBlock[vreg] < 0) {
+                        throw failure(function, IRPrinter.operand(function, operand) + " is used but never defined");
+                    }
+                    IRBasicBlock definition = function.getBlock(definingBlock[vreg]);
+                    boolean dominated = definition == block ? position[vreg] < i : dominators.dominates(definition, block);
+                    if (!dominated) {
+                        throw failure(function, "use of " + IRPrinter.operand(function, operand)
+                            + " is not dominated by its definition in " + IRPrinter.instruction(function, instruction));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void verifyPhi(IRFunction function, int phi, List<IRBasicBlock> predecessors,
+                                  DominatorTree dominators, int[] definingBlock) {
+        int count = function.operandCount(phi);
+        if (count % 2 != 0 || count / 2 != predecessors.size()) {
+            throw failure(function, IRPrinter.instruction(function, phi) + " does not have one input per predecessor");
+        }
+        for (int j = 0; j < count; j += 2) {
+            IRBasicBlock from = function.blockOf(function.operand(phi, j));
+            if (!predecessors.contains(from)) {
+                throw failure(function, IRPrinter.instruction(function, phi) + " has an input from a non-predecessor");
+            }
+            int value = function.operand(phi, j + 1);
+            if (IROperand.isVreg(value)) {
+                int vreg = IROperand.index(value);
+                if (vreg >= definingBlock.length || definingBlock[vreg] < 0
+                        || !dominators.dominates(function.getBlock(definingBlock[vreg]), from)) {
+                    throw failure(function, "phi input " + IRPrinter.operand(function, value)
+                        + " is not available at the end of L" + from.getId());
+                }
+            }
+        }
+    }
+
+    private static IllegalStateException failure(IRFunction function, String message) {
+        return new IllegalStateException("Invalid IR in " + function.getName() + ": " + message);
+    }
+}
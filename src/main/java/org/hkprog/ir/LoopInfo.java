@@ -0,0 +1,347 @@
+package org.hkprog.ir;
+
+import java.util.*;
+
+/**
+ * The natural loops of a function and how they nest. A back edge is an edge whose target
+ * dominates its source; the target is a loop header, and the loop is the header plus every
+ * block that reaches one of the header's back edges without passing through the header.
+ * Back edges to the same header make one loop. A loop inside another is its child in the
+ * loop nest tree, and each block belongs to the innermost loop containing it.
+ */
+public class LoopInfo {
+
+    /** A natural loop */
+    public static final class Loop {
+        private final IRBasicBlock header;
+        private final List<IRBasicBlock> blocks = new ArrayList<>();
+        private final List<IRBasicBlock> latches = new ArrayList<>();
+        private final boolean[] members;
+        private final List<Loop> children = new ArrayList<>();
+        private Loop parent;
+
+        Loop(IRBasicBlock header, int blockIdBound) {
+            this.header = header;
+            this.members = new boolean[blockIdBound];
+        }
+
+        public IRBasicBlock getHeader() { return header; }
+        /** The blocks of the loop, including those of nested loops, in reverse postorder */
+        public List<IRBasicBlock> getBlocks() { return blocks; }
+        /** Blocks with a back edge to the header */
+        public List<IRBasicBlock> getLatches() { return latches; }
+        public Loop getParent() { return parent; }
+        public List<Loop> getChildren() { return children; }
+
+        public boolean contains(IRBasicBlock block) {
+            return block.getId() < members.length && members[block.getId()];
+        }
+
+        /** Nesting depth, 1 for an outermost loop */
+        public int getDepth() {
+            int depth = 1;
+            for (Loop loop = parent; loop != null; loop = loop.parent) {
+                depth++;
+            }
+            return depth;
+        }
+    }
+
+    private final DominatorTree dominators;
+    private final ControlFlowGraph cfg;
+    private final List<Loop> loops = new ArrayList<>();
+    private final List<Loop> topLevel = new ArrayList<>();
+    private final Loop[] innermost;
+
+    public LoopInfo(DominatorTree dominators) {
+        this.dominators = dominators;
+        this.cfg = dominators.getCfg();
+        IRFunction function = cfg.getFunction();
+        int bound = function.getBlockIdBound();
+        innermost = new Loop[bound];
+        List<IRBasicBlock> order = cfg.reversePostorder();
+        // Inner headers come later in reverse postorder, so visiting backwards builds
+        // inner loops before the loops around them
+        for (int h = order.size() - 1; h >= 0; h--) {
+            IRBasicBlock header = order.get(h);
+            Loop loop = null;
+            for (IRBasicBlock predecessor : cfg.predecessors(header)) {
+                if (dominators.dominates(header, predecessor)) {
+                    if (loop == null) {
+                        loop = new Loop(header, bound);
+                    }
+                    loop.latches.add(predecessor);
+                }
+            }
+            if (loop != null) {
+                collect(loop);
+                loops.add(loop);
+            }
+        }
+        for (Loop loop : loops) {
+            for (IRBasicBlock block : order) {
+                if (loop.contains(block)) {
+                    loop.blocks.add(block);
+                }
+            }
+            if (loop.parent == null) {
+                topLevel.add(loop);
+            } else {
+                loop.parent.children.add(loop);
+            }
+        }
+        Collections.reverse(topLevel);
+    }
+
+    /**
+     * Walks backwards from the latches to the header, adopting the outermost loop found so
+     * far around any block met on the way
+     */
+    private void collect(Loop loop) {
+        Deque<IRBasicBlock> worklist = new ArrayDeque<>(loop.latches);
+        loop.members[loop.header.getId()] = true;
+        innermost[loop.header.getId()] = loop;
+        while (!worklist.isEmpty()) {
+            IRBasicBlock block = worklist.pop();
+            if (loop.members[block.getId()]) {
+                continue;
+            }
+            loop.members[block.getId()] = true;
+            Loop inner = innermost[block.getId()];
+            if (inner == null) {
+                innermost[block.getId()] = loop;
+            } else {
+                while (inner.parent != null) {
+                    inner = inner.parent;
+                }
+                if (inner != loop) {
+                    inner.parent = loop;
+                }
+            }
+            for (IRBasicBlock predecessor : cfg.predecessors(block)) {
+                if (!loop.members[predecessor.getId()]) {
+                    worklist.push(predecessor);
+                }
+            }
+        }
+    }
+
+    /** Every loop, each before the loops it is nested in */
+    public List<Loop> getLoops() { return loops; }
+
+    /** The outermost loops, the roots of the loop nest tree, in reverse postorder of their headers */
+    public List<Loop> getTopLevelLoops() { return topLevel; }
+
+    /** The innermost loop containing a block, or null */
+    public Loop loopFor(IRBasicBlock block) {
+        return block.getId() < innermost.length ? innermost[block.getId()] : null;
+    }
+
+    public DominatorTree getDominators() { return dominators; }
+
+    /**
+     * The loop's preheader: its header's only predecessor from outside the loop, when that
+     * predecessor has no other successor. Null if there is none.
+     */
+    public IRBasicBlock preheader(Loop loop) {
+        IRBasicBlock preheader = null;
+        for (IRBasicBlock predecessor : cfg.predecessors(loop.header)) {
+            if (loop.contains(predecessor)) {
+                continue;
+            }
+            if (preheader != null) {
+                return null;
+            }
+            preheader = predecessor;
+        }
+        return preheader != null && cfg.successors(preheader).size() == 1 ? preheader : null;
+    }
+
+    /** Blocks outside the loop entered from inside it */
+    public List<IRBasicBlock> exits(Loop loop) {
+        List<IRBasicBlock> exits = new ArrayList<>();
+        for (IRBasicBlock block : loop.blocks) {
+            for (IRBasicBlock successor : cfg.successors(block)) {
+                if (!loop.contains(successor) && !exits.contains(successor)) {
+                    exits.add(successor);
+                }
+            }
+        }
+        return exits;
+    }
+
+    /**
+     * How many times the body of a loop runs, if that is a known constant, or -1. The loop
+     * must leave only from its header, on a comparison of an induction variable with a
+     * constant: a header phi starting at a constant and stepped by a constant once per
+     * iteration, through the loop's single latch, without wrapping around its type.
+     */
+    public long tripCount(Loop loop) {
+        IRFunction function = cfg.getFunction();
+        IRBasicBlock preheader = preheader(loop);
+        if (preheader == null || loop.latches.size() != 1) {
+            return -1;
+        }
+        for (IRBasicBlock block : loop.blocks) {
+            if (block != loop.header && exitsLoop(loop, block)) {
+                return -1;
+            }
+        }
+        int branch = loop.header.last();
+        if (function.opcode(branch) != IROpcode.BR) {
+            return -1;
+        }
+        boolean continueOnTrue = loop.contains(function.blockOf(function.operand(branch, 1)));
+        if (continueOnTrue == loop.contains(function.blockOf(function.operand(branch, 2)))) {
+            return -1;
+        }
+        int condition = function.operand(branch, 0);
+        if (!IROperand.isVreg(condition) || function.definition(condition) < 0) {
+            return -1;
+        }
+        int compare = function.definition(condition);
+        IROpcode opcode = function.opcode(compare);
+        if (!opcode.isComparison() || loop.header.indexOf(compare) < 0) {
+            return -1;
+        }
+        int variable = function.operand(compare, 0);
+        int bound = function.operand(compare, 1);
+        if (IROperand.isConstant(variable)) {
+            variable = bound;
+            bound = function.operand(compare, 0);
+            opcode = swapped(opcode);
+        }
+        if (!continueOnTrue) {
+            opcode = negated(opcode);
+        }
+        long[] induction = induction(loop, preheader, variable);
+        if (induction == null || !IROperand.isConstant(bound)) {
+            return -1;
+        }
+        long start = induction[0];
+        long step = induction[1];
+        long limit = function.constantValue(bound);
+        IRType type = function.type(function.definition(variable));
+        try {
+            long trips = trips(opcode, start, step, limit);
+            if (trips > 0 && type.wrap(Math.addExact(start, Math.multiplyExact(trips, step))) != start + trips * step) {
+                return -1;
+            }
+            return trips;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    private boolean exitsLoop(Loop loop, IRBasicBlock block) {
+        for (IRBasicBlock successor : cfg.successors(block)) {
+            if (!loop.contains(successor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The constant start and step of a basic induction variable: a phi of the loop's header
+     * whose only inputs are a constant from the preheader and itself plus or minus a
+     * constant from the latch. Null for anything else.
+     */
+    public long[] induction(Loop loop, IRBasicBlock preheader, int variable) {
+        IRFunction function = cfg.getFunction();
+        if (!IROperand.isVreg(variable) || function.definition(variable) < 0) {
+            return null;
+        }
+        int phi = function.definition(variable);
+        if (function.opcode(phi) != IROpcode.PHI || loop.header.indexOf(phi) < 0 || function.operandCount(phi) != 4
+                || loop.latches.size() != 1) {
+            return null;
+        }
+        int start = IROperand.NONE;
+        int next = IROperand.NONE;
+        for (int j = 0; j < 4; j += 2) {
+            IRBasicBlock from = function.blockOf(function.operand(phi, j));
+            if (from == preheader) {
+                start = function.operand(phi, j + 1);
+            } else if (from == loop.latches.get(0)) {
+                next = function.operand(phi, j + 1);
+            }
+        }
+        if (!IROperand.isConstant(start) || !IROperand.isVreg(next) || function.definition(next) < 0) {
+            return null;
+        }
+        Long step = step(function, function.definition(next), variable, function.type(phi));
+        return step == null ? null : new long[] { function.constantValue(start), step };
+    }
+
+    /** The constant an ADD or SUB of the variable's type adds to the variable, or null */
+    public static Long step(IRFunction function, int increment, int variable, IRType type) {
+        IROpcode opcode = function.opcode(increment);
+        if (function.type(increment) != type || opcode != IROpcode.ADD && opcode != IROpcode.SUB) {
+            return null;
+        }
+        int left = function.operand(increment, 0);
+        int right = function.operand(increment, 1);
+        if (opcode == IROpcode.ADD && left != variable) {
+            int swap = left;
+            left = right;
+            right = swap;
+        }
+        if (left != variable || !IROperand.isConstant(right)) {
+            return null;
+        }
+        long value = function.constantValue(right);
+        return opcode == IROpcode.SUB ? -value : value;
+    }
+
+    /**
+     * The first k with {@code start + k * step OP limit} false, where OP is the condition to
+     * stay in the loop, or -1 if there is none
+     */
+    private static long trips(IROpcode opcode, long start, long step, long limit) {
+        switch (opcode) {
+            case LT:
+                return start >= limit ? 0 : step <= 0 ? -1 : Math.floorDiv(Math.subtractExact(limit, start) - 1, step) + 1;
+            case LE:
+                return start > limit ? 0 : step <= 0 ? -1 : Math.subtractExact(limit, start) / step + 1;
+            case GT:
+                return start <= limit ? 0 : step >= 0 ? -1 : Math.floorDiv(Math.subtractExact(start, limit) - 1, -step) + 1;
+            case GE:
+                return start < limit ? 0 : step >= 0 ? -1 : Math.subtractExact(start, limit) / -step + 1;
+            case NE: {
+                if (start == limit) {
+                    return 0;
+                }
+                long distance = Math.subtractExact(limit, start);
+                return step == 0 || distance % step != 0 || distance / step < 0 ? -1 : distance / step;
+            }
+            case EQ:
+                return start != limit ? 0 : step == 0 ? -1 : 1;
+            default:
+                return -1;
+        }
+    }
+
+    /** The comparison with its operands exchanged */
+    private static IROpcode swapped(IROpcode opcode) {
+        switch (opcode) {
+            case LT: return IROpcode.GT;
+            case LE: return IROpcode.GE;
+            case GT: return IROpcode.LT;
+            case GE: return IROpcode.LE;
+            default: return opcode;
+        }
+    }
+
+    /** The comparison that is true exactly when the given one is false */
+    private static IROpcode negated(IROpcode opcode) {
+        switch (opcode) {
+            case LT: return IROpcode.GE;
+            case LE: return IROpcode.GT;
+            case GT: return IROpcode.LE;
+            case GE: return IROpcode.LT;
+            case EQ: return IROpcode.NE;
+            default: return IROpcode.EQ;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.hkprog.ir;
+
+/**
+ * Raised for valid C that the IR generator cannot lower yet, such as member accesses, instead
+ * of silently generating wrong code
+ */
+public class UnsupportedConstructException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UnsupportedConstructException(int line, String message) {
+        super("line " + line + ": " + message);
+    }
+}
@@ -0,0 +1,647 @@
+package org.hkprog.lexer;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import org.hkprog.antlr.CLexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Hand-written replacement for the generated {@link CLexer}. It produces the same token
+ * types, channels and positions, so it plugs into {@link CommonTokenStream} and the
+ * generated parser unchanged, but it runs without the ATN simulator and without building
+ * token text: tokens are {@link LexerToken}s that only record positions.
+ *
+ * The input is read in large blocks of code points rather than one character at a time,
+ * so it must be a buffered stream such as the ones from {@code CharStreams} or a
+ * {@link org.hkprog.parse.MappedCharStream}; the stream's own position is left untouched.
+ * Characters are classified through a lookup table. Keywords and punctuators are taken
+ * from the generated lexer's vocabulary, so new literals in the grammar are picked up
+ * automatically. The longest-match rules of the grammar are reproduced, including its
+ * quirks: a run of digits that is not a valid constant, such as {@code 09}, is a
+ * DigitSequence; {@code asm} followed by a brace block is a hidden AsmBlock; and
+ * preprocessor lines, with their continuation lines, are hidden Directive or
+ * MultiLineMacro tokens. Input no rule matches is reported and skipped like the generated
+ * lexer does: everything it scanned before failing, including the failing character.
+ */
+public class FastCLexer implements TokenSource {
+
+    private static final int LETTER = 1;
+    private static final int DIGIT = 2;
+    private static final int HEX = 4;
+    private static final int OCTAL = 8;
+    private static final int SPACE = 16;
+    private static final int PUNCTUATOR = 32;
+
+    private static final byte[] CLASSES = new byte[128];
+
+    /** Punctuators by first character, longest first */
+    private static final String[][] PUNCTUATORS = new String[128][];
+    private static final int[][] PUNCTUATOR_TYPES = new int[128][];
+
+    /** Open-addressing table of keywords, hashed over their characters */
+    private static final char[][] KEYWORDS = new char[256][];
+    private static final int[] KEYWORD_TYPES = new int[256];
+    private static int maxKeywordLength;
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            CLASSES[c] |= LETTER;
+            CLASSES[c - 'a' + 'A'] |= LETTER;
+        }
+        CLASSES['_'] |= LETTER;
+        for (int c = '0'; c <= '9'; c++) {
+            CLASSES[c] |= DIGIT | HEX | (c <= '7' ? OCTAL : 0);
+        }
+        for (int c = 'a'; c <= 'f'; c++) {
+            CLASSES[c] |= HEX;
+            CLASSES[c - 'a' + 'A'] |= HEX;
+        }
+        CLASSES[' '] |= SPACE;
+        CLASSES['\t'] |= SPACE;
+
+        List<List<String>> punctuators = new ArrayList<>();
+        for (int c = 0; c < 128; c++) {
+            punctuators.add(new ArrayList<>());
+        }
+        Vocabulary vocabulary = CLexer.VOCABULARY;
+        for (int type = 1; type <= vocabulary.getMaxTokenType(); type++) {
+            String literal = vocabulary.getLiteralName(type);
+            if (literal == null) {
+                continue;
+            }
+            literal = literal.substring(1, literal.length() - 1);
+            char first = literal.charAt(0);
+            if ((CLASSES[first] & LETTER) != 0) {
+                addKeyword(literal, type);
+            } else {
+                punctuators.get(first).add(literal);
+                CLASSES[first] |= PUNCTUATOR;
+            }
+        }
+        for (int c = 0; c < 128; c++) {
+            List<String> candidates = punctuators.get(c);
+            if (candidates.isEmpty()) {
+                continue;
+            }
+            candidates.sort(Comparator.comparingInt(String::length).reversed());
+            PUNCTUATORS[c] = candidates.toArray(new String[0]);
+            PUNCTUATOR_TYPES[c] = new int[candidates.size()];
+            for (int i = 0; i < candidates.size(); i++) {
+                PUNCTUATOR_TYPES[c][i] = typeOf(vocabulary, candidates.get(i));
+            }
+        }
+    }
+
+    private static int typeOf(Vocabulary vocabulary, String literal) {
+        for (int type = 1; type <= vocabulary.getMaxTokenType(); type++) {
+            if (("'" + literal + "'").equals(vocabulary.getLiteralName(type))) {
+                return type;
+            }
+        }
+        throw new IllegalStateException(literal);
+    }
+
+    private static void addKeyword(String keyword, int type) {
+        char[] chars = keyword.toCharArray();
+        int slot = hash(chars, chars.length) & (KEYWORDS.length - 1);
+        while (KEYWORDS[slot] != null) {
+            slot = (slot + 1) & (KEYWORDS.length - 1);
+        }
+        KEYWORDS[slot] = chars;
+        KEYWORD_TYPES[slot] = type;
+        maxKeywordLength = Math.max(maxKeywordLength, chars.length);
+    }
+
+    private static int hash(char[] chars, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + chars[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private CharStream input;
+    private ANTLRErrorListener errorListener;
+    /** Code points of the input from windowStart on, read in large blocks */
+    private int[] window;
+    private int windowStart;
+    private int windowLength;
+    private int position;
+    private int line;
+    private int charPositionInLine;
+    /** Identifier characters, for keyword lookup without building a string */
+    private char[] scratch;
+    /** Whether the last identifier contained a universal character name, so is no keyword */
+    private boolean universalName;
+
+    public FastCLexer(CharStream input) {
+        this(input, ConsoleErrorListener.INSTANCE);
+    }
+
+    public FastCLexer(CharStream input, ANTLRErrorListener errorListener) {
+        this.input = input;
+        this.errorListener = errorListener;
+        this.window = new int[WINDOW_SIZE];
+        this.position = input.index();
+        this.line = 1;
+        this.charPositionInLine = 0;
+        this.scratch = new char[maxKeywordLength];
+    }
+
+    /** Character at an offset from the current position */
+    private int la(int offset) {
+        int index = position + offset - windowStart;
+        if (index < windowLength) {
+            return window[index];
+        }
+        if (position + offset >= input.size()) {
+            return IntStream.EOF;
+        }
+        fillWindow(position + offset);
+        return window[position + offset - windowStart];
+    }
+
+    /**
+     * Reads the input from the start of the current token up to well past a needed index
+     * into the window, so scanning does not go through the CharStream for every character
+     */
+    private void fillWindow(int needed) {
+        int size = Math.max(WINDOW_SIZE, needed - position + WINDOW_SIZE);
+        int stop = Math.min(position + size, input.size()) - 1;
+        String text = input.getText(Interval.of(position, stop));
+        if (window.length < text.length()) {
+            window = new int[text.length()];
+        }
+        int length = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            window[length++] = codePoint;
+            i += Character.charCount(codePoint);
+        }
+        windowStart = position;
+        windowLength = length;
+    }
+
+    private static boolean is(int c, int characterClass) {
+        return c >= 0 && c < 128 && (CLASSES[c] & characterClass) != 0;
+    }
+
+    @Override
+    public Token nextToken() {
+        while (true) {
+            int start = position;
+            int c = la(0);
+            if (c == IntStream.EOF) {
+                return new LexerToken(this, Token.EOF, Token.DEFAULT_CHANNEL, start, start - 1, line, charPositionInLine);
+            }
+
+            int length;
+            int type;
+            int channel = Token.DEFAULT_CHANNEL;
+            if (is(c, SPACE)) {
+                length = 1;
+                while (is(la(length), SPACE)) {
+                    length++;
+                }
+                type = CLexer.Whitespace;
+                channel = Token.HIDDEN_CHANNEL;
+            } else if (c == '\n' || c == '\r') {
+                length = c == '\r' && la(1) == '\n' ? 2 : 1;
+                type = CLexer.Newline;
+                channel = Token.HIDDEN_CHANNEL;
+            } else if (is(c, LETTER) || (c == '\\' && universalCharacterName(0) > 0)) {
+                length = identifierLength();
+                type = CLexer.Identifier;
+                int literal = prefixedLiteral();
+                int asm = c == 'a' ? asmBlockLength() : 0;
+                if (literal > 0) {
+                    length = literal;
+                    type = la(literal - 1) == '"' ? CLexer.StringLiteral : CLexer.Constant;
+                } else if (asm > 0) {
+                    length = asm;
+                    type = CLexer.AsmBlock;
+                    channel = Token.HIDDEN_CHANNEL;
+                } else {
+                    type = keyword(length);
+                }
+            } else if (is(c, DIGIT) || (c == '.' && is(la(1), DIGIT))) {
+                int constant = constantLength();
+                int digits = run(0, DIGIT);
+                length = Math.max(constant, digits);
+                type = digits > constant ? CLexer.DigitSequence : CLexer.Constant;
+            } else if (c == '"' || c == '\'') {
+                length = quotedLength(0);
+                if (length <= 0) {
+                    recognitionError(start, -length);
+                    continue;
+                }
+                type = c == '"' ? CLexer.StringLiteral : CLexer.Constant;
+            } else if (c == '#') {
+                length = directiveLength();
+                type = length < 0 ? CLexer.MultiLineMacro : CLexer.Directive;
+                length = Math.abs(length);
+                channel = Token.HIDDEN_CHANNEL;
+            } else if (c == '/' && la(1) == '/') {
+                length = 2;
+                for (int d = la(length); d != IntStream.EOF && d != '\n' && d != '\r'; d = la(++length)) {
+                    // comment text
+                }
+                type = CLexer.LineComment;
+                channel = Token.HIDDEN_CHANNEL;
+            } else if (c == '/' && la(1) == '*' && blockCommentLength() > 0) {
+                length = blockCommentLength();
+                type = CLexer.BlockComment;
+                channel = Token.HIDDEN_CHANNEL;
+            } else if (is(c, PUNCTUATOR)) {
+                String[] candidates = PUNCTUATORS[c];
+                length = 0;
+                type = 0;
+                for (int i = 0; i < candidates.length && length == 0; i++) {
+                    if (matches(candidates[i])) {
+                        length = candidates[i].length();
+                        type = PUNCTUATOR_TYPES[c][i];
+                    }
+                }
+                if (length == 0) {
+                    recognitionError(start, 1);
+                    continue;
+                }
+            } else if (c == '\\') {
+                recognitionError(start, invalidEscapeLength(0, false, false));
+                continue;
+            } else {
+                recognitionError(start, 1);
+                continue;
+            }
+
+            int tokenLine = line;
+            int tokenPosition = charPositionInLine;
+            consume(length);
+            return new LexerToken(this, type, channel, start, start + length - 1, tokenLine, tokenPosition);
+        }
+    }
+
+    private void consume(int length) {
+        for (int i = 0; i < length; i++) {
+            if (la(0) == '\n') {
+                line++;
+                charPositionInLine = 0;
+            } else {
+                charPositionInLine++;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Reports the characters no rule can match and skips them, as the generated lexer does
+     */
+    private void recognitionError(int start, int length) {
+        int errorLine = line;
+        int errorPosition = charPositionInLine;
+        int available = 0;
+        while (available < length && la(available) != IntStream.EOF) {
+            available++;
+        }
+        String text = input.getText(Interval.of(start, start + Math.max(available, 1) - 1));
+        errorListener.syntaxError(null, null, errorLine, errorPosition,
+            "token recognition error at: '" + escape(text) + "'", null);
+        consume(Math.max(available, 1));
+    }
+
+    private static String escape(String text) {
+        return text.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    }
+
+    private boolean matches(String literal) {
+        for (int i = 1; i < literal.length(); i++) {
+            if (la(i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int run(int offset, int characterClass) {
+        int length = 0;
+        while (is(la(offset + length), characterClass)) {
+            length++;
+        }
+        return length;
+    }
+
+    private int identifierLength() {
+        int length = 0;
+        universalName = false;
+        while (true) {
+            int c = la(length);
+            if (is(c, LETTER | DIGIT)) {
+                if (length < scratch.length) {
+                    scratch[length] = (char) c;
+                }
+                length++;
+            } else if (c == '\\' && universalCharacterName(length) > 0) {
+                length += universalCharacterName(length);
+                universalName = true;
+            } else {
+                return length;
+            }
+        }
+    }
+
+    private int universalCharacterName(int offset) {
+        int kind = la(offset + 1);
+        int digits = kind == 'u' ? 4 : kind == 'U' ? 8 : 0;
+        if (digits == 0 || run(offset + 2, HEX) < digits) {
+            return 0;
+        }
+        return 2 + digits;
+    }
+
+    private int keyword(int length) {
+        if (universalName || length > maxKeywordLength) {
+            return CLexer.Identifier;
+        }
+        int slot = hash(scratch, length) & (KEYWORDS.length - 1);
+        for (char[] keyword = KEYWORDS[slot]; keyword != null; keyword = KEYWORDS[slot]) {
+            if (keyword.length == length && Arrays.equals(keyword, 0, length, scratch, 0, length)) {
+                return KEYWORD_TYPES[slot];
+            }
+            slot = (slot + 1) & (KEYWORDS.length - 1);
+        }
+        return CLexer.Identifier;
+    }
+
+    /**
+     * Length of a string literal or character constant with an encoding prefix
+     * ({@code u8"", u"", U"", L"", u'', U'', L''}), or 0
+     */
+    private int prefixedLiteral() {
+        int c = la(0);
+        int prefix = c == 'u' && la(1) == '8' && la(2) == '"' ? 2 : (c == 'u' || c == 'U' || c == 'L') ? 1 : 0;
+        if (prefix == 0 || (la(prefix) != '"' && la(prefix) != '\'')) {
+            return 0;
+        }
+        int length = quotedLength(prefix);
+        return length > 0 ? length : 0;
+    }
+
+    /**
+     * Length of the quoted literal starting at an offset, up to and including the closing
+     * quote. If it is malformed, the negated number of characters up to and including the one
+     * where it fails.
+     */
+    private int quotedLength(int offset) {
+        int quote = la(offset);
+        boolean string = quote == '"';
+        int i = offset + 1;
+        while (true) {
+            int c = la(i);
+            if (c == quote && (string || i > offset + 1)) {
+                return i + 1;
+            } else if (c == IntStream.EOF) {
+                return -i;
+            } else if (c == '\n' || c == '\r' || c == quote) {
+                return -(i + 1);
+            } else if (c == '\\') {
+                int escape = escapeLength(i, string);
+                if (escape == 0) {
+                    return -(i + invalidEscapeLength(i, true, string));
+                }
+                i += escape;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private int escapeLength(int offset, boolean string) {
+        int c = la(offset + 1);
+        if ("'\"?abfnrtv\\".indexOf(c) >= 0) {
+            return 2;
+        } else if (is(c, OCTAL)) {
+            return 2;
+        } else if (c == 'x' && is(la(offset + 2), HEX)) {
+            return 2 + run(offset + 2, HEX);
+        } else if (c == 'u' || c == 'U') {
+            return universalCharacterName(offset);
+        } else if (string && c == '\n') {
+            return 2;
+        } else if (string && c == '\r' && la(offset + 2) == '\n') {
+            return 3;
+        }
+        return 0;
+    }
+
+    /**
+     * Number of characters from a backslash at an offset that is no valid escape or universal
+     * character name, up to and including the one where it fails to match. The generated lexer
+     * reports and skips all of them, not only the backslash.
+     */
+    private int invalidEscapeLength(int offset, boolean literal, boolean string) {
+        int c = la(offset + 1);
+        if (c == 'u' || c == 'U') {
+            return 3 + Math.min(run(offset + 2, HEX), c == 'u' ? 4 : 8);
+        } else if ((literal && c == 'x') || (string && c == '\r')) {
+            return 3;
+        }
+        return 2;
+    }
+
+    /**
+     * Longest integer, floating or character constant starting with a digit or a '.', or 0
+     */
+    private int constantLength() {
+        int best = 0;
+        int c = la(0);
+        int next = la(1);
+        if (c == '0' && (next == 'x' || next == 'X')) {
+            int digits = run(2, HEX);
+            if (digits > 0) {
+                best = 2 + digits + integerSuffix(2 + digits);
+            }
+            // Hexadecimal floating constant
+            int mantissa = -1;
+            if (la(2 + digits) == '.') {
+                int fraction = run(3 + digits, HEX);
+                if (digits > 0 || fraction > 0) {
+                    mantissa = 3 + digits + fraction;
+                }
+            } else if (digits > 0) {
+                mantissa = 2 + digits;
+            }
+            if (mantissa > 0 && (la(mantissa) == 'p' || la(mantissa) == 'P')) {
+                int exponent = mantissa + 1 + (la(mantissa + 1) == '+' || la(mantissa + 1) == '-' ? 1 : 0);
+                int exponentDigits = run(exponent, DIGIT);
+                if (exponentDigits > 0) {
+                    best = Math.max(best, floatingSuffix(exponent + exponentDigits));
+                }
+            }
+        }
+        if (c == '0' && (next == 'b' || next == 'B') && (la(2) == '0' || la(2) == '1')) {
+            int length = 3;
+            while (la(length) == '0' || la(length) == '1') {
+                length++;
+            }
+            best = Math.max(best, length);
+        }
+        if (c == '0') {
+            int length = 1 + run(1, OCTAL);
+            best = Math.max(best, length + integerSuffix(length));
+        } else if (is(c, DIGIT)) {
+            int length = run(0, DIGIT);
+            best = Math.max(best, length + integerSuffix(length));
+        }
+
+        // Decimal floating constant
+        int digits = run(0, DIGIT);
+        if (la(digits) == '.') {
+            int fraction = run(digits + 1, DIGIT);
+            if (digits > 0 || fraction > 0) {
+                int mantissa = digits + 1 + fraction;
+                best = Math.max(best, floatingSuffix(mantissa + exponentPart(mantissa)));
+            }
+        }
+        if (digits > 0) {
+            int exponent = exponentPart(digits);
+            if (exponent > 0) {
+                best = Math.max(best, floatingSuffix(digits + exponent));
+            }
+        }
+        return best;
+    }
+
+    private int integerSuffix(int offset) {
+        int c = la(offset);
+        int next = la(offset + 1);
+        boolean longLong = (c == 'l' && next == 'l') || (c == 'L' && next == 'L');
+        if (c == 'u' || c == 'U') {
+            int after = la(offset + 2);
+            if ((next == 'l' && after == 'l') || (next == 'L' && after == 'L')) {
+                return 3;
+            }
+            return next == 'l' || next == 'L' ? 2 : 1;
+        } else if (longLong) {
+            int after = la(offset + 2);
+            return after == 'u' || after == 'U' ? 3 : 2;
+        } else if (c == 'l' || c == 'L') {
+            return next == 'u' || next == 'U' ? 2 : 1;
+        }
+        return 0;
+    }
+
+    private int exponentPart(int offset) {
+        int c = la(offset);
+        if (c != 'e' && c != 'E') {
+            return 0;
+        }
+        int sign = la(offset + 1) == '+' || la(offset + 1) == '-' ? 1 : 0;
+        int digits = run(offset + 1 + sign, DIGIT);
+        return digits > 0 ? 1 + sign + digits : 0;
+    }
+
+    /**
+     * @return the end offset of a floating constant, after its optional suffix
+     */
+    private int floatingSuffix(int end) {
+        int c = la(end);
+        return c == 'f' || c == 'l' || c == 'F' || c == 'L' ? end + 1 : end;
+    }
+
+    /**
+     * Length of an {@code asm} block, {@code asm ... { ... }}, or 0
+     */
+    private int asmBlockLength() {
+        if (la(1) != 's' || la(2) != 'm') {
+            return 0;
+        }
+        int i = 3;
+        for (int c = la(i); c != '{'; c = la(++i)) {
+            if (c == IntStream.EOF) {
+                return 0;
+            }
+        }
+        for (int c = la(++i); c != '}'; c = la(++i)) {
+            if (c == IntStream.EOF) {
+                return 0;
+            }
+        }
+        return i + 1;
+    }
+
+    private int blockCommentLength() {
+        for (int i = 2; la(i) != IntStream.EOF; i++) {
+            if (la(i) == '*' && la(i + 1) == '/') {
+                return i + 2;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Length of a preprocessor line, negated if it spans several lines through backslash
+     * continuations (a MultiLineMacro). A continuation only counts if the next line is not
+     * empty.
+     */
+    private int directiveLength() {
+        int end = lineEnd(1);
+        boolean continued = false;
+        while (la(end) == '\n') {
+            boolean backslash = (end - 1 >= 1 && la(end - 1) == '\\')
+                || (end - 2 >= 1 && la(end - 1) == '\r' && la(end - 2) == '\\');
+            int next = la(end + 1);
+            if (!backslash || next == '\n' || next == IntStream.EOF) {
+                break;
+            }
+            end = lineEnd(end + 1);
+            continued = true;
+        }
+        return continued ? -end : end;
+    }
+
+    private int lineEnd(int offset) {
+        int i = offset;
+        for (int c = la(i); c != '\n' && c != IntStream.EOF; c = la(++i)) {
+            // line text
+        }
+        return i;
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return charPositionInLine;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public String getSourceName() {
+        return input.getSourceName();
+    }
+
+    /**
+     * Tokens are always {@link LexerToken}s, so a token factory is not used
+     */
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return CommonTokenFactory.DEFAULT;
+    }
+}
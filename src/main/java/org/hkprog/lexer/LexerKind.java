@@ -0,0 +1,30 @@
+package org.hkprog.lexer;
+
+/**
+ * Lexers that can feed the C parser
+ */
+public enum LexerKind {
+    /** The ANTLR-generated CLexer */
+    ANTLR("antlr"),
+    /** The hand-written FastCLexer */
+    FAST("fast");
+
+    private final String name;
+
+    LexerKind(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static LexerKind fromString(String name) {
+        for (LexerKind kind : values()) {
+            if (kind.name.equalsIgnoreCase(name)) {
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("Unknown lexer: " + name);
+    }
+}
@@ -0,0 +1,65 @@
+package org.hkprog.lexer;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.WritableToken;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Compact token produced by {@link FastCLexer}. It holds only positions; the text is read
+ * from the character stream the first time it is asked for.
+ */
+public final class LexerToken implements WritableToken {
+    private FastCLexer source;
+    private int type;
+    private int channel;
+    private int start;
+    private int stop;
+    private int line;
+    private int charPositionInLine;
+    private int tokenIndex;
+    private String text;
+
+    LexerToken(FastCLexer source, int type, int channel, int start, int stop, int line, int charPositionInLine) {
+        this.source = source;
+        this.type = type;
+        this.channel = channel;
+        this.start = start;
+        this.stop = stop;
+        this.line = line;
+        this.charPositionInLine = charPositionInLine;
+        this.tokenIndex = -1;
+    }
+
+    @Override
+    public String getText() {
+        if (text == null) {
+            text = type == Token.EOF ? "<EOF>" : source.getInputStream().getText(Interval.of(start, stop));
+        }
+        return text;
+    }
+
+    @Override public int getType() { return type; }
+    @Override public int getLine() { return line; }
+    @Override public int getCharPositionInLine() { return charPositionInLine; }
+    @Override public int getChannel() { return channel; }
+    @Override public int getTokenIndex() { return tokenIndex; }
+    @Override public int getStartIndex() { return start; }
+    @Override public int getStopIndex() { return stop; }
+    @Override public TokenSource getTokenSource() { return source; }
+    @Override public CharStream getInputStream() { return source.getInputStream(); }
+
+    @Override public void setText(String text) { this.text = text; }
+    @Override public void setType(int type) { this.type = type; }
+    @Override public void setLine(int line) { this.line = line; }
+    @Override public void setCharPositionInLine(int pos) { this.charPositionInLine = pos; }
+    @Override public void setChannel(int channel) { this.channel = channel; }
+    @Override public void setTokenIndex(int index) { this.tokenIndex = index; }
+
+    @Override
+    public String toString() {
+        return "[@" + tokenIndex + "," + start + ":" + stop + "='" + getText() + "',<" + type + ">"
+            + (channel > 0 ? ",channel=" + channel : "") + "," + line + ":" + charPositionInLine + "]";
+    }
+}
@@ -0,0 +1,44 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.DominatorTree;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.LoopInfo;
+
+import java.util.function.BiFunction;
+
+/**
+ * A fact computed from a function's IR, such as its control flow graph. Analyses are
+ * requested through an {@link AnalysisManager}, which computes each one at most once per
+ * function until a pass that changes the function invalidates it. An analysis may request
+ * the analyses it is built from in turn.
+ *
+ * @param <T> the result type
+ */
+public final class Analysis<T> {
+    public static final Analysis<ControlFlowGraph> CONTROL_FLOW_GRAPH =
+        new Analysis<>("cfg", (function, analyses) -> new ControlFlowGraph(function));
+    public static final Analysis<DominatorTree> DOMINATOR_TREE =
+        new Analysis<>("dominators", (function, analyses) -> new DominatorTree(analyses.get(CONTROL_FLOW_GRAPH, function)));
+    public static final Analysis<LoopInfo> LOOPS =
+        new Analysis<>("loops", (function, analyses) -> new LoopInfo(analyses.get(DOMINATOR_TREE, function)));
+
+    private final String name;
+    private final BiFunction<IRFunction, AnalysisManager, T> compute;
+
+    public Analysis(String name, BiFunction<IRFunction, AnalysisManager, T> compute) {
+        this.name = name;
+        this.compute = compute;
+    }
+
+    T compute(IRFunction function, AnalysisManager analyses) {
+        return compute.apply(function, analyses);
+    }
+
+    public String getName() { return name; }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,65 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRFunction;
+
+import java.util.*;
+
+/**
+ * Caches analysis results per function. Passes report which functions they changed and
+ * which analyses survive the change; everything else computed for those functions is
+ * dropped and recomputed on the next request.
+ */
+public class AnalysisManager {
+    private Map<IRFunction, Map<Analysis<?>, Object>> results = new IdentityHashMap<>();
+    private long computed;
+    private long reused;
+
+    /**
+     * The result of an analysis for a function, computed now if it is not cached
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Analysis<T> analysis, IRFunction function) {
+        Map<Analysis<?>, Object> cached = results.computeIfAbsent(function, f -> new HashMap<>());
+        Object result = cached.get(analysis);
+        if (result != null) {
+            reused++;
+            return (T) result;
+        }
+        T computedResult = analysis.compute(function, this);
+        // Computing may have requested, and cached, other analyses of the same function
+        results.get(function).put(analysis, computedResult);
+        computed++;
+        return computedResult;
+    }
+
+    /** Whether a result is cached, without computing it */
+    public boolean isCached(Analysis<?> analysis, IRFunction function) {
+        Map<Analysis<?>, Object> cached = results.get(function);
+        return cached != null && cached.containsKey(analysis);
+    }
+
+    /**
+     * Drops the results for a function that was changed, except the preserved ones
+     */
+    public void invalidate(IRFunction function, Set<Analysis<?>> preserved) {
+        Map<Analysis<?>, Object> cached = results.get(function);
+        if (cached != null) {
+            cached.keySet().retainAll(preserved);
+        }
+    }
+
+    /** Drops every result for a function */
+    public void invalidate(IRFunction function) {
+        results.remove(function);
+    }
+
+    /** Drops every result, e.g. after a pass that rewrote the program as a whole */
+    public void invalidateAll() {
+        results.clear();
+    }
+
+    /** Number of analysis results computed */
+    public long getComputed() { return computed; }
+    /** Number of requests served from the cache */
+    public long getReused() { return reused; }
+}
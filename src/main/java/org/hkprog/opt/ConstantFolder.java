@@ -0,0 +1,59 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRType;
+
+/**
+ * Evaluates IR operations on constants exactly as the generated code does: operands are
+ * 64-bit values, the result is wrapped to the instruction type's width and sign-extended
+ * back, shift counts are taken modulo 64, division truncates towards zero and comparisons
+ * are signed and yield 0 or 1.
+ */
+public class ConstantFolder {
+
+    /**
+     * Result of a binary operation, or null if it cannot be folded because it would trap at
+     * run time (division by zero, or of the most negative long by -1)
+     */
+    public static Long fold(IROpcode opcode, IRType type, long left, long right) {
+        long result;
+        switch (opcode) {
+            case ADD: result = left + right; break;
+            case SUB: result = left - right; break;
+            case MUL: result = left * right; break;
+            case DIV:
+            case MOD:
+                if (right == 0 || left == Long.MIN_VALUE && right == -1) {
+                    return null;
+                }
+                result = opcode == IROpcode.DIV ? left / right : left % right;
+                break;
+            case AND: result = left & right; break;
+            case OR: result = left | right; break;
+            case XOR: result = left ^ right; break;
+            case SHL: result = left << (right & 63); break;
+            case SHR: result = left >> (right & 63); break;
+            case EQ: return left == right ? 1L : 0L;
+            case NE: return left != right ? 1L : 0L;
+            case LT: return left < right ? 1L : 0L;
+            case LE: return left <= right ? 1L : 0L;
+            case GT: return left > right ? 1L : 0L;
+            case GE: return left >= right ? 1L : 0L;
+            default:
+                return null;
+        }
+        return type.wrap(result);
+    }
+
+    /**
+     * Result of NEG, NOT or CAST, or null for any other opcode
+     */
+    public static Long fold(IROpcode opcode, IRType type, long operand) {
+        switch (opcode) {
+            case NEG: return type.wrap(-operand);
+            case NOT: return type.wrap(~operand);
+            case CAST: return type.wrap(operand);
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+
+import java.util.Arrays;
+
+/**
+ * Deletes instructions whose results are never needed. Stores, calls and terminators are
+ * live, and so is everything they use, transitively; the rest, including cycles of phis
+ * only feeding each other, goes. Stores to a stack slot that is never read and whose
+ * address goes nowhere else are not counted as live, so such a slot disappears along with
+ * its alloca.
+ */
+public class DcePass extends FunctionPass {
+
+    @Override
+    public String getName() {
+        return "dce";
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        boolean[] writeOnly = writeOnlySlots(function);
+        boolean[] live = new boolean[function.getInstructionCount()];
+        int[] worklist = new int[function.getInstructionCount()];
+        int pending = 0;
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                IROpcode opcode = function.opcode(instruction);
+                if (!opcode.hasSideEffects()) {
+                    continue;
+                }
+                int address = opcode == IROpcode.STORE ? function.operand(instruction, 0) : IROperand.NONE;
+                if (IROperand.isVreg(address) && writeOnly[IROperand.index(address)]) {
+                    continue;
+                }
+                live[instruction] = true;
+                worklist[pending++] = instruction;
+            }
+        }
+        while (pending > 0) {
+            int instruction = worklist[--pending];
+            for (int j = 0; j < function.operandCount(instruction); j++) {
+                int operand = function.operand(instruction, j);
+                if (!IROperand.isVreg(operand)) {
+                    continue;
+                }
+                int definition = function.definition(operand);
+                if (definition >= 0 && !live[definition]) {
+                    live[definition] = true;
+                    worklist[pending++] = definition;
+                }
+            }
+        }
+
+        boolean changed = false;
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = block.size() - 1; i >= 0; i--) {
+                if (!live[block.get(i)]) {
+                    block.remove(i);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Allocas whose result is only ever used as the address of a store
+     */
+    private static boolean[] writeOnlySlots(IRFunction function) {
+        boolean[] candidate = new boolean[function.getVregCount()];
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (function.opcode(instruction) == IROpcode.ALLOCA) {
+                    candidate[IROperand.index(function.result(instruction))] = true;
+                }
+            }
+        }
+        boolean[] writeOnly = Arrays.copyOf(candidate, candidate.length);
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                boolean store = function.opcode(instruction) == IROpcode.STORE;
+                for (int j = store ? 1 : 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (IROperand.isVreg(operand) && candidate[IROperand.index(operand)]) {
+                        writeOnly[IROperand.index(operand)] = false;
+                    }
+                }
+            }
+        }
+        return writeOnly;
+    }
+}
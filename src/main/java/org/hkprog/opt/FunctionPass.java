@@ -0,0 +1,45 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IRProgram;
+
+import java.util.Set;
+
+/**
+ * A pass that transforms each function on its own. After a function changes, its cached
+ * analyses are invalidated except those the pass declares preserved.
+ */
+public abstract class FunctionPass implements Pass {
+
+    /**
+     * Transforms one function
+     *
+     * @return whether the function changed
+     */
+    public abstract boolean run(IRFunction function, AnalysisManager analyses);
+
+    /**
+     * Analyses that stay valid when this pass changes a function, for instance the control
+     * flow graph for a pass that never touches terminators
+     */
+    public Set<Analysis<?>> getPreserved() {
+        return Set.of();
+    }
+
+    @Override
+    public boolean run(IRProgram program, AnalysisManager analyses) {
+        boolean changed = false;
+        for (IRFunction function : program.getFunctions()) {
+            if (run(function, analyses)) {
+                analyses.invalidate(function, getPreserved());
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean isWholeProgram() {
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IRGlobalVariable;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRProgram;
+
+import java.util.*;
+
+/**
+ * Removes the functions and global variables the program can never reach. Reachability
+ * starts at main, which the entry stub calls; a program without main is treated as a
+ * library whose non-static functions and globals are all reachable from outside. From
+ * there, every function or global named by an instruction of a reachable function is
+ * reachable too, whether it is called, read, written or has its address taken.
+ */
+public class GlobalDcePass implements Pass {
+
+    @Override
+    public String getName() {
+        return "globaldce";
+    }
+
+    @Override
+    public boolean run(IRProgram program, AnalysisManager analyses) {
+        Map<String, IRFunction> functions = new HashMap<>();
+        for (IRFunction function : program.getFunctions()) {
+            functions.put(function.getName(), function);
+        }
+        Set<String> reachable = new HashSet<>();
+        Deque<IRFunction> worklist = new ArrayDeque<>();
+        IRFunction main = program.getMainFunction();
+        if (main != null) {
+            reachable.add(main.getName());
+            worklist.add(main);
+        } else {
+            for (IRFunction function : program.getFunctions()) {
+                if (!function.isStatic() && reachable.add(function.getName())) {
+                    worklist.add(function);
+                }
+            }
+            for (IRGlobalVariable global : program.getGlobalVariables()) {
+                if (!global.isStatic()) {
+                    reachable.add(global.getName());
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            IRFunction function = worklist.poll();
+            for (IRBasicBlock block : function.getBlocks()) {
+                for (int i = 0; i < block.size(); i++) {
+                    int instruction = block.get(i);
+                    for (int j = 0; j < function.operandCount(instruction); j++) {
+                        int operand = function.operand(instruction, j);
+                        if (IROperand.kind(operand) != IROperand.SYMBOL) {
+                            continue;
+                        }
+                        String name = function.symbolName(operand);
+                        if (reachable.add(name) && functions.containsKey(name)) {
+                            worklist.add(functions.get(name));
+                        }
+                    }
+                }
+            }
+        }
+
+        boolean changed = false;
+        for (Iterator<IRFunction> it = program.getFunctions().iterator(); it.hasNext(); ) {
+            IRFunction function = it.next();
+            if (!reachable.contains(function.getName())) {
+                it.remove();
+                analyses.invalidate(function);
+                changed = true;
+            }
+        }
+        changed |= program.getGlobalVariables().removeIf(global -> !reachable.contains(global.getName()));
+        return changed;
+    }
+}
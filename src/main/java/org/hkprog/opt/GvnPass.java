@@ -0,0 +1,332 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.DominatorTree;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRType;
+
+import java.util.*;
+
+/**
+ * Global value numbering over the dominator tree. Blocks are visited in dominator tree
+ * preorder with a scoped table of the pure computations seen on the way down (arithmetic,
+ * comparisons, casts and phis), keyed by opcode, type and operands, commutative operands in
+ * a canonical order; a computation already in the table is available in every block below,
+ * so the repeat is deleted and its uses take the earlier result.
+ *
+ * Loads are only reused while memory cannot have changed: the table of available loads
+ * follows straight-line control flow, into a dominator tree child whose only predecessor is
+ * its parent, and starts empty anywhere else. A store removes the loads it may alias and
+ * makes the stored value available to later loads of the same address; a call removes every
+ * load except those from stack slots whose address never escapes.
+ *
+ * Aliasing is decided from the object an address points into: a stack slot, a global or a
+ * string, plus a constant offset when it is known. Addresses into different objects never
+ * alias, nor do non-overlapping constant ranges of the same object, nor an address of
+ * unknown origin and a stack slot whose address never escapes.
+ */
+public class GvnPass extends FunctionPass {
+
+    /** A pure computation: opcode, type, and operands after replacement */
+    private static final class Expression {
+        final int opcode;
+        final int type;
+        final int[] operands;
+
+        Expression(int opcode, int type, int[] operands) {
+            this.opcode = opcode;
+            this.type = type;
+            this.operands = operands;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Expression)) {
+                return false;
+            }
+            Expression expression = (Expression) other;
+            return opcode == expression.opcode && type == expression.type && Arrays.equals(operands, expression.operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return (opcode * 31 + type) * 31 + Arrays.hashCode(operands);
+        }
+    }
+
+    /** The object an address points into and the offset into it, if known */
+    private static final class Location {
+        static final Location UNKNOWN = new Location(IROperand.NONE, false, 0);
+
+        final int base;
+        final boolean offsetKnown;
+        final long offset;
+
+        Location(int base, boolean offsetKnown, long offset) {
+            this.base = base;
+            this.offsetKnown = offsetKnown;
+            this.offset = offset;
+        }
+    }
+
+    private IRFunction function;
+    private int[] replacement;
+    private boolean[] deleted;
+    private Map<Integer, Location> locations;
+    private Set<Integer> escaped;
+
+    @Override
+    public String getName() {
+        return "gvn";
+    }
+
+    @Override
+    public Set<Analysis<?>> getPreserved() {
+        return Set.of(Analysis.CONTROL_FLOW_GRAPH, Analysis.DOMINATOR_TREE);
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        this.function = function;
+        DominatorTree dominators = analyses.get(Analysis.DOMINATOR_TREE, function);
+        ControlFlowGraph cfg = dominators.getCfg();
+        replacement = new int[function.getVregCount()];
+        for (int v = 0; v < replacement.length; v++) {
+            replacement[v] = IROperand.vreg(v);
+        }
+        deleted = new boolean[function.getInstructionCount()];
+        locations = new HashMap<>();
+        escaped = findEscapedSlots();
+
+        // Iterative preorder walk; each frame undoes its expressions when it is popped
+        Map<Expression, Integer> available = new HashMap<>();
+        Deque<Expression> undo = new ArrayDeque<>();
+        Deque<Object[]> stack = new ArrayDeque<>();
+        IRBasicBlock entry = function.getEntryBlock();
+        stack.push(new Object[] { entry, new HashMap<Expression, Integer>(), null });
+        boolean changed = false;
+        while (!stack.isEmpty()) {
+            Object[] frame = stack.peek();
+            IRBasicBlock block = (IRBasicBlock) frame[0];
+            if (frame[2] == null) {
+                @SuppressWarnings("unchecked")
+                Map<Expression, Integer> loads = (Map<Expression, Integer>) frame[1];
+                int mark = undo.size();
+                changed |= numberBlock(block, available, undo, loads);
+                frame[2] = mark;
+                for (IRBasicBlock child : dominators.children(block)) {
+                    List<IRBasicBlock> predecessors = cfg.predecessors(child);
+                    boolean straight = predecessors.size() == 1 && predecessors.get(0) == block;
+                    stack.push(new Object[] { child, straight ? new HashMap<>(loads) : new HashMap<Expression, Integer>(), null });
+                }
+                continue;
+            }
+            stack.pop();
+            int mark = (Integer) frame[2];
+            while (undo.size() > mark) {
+                available.remove(undo.pop());
+            }
+        }
+        if (changed) {
+            apply();
+        }
+        this.function = null;
+        return changed;
+    }
+
+    private boolean numberBlock(IRBasicBlock block, Map<Expression, Integer> available, Deque<Expression> undo,
+                                Map<Expression, Integer> loads) {
+        boolean changed = false;
+        for (int i = 0; i < block.size(); i++) {
+            int instruction = block.get(i);
+            IROpcode opcode = function.opcode(instruction);
+            int result = function.result(instruction);
+            int[] operands = function.operands(instruction);
+            for (int j = 0; j < operands.length; j++) {
+                operands[j] = resolve(operands[j]);
+            }
+            if (opcode == IROpcode.LOAD) {
+                Expression key = new Expression(opcode.ordinal(), function.type(instruction).ordinal(), operands);
+                Integer value = loads.get(key);
+                if (value != null) {
+                    replace(instruction, result, value);
+                    changed = true;
+                } else {
+                    loads.put(key, result);
+                }
+            } else if (opcode == IROpcode.STORE) {
+                IRType type = function.type(instruction);
+                killAliases(loads, operands[0], type);
+                if (forwardable(operands[1], type)) {
+                    loads.put(new Expression(IROpcode.LOAD.ordinal(), type.ordinal(), new int[] { operands[0] }), operands[1]);
+                }
+            } else if (opcode == IROpcode.CALL) {
+                loads.keySet().removeIf(key -> !isPrivateSlot(location(key.operands[0]).base));
+            } else if (isPure(opcode)) {
+                if (opcode.isCommutative() && operands[0] > operands[1]) {
+                    int swap = operands[0];
+                    operands[0] = operands[1];
+                    operands[1] = swap;
+                }
+                // Phis are only equal to phis of the same block
+                int type = function.type(instruction).ordinal() | (opcode == IROpcode.PHI ? block.getId() << 8 : 0);
+                Expression key = new Expression(opcode.ordinal(), type, operands);
+                Integer value = available.get(key);
+                if (value != null) {
+                    replace(instruction, result, value);
+                    changed = true;
+                } else {
+                    available.put(key, result);
+                    undo.push(key);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isPure(IROpcode opcode) {
+        return opcode.isBinary() || opcode == IROpcode.NEG || opcode == IROpcode.NOT
+            || opcode == IROpcode.CAST || opcode == IROpcode.PHI;
+    }
+
+    /**
+     * Whether a stored value reads back unchanged from a slot of the store's type: constants
+     * that fit and values no wider than the type
+     */
+    private boolean forwardable(int value, IRType type) {
+        if (IROperand.isConstant(value)) {
+            return type.wrap(function.constantValue(value)) == function.constantValue(value);
+        }
+        return function.valueType(value).getSize() <= type.getSize() && function.valueType(value) != IRType.VOID;
+    }
+
+    private void killAliases(Map<Expression, Integer> loads, int address, IRType type) {
+        Location stored = location(address);
+        loads.keySet().removeIf(key -> mayAlias(stored, type.getSize(), location(key.operands[0]),
+            IRType.values()[key.type].getSize()));
+    }
+
+    private boolean mayAlias(Location a, int sizeA, Location b, int sizeB) {
+        if (a.base != IROperand.NONE && b.base != IROperand.NONE) {
+            if (a.base != b.base) {
+                return false;
+            }
+            return !a.offsetKnown || !b.offsetKnown || a.offset < b.offset + sizeB && b.offset < a.offset + sizeA;
+        }
+        int known = a.base != IROperand.NONE ? a.base : b.base;
+        return !isPrivateSlot(known);
+    }
+
+    /** Whether an object is a stack slot whose address is never visible outside the function */
+    private boolean isPrivateSlot(int base) {
+        return IROperand.isVreg(base) && !escaped.contains(base);
+    }
+
+    private Location location(int address) {
+        Location location = locations.get(address);
+        if (location != null) {
+            return location;
+        }
+        location = Location.UNKNOWN;
+        switch (IROperand.kind(address)) {
+            case IROperand.SYMBOL:
+            case IROperand.STRING:
+                location = new Location(address, true, 0);
+                break;
+            case IROperand.VREG: {
+                int definition = function.definition(address);
+                if (definition < 0) {
+                    break;
+                }
+                IROpcode opcode = function.opcode(definition);
+                if (opcode == IROpcode.ALLOCA) {
+                    location = new Location(address, true, 0);
+                } else if (opcode == IROpcode.ADD || opcode == IROpcode.SUB) {
+                    int pointer = resolve(function.operand(definition, 0));
+                    int offset = resolve(function.operand(definition, 1));
+                    Location base = location(pointer);
+                    if (base.base == IROperand.NONE && opcode == IROpcode.ADD) {
+                        base = location(offset);
+                        offset = pointer;
+                    }
+                    if (base.base != IROperand.NONE) {
+                        boolean known = base.offsetKnown && IROperand.isConstant(offset);
+                        long delta = known ? function.constantValue(offset) : 0;
+                        location = new Location(base.base, known, base.offset + (opcode == IROpcode.SUB ? -delta : delta));
+                    }
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        locations.put(address, location);
+        return location;
+    }
+
+    /**
+     * Stack slots whose address, or an address computed from it, is used other than to load,
+     * store or compute another address into the same slot
+     */
+    private Set<Integer> findEscapedSlots() {
+        Set<Integer> slots = new HashSet<>();
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                IROpcode opcode = function.opcode(instruction);
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (!IROperand.isVreg(operand)) {
+                        continue;
+                    }
+                    int base = location(operand).base;
+                    if (!IROperand.isVreg(base)) {
+                        continue;
+                    }
+                    boolean address = (opcode == IROpcode.LOAD || opcode == IROpcode.STORE) && j == 0;
+                    boolean derived = (opcode == IROpcode.ADD || opcode == IROpcode.SUB)
+                        && location(function.result(instruction)).base == base;
+                    if (!address && !derived) {
+                        slots.add(base);
+                    }
+                }
+            }
+        }
+        return slots;
+    }
+
+    private void replace(int instruction, int result, int value) {
+        deleted[instruction] = true;
+        replacement[IROperand.index(result)] = value;
+    }
+
+    private int resolve(int operand) {
+        while (IROperand.isVreg(operand) && replacement[IROperand.index(operand)] != operand) {
+            operand = replacement[IROperand.index(operand)];
+        }
+        return operand;
+    }
+
+    /** Deletes the redundant instructions and rewrites every use to the surviving value */
+    private void apply() {
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = block.size() - 1; i >= 0; i--) {
+                int instruction = block.get(i);
+                if (deleted[instruction]) {
+                    block.remove(i);
+                    continue;
+                }
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    int resolved = resolve(operand);
+                    if (resolved != operand) {
+                        function.setOperand(instruction, j, resolved);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.CallGraph;
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.ir.IRType;
+
+import java.util.*;
+
+/**
+ * Replaces direct calls with a copy of the callee's body. Functions are visited bottom-up
+ * over the call graph, so a callee has already had its own calls inlined and been cleaned
+ * up (mem2reg, sccp, dce and simplify-cfg rerun on every function that changed) by the time
+ * its size is weighed for its callers.
+ *
+ * The cost of inlining a call is the callee's size in instructions, less what the call
+ * itself costs, less a bonus for each constant argument, which sccp can then fold into
+ * the copy, and less a large bonus when the call is the last one to a static function that
+ * globaldce can then delete. A call is inlined when that cost is at most the threshold.
+ *
+ * Calls between functions of the same strongly connected component are never inlined, so
+ * recursion, direct or mutual, cannot unroll without bound; nor are calls copied in from a
+ * callee, which were weighed when the callee was visited. A caller stops growing once it
+ * reaches {@link #MAX_CALLER_SIZE} instructions.
+ */
+public class InlinerPass implements Pass {
+
+    /** Instructions a call costs beyond its arguments: the call and reading the result */
+    static final int CALL_COST = 2;
+    static final int CONSTANT_ARGUMENT_BONUS = 5;
+    static final int LAST_CALL_BONUS = 50;
+    static final int MAX_CALLER_SIZE = 1000;
+
+    private final int threshold;
+    private final List<FunctionPass> cleanup = List.of(new Mem2RegPass(), new SccpPass(), new DcePass(), new SimplifyCfgPass());
+    private CallGraph graph;
+    private Map<IRFunction, Integer> callSites;
+
+    public InlinerPass(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * The threshold of an optimization level: only calls no bigger than the call itself
+     * at -O1, small helpers as well at -O2
+     */
+    public static int defaultThreshold(OptimizationLevel level) {
+        return level.atLeast(OptimizationLevel.O2) ? 25 : 5;
+    }
+
+    @Override
+    public String getName() {
+        return "inline";
+    }
+
+    @Override
+    public List<String> getRequired() {
+        return List.of("mem2reg");
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public boolean run(IRProgram program, AnalysisManager analyses) {
+        graph = new CallGraph(program);
+        callSites = new IdentityHashMap<>();
+        for (IRFunction function : program.getFunctions()) {
+            callSites.put(function, graph.callSites(function));
+        }
+        boolean changed = false;
+        for (List<IRFunction> component : graph.bottomUpComponents()) {
+            for (IRFunction caller : component) {
+                if (inlineInto(caller, analyses)) {
+                    analyses.invalidate(caller);
+                    for (FunctionPass pass : cleanup) {
+                        if (pass.run(caller, analyses)) {
+                            analyses.invalidate(caller, pass.getPreserved());
+                        }
+                    }
+                    changed = true;
+                }
+            }
+        }
+        graph = null;
+        callSites = null;
+        return changed;
+    }
+
+    /** Inlines every call in a function the cost model accepts */
+    private boolean inlineInto(IRFunction caller, AnalysisManager analyses) {
+        boolean changed = false;
+        Set<Integer> considered = new HashSet<>();
+        boolean found = true;
+        while (found) {
+            found = false;
+            for (IRBasicBlock block : caller.getBlocks()) {
+                for (int i = 0; i < block.size() && !found; i++) {
+                    int call = block.get(i);
+                    if (caller.opcode(call) != IROpcode.CALL || !considered.add(call)) {
+                        continue;
+                    }
+                    IRFunction callee = IROperand.kind(caller.operand(call, 0)) == IROperand.SYMBOL
+                        ? graph.getFunction(caller.symbolName(caller.operand(call, 0))) : null;
+                    if (callee != null && shouldInline(caller, call, callee)) {
+                        inline(caller, block, i, callee, considered);
+                        found = true;
+                    }
+                }
+                if (found) {
+                    break;
+                }
+            }
+            changed |= found;
+        }
+        return changed;
+    }
+
+    private boolean shouldInline(IRFunction caller, int call, IRFunction callee) {
+        int arguments = caller.operandCount(call) - 1;
+        if (graph.sameComponent(caller, callee) || arguments != callee.getParameters().size()) {
+            return false;
+        }
+        IRBasicBlock entry = callee.getEntryBlock();
+        if (entry.size() > 0 && callee.opcode(entry.get(0)) == IROpcode.PHI) {
+            return false;
+        }
+        int size = bodySize(callee);
+        if (caller.size() + size > MAX_CALLER_SIZE) {
+            return false;
+        }
+        int cost = size - CALL_COST - arguments;
+        for (int j = 1; j <= arguments; j++) {
+            if (IROperand.isConstant(caller.operand(call, j))) {
+                cost -= CONSTANT_ARGUMENT_BONUS;
+            }
+        }
+        if (callee.isStatic() && !graph.isAddressTaken(callee) && callSites.get(callee) == 1) {
+            cost -= LAST_CALL_BONUS;
+        }
+        return cost <= threshold;
+    }
+
+    /** Instructions a copy of the function adds, not counting the parameters it reads */
+    private static int bodySize(IRFunction function) {
+        int size = 0;
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                size += function.opcode(block.get(i)) == IROpcode.PARAM ? 0 : 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Splits the call's block after the call, copies the callee's blocks in between with
+     * parameters replaced by the arguments and returns by jumps to the rest of the block,
+     * and replaces the call's result with the returned value
+     */
+    private void inline(IRFunction caller, IRBasicBlock block, int index, IRFunction callee, Set<Integer> considered) {
+        int call = block.get(index);
+        int result = caller.result(call);
+        IRType resultType = caller.type(call);
+        int[] arguments = Arrays.copyOfRange(caller.operands(call), 1, caller.operandCount(call));
+
+        IRBasicBlock continuation = caller.createBlock();
+        while (block.size() > index + 1) {
+            continuation.add(block.get(index + 1));
+            block.remove(index + 1);
+        }
+        block.remove(index);
+        for (int id : ControlFlowGraph.successorIds(caller, continuation)) {
+            retargetPhis(caller, caller.getBlock(id), block.operand(), continuation.operand());
+        }
+
+        List<IRBasicBlock> layout = caller.getBlocks();
+        int position = layout.indexOf(block) + 1;
+        IRBasicBlock[] clones = new IRBasicBlock[callee.getBlockIdBound()];
+        for (IRBasicBlock original : callee.getBlocks()) {
+            clones[original.getId()] = caller.createBlock();
+            layout.add(position++, clones[original.getId()]);
+        }
+        layout.add(position, continuation);
+        caller.append(block, IROpcode.JMP, IRType.VOID, IROperand.NONE, clones[callee.getEntryBlock().getId()].operand());
+
+        int[] vregs = new int[callee.getVregCount()];
+        Arrays.fill(vregs, IROperand.NONE);
+        List<IRBasicBlock> returnBlocks = new ArrayList<>();
+        List<Integer> returnValues = new ArrayList<>();
+        IRBasicBlock callerEntry = caller.getEntryBlock();
+        for (IRBasicBlock original : callee.getBlocks()) {
+            IRBasicBlock clone = clones[original.getId()];
+            for (int i = 0; i < original.size(); i++) {
+                int instruction = original.get(i);
+                IROpcode opcode = callee.opcode(instruction);
+                IRType type = callee.type(instruction);
+                int[] operands = callee.operands(instruction);
+                if (opcode == IROpcode.PARAM) {
+                    int argument = arguments[(int) callee.constantValue(operands[0])];
+                    vregs[IROperand.index(callee.result(instruction))] = narrow(caller, clone, argument, type);
+                    continue;
+                }
+                for (int j = 0; j < operands.length; j++) {
+                    operands[j] = copyOperand(caller, callee, operands[j], vregs, clones);
+                }
+                if (opcode == IROpcode.RET) {
+                    returnBlocks.add(clone);
+                    returnValues.add(operands.length > 0 && IROperand.isVreg(result) ? narrow(caller, clone, operands[0], resultType) : caller.constant(0));
+                    caller.append(clone, IROpcode.JMP, IRType.VOID, IROperand.NONE, continuation.operand());
+                    continue;
+                }
+                int copy = caller.addInstruction(opcode, type, copyOperand(caller, callee, callee.result(instruction), vregs, clones), operands);
+                if (opcode == IROpcode.ALLOCA) {
+                    callerEntry.insert(0, copy);
+                } else {
+                    clone.add(copy);
+                }
+                if (opcode == IROpcode.CALL) {
+                    considered.add(copy);
+                    IRFunction target = IROperand.kind(operands[0]) == IROperand.SYMBOL
+                        ? graph.getFunction(caller.symbolName(operands[0])) : null;
+                    if (target != null) {
+                        callSites.merge(target, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        callSites.merge(callee, -1, Integer::sum);
+
+        if (!IROperand.isVreg(result) || returnBlocks.isEmpty()) {
+            return;
+        }
+        int value = returnValues.get(0);
+        if (returnBlocks.size() > 1) {
+            int[] incoming = new int[2 * returnBlocks.size()];
+            for (int r = 0; r < returnBlocks.size(); r++) {
+                incoming[2 * r] = returnBlocks.get(r).operand();
+                incoming[2 * r + 1] = returnValues.get(r);
+            }
+            value = caller.newVreg();
+            continuation.insert(0, caller.addInstruction(IROpcode.PHI, resultType, value, incoming));
+        }
+        caller.replaceAllUses(result, value);
+    }
+
+    /** The caller's equivalent of a callee operand */
+    static int copyOperand(IRFunction caller, IRFunction callee, int operand, int[] vregs, IRBasicBlock[] clones) {
+        switch (IROperand.kind(operand)) {
+            case IROperand.VREG: {
+                int v = IROperand.index(operand);
+                if (vregs[v] == IROperand.NONE) {
+                    vregs[v] = caller.newVreg();
+                }
+                return vregs[v];
+            }
+            case IROperand.CONSTANT:
+                return caller.constant(callee.constantValue(operand));
+            case IROperand.SYMBOL:
+                return caller.symbol(callee.symbolName(operand));
+            case IROperand.STRING:
+                return caller.string(callee.symbolName(operand));
+            case IROperand.BLOCK:
+                return clones[IROperand.index(operand)].operand();
+            default:
+                return operand;
+        }
+    }
+
+    /**
+     * A value as a parameter or call result of the given type would see it: values that
+     * already fit pass through, wider ones are cast at the end of the block
+     */
+    static int narrow(IRFunction function, IRBasicBlock block, int value, IRType type) {
+        if (IROperand.isConstant(value)) {
+            return function.constant(type.wrap(function.constantValue(value)));
+        }
+        IRType valueType = function.valueType(value);
+        if (valueType != IRType.VOID && valueType.getSize() <= type.getSize()) {
+            return value;
+        }
+        int narrowed = function.newVreg();
+        function.append(block, IROpcode.CAST, type, narrowed, value);
+        return narrowed;
+    }
+
+    static void retargetPhis(IRFunction function, IRBasicBlock block, int from, int to) {
+        for (int i = 0; i < block.size() && function.opcode(block.get(i)) == IROpcode.PHI; i++) {
+            int phi = block.get(i);
+            for (int j = 0; j < function.operandCount(phi); j += 2) {
+                if (function.operand(phi, j) == from) {
+                    function.setOperand(phi, j, to);
+                }
+            }
+        }
+    }
+}
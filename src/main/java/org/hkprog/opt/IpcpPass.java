@@ -0,0 +1,452 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.CallGraph;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRParameter;
+import org.hkprog.ir.IRProgram;
+
+import java.util.*;
+
+/**
+ * Interprocedural constant propagation, dead-argument elimination and specialization of
+ * static functions over the call graph.
+ *
+ * Only the parameters of a function whose calls are all known can change: one that is not
+ * main, whose address is never taken, that every call passes as many arguments as it has
+ * parameters, and that is static or part of a program with a main, which is complete as
+ * globaldce assumes. A parameter of such a function that every call passes the same
+ * constant becomes that constant. An argument that is a parameter of the caller counts as
+ * the constant that parameter was found to be, so a flag handed down a chain of helpers,
+ * or through recursion, is followed; the values are solved optimistically, a parameter
+ * taken to be constant until a call disagrees. Once the functions changed have been
+ * cleaned up (sccp, dce and simplify-cfg), the parameters they no longer read are removed
+ * from them and from every call.
+ *
+ * With specialization, a static function that is called with different constants for a
+ * parameter it compares or branches on is copied for each combination of such constants
+ * its calls pass, up to {@link #MAX_SPECIALIZATIONS} copies of at most
+ * {@link #MAX_SPECIALIZED_SIZE} instructions, and those calls call the copy instead, where
+ * the parameters are constants. Calls inside a copy are redirected too, so a recursive
+ * function keeps calling its own copy.
+ */
+public class IpcpPass implements Pass {
+
+    static final int MAX_SPECIALIZATIONS = 4;
+    static final int MAX_SPECIALIZED_SIZE = 200;
+
+    /** Lattice states of a parameter: no call seen yet, one constant, or differing values */
+    private static final byte UNKNOWN = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte OVERDEFINED = 2;
+
+    private final boolean specialize;
+    private final List<FunctionPass> cleanup = List.of(new SccpPass(), new DcePass(), new SimplifyCfgPass());
+
+    public IpcpPass(boolean specialize) {
+        this.specialize = specialize;
+    }
+
+    /** Propagation and dead arguments from -O1, specialization, which adds code, at -O2 */
+    public static IpcpPass forLevel(OptimizationLevel level) {
+        return new IpcpPass(level.atLeast(OptimizationLevel.O2));
+    }
+
+    @Override
+    public String getName() {
+        return "ipcp";
+    }
+
+    @Override
+    public List<String> getRequired() {
+        return List.of("mem2reg");
+    }
+
+    @Override
+    public boolean run(IRProgram program, AnalysisManager analyses) {
+        Set<IRFunction> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        propagate(program, changed);
+        if (specialize && specialize(program, changed)) {
+            propagate(program, changed);
+        }
+        for (IRFunction function : changed) {
+            analyses.invalidate(function);
+            for (FunctionPass pass : cleanup) {
+                if (pass.run(function, analyses)) {
+                    analyses.invalidate(function, pass.getPreserved());
+                }
+            }
+        }
+        for (IRFunction function : eliminateDeadArguments(program)) {
+            analyses.invalidate(function);
+            changed.add(function);
+        }
+        return !changed.isEmpty();
+    }
+
+    /**
+     * The functions whose every call is a direct call with one argument per parameter
+     */
+    private static Set<IRFunction> internalFunctions(IRProgram program, CallGraph graph) {
+        Set<IRFunction> internal = Collections.newSetFromMap(new IdentityHashMap<>());
+        IRFunction main = program.getMainFunction();
+        for (IRFunction function : program.getFunctions()) {
+            if (function != main && !graph.isAddressTaken(function) && (function.isStatic() || main != null)) {
+                internal.add(function);
+            }
+        }
+        for (IRFunction caller : program.getFunctions()) {
+            for (int call : calls(caller)) {
+                IRFunction callee = callee(graph, caller, call);
+                if (callee != null && caller.operandCount(call) - 1 != callee.getParameters().size()) {
+                    internal.remove(callee);
+                }
+            }
+        }
+        return internal;
+    }
+
+    /** The parameters every call passes the same constant, replaced by that constant */
+    private void propagate(IRProgram program, Set<IRFunction> changed) {
+        CallGraph graph = new CallGraph(program);
+        Set<IRFunction> internal = internalFunctions(program, graph);
+        Map<IRFunction, byte[]> states = new IdentityHashMap<>();
+        Map<IRFunction, long[]> values = new IdentityHashMap<>();
+        for (IRFunction function : internal) {
+            states.put(function, new byte[function.getParameters().size()]);
+            values.put(function, new long[function.getParameters().size()]);
+        }
+        // A function is rescanned whenever what is known of its own parameters changes
+        Deque<IRFunction> worklist = new ArrayDeque<>(program.getFunctions());
+        Set<IRFunction> queued = Collections.newSetFromMap(new IdentityHashMap<>());
+        queued.addAll(worklist);
+        while (!worklist.isEmpty()) {
+            IRFunction caller = worklist.poll();
+            queued.remove(caller);
+            for (int call : calls(caller)) {
+                IRFunction callee = callee(graph, caller, call);
+                if (callee == null || !internal.contains(callee)) {
+                    continue;
+                }
+                byte[] state = states.get(callee);
+                long[] value = values.get(callee);
+                boolean updated = false;
+                for (int j = 0; j < state.length; j++) {
+                    int argument = caller.operand(call, j + 1);
+                    byte argumentState;
+                    long argumentValue = 0;
+                    int definition = IROperand.isVreg(argument) ? caller.definition(argument) : -1;
+                    if (IROperand.isConstant(argument)) {
+                        argumentState = CONSTANT;
+                        argumentValue = caller.constantValue(argument);
+                    } else if (definition >= 0 && caller.opcode(definition) == IROpcode.PARAM && internal.contains(caller)) {
+                        int index = (int) caller.constantValue(caller.operand(definition, 0));
+                        argumentState = states.get(caller)[index];
+                        argumentValue = values.get(caller)[index];
+                    } else {
+                        argumentState = OVERDEFINED;
+                    }
+                    if (argumentState == UNKNOWN || state[j] == OVERDEFINED) {
+                        continue;
+                    }
+                    argumentValue = callee.getParameters().get(j).getType().wrap(argumentValue);
+                    if (argumentState == OVERDEFINED || state[j] == CONSTANT && value[j] != argumentValue) {
+                        state[j] = OVERDEFINED;
+                        updated = true;
+                    } else if (state[j] == UNKNOWN) {
+                        state[j] = CONSTANT;
+                        value[j] = argumentValue;
+                        updated = true;
+                    }
+                }
+                if (updated && queued.add(callee)) {
+                    worklist.add(callee);
+                }
+            }
+        }
+        for (IRFunction function : internal) {
+            byte[] state = states.get(function);
+            int[] parameters = parameterInstructions(function);
+            for (int j = 0; j < state.length; j++) {
+                if (state[j] == CONSTANT && parameters[j] >= 0) {
+                    replaceParameter(function, parameters[j], values.get(function)[j]);
+                    changed.add(function);
+                }
+            }
+        }
+    }
+
+    /**
+     * Redirects calls passing constants for the parameters a static function compares or
+     * branches on to a copy of the function specialized to them
+     */
+    private boolean specialize(IRProgram program, Set<IRFunction> changed) {
+        CallGraph graph = new CallGraph(program);
+        Set<String> names = new HashSet<>();
+        for (IRFunction function : program.getFunctions()) {
+            names.add(function.getName());
+        }
+        Map<IRFunction, Map<List<Long>, IRFunction>> copies = new IdentityHashMap<>();
+        Map<IRFunction, boolean[]> tested = new IdentityHashMap<>();
+        Map<String, IRFunction> byName = new HashMap<>();
+        Map<IRFunction, IRFunction> origins = new IdentityHashMap<>();
+        Deque<IRFunction> worklist = new ArrayDeque<>(program.getFunctions());
+        boolean specialized = false;
+        while (!worklist.isEmpty()) {
+            IRFunction caller = worklist.poll();
+            for (int call : calls(caller)) {
+                int target = caller.operand(call, 0);
+                IRFunction callee = callee(graph, caller, call);
+                if (callee == null && IROperand.kind(target) == IROperand.SYMBOL) {
+                    callee = byName.get(caller.symbolName(target));
+                }
+                if (callee == null || !callee.isStatic() || caller.operandCount(call) - 1 != callee.getParameters().size()) {
+                    continue;
+                }
+                IRFunction origin = origins.getOrDefault(callee, callee);
+                boolean[] compared = tested.computeIfAbsent(callee, f -> comparedParameters(f, origin.getName()));
+                List<Long> key = new ArrayList<>();
+                boolean constant = false;
+                for (int j = 0; j < compared.length; j++) {
+                    int argument = caller.operand(call, j + 1);
+                    if (compared[j] && IROperand.isConstant(argument)) {
+                        key.add(callee.getParameters().get(j).getType().wrap(caller.constantValue(argument)));
+                        constant = true;
+                    } else {
+                        key.add(null);
+                    }
+                }
+                if (!constant) {
+                    continue;
+                }
+                Map<List<Long>, IRFunction> versions = copies.computeIfAbsent(callee, f -> new HashMap<>());
+                IRFunction copy = versions.get(key);
+                if (copy == null) {
+                    if (versions.size() >= MAX_SPECIALIZATIONS || callee.size() > MAX_SPECIALIZED_SIZE) {
+                        continue;
+                    }
+                    String name;
+                    int suffix = versions.size() + 1;
+                    do {
+                        name = callee.getName() + ".spec" + suffix++;
+                    } while (!names.add(name));
+                    copy = copy(callee, name, key);
+                    // After the function and the copies made of it before
+                    program.getFunctions().add(program.getFunctions().indexOf(callee) + versions.size() + 1, copy);
+                    versions.put(key, copy);
+                    byName.put(name, copy);
+                    origins.put(copy, origin);
+                    worklist.add(copy);
+                }
+                caller.setOperand(call, 0, caller.symbol(copy.getName()));
+                changed.add(caller);
+                specialized = true;
+            }
+        }
+        return specialized;
+    }
+
+    /**
+     * Which parameters a function compares, branches or switches on, or masks, leaving out
+     * those its recursive calls change: only the outermost call would see the constant
+     */
+    private static boolean[] comparedParameters(IRFunction function, String origin) {
+        boolean[] compared = new boolean[function.getParameters().size()];
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                switch (function.opcode(instruction)) {
+                    case EQ: case NE: case LT: case LE: case GT: case GE:
+                    case BR: case SWITCH: case AND:
+                        break;
+                    default:
+                        continue;
+                }
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    int definition = IROperand.isVreg(operand) ? function.definition(operand) : -1;
+                    if (definition >= 0 && function.opcode(definition) == IROpcode.PARAM) {
+                        compared[(int) function.constantValue(function.operand(definition, 0))] = true;
+                    }
+                }
+            }
+        }
+        for (int call : calls(function)) {
+            int target = function.operand(call, 0);
+            if (IROperand.kind(target) != IROperand.SYMBOL || !function.symbolName(target).equals(function.getName())
+                    && !function.symbolName(target).equals(origin)) {
+                continue;
+            }
+            for (int j = 0; j < compared.length && j + 1 < function.operandCount(call); j++) {
+                int argument = function.operand(call, j + 1);
+                int definition = IROperand.isVreg(argument) ? function.definition(argument) : -1;
+                boolean passedOn = definition >= 0 && function.opcode(definition) == IROpcode.PARAM
+                    && function.constantValue(function.operand(definition, 0)) == j;
+                compared[j] &= passedOn;
+            }
+        }
+        return compared;
+    }
+
+    /**
+     * A static copy of a function with the parameters that have a value in the key
+     * replaced by it
+     */
+    private static IRFunction copy(IRFunction function, String name, List<Long> key) {
+        IRFunction copy = new IRFunction(name, function.getReturnType());
+        copy.setStatic(true);
+        for (IRParameter parameter : function.getParameters()) {
+            copy.addParameter(parameter);
+        }
+        IRBasicBlock[] clones = new IRBasicBlock[function.getBlockIdBound()];
+        for (IRBasicBlock block : function.getBlocks()) {
+            clones[block.getId()] = copy.newBlock();
+        }
+        int[] vregs = new int[function.getVregCount()];
+        Arrays.fill(vregs, IROperand.NONE);
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                int[] operands = function.operands(instruction);
+                for (int j = 0; j < operands.length; j++) {
+                    operands[j] = InlinerPass.copyOperand(copy, function, operands[j], vregs, clones);
+                }
+                int result = InlinerPass.copyOperand(copy, function, function.result(instruction), vregs, clones);
+                copy.append(clones[block.getId()], function.opcode(instruction), function.type(instruction), result, operands);
+            }
+        }
+        int[] parameters = parameterInstructions(copy);
+        for (int j = 0; j < key.size(); j++) {
+            if (key.get(j) != null && parameters[j] >= 0) {
+                replaceParameter(copy, parameters[j], key.get(j));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Removes the parameters of internal functions that are no longer read, renumbering the
+     * rest, and the arguments calls pass for them
+     *
+     * @return the functions changed
+     */
+    private static Set<IRFunction> eliminateDeadArguments(IRProgram program) {
+        CallGraph graph = new CallGraph(program);
+        Set<IRFunction> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<IRFunction, int[]> renumbered = new IdentityHashMap<>();
+        for (IRFunction function : internalFunctions(program, graph)) {
+            int[] parameters = parameterInstructions(function);
+            BitSet used = usedVregs(function);
+            int[] index = new int[parameters.length];
+            int next = 0;
+            for (int j = 0; j < parameters.length; j++) {
+                boolean live = parameters[j] >= 0 && used.get(IROperand.index(function.result(parameters[j])));
+                index[j] = live ? next++ : -1;
+            }
+            if (next == parameters.length) {
+                continue;
+            }
+            for (int j = parameters.length - 1; j >= 0; j--) {
+                if (index[j] >= 0) {
+                    function.setOperand(parameters[j], 0, function.constant(index[j]));
+                    continue;
+                }
+                if (parameters[j] >= 0) {
+                    remove(function, parameters[j]);
+                }
+                function.getParameters().remove(j);
+            }
+            renumbered.put(function, index);
+            changed.add(function);
+        }
+        if (renumbered.isEmpty()) {
+            return changed;
+        }
+        for (IRFunction caller : program.getFunctions()) {
+            for (int call : calls(caller)) {
+                IRFunction callee = callee(graph, caller, call);
+                int[] index = callee == null ? null : renumbered.get(callee);
+                if (index == null) {
+                    continue;
+                }
+                int[] operands = caller.operands(call);
+                int[] kept = new int[1 + callee.getParameters().size()];
+                kept[0] = operands[0];
+                for (int j = 0; j < index.length; j++) {
+                    if (index[j] >= 0) {
+                        kept[1 + index[j]] = operands[1 + j];
+                    }
+                }
+                caller.setOperands(call, kept);
+                changed.add(caller);
+            }
+        }
+        return changed;
+    }
+
+    private static void replaceParameter(IRFunction function, int parameter, long value) {
+        function.replaceAllUses(function.result(parameter), function.constant(value));
+        remove(function, parameter);
+    }
+
+    private static void remove(IRFunction function, int instruction) {
+        for (IRBasicBlock block : function.getBlocks()) {
+            int i = block.indexOf(instruction);
+            if (i >= 0) {
+                block.remove(i);
+                return;
+            }
+        }
+    }
+
+    /** The PARAM instruction reading each parameter, or -1 where there is none */
+    private static int[] parameterInstructions(IRFunction function) {
+        int[] parameters = new int[function.getParameters().size()];
+        Arrays.fill(parameters, -1);
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (function.opcode(instruction) == IROpcode.PARAM) {
+                    parameters[(int) function.constantValue(function.operand(instruction, 0))] = instruction;
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static BitSet usedVregs(IRFunction function) {
+        BitSet used = new BitSet();
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (IROperand.isVreg(operand)) {
+                        used.set(IROperand.index(operand));
+                    }
+                }
+            }
+        }
+        return used;
+    }
+
+    private static List<Integer> calls(IRFunction function) {
+        List<Integer> calls = new ArrayList<>();
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                if (function.opcode(block.get(i)) == IROpcode.CALL) {
+                    calls.add(block.get(i));
+                }
+            }
+        }
+        return calls;
+    }
+
+    /** The defined function a call calls directly, or null */
+    private static IRFunction callee(CallGraph graph, IRFunction caller, int call) {
+        int target = caller.operand(call, 0);
+        return IROperand.kind(target) == IROperand.SYMBOL ? graph.getFunction(caller.symbolName(target)) : null;
+    }
+}
@@ -0,0 +1,158 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.LoopInfo;
+
+import java.util.*;
+
+/**
+ * Loop-invariant code motion. A computation inside a loop whose operands are all defined
+ * outside it, or are themselves invariant, gives the same result on every iteration, so it
+ * moves to the end of the loop's preheader and runs once. Loops are visited innermost
+ * first, so code hoisted out of an inner loop can keep moving out of the loops around it.
+ *
+ * Hoisted code runs even when the loop body would not have, so only instructions that
+ * cannot fault are moved: arithmetic, except division by anything but a constant other
+ * than 0 and -1, and loads from a global, a string or a stack slot at a constant offset,
+ * when the loop makes no call and no store that may write the same object.
+ */
+public class LicmPass extends FunctionPass {
+
+    private IRFunction function;
+    /** Block id of each placed instruction */
+    private int[] blockOf;
+
+    @Override
+    public String getName() {
+        return "licm";
+    }
+
+    @Override
+    public List<String> getRequired() {
+        return List.of("mem2reg");
+    }
+
+    @Override
+    public Set<Analysis<?>> getPreserved() {
+        return Set.of(Analysis.CONTROL_FLOW_GRAPH, Analysis.DOMINATOR_TREE, Analysis.LOOPS);
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        this.function = function;
+        LoopInfo loops = analyses.get(Analysis.LOOPS, function);
+        boolean changed = false;
+        if (LoopSimplify.insertPreheaders(function, loops)) {
+            analyses.invalidate(function);
+            loops = analyses.get(Analysis.LOOPS, function);
+            changed = true;
+        }
+        blockOf = new int[function.getInstructionCount()];
+        Arrays.fill(blockOf, -1);
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                blockOf[block.get(i)] = block.getId();
+            }
+        }
+        for (LoopInfo.Loop loop : loops.getLoops()) {
+            IRBasicBlock preheader = loops.preheader(loop);
+            if (preheader != null) {
+                changed |= hoist(loop, preheader);
+            }
+        }
+        this.function = null;
+        return changed;
+    }
+
+    private boolean hoist(LoopInfo.Loop loop, IRBasicBlock preheader) {
+        Set<Integer> written = new HashSet<>();
+        boolean unknownWrites = false;
+        for (IRBasicBlock block : loop.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (function.opcode(instruction) == IROpcode.CALL) {
+                    unknownWrites = true;
+                } else if (function.opcode(instruction) == IROpcode.STORE) {
+                    int base = baseObject(function.operand(instruction, 0), false);
+                    unknownWrites |= base == IROperand.NONE;
+                    written.add(base);
+                }
+            }
+        }
+        boolean changed = false;
+        // Reverse postorder sees definitions before their uses, except through phis
+        for (IRBasicBlock block : loop.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (!isInvariant(loop, instruction)) {
+                    continue;
+                }
+                IROpcode opcode = function.opcode(instruction);
+                if (opcode == IROpcode.LOAD) {
+                    int base = baseObject(function.operand(instruction, 0), true);
+                    if (unknownWrites || base == IROperand.NONE || written.contains(base)) {
+                        continue;
+                    }
+                } else if (!isSafeArithmetic(instruction)) {
+                    continue;
+                }
+                block.remove(i--);
+                preheader.insert(preheader.size() - 1, instruction);
+                blockOf[instruction] = preheader.getId();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean isInvariant(LoopInfo.Loop loop, int instruction) {
+        for (int j = 0; j < function.operandCount(instruction); j++) {
+            int operand = function.operand(instruction, j);
+            if (!IROperand.isVreg(operand)) {
+                continue;
+            }
+            int definition = function.definition(operand);
+            if (definition < 0 || blockOf[definition] < 0 || loop.contains(function.getBlock(blockOf[definition]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSafeArithmetic(int instruction) {
+        IROpcode opcode = function.opcode(instruction);
+        if (opcode == IROpcode.DIV || opcode == IROpcode.MOD) {
+            int divisor = function.operand(instruction, 1);
+            return IROperand.isConstant(divisor) && function.constantValue(divisor) != 0
+                && function.constantValue(divisor) != -1;
+        }
+        return opcode.isBinary() || opcode == IROpcode.NEG || opcode == IROpcode.NOT || opcode == IROpcode.CAST;
+    }
+
+    /**
+     * The global, string or stack slot an address points into, at a constant offset if
+     * required, or {@link IROperand#NONE} if that is not known
+     */
+    private int baseObject(int address, boolean constantOffset) {
+        while (IROperand.isVreg(address)) {
+            int definition = function.definition(address);
+            if (definition < 0) {
+                return IROperand.NONE;
+            }
+            IROpcode opcode = function.opcode(definition);
+            if (opcode == IROpcode.ALLOCA) {
+                return address;
+            }
+            if (opcode != IROpcode.ADD && opcode != IROpcode.SUB
+                    || constantOffset && !IROperand.isConstant(function.operand(definition, 1))) {
+                return IROperand.NONE;
+            }
+            address = function.operand(definition, 0);
+        }
+        int kind = IROperand.kind(address);
+        return kind == IROperand.SYMBOL || kind == IROperand.STRING ? address : IROperand.NONE;
+    }
+}
@@ -0,0 +1,87 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRType;
+import org.hkprog.ir.LoopInfo;
+
+import java.util.*;
+
+/**
+ * Gives every loop a preheader, the block the loop passes use to hold code that runs once
+ * before the loop. A loop entered from several blocks, or from a block that branches
+ * elsewhere too, gets a new block in front of its header that all the entering edges are
+ * redirected to; header phis take the value from those edges through a phi in the new
+ * block.
+ */
+final class LoopSimplify {
+
+    private LoopSimplify() {
+    }
+
+    /**
+     * Inserts the missing preheaders, the loops of the entry block excepted
+     *
+     * @return whether any block was inserted, which invalidates the function's analyses
+     */
+    static boolean insertPreheaders(IRFunction function, LoopInfo loops) {
+        ControlFlowGraph cfg = loops.getDominators().getCfg();
+        boolean changed = false;
+        for (LoopInfo.Loop loop : loops.getLoops()) {
+            IRBasicBlock header = loop.getHeader();
+            if (header == function.getEntryBlock() || loops.preheader(loop) != null) {
+                continue;
+            }
+            List<IRBasicBlock> entering = new ArrayList<>();
+            for (IRBasicBlock predecessor : cfg.predecessors(header)) {
+                if (!loop.contains(predecessor)) {
+                    entering.add(predecessor);
+                }
+            }
+            IRBasicBlock preheader = function.createBlock();
+            List<IRBasicBlock> layout = function.getBlocks();
+            layout.add(layout.indexOf(header), preheader);
+            for (IRBasicBlock predecessor : entering) {
+                int terminator = predecessor.last();
+                for (int j = 0; j < function.operandCount(terminator); j++) {
+                    if (function.operand(terminator, j) == header.operand()) {
+                        function.setOperand(terminator, j, preheader.operand());
+                    }
+                }
+            }
+            for (int i = 0; i < header.size() && function.opcode(header.get(i)) == IROpcode.PHI; i++) {
+                splitPhi(function, header.get(i), entering, preheader);
+            }
+            function.append(preheader, IROpcode.JMP, IRType.VOID, IROperand.NONE, header.operand());
+            changed = true;
+        }
+        return changed;
+    }
+
+    /** Moves the inputs of a header phi from the entering blocks to the preheader */
+    private static void splitPhi(IRFunction function, int phi, List<IRBasicBlock> entering, IRBasicBlock preheader) {
+        int[] operands = function.operands(phi);
+        List<Integer> kept = new ArrayList<>();
+        List<Integer> moved = new ArrayList<>();
+        for (int j = 0; j + 1 < operands.length; j += 2) {
+            List<Integer> target = entering.contains(function.blockOf(operands[j])) ? moved : kept;
+            target.add(operands[j]);
+            target.add(operands[j + 1]);
+        }
+        if (moved.isEmpty()) {
+            return;
+        }
+        int value = moved.get(1);
+        if (moved.size() > 2) {
+            value = function.newVreg();
+            function.append(preheader, IROpcode.PHI, function.type(phi), value,
+                moved.stream().mapToInt(Integer::intValue).toArray());
+        }
+        kept.add(preheader.operand());
+        kept.add(value);
+        function.setOperands(phi, kept.stream().mapToInt(Integer::intValue).toArray());
+    }
+}
@@ -0,0 +1,233 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRType;
+import org.hkprog.ir.LoopInfo;
+
+import java.util.*;
+
+/**
+ * Induction variable strength reduction. An induction variable is a header phi that the
+ * loop steps by a constant once per iteration, through its single latch. A multiple
+ * {@code i * c} or {@code i << c} of one is itself stepped by a constant, so it becomes a
+ * new induction variable: a header phi starting at the value for the first iteration,
+ * computed in the preheader, and advanced by an addition at the end of the latch. A sum of
+ * such a multiple and an invariant is reduced the same way, so the scaled index of an array
+ * access becomes a pointer stepped by the element size.
+ *
+ * The variable being reduced must be an int, long or pointer: its own wrapping is then
+ * undefined behavior (or impossible), and a derived value stepped in its own type wraps
+ * exactly as the computation it replaces.
+ */
+public class LoopStrengthReducePass extends FunctionPass {
+
+    /** An induction variable: its value on entry, from the preheader, and its constant step */
+    private static final class Induction {
+        final int start;
+        final long step;
+
+        Induction(int start, long step) {
+            this.start = start;
+            this.step = step;
+        }
+    }
+
+    private IRFunction function;
+    private int[] blockOf;
+
+    @Override
+    public String getName() {
+        return "loop-reduce";
+    }
+
+    @Override
+    public List<String> getRequired() {
+        return List.of("mem2reg");
+    }
+
+    @Override
+    public Set<Analysis<?>> getPreserved() {
+        return Set.of(Analysis.CONTROL_FLOW_GRAPH, Analysis.DOMINATOR_TREE, Analysis.LOOPS);
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        this.function = function;
+        LoopInfo loops = analyses.get(Analysis.LOOPS, function);
+        boolean changed = false;
+        if (LoopSimplify.insertPreheaders(function, loops)) {
+            analyses.invalidate(function);
+            loops = analyses.get(Analysis.LOOPS, function);
+            changed = true;
+        }
+        for (LoopInfo.Loop loop : loops.getLoops()) {
+            IRBasicBlock preheader = loops.preheader(loop);
+            if (preheader != null && loop.getLatches().size() == 1) {
+                changed |= reduce(loop, preheader, loop.getLatches().get(0));
+            }
+        }
+        this.function = null;
+        return changed;
+    }
+
+    private boolean reduce(LoopInfo.Loop loop, IRBasicBlock preheader, IRBasicBlock latch) {
+        blockOf = new int[function.getInstructionCount()];
+        Arrays.fill(blockOf, -1);
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                blockOf[block.get(i)] = block.getId();
+            }
+        }
+        Map<Integer, Induction> basic = new HashMap<>();
+        IRBasicBlock header = loop.getHeader();
+        for (int i = 0; i < header.size() && function.opcode(header.get(i)) == IROpcode.PHI; i++) {
+            int phi = header.get(i);
+            Induction induction = basicInduction(phi, preheader, latch);
+            if (induction != null) {
+                basic.put(function.result(phi), induction);
+            }
+        }
+        if (basic.isEmpty()) {
+            return false;
+        }
+        Map<Integer, Induction> derived = new HashMap<>();
+        boolean changed = false;
+        for (IRBasicBlock block : loop.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                // The steps this pass adds are not candidates themselves
+                if (instruction >= blockOf.length) {
+                    continue;
+                }
+                int variable = derivedFrom(instruction, basic, derived, loop);
+                if (variable == IROperand.NONE) {
+                    continue;
+                }
+                Induction induction = basic.containsKey(variable) ? basic.get(variable) : derived.get(variable);
+                block.remove(i--);
+                int phi = derive(instruction, variable, induction, header, preheader, latch, derived);
+                function.replaceAllUses(function.result(instruction), phi);
+                // The new phi went in front of everything in the header
+                if (block == header) {
+                    i++;
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** A header phi stepped by a constant, from any start, as an int, long or pointer */
+    private Induction basicInduction(int phi, IRBasicBlock preheader, IRBasicBlock latch) {
+        IRType type = function.type(phi);
+        if (function.operandCount(phi) != 4 || type != IRType.INT && type != IRType.LONG && type != IRType.POINTER) {
+            return null;
+        }
+        int start = IROperand.NONE;
+        int next = IROperand.NONE;
+        for (int j = 0; j < 4; j += 2) {
+            IRBasicBlock from = function.blockOf(function.operand(phi, j));
+            if (from == preheader) {
+                start = function.operand(phi, j + 1);
+            } else if (from == latch) {
+                next = function.operand(phi, j + 1);
+            }
+        }
+        if (start == IROperand.NONE || !IROperand.isVreg(next) || function.definition(next) < 0) {
+            return null;
+        }
+        Long step = LoopInfo.step(function, function.definition(next), function.result(phi), type);
+        return step == null ? null : new Induction(start, step);
+    }
+
+    /**
+     * The induction variable an instruction derives a new one from, or NONE: a multiple of
+     * an induction variable by a constant, or a sum of a variable this pass derived and an
+     * invariant, which turns the chain of an indexed address into one stepped pointer. The
+     * instruction's type must be at least as wide as the variable's.
+     */
+    private int derivedFrom(int instruction, Map<Integer, Induction> basic, Map<Integer, Induction> derived,
+                            LoopInfo.Loop loop) {
+        IROpcode opcode = function.opcode(instruction);
+        if (opcode != IROpcode.MUL && opcode != IROpcode.SHL && opcode != IROpcode.ADD) {
+            return IROperand.NONE;
+        }
+        int variable = function.operand(instruction, 0);
+        int other = function.operand(instruction, 1);
+        if (opcode != IROpcode.SHL && !basic.containsKey(variable) && !derived.containsKey(variable)) {
+            variable = other;
+            other = function.operand(instruction, 0);
+        }
+        boolean induction = opcode == IROpcode.ADD ? derived.containsKey(variable)
+            : basic.containsKey(variable) || derived.containsKey(variable);
+        if (!induction || function.type(instruction).getSize() < function.valueType(variable).getSize()) {
+            return IROperand.NONE;
+        }
+        switch (opcode) {
+            case MUL:
+                return IROperand.isConstant(other) ? variable : IROperand.NONE;
+            case SHL:
+                return IROperand.isConstant(other) && function.constantValue(other) >= 0
+                    && function.constantValue(other) < 63 ? variable : IROperand.NONE;
+            default:
+                return !basic.containsKey(other) && !derived.containsKey(other) && isInvariant(other, loop)
+                    ? variable : IROperand.NONE;
+        }
+    }
+
+    private boolean isInvariant(int operand, LoopInfo.Loop loop) {
+        if (!IROperand.isVreg(operand)) {
+            return true;
+        }
+        int definition = function.definition(operand);
+        return definition >= 0 && definition < blockOf.length && blockOf[definition] >= 0
+            && !loop.contains(function.getBlock(blockOf[definition]));
+    }
+
+    /**
+     * Creates the phi replacing an instruction: its start value computed in the preheader
+     * from the variable's, and its step added at the end of the latch
+     */
+    private int derive(int instruction, int variable, Induction induction, IRBasicBlock header,
+                       IRBasicBlock preheader, IRBasicBlock latch, Map<Integer, Induction> derived) {
+        IRType type = function.type(instruction);
+        IROpcode opcode = function.opcode(instruction);
+        int other = opcode == IROpcode.SHL || function.operand(instruction, 0) == variable
+            ? function.operand(instruction, 1) : function.operand(instruction, 0);
+        long step;
+        switch (opcode) {
+            case MUL:
+                step = induction.step * function.constantValue(other);
+                break;
+            case SHL:
+                step = induction.step << function.constantValue(other);
+                break;
+            default:
+                step = induction.step;
+                break;
+        }
+        int start = emitBefore(preheader, opcode, type, induction.start, other);
+        int phi = function.newVreg();
+        int next = function.newVreg();
+        latch.insert(latch.size() - 1, function.addInstruction(IROpcode.ADD, type, next, phi, function.constant(type.wrap(step))));
+        header.insert(0, function.addInstruction(IROpcode.PHI, type, phi, preheader.operand(), start, latch.operand(), next));
+        derived.put(phi, new Induction(start, step));
+        return phi;
+    }
+
+    /** Appends a computation to a block before its terminator, folding constants */
+    private int emitBefore(IRBasicBlock block, IROpcode opcode, IRType type, int left, int right) {
+        if (IROperand.isConstant(left) && IROperand.isConstant(right)) {
+            Long value = ConstantFolder.fold(opcode, type, function.constantValue(left), function.constantValue(right));
+            if (value != null) {
+                return function.constant(value);
+            }
+        }
+        int result = function.newVreg();
+        block.insert(block.size() - 1, function.addInstruction(opcode, type, result, left, right));
+        return result;
+    }
+}
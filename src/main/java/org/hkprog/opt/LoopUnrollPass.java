@@ -0,0 +1,228 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRType;
+import org.hkprog.ir.LoopInfo;
+
+import java.util.*;
+
+/**
+ * Fully unrolls innermost loops with a small constant trip count. The loop's blocks are
+ * copied once per iteration, each copy's header phis replaced by the values the previous
+ * copy carries around the back edge (or the values from the preheader, for the first), and
+ * the exit test replaced by a jump: into the body for every copy but a final one of the
+ * header, which runs the header's code once more and leaves. Code after the loop reads
+ * the header's values from that final copy. The copies are left for sccp, gvn and
+ * simplify-cfg to fold together.
+ *
+ * A loop is unrolled when its trip count is at most {@code maxTripCount} and the copies
+ * add at most {@code maxSize} instructions, limits that depend on the optimization level.
+ */
+public class LoopUnrollPass extends FunctionPass {
+
+    private final int maxTripCount;
+    private final int maxSize;
+    private IRFunction function;
+
+    public LoopUnrollPass(int maxTripCount, int maxSize) {
+        this.maxTripCount = maxTripCount;
+        this.maxSize = maxSize;
+    }
+
+    /** The limits of an optimization level: tiny loops at -O1, small ones at -O2 */
+    public static LoopUnrollPass forLevel(OptimizationLevel level) {
+        return level.atLeast(OptimizationLevel.O2) ? new LoopUnrollPass(16, 256) : new LoopUnrollPass(4, 48);
+    }
+
+    @Override
+    public String getName() {
+        return "loop-unroll";
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        this.function = function;
+        LoopInfo loops = analyses.get(Analysis.LOOPS, function);
+        boolean changed = false;
+        if (LoopSimplify.insertPreheaders(function, loops)) {
+            analyses.invalidate(function);
+            loops = analyses.get(Analysis.LOOPS, function);
+            changed = true;
+        }
+        // Unrolling one loop changes the blocks the others are built from, so one per round
+        boolean unrolled = true;
+        while (unrolled) {
+            unrolled = false;
+            for (LoopInfo.Loop loop : loops.getLoops()) {
+                if (loop.getChildren().isEmpty() && tryUnroll(loops, loop)) {
+                    analyses.invalidate(function);
+                    loops = analyses.get(Analysis.LOOPS, function);
+                    unrolled = true;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        this.function = null;
+        return changed;
+    }
+
+    private boolean tryUnroll(LoopInfo loops, LoopInfo.Loop loop) {
+        long trips = loops.tripCount(loop);
+        if (trips < 0 || trips > maxTripCount) {
+            return false;
+        }
+        int size = 0;
+        for (IRBasicBlock block : loop.getBlocks()) {
+            size += block.size();
+        }
+        if (size * (trips + 1) > maxSize) {
+            return false;
+        }
+        unroll(loop, loops.preheader(loop), loop.getLatches().get(0), (int) trips);
+        return true;
+    }
+
+    private void unroll(LoopInfo.Loop loop, IRBasicBlock preheader, IRBasicBlock latch, int trips) {
+        IRBasicBlock header = loop.getHeader();
+        int branch = header.last();
+        IRBasicBlock whenTrue = function.blockOf(function.operand(branch, 1));
+        IRBasicBlock body = loop.contains(whenTrue) ? whenTrue : function.blockOf(function.operand(branch, 2));
+        IRBasicBlock exit = loop.contains(whenTrue) ? function.blockOf(function.operand(branch, 2)) : whenTrue;
+        List<IRBasicBlock> blocks = loop.getBlocks();
+
+        // Header phis and what flows into them from the preheader and around the back edge
+        List<Integer> phis = new ArrayList<>();
+        List<Integer> entering = new ArrayList<>();
+        List<Integer> carried = new ArrayList<>();
+        for (int i = 0; i < header.size() && function.opcode(header.get(i)) == IROpcode.PHI; i++) {
+            int phi = header.get(i);
+            phis.add(phi);
+            for (int j = 0; j < function.operandCount(phi); j += 2) {
+                IRBasicBlock from = function.blockOf(function.operand(phi, j));
+                (from == preheader ? entering : carried).add(function.operand(phi, j + 1));
+            }
+        }
+
+        List<IRBasicBlock> layout = function.getBlocks();
+        int position = layout.size();
+        for (IRBasicBlock block : blocks) {
+            position = Math.min(position, layout.indexOf(block));
+        }
+        layout.removeAll(blocks);
+        int bound = function.getVregCount();
+        Set<IRBasicBlock> copies = new HashSet<>();
+        int[] values = null;
+        IRBasicBlock[] clones = null;
+        IRBasicBlock previousLatch = null;
+        for (int copy = 0; copy <= trips; copy++) {
+            boolean last = copy == trips;
+            int[] previous = values;
+            values = new int[bound];
+            Arrays.fill(values, IROperand.NONE);
+            for (int p = 0; p < phis.size(); p++) {
+                int incoming = copy == 0 ? entering.get(p) : map(previous, carried.get(p));
+                values[IROperand.index(function.result(phis.get(p)))] = incoming;
+            }
+            List<IRBasicBlock> copied = last ? List.of(header) : blocks;
+            clones = new IRBasicBlock[function.getBlockIdBound()];
+            for (IRBasicBlock block : copied) {
+                clones[block.getId()] = function.createBlock();
+                layout.add(position++, clones[block.getId()]);
+                copies.add(clones[block.getId()]);
+            }
+            for (IRBasicBlock block : copied) {
+                copyBlock(block, header, clones, values, block == header ? phis.size() : 0);
+            }
+            // The exit test is decided: into the body, or out of the loop after the last trip
+            IRBasicBlock headerCopy = clones[header.getId()];
+            headerCopy.remove(headerCopy.size() - 1);
+            int target = last ? exit.operand() : body == header ? header.operand() : clones[body.getId()].operand();
+            function.append(headerCopy, IROpcode.JMP, IRType.VOID, IROperand.NONE, target);
+            // The previous copy's back edge enters this copy
+            retarget(copy == 0 ? preheader : previousLatch, header.operand(), headerCopy.operand());
+            previousLatch = last ? null : clones[latch.getId()];
+        }
+
+        IRBasicBlock finalHeader = clones[header.getId()];
+        for (int i = 0; i < exit.size() && function.opcode(exit.get(i)) == IROpcode.PHI; i++) {
+            int phi = exit.get(i);
+            for (int j = 0; j < function.operandCount(phi); j += 2) {
+                if (function.operand(phi, j) == header.operand()) {
+                    function.setOperand(phi, j, finalHeader.operand());
+                }
+            }
+        }
+        // Code after the loop sees the header's values from the final copy
+        for (IRBasicBlock block : layout) {
+            if (copies.contains(block)) {
+                continue;
+            }
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    int mapped = map(values, operand);
+                    if (mapped != operand) {
+                        function.setOperand(instruction, j, mapped);
+                    }
+                }
+            }
+        }
+        for (IRBasicBlock block : blocks) {
+            function.removeBlock(block);
+        }
+    }
+
+    /**
+     * Copies a block into its clone, skipping its leading phis, with operands mapped to the
+     * values of this copy of the loop. Branches back to the header keep pointing at the
+     * original until the next copy exists.
+     */
+    private void copyBlock(IRBasicBlock block, IRBasicBlock header, IRBasicBlock[] clones, int[] values, int skip) {
+        IRBasicBlock clone = clones[block.getId()];
+        for (int i = skip; i < block.size(); i++) {
+            int instruction = block.get(i);
+            int[] operands = function.operands(instruction);
+            for (int j = 0; j < operands.length; j++) {
+                int operand = operands[j];
+                if (IROperand.isBlock(operand)) {
+                    IRBasicBlock target = function.blockOf(operand);
+                    if (target != header && target.getId() < clones.length && clones[target.getId()] != null) {
+                        operands[j] = clones[target.getId()].operand();
+                    }
+                } else {
+                    operands[j] = map(values, operand);
+                }
+            }
+            int result = function.result(instruction);
+            int copy = IROperand.NONE;
+            if (IROperand.isVreg(result)) {
+                copy = function.newVreg();
+                values[IROperand.index(result)] = copy;
+            }
+            function.append(clone, function.opcode(instruction), function.type(instruction), copy, operands);
+        }
+    }
+
+    /** A value as seen in a copy of the loop: its copy if the loop defines it */
+    private static int map(int[] values, int operand) {
+        if (IROperand.isVreg(operand) && IROperand.index(operand) < values.length
+                && values[IROperand.index(operand)] != IROperand.NONE) {
+            return values[IROperand.index(operand)];
+        }
+        return operand;
+    }
+
+    private void retarget(IRBasicBlock block, int from, int to) {
+        int terminator = block.last();
+        for (int j = 0; j < function.operandCount(terminator); j++) {
+            if (function.operand(terminator, j) == from) {
+                function.setOperand(terminator, j, to);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.DominatorTree;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRType;
+
+import java.util.*;
+
+/**
+ * Promotes local variables from stack slots to SSA values. A slot is promoted when its
+ * address is only ever used to load and store one scalar type that fills the slot; slots
+ * whose address escapes (taken with {@code &}, indexed, or passed on) stay in memory.
+ *
+ * Promoting a slot can leave another one, whose address it held, accessed only by loads and
+ * stores, so promotion repeats until no slot qualifies.
+ *
+ * Phis go at the iterated dominance frontier of the blocks that store to a slot, then a walk
+ * of the dominator tree renames: a store sets the slot's current value, a load is replaced by
+ * it, and each successor's phi takes it as the incoming value on that edge. A slot read
+ * before any store reads 0, as reading an uninitialized variable is undefined. Phis that
+ * turn out dead or trivial are left to dce and simplify-cfg.
+ */
+public class Mem2RegPass extends FunctionPass {
+
+    private IRFunction function;
+    /** Slot number of each promoted alloca's address vreg, or -1 */
+    private int[] slotOf;
+    private IRType[] slotTypes;
+    /** Slot number of each inserted phi instruction */
+    private Map<Integer, Integer> phiSlots;
+    private int[] replacement;
+    private boolean[] deleted;
+
+    @Override
+    public String getName() {
+        return "mem2reg";
+    }
+
+    @Override
+    public Set<Analysis<?>> getPreserved() {
+        return Set.of(Analysis.CONTROL_FLOW_GRAPH, Analysis.DOMINATOR_TREE);
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        this.function = function;
+        DominatorTree dominators = analyses.get(Analysis.DOMINATOR_TREE, function);
+        boolean changed = false;
+        for (List<Integer> allocas = findPromotable(); !allocas.isEmpty(); allocas = findPromotable()) {
+            placePhis(dominators, allocas.size());
+            replacement = new int[function.getVregCount()];
+            for (int v = 0; v < replacement.length; v++) {
+                replacement[v] = IROperand.vreg(v);
+            }
+            deleted = new boolean[function.getInstructionCount()];
+            for (int alloca : allocas) {
+                deleted[alloca] = true;
+            }
+            rename(dominators, allocas.size());
+            apply();
+            changed = true;
+        }
+        this.function = null;
+        return changed;
+    }
+
+    /**
+     * Allocas of a single scalar whose every use is the address of a load or store of that
+     * scalar's type
+     */
+    private List<Integer> findPromotable() {
+        int vregs = function.getVregCount();
+        int[] allocaOf = new int[vregs];
+        Arrays.fill(allocaOf, -1);
+        IRType[] types = new IRType[vregs];
+        boolean[] escapes = new boolean[vregs];
+        List<Integer> candidates = new ArrayList<>();
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                if (function.opcode(instruction) == IROpcode.ALLOCA) {
+                    allocaOf[IROperand.index(function.result(instruction))] = instruction;
+                    candidates.add(instruction);
+                }
+            }
+        }
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                IROpcode opcode = function.opcode(instruction);
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (!IROperand.isVreg(operand) || allocaOf[IROperand.index(operand)] < 0) {
+                        continue;
+                    }
+                    int v = IROperand.index(operand);
+                    boolean access = j == 0 && (opcode == IROpcode.LOAD
+                        || opcode == IROpcode.STORE && function.operand(instruction, 1) != operand);
+                    IRType type = function.type(instruction);
+                    if (!access || types[v] != null && types[v] != type) {
+                        escapes[v] = true;
+                    }
+                    types[v] = type;
+                }
+            }
+        }
+        slotOf = new int[vregs];
+        Arrays.fill(slotOf, -1);
+        List<IRType> slotTypeList = new ArrayList<>();
+        List<Integer> promotable = new ArrayList<>();
+        for (int alloca : candidates) {
+            int v = IROperand.index(function.result(alloca));
+            IRType type = types[v];
+            int size = function.operand(alloca, 1);
+            if (escapes[v] || type == null || type == IRType.VOID || !IROperand.isConstant(size)
+                    || function.constantValue(size) != type.getSize()) {
+                continue;
+            }
+            slotOf[v] = promotable.size();
+            slotTypeList.add(type);
+            promotable.add(alloca);
+        }
+        slotTypes = slotTypeList.toArray(new IRType[0]);
+        return promotable;
+    }
+
+    /** Inserts an empty phi for each slot at the iterated dominance frontier of its stores */
+    private void placePhis(DominatorTree dominators, int slots) {
+        ControlFlowGraph cfg = dominators.getCfg();
+        List<Set<IRBasicBlock>> stores = new ArrayList<>();
+        for (int s = 0; s < slots; s++) {
+            stores.add(new LinkedHashSet<>());
+        }
+        for (IRBasicBlock block : cfg.reversePostorder()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                int slot = slotAccessed(instruction);
+                if (slot >= 0 && function.opcode(instruction) == IROpcode.STORE) {
+                    stores.get(slot).add(block);
+                }
+            }
+        }
+        phiSlots = new HashMap<>();
+        for (int s = 0; s < slots; s++) {
+            Set<IRBasicBlock> placed = new HashSet<>();
+            Deque<IRBasicBlock> worklist = new ArrayDeque<>(stores.get(s));
+            while (!worklist.isEmpty()) {
+                for (IRBasicBlock join : dominators.frontier(worklist.pop())) {
+                    if (placed.add(join)) {
+                        int phi = function.addInstruction(IROpcode.PHI, slotTypes[s], function.newVreg());
+                        join.insert(0, phi);
+                        phiSlots.put(phi, s);
+                        if (!stores.get(s).contains(join)) {
+                            worklist.push(join);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** The promoted slot a load or store accesses, or -1 */
+    private int slotAccessed(int instruction) {
+        IROpcode opcode = function.opcode(instruction);
+        if (opcode != IROpcode.LOAD && opcode != IROpcode.STORE) {
+            return -1;
+        }
+        int address = function.operand(instruction, 0);
+        if (!IROperand.isVreg(address) || IROperand.index(address) >= slotOf.length) {
+            return -1;
+        }
+        return slotOf[IROperand.index(address)];
+    }
+
+    /**
+     * Walks the dominator tree in preorder with each slot's current value, undoing a block's
+     * stores when its subtree is done
+     */
+    private void rename(DominatorTree dominators, int slots) {
+        int[] current = new int[slots];
+        for (int s = 0; s < slots; s++) {
+            current[s] = function.constant(0);
+        }
+        Deque<long[]> undo = new ArrayDeque<>();
+        Deque<Object[]> stack = new ArrayDeque<>();
+        stack.push(new Object[] { function.getEntryBlock(), null });
+        while (!stack.isEmpty()) {
+            Object[] frame = stack.peek();
+            IRBasicBlock block = (IRBasicBlock) frame[0];
+            if (frame[1] == null) {
+                frame[1] = undo.size();
+                renameBlock(block, current, undo);
+                for (int id : ControlFlowGraph.successorIds(function, block)) {
+                    fillPhis(block, function.getBlock(id), current);
+                }
+                for (IRBasicBlock child : dominators.children(block)) {
+                    stack.push(new Object[] { child, null });
+                }
+                continue;
+            }
+            stack.pop();
+            int mark = (Integer) frame[1];
+            while (undo.size() > mark) {
+                long[] entry = undo.pop();
+                current[(int) entry[0]] = (int) entry[1];
+            }
+        }
+    }
+
+    private void renameBlock(IRBasicBlock block, int[] current, Deque<long[]> undo) {
+        for (int i = 0; i < block.size(); i++) {
+            int instruction = block.get(i);
+            Integer phiSlot = phiSlots.get(instruction);
+            if (phiSlot != null) {
+                undo.push(new long[] { phiSlot, current[phiSlot] });
+                current[phiSlot] = function.result(instruction);
+                continue;
+            }
+            int slot = slotAccessed(instruction);
+            if (slot < 0) {
+                continue;
+            }
+            if (function.opcode(instruction) == IROpcode.LOAD) {
+                deleted[instruction] = true;
+                replacement[IROperand.index(function.result(instruction))] = current[slot];
+                continue;
+            }
+            int value = resolve(function.operand(instruction, 1));
+            IRType type = slotTypes[slot];
+            if (IROperand.isConstant(value)) {
+                value = function.constant(type.wrap(function.constantValue(value)));
+                deleted[instruction] = true;
+            } else if (function.valueType(value).getSize() <= type.getSize() && function.valueType(value) != IRType.VOID) {
+                deleted[instruction] = true;
+            } else {
+                // A wider value is truncated the way the store would have, in place of it
+                int narrowed = function.addInstruction(IROpcode.CAST, type, function.newVreg(), value);
+                block.set(i, narrowed);
+                value = function.result(narrowed);
+            }
+            undo.push(new long[] { slot, current[slot] });
+            current[slot] = value;
+        }
+    }
+
+    /** Adds the edge from {@code from} to the phis placed in {@code to} */
+    private void fillPhis(IRBasicBlock from, IRBasicBlock to, int[] current) {
+        for (int i = 0; i < to.size() && function.opcode(to.get(i)) == IROpcode.PHI; i++) {
+            int phi = to.get(i);
+            Integer slot = phiSlots.get(phi);
+            if (slot == null) {
+                continue;
+            }
+            int[] operands = function.operands(phi);
+            int[] extended = Arrays.copyOf(operands, operands.length + 2);
+            extended[operands.length] = from.operand();
+            extended[operands.length + 1] = current[slot];
+            function.setOperands(phi, extended);
+        }
+    }
+
+    private int resolve(int operand) {
+        while (IROperand.isVreg(operand) && IROperand.index(operand) < replacement.length
+                && replacement[IROperand.index(operand)] != operand) {
+            operand = replacement[IROperand.index(operand)];
+        }
+        return operand;
+    }
+
+    /** Deletes the promoted allocas, loads and stores and rewrites uses of the loads */
+    private void apply() {
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = block.size() - 1; i >= 0; i--) {
+                int instruction = block.get(i);
+                if (instruction < deleted.length && deleted[instruction]) {
+                    block.remove(i);
+                    continue;
+                }
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    int resolved = resolve(operand);
+                    if (resolved != operand) {
+                        function.setOperand(instruction, j, resolved);
+                    }
+                }
+            }
+        }
+    }
+}
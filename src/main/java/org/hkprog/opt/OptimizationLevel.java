@@ -0,0 +1,46 @@
+package org.hkprog.opt;
+
+/**
+ * Optimization pipelines selectable with -O0, -O1 and -O2
+ */
+public enum OptimizationLevel {
+    /** No optimization, the IR goes to the code generator as lowered */
+    O0("0"),
+    /** Cheap clean-up passes that shrink the IR */
+    O1("1"),
+    /** Everything in O1 plus passes that trade compile time or code size for speed */
+    O2("2");
+
+    private final String name;
+
+    OptimizationLevel(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean atLeast(OptimizationLevel level) {
+        return compareTo(level) >= 0;
+    }
+
+    /**
+     * The level named by the part of a -O flag after the O; higher levels than the highest
+     * supported one select it, as an empty name selects O1
+     */
+    public static OptimizationLevel fromString(String name) {
+        if (name.isEmpty()) {
+            return O1;
+        }
+        for (OptimizationLevel level : values()) {
+            if (level.name.equals(name)) {
+                return level;
+            }
+        }
+        if (name.matches("[0-9]+")) {
+            return O2;
+        }
+        throw new IllegalArgumentException("Unknown optimization level: -O" + name);
+    }
+}
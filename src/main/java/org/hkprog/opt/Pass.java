@@ -0,0 +1,39 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRProgram;
+
+import java.util.List;
+
+/**
+ * A transformation of the IR run by a {@link PassManager}. Passes that look at one function
+ * at a time extend {@link FunctionPass}; passes over the whole program implement this
+ * interface directly and invalidate the analyses of whatever they change.
+ */
+public interface Pass {
+
+    /** Name used in pipelines, dumps and timing reports */
+    String getName();
+
+    /**
+     * Transforms the program
+     *
+     * @return whether anything changed
+     */
+    boolean run(IRProgram program, AnalysisManager analyses);
+
+    /**
+     * Names of the passes that must already be in the pipeline when this one is added,
+     * because it relies on what they produce
+     */
+    default List<String> getRequired() {
+        return List.of();
+    }
+
+    /**
+     * Whether the pass needs to see every function and global of the program at once, so
+     * that it cannot run on the declaration fragments of streaming or incremental builds
+     */
+    default boolean isWholeProgram() {
+        return true;
+    }
+}
@@ -0,0 +1,176 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.ir.IRVerifier;
+
+import java.util.*;
+
+/**
+ * Runs a pipeline of passes over the IR between generation and code generation.
+ *
+ * A pipeline is an ordered list of passes; a pass naming others in {@link Pass#getRequired}
+ * can only be added after them. Analyses are shared between passes through one
+ * {@link AnalysisManager}, so a dominator tree computed for one pass is reused by the next
+ * unless the function changed in between. Every run of a pass is timed and the IR size
+ * before and after it recorded, for {@code --time-passes}.
+ */
+public class PassManager {
+    private List<Pass> passes = new ArrayList<>();
+    private AnalysisManager analyses = new AnalysisManager();
+    private List<PassTiming> timings = new ArrayList<>();
+    private boolean verify;
+
+    /**
+     * The standard pipeline of an optimization level
+     */
+    public static PassManager forLevel(OptimizationLevel level) {
+        return forLevel(level, InlinerPass.defaultThreshold(level));
+    }
+
+    /**
+     * The standard pipeline of an optimization level with the inliner's threshold overridden
+     */
+    public static PassManager forLevel(OptimizationLevel level, int inlineThreshold) {
+        PassManager manager = new PassManager();
+        if (level.atLeast(OptimizationLevel.O1)) {
+            manager.add(new Mem2RegPass());
+            manager.add(IpcpPass.forLevel(level));
+            manager.add(new InlinerPass(inlineThreshold));
+            manager.add(new TailCallPass());
+            manager.add(new SccpPass());
+            if (level.atLeast(OptimizationLevel.O2)) {
+                manager.add(new GvnPass());
+            }
+            manager.add(new LicmPass());
+            if (level.atLeast(OptimizationLevel.O2)) {
+                manager.add(new LoopStrengthReducePass());
+            }
+            manager.add(LoopUnrollPass.forLevel(level));
+            // Fold the unrolled copies together
+            manager.add(new SccpPass());
+            if (level.atLeast(OptimizationLevel.O2)) {
+                manager.add(new GvnPass());
+            }
+            manager.add(new DcePass());
+            manager.add(new SimplifyCfgPass());
+            manager.add(new GlobalDcePass());
+        }
+        return manager;
+    }
+
+    /**
+     * Appends a pass to the pipeline
+     *
+     * @throws IllegalStateException if a pass it requires is not in the pipeline yet
+     */
+    public PassManager add(Pass pass) {
+        for (String required : pass.getRequired()) {
+            if (!contains(required)) {
+                throw new IllegalStateException("Pass " + pass.getName() + " requires " + required + " to run first");
+            }
+        }
+        passes.add(pass);
+        return this;
+    }
+
+    public boolean contains(String name) {
+        for (Pass pass : passes) {
+            if (pass.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the pipeline over a whole program
+     */
+    public void run(IRProgram program) {
+        run(program, true);
+    }
+
+    /**
+     * Runs the passes of the pipeline that work on functions one at a time over part of a
+     * program, such as one declaration of a streaming or incremental build
+     */
+    public void runOnFragment(IRProgram fragment) {
+        run(fragment, false);
+    }
+
+    private void run(IRProgram program, boolean wholeProgram) {
+        for (Pass pass : passes) {
+            if (pass.isWholeProgram() && !wholeProgram) {
+                continue;
+            }
+            int instructionsBefore = instructionCount(program);
+            int blocksBefore = blockCount(program);
+            long start = System.nanoTime();
+            boolean changed = pass.run(program, analyses);
+            long nanos = System.nanoTime() - start;
+            timings.add(new PassTiming(pass.getName(), nanos, instructionsBefore, instructionCount(program),
+                blocksBefore, blockCount(program), changed));
+            if (verify) {
+                try {
+                    IRVerifier.verify(program);
+                } catch (IllegalStateException e) {
+                    throw new IllegalStateException("After pass " + pass.getName() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        // The functions are handed to the code generator and not seen again
+        for (IRFunction function : program.getFunctions()) {
+            analyses.invalidate(function);
+        }
+    }
+
+    private static int instructionCount(IRProgram program) {
+        int count = 0;
+        for (IRFunction function : program.getFunctions()) {
+            count += function.size();
+        }
+        return count;
+    }
+
+    private static int blockCount(IRProgram program) {
+        int count = 0;
+        for (IRFunction function : program.getFunctions()) {
+            count += function.getBlocks().size();
+        }
+        return count;
+    }
+
+    /**
+     * Per-pass totals over all runs so far, one line per pass in pipeline order, followed by
+     * the overall time and analysis cache use
+     */
+    public String report() {
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        long total = 0;
+        for (PassTiming timing : timings) {
+            long[] sums = totals.computeIfAbsent(timing.getPass(), name -> new long[6]);
+            sums[0]++;
+            sums[1] += timing.getNanos();
+            sums[2] += timing.getInstructionsBefore();
+            sums[3] += timing.getInstructionsAfter();
+            sums[4] += timing.getBlocksBefore();
+            sums[5] += timing.getBlocksAfter();
+            total += timing.getNanos();
+        }
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            long[] sums = entry.getValue();
+            report.append(String.format("%-16s %9.3f ms  %6d -> %6d instructions  %5d -> %5d blocks  (%d runs)%n",
+                entry.getKey(), sums[1] / 1e6, sums[2], sums[3], sums[4], sums[5], sums[0]));
+        }
+        report.append(String.format("%-16s %9.3f ms  %d analyses computed, %d reused%n",
+            "total", total / 1e6, analyses.getComputed(), analyses.getReused()));
+        return report.toString();
+    }
+
+    /** Checks the IR after every pass, naming the pass that broke it */
+    public void setVerify(boolean verify) { this.verify = verify; }
+    public List<Pass> getPasses() { return passes; }
+    public List<PassTiming> getTimings() { return timings; }
+    public AnalysisManager getAnalyses() { return analyses; }
+}
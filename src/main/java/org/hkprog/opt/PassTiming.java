@@ -0,0 +1,39 @@
+package org.hkprog.opt;
+
+/**
+ * Wall-clock time and IR size around one run of a pass
+ */
+public class PassTiming {
+    private String pass;
+    private long nanos;
+    private int instructionsBefore;
+    private int instructionsAfter;
+    private int blocksBefore;
+    private int blocksAfter;
+    private boolean changed;
+
+    public PassTiming(String pass, long nanos, int instructionsBefore, int instructionsAfter,
+                      int blocksBefore, int blocksAfter, boolean changed) {
+        this.pass = pass;
+        this.nanos = nanos;
+        this.instructionsBefore = instructionsBefore;
+        this.instructionsAfter = instructionsAfter;
+        this.blocksBefore = blocksBefore;
+        this.blocksAfter = blocksAfter;
+        this.changed = changed;
+    }
+
+    public String getPass() { return pass; }
+    public long getNanos() { return nanos; }
+    public int getInstructionsBefore() { return instructionsBefore; }
+    public int getInstructionsAfter() { return instructionsAfter; }
+    public int getBlocksBefore() { return blocksBefore; }
+    public int getBlocksAfter() { return blocksAfter; }
+    public boolean isChanged() { return changed; }
+
+    @Override
+    public String toString() {
+        return String.format("%-16s %9.3f ms  %6d -> %6d instructions  %5d -> %5d blocks%s",
+            pass, nanos / 1e6, instructionsBefore, instructionsAfter, blocksBefore, blocksAfter, changed ? "" : "  (no change)");
+    }
+}
@@ -0,0 +1,390 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRType;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck). Every virtual register
+ * starts out undefined and is lowered to a constant or to overdefined as the instructions
+ * defining it are evaluated; only blocks reached along edges that can actually be taken are
+ * evaluated, so constants flow through phis whose other inputs come from branches that are
+ * never taken. Arithmetic is folded with {@link ConstantFolder}, following the generated
+ * code's wraparound and sign extension for each {@link IRType}.
+ *
+ * Locals still in memory take part too: the stack slot of an alloca used only as the
+ * address of loads and stores of one type holds the meet of the values stored to it. A load
+ * reached before any store reads an uninitialized variable and is overdefined.
+ *
+ * Afterwards, constant registers are replaced by their values, branches and switches on
+ * constants become jumps and the blocks no longer reachable are deleted.
+ */
+public class SccpPass extends FunctionPass {
+    private static final byte UNDEFINED = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte OVERDEFINED = 2;
+
+    private IRFunction function;
+    /** Lattice value of each virtual register */
+    private byte[] state;
+    private long[] value;
+    /** Lattice value of the slot of each tracked alloca, indexed by the alloca's register */
+    private byte[] cellState;
+    private long[] cellValue;
+    private boolean[] tracked;
+    /** Block id of each placed instruction */
+    private int[] blockOf;
+    /** Instructions using each virtual register: usesStart[v] to usesStart[v + 1] in uses */
+    private int[] usesStart;
+    private int[] uses;
+    private boolean[] executable;
+    private Set<Long> executableEdges;
+    private ArrayDeque<Long> flowWorklist;
+    private ArrayDeque<Integer> ssaWorklist;
+
+    @Override
+    public String getName() {
+        return "sccp";
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        this.function = function;
+        int vregs = function.getVregCount();
+        state = new byte[vregs];
+        value = new long[vregs];
+        cellState = new byte[vregs];
+        cellValue = new long[vregs];
+        executable = new boolean[function.getBlockIdBound()];
+        executableEdges = new HashSet<>();
+        flowWorklist = new ArrayDeque<>();
+        ssaWorklist = new ArrayDeque<>();
+        buildUses();
+        findTrackedAllocas();
+
+        flowWorklist.add(edge(-1, function.getEntryBlock().getId()));
+        while (!flowWorklist.isEmpty() || !ssaWorklist.isEmpty()) {
+            while (!flowWorklist.isEmpty()) {
+                long edge = flowWorklist.poll();
+                if (!executableEdges.add(edge)) {
+                    continue;
+                }
+                IRBasicBlock block = function.getBlock((int) edge);
+                boolean first = !executable[block.getId()];
+                executable[block.getId()] = true;
+                for (int i = 0; i < block.size(); i++) {
+                    int instruction = block.get(i);
+                    if (first || function.opcode(instruction) == IROpcode.PHI) {
+                        visit(block, instruction);
+                    }
+                }
+            }
+            while (!ssaWorklist.isEmpty()) {
+                int instruction = ssaWorklist.poll();
+                if (executable[blockOf[instruction]]) {
+                    visit(function.getBlock(blockOf[instruction]), instruction);
+                }
+            }
+        }
+        boolean changed = rewrite();
+        this.function = null;
+        return changed;
+    }
+
+    private void buildUses() {
+        int count = function.getInstructionCount();
+        blockOf = new int[count];
+        Arrays.fill(blockOf, -1);
+        usesStart = new int[function.getVregCount() + 1];
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                blockOf[instruction] = block.getId();
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (IROperand.isVreg(operand)) {
+                        usesStart[IROperand.index(operand) + 1]++;
+                    }
+                }
+            }
+        }
+        for (int v = 0; v < function.getVregCount(); v++) {
+            usesStart[v + 1] += usesStart[v];
+        }
+        uses = new int[usesStart[function.getVregCount()]];
+        int[] next = Arrays.copyOf(usesStart, function.getVregCount());
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int instruction = block.get(i);
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (IROperand.isVreg(operand)) {
+                        uses[next[IROperand.index(operand)]++] = instruction;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocas whose address never escapes: every use is the address of a load or store, and
+     * all of them access the slot with the same type
+     */
+    private void findTrackedAllocas() {
+        tracked = new boolean[function.getVregCount()];
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                int alloca = block.get(i);
+                if (function.opcode(alloca) != IROpcode.ALLOCA) {
+                    continue;
+                }
+                int address = function.result(alloca);
+                int v = IROperand.index(address);
+                IRType type = null;
+                boolean local = true;
+                for (int u = usesStart[v]; u < usesStart[v + 1] && local; u++) {
+                    int use = uses[u];
+                    IROpcode opcode = function.opcode(use);
+                    local = (opcode == IROpcode.LOAD || opcode == IROpcode.STORE && function.operand(use, 1) != address)
+                        && (type == null || type == function.type(use));
+                    type = function.type(use);
+                }
+                tracked[v] = local;
+            }
+        }
+    }
+
+    private void visit(IRBasicBlock block, int instruction) {
+        IROpcode opcode = function.opcode(instruction);
+        int result = function.result(instruction);
+        switch (opcode) {
+            case PHI: {
+                byte phiState = UNDEFINED;
+                long phiValue = 0;
+                for (int j = 0; j + 1 < function.operandCount(instruction); j += 2) {
+                    int from = IROperand.index(function.operand(instruction, j));
+                    if (!executableEdges.contains(edge(from, block.getId()))) {
+                        continue;
+                    }
+                    int input = function.operand(instruction, j + 1);
+                    byte inputState = stateOf(input);
+                    long inputValue = valueOf(input);
+                    if (inputState == UNDEFINED) {
+                        continue;
+                    }
+                    if (phiState == UNDEFINED) {
+                        phiState = inputState;
+                        phiValue = inputValue;
+                    } else if (inputState == OVERDEFINED || inputValue != phiValue) {
+                        phiState = OVERDEFINED;
+                    }
+                }
+                lower(result, phiState, phiValue);
+                break;
+            }
+            case JMP:
+                flowWorklist.add(edge(block.getId(), IROperand.index(function.operand(instruction, 0))));
+                break;
+            case BR: {
+                int condition = function.operand(instruction, 0);
+                byte conditionState = stateOf(condition);
+                if (conditionState == CONSTANT) {
+                    int target = function.operand(instruction, valueOf(condition) != 0 ? 1 : 2);
+                    flowWorklist.add(edge(block.getId(), IROperand.index(target)));
+                } else if (conditionState == OVERDEFINED) {
+                    flowWorklist.add(edge(block.getId(), IROperand.index(function.operand(instruction, 1))));
+                    flowWorklist.add(edge(block.getId(), IROperand.index(function.operand(instruction, 2))));
+                }
+                break;
+            }
+            case SWITCH: {
+                int value = function.operand(instruction, 0);
+                byte valueState = stateOf(value);
+                if (valueState == CONSTANT) {
+                    int target = ControlFlowGraph.switchTarget(function, instruction, valueOf(value));
+                    flowWorklist.add(edge(block.getId(), IROperand.index(target)));
+                } else if (valueState == OVERDEFINED) {
+                    for (int j = 1; j < function.operandCount(instruction); j += 2) {
+                        flowWorklist.add(edge(block.getId(), IROperand.index(function.operand(instruction, j))));
+                    }
+                }
+                break;
+            }
+            case STORE: {
+                int address = function.operand(instruction, 0);
+                if (IROperand.isVreg(address) && tracked[IROperand.index(address)]) {
+                    storeToCell(IROperand.index(address), function.type(instruction), function.operand(instruction, 1));
+                }
+                break;
+            }
+            case LOAD: {
+                int address = function.operand(instruction, 0);
+                if (IROperand.isVreg(address) && tracked[IROperand.index(address)]
+                        && cellState[IROperand.index(address)] != UNDEFINED) {
+                    int cell = IROperand.index(address);
+                    lower(result, cellState[cell], cellValue[cell]);
+                } else {
+                    lower(result, OVERDEFINED, 0);
+                }
+                break;
+            }
+            case PARAM:
+            case ALLOCA:
+            case CALL:
+            case RET:
+                if (result != IROperand.NONE) {
+                    lower(result, OVERDEFINED, 0);
+                }
+                break;
+            default:
+                evaluate(instruction, opcode, result);
+                break;
+        }
+    }
+
+    private void evaluate(int instruction, IROpcode opcode, int result) {
+        IRType type = function.type(instruction);
+        if (function.operandCount(instruction) == 1) {
+            int operand = function.operand(instruction, 0);
+            byte operandState = stateOf(operand);
+            Long folded = operandState == CONSTANT ? ConstantFolder.fold(opcode, type, valueOf(operand)) : null;
+            if (folded != null) {
+                lower(result, CONSTANT, folded);
+            } else if (operandState != UNDEFINED) {
+                lower(result, OVERDEFINED, 0);
+            }
+            return;
+        }
+        int left = function.operand(instruction, 0);
+        int right = function.operand(instruction, 1);
+        byte leftState = stateOf(left);
+        byte rightState = stateOf(right);
+        // x * 0 and x & 0 are 0 whatever x is
+        if ((opcode == IROpcode.MUL || opcode == IROpcode.AND)
+                && (leftState == CONSTANT && valueOf(left) == 0 || rightState == CONSTANT && valueOf(right) == 0)) {
+            lower(result, CONSTANT, 0);
+            return;
+        }
+        if (leftState == OVERDEFINED || rightState == OVERDEFINED) {
+            lower(result, OVERDEFINED, 0);
+        } else if (leftState == CONSTANT && rightState == CONSTANT) {
+            Long folded = ConstantFolder.fold(opcode, type, valueOf(left), valueOf(right));
+            lower(result, folded != null ? CONSTANT : OVERDEFINED, folded != null ? folded : 0);
+        }
+    }
+
+    private void storeToCell(int cell, IRType type, int stored) {
+        byte storedState = stateOf(stored);
+        if (storedState == UNDEFINED || cellState[cell] == OVERDEFINED) {
+            return;
+        }
+        long storedValue = type.wrap(valueOf(stored));
+        if (cellState[cell] == UNDEFINED && storedState == CONSTANT) {
+            cellState[cell] = CONSTANT;
+            cellValue[cell] = storedValue;
+        } else if (storedState == OVERDEFINED || cellValue[cell] != storedValue) {
+            cellState[cell] = OVERDEFINED;
+        } else {
+            return;
+        }
+        pushUses(cell);
+    }
+
+    /**
+     * Moves a register down the lattice to the meet of its current value and the given one
+     */
+    private void lower(int vreg, byte newState, long newValue) {
+        int v = IROperand.index(vreg);
+        if (newState == UNDEFINED || state[v] == OVERDEFINED) {
+            return;
+        }
+        if (state[v] == UNDEFINED) {
+            state[v] = newState;
+            value[v] = newValue;
+        } else if (newState == OVERDEFINED || value[v] != newValue) {
+            state[v] = OVERDEFINED;
+        } else {
+            return;
+        }
+        pushUses(v);
+    }
+
+    /** Re-evaluates everything using a register, including the loads of an alloca's slot */
+    private void pushUses(int v) {
+        for (int u = usesStart[v]; u < usesStart[v + 1]; u++) {
+            ssaWorklist.add(uses[u]);
+        }
+    }
+
+    private byte stateOf(int operand) {
+        switch (IROperand.kind(operand)) {
+            case IROperand.VREG:
+                return state[IROperand.index(operand)];
+            case IROperand.CONSTANT:
+                return CONSTANT;
+            default:
+                return OVERDEFINED;
+        }
+    }
+
+    private long valueOf(int operand) {
+        if (IROperand.isConstant(operand)) {
+            return function.constantValue(operand);
+        }
+        return IROperand.isVreg(operand) ? value[IROperand.index(operand)] : 0;
+    }
+
+    private static long edge(int from, int to) {
+        return (long) from << 32 | to;
+    }
+
+    /**
+     * Substitutes the constants found, deletes their definitions, turns branches on
+     * constants into jumps and drops the blocks that were never executable
+     */
+    private boolean rewrite() {
+        boolean changed = false;
+        for (IRBasicBlock block : function.getBlocks()) {
+            if (!executable[block.getId()]) {
+                continue;
+            }
+            for (int i = 0; i < block.size(); ) {
+                int instruction = block.get(i);
+                for (int j = 0; j < function.operandCount(instruction); j++) {
+                    int operand = function.operand(instruction, j);
+                    if (IROperand.isVreg(operand) && state[IROperand.index(operand)] == CONSTANT) {
+                        function.setOperand(instruction, j, function.constant(value[IROperand.index(operand)]));
+                        changed = true;
+                    }
+                }
+                int result = function.result(instruction);
+                if (IROperand.isVreg(result) && state[IROperand.index(result)] == CONSTANT
+                        && !function.opcode(instruction).hasSideEffects()) {
+                    block.remove(i);
+                    changed = true;
+                    continue;
+                }
+                i++;
+            }
+            int branch = block.last();
+            if (function.opcode(branch) == IROpcode.BR && IROperand.isConstant(function.operand(branch, 0))) {
+                int target = function.operand(branch, function.constantValue(function.operand(branch, 0)) != 0 ? 1 : 2);
+                function.setOpcode(branch, IROpcode.JMP);
+                function.setOperands(branch, target);
+                changed = true;
+            } else if (function.opcode(branch) == IROpcode.SWITCH && IROperand.isConstant(function.operand(branch, 0))) {
+                int target = ControlFlowGraph.switchTarget(function, branch, function.constantValue(function.operand(branch, 0)));
+                function.setOpcode(branch, IROpcode.JMP);
+                function.setOperands(branch, target);
+                changed = true;
+            }
+        }
+        changed |= ControlFlowGraph.removeUnreachableBlocks(function) > 0;
+        return changed;
+    }
+}
@@ -0,0 +1,203 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+
+import java.util.*;
+
+/**
+ * Tidies the control flow graph until nothing more changes: branches on constants and
+ * branches whose targets agree become jumps, and so do switches on constants or whose cases
+ * all lead to the default, unreachable blocks are deleted, phis whose inputs all agree are
+ * replaced by that value, jumps to blocks that only jump on are redirected, and a block is
+ * merged into its only predecessor when that predecessor jumps straight to it.
+ */
+public class SimplifyCfgPass extends FunctionPass {
+
+    @Override
+    public String getName() {
+        return "simplify-cfg";
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        boolean changed = false;
+        boolean progress = true;
+        while (progress) {
+            progress = foldBranches(function);
+            progress |= ControlFlowGraph.removeUnreachableBlocks(function) > 0;
+            progress |= removeTrivialPhis(function);
+            progress |= threadJumps(function);
+            progress |= mergeBlocks(function);
+            changed |= progress;
+        }
+        return changed;
+    }
+
+    /**
+     * Turns branches with a constant condition or two equal targets into jumps; the phi
+     * inputs of the edges that went away are dropped with the unreachable blocks
+     */
+    private boolean foldBranches(IRFunction function) {
+        boolean changed = false;
+        for (IRBasicBlock block : function.getBlocks()) {
+            int branch = block.last();
+            if (function.opcode(branch) == IROpcode.SWITCH) {
+                changed |= foldSwitch(function, branch);
+                continue;
+            }
+            if (function.opcode(branch) != IROpcode.BR) {
+                continue;
+            }
+            int condition = function.operand(branch, 0);
+            int target;
+            if (IROperand.isConstant(condition)) {
+                target = function.operand(branch, function.constantValue(condition) != 0 ? 1 : 2);
+            } else if (function.operand(branch, 1) == function.operand(branch, 2)) {
+                target = function.operand(branch, 1);
+            } else {
+                continue;
+            }
+            function.setOpcode(branch, IROpcode.JMP);
+            function.setOperands(branch, target);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Drops the cases of a switch that lead to its default, and turns it into a jump when
+     * its value is a constant or no case is left
+     */
+    private boolean foldSwitch(IRFunction function, int instruction) {
+        int value = function.operand(instruction, 0);
+        int defaultTarget = function.operand(instruction, 1);
+        if (IROperand.isConstant(value)) {
+            function.setOpcode(instruction, IROpcode.JMP);
+            function.setOperands(instruction, ControlFlowGraph.switchTarget(function, instruction, function.constantValue(value)));
+            return true;
+        }
+        int[] operands = function.operands(instruction);
+        int kept = 2;
+        for (int i = 2; i + 1 < operands.length; i += 2) {
+            if (operands[i + 1] != defaultTarget) {
+                operands[kept++] = operands[i];
+                operands[kept++] = operands[i + 1];
+            }
+        }
+        if (kept == 2) {
+            function.setOpcode(instruction, IROpcode.JMP);
+            function.setOperands(instruction, defaultTarget);
+            return true;
+        }
+        if (kept < operands.length) {
+            function.setOperands(instruction, Arrays.copyOf(operands, kept));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces phis whose inputs are all the same value, apart from the phi itself, by that
+     * value. The value's definition dominates every predecessor, so it dominates the block.
+     */
+    private boolean removeTrivialPhis(IRFunction function) {
+        boolean changed = false;
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size() && function.opcode(block.get(i)) == IROpcode.PHI; ) {
+                int phi = block.get(i);
+                int result = function.result(phi);
+                int value = IROperand.NONE;
+                boolean trivial = true;
+                for (int j = 1; j < function.operandCount(phi); j += 2) {
+                    int input = function.operand(phi, j);
+                    if (input == result || input == value) {
+                        continue;
+                    }
+                    trivial &= value == IROperand.NONE;
+                    value = input;
+                }
+                if (!trivial || value == IROperand.NONE) {
+                    i++;
+                    continue;
+                }
+                block.remove(i);
+                function.replaceAllUses(result, value);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Sends the predecessors of a block that holds nothing but a jump straight to the jump's
+     * target. Targets with phis are left alone, as their inputs would need splitting.
+     */
+    private boolean threadJumps(IRFunction function) {
+        boolean changed = false;
+        IRBasicBlock entry = function.getEntryBlock();
+        for (IRBasicBlock block : function.getBlocks()) {
+            if (block == entry || block.size() != 1 || function.opcode(block.last()) != IROpcode.JMP) {
+                continue;
+            }
+            int target = function.operand(block.last(), 0);
+            IRBasicBlock successor = function.blockOf(target);
+            if (successor == block || function.opcode(successor.get(0)) == IROpcode.PHI) {
+                continue;
+            }
+            int from = block.operand();
+            for (IRBasicBlock predecessor : function.getBlocks()) {
+                int terminator = predecessor.last();
+                for (int j = 0; j < function.operandCount(terminator); j++) {
+                    if (function.operand(terminator, j) == from) {
+                        function.setOperand(terminator, j, target);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Appends a block to its only predecessor when the predecessor ends in a jump to it
+     */
+    private boolean mergeBlocks(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        IRBasicBlock entry = function.getEntryBlock();
+        Set<IRBasicBlock> touched = new HashSet<>();
+        List<IRBasicBlock> merged = new ArrayList<>();
+        for (IRBasicBlock block : function.getBlocks()) {
+            int jump = block.last();
+            if (function.opcode(jump) != IROpcode.JMP || touched.contains(block)) {
+                continue;
+            }
+            IRBasicBlock successor = function.blockOf(function.operand(jump, 0));
+            if (successor == block || successor == entry || touched.contains(successor)
+                    || cfg.predecessors(successor).size() != 1) {
+                continue;
+            }
+            block.remove(block.size() - 1);
+            for (int i = 0; i < successor.size(); i++) {
+                int instruction = successor.get(i);
+                if (function.opcode(instruction) == IROpcode.PHI) {
+                    function.replaceAllUses(function.result(instruction), function.operand(instruction, 1));
+                } else {
+                    block.add(instruction);
+                }
+            }
+            // The successor's own successors now come from this block
+            function.replaceAllUses(successor.operand(), block.operand());
+            touched.add(block);
+            touched.add(successor);
+            merged.add(successor);
+        }
+        for (IRBasicBlock block : merged) {
+            function.removeBlock(block);
+        }
+        return !merged.isEmpty();
+    }
+}
@@ -0,0 +1,139 @@
+package org.hkprog.opt;
+
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRType;
+
+import java.util.*;
+
+/**
+ * Calls in tail position, directly followed by a return of their result (or by a plain
+ * return, in a function returning void). A tail call of the function itself becomes a jump
+ * back to its start, with the arguments flowing into phis that replace the parameters, so
+ * the recursion runs as a loop. Any other tail call passing all its arguments in registers
+ * is marked for the code generator, which tears the frame down and jumps to the callee so
+ * that it returns straight to our caller.
+ *
+ * Neither applies to a function with stack slots, whose addresses a callee or a later
+ * iteration could still be holding.
+ */
+public class TailCallPass extends FunctionPass {
+
+    /** Arguments the System V ABI passes in registers */
+    private static final int REGISTER_ARGUMENTS = 6;
+
+    @Override
+    public String getName() {
+        return "tailcall";
+    }
+
+    @Override
+    public boolean run(IRFunction function, AnalysisManager analyses) {
+        List<IRBasicBlock> tails = new ArrayList<>();
+        for (IRBasicBlock block : function.getBlocks()) {
+            for (int i = 0; i < block.size(); i++) {
+                if (function.opcode(block.get(i)) == IROpcode.ALLOCA) {
+                    return false;
+                }
+            }
+            if (block.size() >= 2 && isTailCall(function, block.get(block.size() - 2), block.last())) {
+                tails.add(block);
+            }
+        }
+        List<IRBasicBlock> recursive = new ArrayList<>();
+        boolean changed = false;
+        for (IRBasicBlock block : tails) {
+            int call = block.get(block.size() - 2);
+            int callee = function.operand(call, 0);
+            int arguments = function.operandCount(call) - 1;
+            if (IROperand.kind(callee) == IROperand.SYMBOL && function.symbolName(callee).equals(function.getName())
+                    && arguments == function.getParameters().size()) {
+                recursive.add(block);
+            } else if (arguments <= REGISTER_ARGUMENTS && !function.isTailCall(call)) {
+                function.markTailCall(call);
+                changed = true;
+            }
+        }
+        if (!recursive.isEmpty()) {
+            eliminateRecursion(function, recursive);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static boolean isTailCall(IRFunction function, int call, int ret) {
+        if (function.opcode(call) != IROpcode.CALL || function.opcode(ret) != IROpcode.RET) {
+            return false;
+        }
+        if (function.operandCount(ret) == 0) {
+            return function.getReturnType() == IRType.VOID;
+        }
+        return function.operand(ret, 0) == function.result(call) && function.type(call) == function.getReturnType();
+    }
+
+    /**
+     * Moves everything but the parameters out of the entry block into a loop header, and
+     * replaces each recursive call and its return by a jump there, passing the arguments
+     * through one phi per parameter
+     */
+    private static void eliminateRecursion(IRFunction function, List<IRBasicBlock> sites) {
+        IRBasicBlock entry = function.getEntryBlock();
+        IRBasicBlock header = function.createBlock();
+        function.getBlocks().add(1, header);
+        List<Integer> parameters = new ArrayList<>();
+        for (int i = 0; i < entry.size(); i++) {
+            int instruction = entry.get(i);
+            if (function.opcode(instruction) == IROpcode.PARAM) {
+                parameters.add(instruction);
+            } else {
+                header.add(instruction);
+            }
+        }
+        while (entry.size() > parameters.size()) {
+            entry.remove(entry.size() - 1);
+        }
+        for (int i = 0; i < parameters.size(); i++) {
+            entry.set(i, parameters.get(i));
+        }
+        function.append(entry, IROpcode.JMP, IRType.VOID, IROperand.NONE, header.operand());
+        for (int successor : ControlFlowGraph.successorIds(function, header)) {
+            InlinerPass.retargetPhis(function, function.getBlock(successor), entry.operand(), header.operand());
+        }
+        int index = sites.indexOf(entry);
+        if (index >= 0) {
+            sites.set(index, header);
+        }
+
+        // Inside the loop the parameters are the phis, and the calls pass them new values
+        int[] phis = new int[parameters.size()];
+        for (int p = 0; p < parameters.size(); p++) {
+            int parameter = parameters.get(p);
+            int value = function.newVreg();
+            function.replaceAllUses(function.result(parameter), value);
+            phis[p] = function.addInstruction(IROpcode.PHI, function.type(parameter), value);
+            header.insert(p, phis[p]);
+        }
+        List<List<Integer>> incoming = new ArrayList<>();
+        for (int p = 0; p < parameters.size(); p++) {
+            incoming.add(new ArrayList<>(List.of(entry.operand(), function.result(parameters.get(p)))));
+        }
+        for (IRBasicBlock site : sites) {
+            int[] arguments = function.operands(site.get(site.size() - 2));
+            site.remove(site.size() - 1);
+            site.remove(site.size() - 1);
+            for (int p = 0; p < parameters.size(); p++) {
+                int parameter = parameters.get(p);
+                int argument = arguments[1 + (int) function.constantValue(function.operand(parameter, 0))];
+                incoming.get(p).add(site.operand());
+                incoming.get(p).add(InlinerPass.narrow(function, site, argument, function.type(parameter)));
+            }
+            function.append(site, IROpcode.JMP, IRType.VOID, IROperand.NONE, header.operand());
+        }
+        for (int p = 0; p < parameters.size(); p++) {
+            function.setOperands(phis[p], incoming.get(p).stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+}
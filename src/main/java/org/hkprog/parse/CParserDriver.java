@@ -0,0 +1,201 @@
+package org.hkprog.parse;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+import org.hkprog.antlr.CParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the generated C parser over a token stream using a configurable prediction strategy.
+ *
+ * In SLL_THEN_LL mode the parser first runs with SLL prediction and a bail-out error strategy,
+ * which is much cheaper for the vast majority of inputs. Only if SLL reports a syntax error is
+ * the token stream rewound and parsed again with full LL prediction and normal error reporting,
+ * so genuine syntax errors are still reported exactly as before.
+ */
+public class CParserDriver {
+    private ParseStrategy strategy;
+    private ANTLRErrorListener errorListener;
+
+    public CParserDriver(ParseStrategy strategy) {
+        this(strategy, ConsoleErrorListener.INSTANCE);
+    }
+
+    public CParserDriver(ParseStrategy strategy, ANTLRErrorListener errorListener) {
+        this.strategy = strategy;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Parses from a token stream that cannot be rewound, such as an
+     * {@link UnbufferedTokenStream}. The two-stage strategy needs to re-read the tokens, so
+     * this always uses full LL prediction in a single pass.
+     */
+    public ParseResult parseUnbuffered(TokenStream tokens) {
+        CParser parser = new CParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+        long start = System.nanoTime();
+        ParseTree tree = parser.compilationUnit();
+        return new ParseResult(tree, ParseResult.Path.LL, 0, System.nanoTime() - start);
+    }
+
+    public ParseResult parse(TokenStream tokens) {
+        // A buffered stream that has not been read yet reports index -1
+        int startIndex = Math.max(tokens.index(), 0);
+        CParser parser = new CParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+
+        if (strategy == ParseStrategy.LL) {
+            long start = System.nanoTime();
+            ParseTree tree = parser.compilationUnit();
+            return new ParseResult(tree, ParseResult.Path.LL, 0, System.nanoTime() - start);
+        }
+
+        // Stage 1: SLL prediction, bail out on the first error
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+
+        long start = System.nanoTime();
+        try {
+            ParseTree tree = parser.compilationUnit();
+            return new ParseResult(tree, ParseResult.Path.SLL, System.nanoTime() - start, 0);
+        } catch (ParseCancellationException e) {
+            // SLL could not parse it, fall through to full LL
+        }
+        long sllNanos = System.nanoTime() - start;
+
+        // Stage 2: rewind and re-parse with full LL prediction and default error handling.
+        // reset() seeks the stream back to 0, so the caller's start position is restored after it
+        parser.reset();
+        tokens.seek(startIndex);
+        parser.addErrorListener(errorListener);
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+
+        start = System.nanoTime();
+        ParseTree tree = parser.compilationUnit();
+        return new ParseResult(tree, ParseResult.Path.SLL_FALLBACK_LL, sllNanos, System.nanoTime() - start);
+    }
+
+    /**
+     * Parses the external declarations of a translation unit in parallel. The filled token
+     * stream is split at the declaration boundaries found by {@link DeclarationSplitter} into
+     * up to {@code chunks} runs of roughly equal size, each run is parsed on its own thread
+     * as a compilation unit, and the declarations are merged under one tree whose tokens are
+     * those of the full stream.
+     *
+     * If the stream cannot be split, or any run fails to parse on its own, the whole stream
+     * is parsed sequentially with {@link #parse}, so errors are reported exactly once and
+     * exactly as before.
+     */
+    public ParseResult parseParallel(CommonTokenStream tokens, int chunks) {
+        long start = System.nanoTime();
+        tokens.fill();
+        List<int[]> ranges = chunkRanges(tokens, DeclarationSplitter.split(tokens), chunks);
+        if (ranges.size() < 2) {
+            return parse(tokens).withFallback("too few declarations to split");
+        }
+
+        List<CompletableFuture<CParser.CompilationUnitContext>> futures = new ArrayList<>();
+        for (int[] range : ranges) {
+            futures.add(CompletableFuture.supplyAsync(() -> parseChunk(tokens, range[0], range[1]), ForkJoinPool.commonPool()));
+        }
+        List<CParser.CompilationUnitContext> units = new ArrayList<>();
+        for (CompletableFuture<CParser.CompilationUnitContext> future : futures) {
+            units.add(future.join());
+        }
+        for (int i = 0; i < units.size(); i++) {
+            if (units.get(i) == null) {
+                tokens.seek(0);
+                return parse(tokens).withFallback("chunk at line " + tokens.get(ranges.get(i)[0]).getLine() + " does not parse on its own");
+            }
+        }
+
+        ParseTree tree = merge(units, tokens.get(tokens.size() - 1));
+        return new ParseResult(tree, ParseResult.Path.PARALLEL, 0, System.nanoTime() - start, ranges.size());
+    }
+
+    /**
+     * Groups declarations into at most {@code chunks} token ranges of roughly equal length.
+     * The last range extends to the EOF token, excluding it, so trailing hidden tokens are
+     * covered.
+     */
+    private static List<int[]> chunkRanges(BufferedTokenStream tokens, List<Integer> ends, int chunks) {
+        List<int[]> ranges = new ArrayList<>();
+        int eofIndex = tokens.size() - 1;
+        if (ends.isEmpty() || chunks < 2) {
+            return ranges;
+        }
+        int target = Math.max(1, eofIndex / chunks);
+        int from = 0;
+        for (int end : ends) {
+            if (end - from >= target && eofIndex - end >= target / 2) {
+                ranges.add(new int[] {from, end});
+                from = end;
+            }
+        }
+        if (from < eofIndex) {
+            ranges.add(new int[] {from, eofIndex});
+        } else if (!ranges.isEmpty()) {
+            ranges.get(ranges.size() - 1)[1] = eofIndex;
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the chunk's tree, or null if it has syntax errors
+     */
+    private static CParser.CompilationUnitContext parseChunk(BufferedTokenStream tokens, int from, int to) {
+        TokenRangeStream range = new TokenRangeStream(tokens, from, to);
+        CParser parser = new CParser(range);
+        parser.removeErrorListeners();
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.compilationUnit();
+        } catch (ParseCancellationException e) {
+            // Retry with full LL; a chunk that still fails is reported by the sequential parse
+        }
+        parser.reset();
+        range.seek(from);
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        try {
+            return parser.compilationUnit();
+        } catch (ParseCancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves the external declarations of every chunk under the first chunk's translation
+     * unit and ends it with the real EOF token.
+     */
+    private static ParseTree merge(List<CParser.CompilationUnitContext> units, Token eof) {
+        CParser.CompilationUnitContext merged = units.get(0);
+        CParser.TranslationUnitContext translationUnit = merged.translationUnit();
+        for (int i = 1; i < units.size(); i++) {
+            for (CParser.ExternalDeclarationContext declaration : units.get(i).translationUnit().externalDeclaration()) {
+                translationUnit.addChild(declaration);
+                declaration.setParent(translationUnit);
+            }
+        }
+        translationUnit.stop = units.get(units.size() - 1).translationUnit().stop;
+
+        merged.children.remove(merged.children.size() - 1);
+        TerminalNodeImpl eofNode = new TerminalNodeImpl(eof);
+        merged.addChild(eofNode);
+        eofNode.setParent(merged);
+        merged.stop = eof;
+        return merged;
+    }
+}
@@ -0,0 +1,77 @@
+package org.hkprog.parse;
+
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.hkprog.antlr.CLexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the token indexes where top-level external declarations end, by bracket
+ * balancing alone: a declaration ends at a ';' outside all brackets, or at the '}' closing
+ * a brace block that follows a ')' at top level, i.e. a function body. A wrong guess, such
+ * as an old-style K&R parameter declaration list or an attribute before a struct body,
+ * produces a chunk that does not parse on its own, and the caller then falls back to a
+ * sequential parse.
+ */
+public class DeclarationSplitter {
+
+    /**
+     * @return the index after each declaration, in order; the last one covers any trailing
+     *     hidden tokens
+     */
+    public static List<Integer> split(BufferedTokenStream tokens) {
+        List<Integer> ends = new ArrayList<>();
+        int depth = 0;
+        boolean functionBody = false;
+        int previousType = Token.INVALID_TYPE;
+        int size = tokens.size();
+
+        for (int i = 0; i < size; i++) {
+            Token token = tokens.get(i);
+            if (token.getType() == Token.EOF) {
+                break;
+            }
+            if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+            switch (token.getType()) {
+                case CLexer.LeftParen:
+                case CLexer.LeftBracket:
+                    depth++;
+                    break;
+                case CLexer.LeftBrace:
+                    if (depth == 0) {
+                        functionBody = previousType == CLexer.RightParen;
+                    }
+                    depth++;
+                    break;
+                case CLexer.RightParen:
+                case CLexer.RightBracket:
+                    depth--;
+                    break;
+                case CLexer.RightBrace:
+                    depth--;
+                    if (depth == 0 && functionBody) {
+                        ends.add(i + 1);
+                        functionBody = false;
+                    }
+                    break;
+                case CLexer.Semi:
+                    if (depth == 0) {
+                        ends.add(i + 1);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (depth < 0) {
+                // Unbalanced, leave it to the sequential parser to report
+                return new ArrayList<>();
+            }
+            previousType = token.getType();
+        }
+        return ends;
+    }
+}
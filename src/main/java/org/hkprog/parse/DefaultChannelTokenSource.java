@@ -0,0 +1,43 @@
+package org.hkprog.parse;
+
+import org.antlr.v4.runtime.*;
+
+/**
+ * Passes on only the default channel tokens of another token source. An
+ * {@link UnbufferedTokenStream}, unlike {@link CommonTokenStream}, does not skip hidden
+ * tokens itself, so the lexer is wrapped in this before unbuffered parsing.
+ */
+public class DefaultChannelTokenSource implements TokenSource {
+    private TokenSource source;
+
+    public DefaultChannelTokenSource(TokenSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public Token nextToken() {
+        Token token;
+        do {
+            token = source.nextToken();
+        } while (token.getChannel() != Token.DEFAULT_CHANNEL && token.getType() != Token.EOF);
+        return token;
+    }
+
+    @Override
+    public int getLine() { return source.getLine(); }
+
+    @Override
+    public int getCharPositionInLine() { return source.getCharPositionInLine(); }
+
+    @Override
+    public CharStream getInputStream() { return source.getInputStream(); }
+
+    @Override
+    public String getSourceName() { return source.getSourceName(); }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) { source.setTokenFactory(factory); }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() { return source.getTokenFactory(); }
+}
@@ -0,0 +1,250 @@
+package org.hkprog.parse;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * CharStream over a memory-mapped UTF-8 source file. Unlike {@code CharStreams.fromFileName}
+ * it never decodes the file into a code point array: characters are read straight from the
+ * mapped buffer, and token text is only decoded when a token's text is asked for.
+ *
+ * Pure ASCII files, by far the common case, map code point indexes directly to byte
+ * offsets. Other files are decoded as UTF-8 on the fly, with the byte offset of every
+ * {@value #CHECKPOINT_INTERVAL}th code point remembered so that seeking stays cheap.
+ * Malformed input reads as U+FFFD, split into units the same way as the JDK decoder.
+ */
+public class MappedCharStream implements CharStream {
+
+    private static final int CHECKPOINT_INTERVAL = 1024;
+    private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+    private ByteBuffer buffer;
+    private String sourceName;
+    private boolean ascii;
+    private int size;
+    /** Byte offset of code point i * CHECKPOINT_INTERVAL, only for non-ASCII input */
+    private int[] checkpoints;
+
+    /** Current code point index and its byte offset */
+    private int index;
+    private int offset;
+
+    public MappedCharStream(ByteBuffer buffer, String sourceName) {
+        this.buffer = buffer;
+        this.sourceName = sourceName;
+        scan();
+    }
+
+    public static MappedCharStream fromPath(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is larger than 2 GB");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedCharStream(buffer, path.toString());
+        }
+    }
+
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    /**
+     * The raw bytes of the file, for hashing without another copy
+     */
+    public ByteBuffer getBytes() {
+        return buffer.duplicate().clear();
+    }
+
+    /**
+     * Counts code points and, for non-ASCII input, records checkpoints. ASCII is detected
+     * eight bytes at a time.
+     */
+    private void scan() {
+        int limit = buffer.limit();
+        int position = 0;
+        while (position + 8 <= limit && (buffer.getLong(position) & 0x8080808080808080L) == 0) {
+            position += 8;
+        }
+        while (position < limit && buffer.get(position) >= 0) {
+            position++;
+        }
+        if (position == limit) {
+            ascii = true;
+            size = limit;
+            return;
+        }
+
+        int[] marks = new int[limit / CHECKPOINT_INTERVAL + 1];
+        int count = 0;
+        position = 0;
+        while (position < limit) {
+            if (count % CHECKPOINT_INTERVAL == 0) {
+                marks[count / CHECKPOINT_INTERVAL] = position;
+            }
+            position += sequenceLength(position);
+            count++;
+        }
+        size = count;
+        checkpoints = marks;
+    }
+
+    /**
+     * Length in bytes of the code point, or of the malformed unit read as one U+FFFD,
+     * starting at a byte offset. Units are split the way the JDK's UTF-8 decoder splits them,
+     * so this stream reads exactly what {@code CharStreams.fromPath} reads: a byte that cannot
+     * start a sequence or continue its lead (overlong forms, code points above U+10FFFF) is a
+     * unit of its own, and a well-formed prefix cut short is one unit.
+     */
+    private int sequenceLength(int position) {
+        int lead = buffer.get(position) & 0xFF;
+        if (lead < 0xC2 || lead > 0xF4) {
+            return 1;
+        }
+        int length = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : 2;
+        int available = buffer.limit() - position;
+        if (available < 2) {
+            return 1;
+        }
+        // These leads allow a narrower second byte than 80..BF
+        int second = buffer.get(position + 1) & 0xFF;
+        int low = lead == 0xE0 ? 0xA0 : lead == 0xF0 ? 0x90 : 0x80;
+        int high = lead == 0xF4 ? 0x8F : 0xBF;
+        if (second < low || second > high) {
+            return 1;
+        }
+        for (int i = 2; i < length; i++) {
+            if (i >= available || (buffer.get(position + i) & 0xC0) != 0x80) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private int decode(int position) {
+        int lead = buffer.get(position) & 0xFF;
+        if (lead < 0x80) {
+            return lead;
+        }
+        int length = sequenceLength(position);
+        int expected = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : 2;
+        // Truncated sequences, stray bytes and surrogates (ED A0..BF xx)
+        if (length != expected || lead < 0xC2 || lead == 0xED && (buffer.get(position + 1) & 0xFF) >= 0xA0) {
+            return REPLACEMENT_CHARACTER;
+        }
+        int codePoint = lead & (0x7F >> length);
+        for (int i = 1; i < length; i++) {
+            codePoint = (codePoint << 6) | (buffer.get(position + i) & 0x3F);
+        }
+        return codePoint;
+    }
+
+    /**
+     * Byte offset of a code point index
+     */
+    private int offsetOf(int codePointIndex) {
+        if (ascii) {
+            return codePointIndex;
+        }
+        int from = codePointIndex >= index ? index : codePointIndex / CHECKPOINT_INTERVAL * CHECKPOINT_INTERVAL;
+        int position = codePointIndex >= index ? offset : checkpoints[from / CHECKPOINT_INTERVAL];
+        for (int i = from; i < codePointIndex && position < buffer.limit(); i++) {
+            position += sequenceLength(position);
+        }
+        return position;
+    }
+
+    @Override
+    public void consume() {
+        if (index >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        offset += ascii ? 1 : sequenceLength(offset);
+        index++;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) {
+            return 0;
+        }
+        int target = i > 0 ? index + i - 1 : index + i;
+        if (target < 0 || target >= size) {
+            return IntStream.EOF;
+        }
+        if (ascii) {
+            return buffer.get(target);
+        }
+        if (i == 1) {
+            return decode(offset);
+        }
+        return decode(offsetOf(target));
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void seek(int index) {
+        int target = Math.min(Math.max(index, 0), size);
+        offset = offsetOf(target);
+        this.index = target;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName != null && !sourceName.isEmpty() ? sourceName : UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.max(interval.a, 0);
+        int stop = Math.min(interval.b, size - 1);
+        if (start > stop) {
+            return "";
+        }
+        int startOffset = offsetOf(start);
+        int stopOffset = offsetOf(stop + 1);
+        if (ascii) {
+            byte[] bytes = new byte[stopOffset - startOffset];
+            buffer.get(startOffset, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        StringBuilder text = new StringBuilder(stopOffset - startOffset);
+        for (int position = startOffset; position < stopOffset; position += sequenceLength(position)) {
+            text.appendCodePoint(decode(position));
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+}
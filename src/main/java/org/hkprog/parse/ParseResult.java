@@ -0,0 +1,71 @@
+package org.hkprog.parse;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * Result of parsing a translation unit, including which prediction path was taken
+ */
+public class ParseResult {
+
+    /**
+     * Prediction path that produced the parse tree
+     */
+    public enum Path {
+        SLL, LL, SLL_FALLBACK_LL, PARALLEL
+    }
+
+    private ParseTree tree;
+    private Path path;
+    private long sllNanos;
+    private long llNanos;
+    /** Number of chunks parsed concurrently, for the PARALLEL path */
+    private int chunks;
+    /** Why a requested parallel parse fell back to parsing sequentially, or null */
+    private String fallbackReason;
+
+    public ParseResult(ParseTree tree, Path path, long sllNanos, long llNanos) {
+        this(tree, path, sllNanos, llNanos, 0);
+    }
+
+    public ParseResult(ParseTree tree, Path path, long sllNanos, long llNanos, int chunks) {
+        this.tree = tree;
+        this.path = path;
+        this.sllNanos = sllNanos;
+        this.llNanos = llNanos;
+        this.chunks = chunks;
+    }
+
+    ParseResult withFallback(String reason) {
+        this.fallbackReason = reason;
+        return this;
+    }
+
+    public ParseTree getTree() { return tree; }
+    public Path getPath() { return path; }
+    public long getSllNanos() { return sllNanos; }
+    public long getLlNanos() { return llNanos; }
+    public long getTotalNanos() { return sllNanos + llNanos; }
+    public int getChunks() { return chunks; }
+    public String getFallbackReason() { return fallbackReason; }
+
+    @Override
+    public String toString() {
+        if (fallbackReason != null) {
+            return describe() + " (parallel parse skipped: " + fallbackReason + ")";
+        }
+        return describe();
+    }
+
+    private String describe() {
+        switch (path) {
+            case SLL:
+                return String.format("SLL in %.2f ms", sllNanos / 1e6);
+            case LL:
+                return String.format("LL in %.2f ms", llNanos / 1e6);
+            case PARALLEL:
+                return String.format("%d chunks in parallel in %.2f ms", chunks, llNanos / 1e6);
+            default:
+                return String.format("SLL failed after %.2f ms, LL in %.2f ms", sllNanos / 1e6, llNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.hkprog.parse;
+
+/**
+ * Strategies for running the generated C parser
+ */
+public enum ParseStrategy {
+    /** Full ALL(*) LL prediction on every decision */
+    LL("ll"),
+    /** Fast SLL prediction first, full LL re-parse only if SLL fails */
+    SLL_THEN_LL("sll-ll");
+
+    private final String name;
+
+    ParseStrategy(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static ParseStrategy fromString(String name) {
+        for (ParseStrategy strategy : values()) {
+            if (strategy.name.equalsIgnoreCase(name)) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown parse mode: " + name);
+    }
+}
@@ -0,0 +1,23 @@
+package org.hkprog.parse;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import java.io.PrintStream;
+
+/**
+ * Reports syntax errors to a given stream in the same format as ANTLR's console listener
+ */
+public class StreamErrorListener extends BaseErrorListener {
+    private PrintStream err;
+
+    public StreamErrorListener(PrintStream err) {
+        this.err = err;
+    }
+
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                            int charPositionInLine, String msg, RecognitionException e) {
+        err.println("line " + line + ":" + charPositionInLine + " " + msg);
+    }
+}
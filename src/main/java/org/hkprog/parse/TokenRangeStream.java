@@ -0,0 +1,154 @@
+package org.hkprog.parse;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Read-only view of a slice of an already filled token stream, ending in a synthetic EOF.
+ * Like {@link CommonTokenStream} it only shows default channel tokens to the parser. Tokens
+ * keep their indexes in the full stream, so trees built from several views can be merged
+ * and still refer to the full stream, and several views can be parsed concurrently.
+ */
+public class TokenRangeStream implements TokenStream {
+    private BufferedTokenStream tokens;
+    private int from;
+    private int to;
+    private Token eof;
+    private int p;
+
+    /**
+     * @param from index of the first token
+     * @param to index after the last token
+     */
+    public TokenRangeStream(BufferedTokenStream tokens, int from, int to) {
+        this.tokens = tokens;
+        this.from = from;
+        this.to = to;
+        Token last = tokens.get(to - 1);
+        CommonToken eof = new CommonToken(Token.EOF, "<EOF>");
+        eof.setTokenIndex(to);
+        eof.setStartIndex(last.getStopIndex() + 1);
+        eof.setStopIndex(last.getStopIndex());
+        eof.setLine(last.getLine());
+        eof.setCharPositionInLine(last.getCharPositionInLine());
+        this.eof = eof;
+        this.p = nextOnChannel(from);
+    }
+
+    private int nextOnChannel(int i) {
+        while (i < to && tokens.get(i).getChannel() != Token.DEFAULT_CHANNEL) {
+            i++;
+        }
+        return i;
+    }
+
+    private int previousOnChannel(int i) {
+        while (i >= from && tokens.get(i).getChannel() != Token.DEFAULT_CHANNEL) {
+            i--;
+        }
+        return i;
+    }
+
+    @Override
+    public Token LT(int k) {
+        if (k == 0) {
+            return null;
+        }
+        int i = p;
+        if (k < 0) {
+            for (int n = 0; n < -k; n++) {
+                i = previousOnChannel(i - 1);
+                if (i < from) {
+                    return null;
+                }
+            }
+            return tokens.get(i);
+        }
+        for (int n = 1; n < k && i < to; n++) {
+            i = nextOnChannel(i + 1);
+        }
+        return i < to ? tokens.get(i) : eof;
+    }
+
+    @Override
+    public int LA(int i) {
+        Token token = LT(i);
+        return token == null ? 0 : token.getType();
+    }
+
+    @Override
+    public void consume() {
+        if (p >= to) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        p = nextOnChannel(p + 1);
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void seek(int index) {
+        p = nextOnChannel(Math.max(index, from));
+    }
+
+    @Override
+    public int size() {
+        return to + 1;
+    }
+
+    @Override
+    public Token get(int index) {
+        return index == to ? eof : tokens.get(index);
+    }
+
+    @Override
+    public int mark() {
+        return 0;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public TokenSource getTokenSource() {
+        return tokens.getTokenSource();
+    }
+
+    @Override
+    public String getSourceName() {
+        return tokens.getSourceName();
+    }
+
+    @Override
+    public String getText() {
+        return getText(Interval.of(from, to - 1));
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.max(interval.a, from);
+        int stop = Math.min(interval.b, to - 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = start; i <= stop; i++) {
+            text.append(tokens.get(i).getText());
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String getText(RuleContext ctx) {
+        return ctx.getText();
+    }
+
+    @Override
+    public String getText(Token start, Token stop) {
+        if (start == null || stop == null) {
+            return "";
+        }
+        return getText(Interval.of(start.getTokenIndex(), stop.getTokenIndex()));
+    }
+}
@@ -0,0 +1,246 @@
+package org.hkprog.pch;
+
+import org.hkprog.ir.IRGlobalVariable;
+import org.hkprog.ir.IRType;
+import org.hkprog.preprocess.Macro;
+import org.hkprog.preprocess.PPToken;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Snapshot of the compiler state after a header prefix: the macros it defines, the
+ * file-scope symbol table and the global variables it declares. Loading a snapshot replaces
+ * lexing, parsing and walking the header in every translation unit that includes it.
+ *
+ * The snapshot records the SHA-256 of the header and of every file it includes, and is
+ * stale as soon as any of them changes.
+ *
+ * File format, all integers big-endian: magic, format version, compiler version, then a
+ * string table, then the dependency list, macros, symbols and globals, with every string
+ * written as an index into the table.
+ */
+public class PrecompiledHeader {
+
+    private static final int MAGIC = 0x43504348; // "CPCH"
+    private static final int FORMAT_VERSION = 2;
+
+    private String compilerVersion;
+    private Map<Path, String> dependencies;
+    private List<Macro> macros;
+    private Map<String, IRType> symbols;
+    private List<IRGlobalVariable> globals;
+
+    /**
+     * @param dependencies canonical path and content hash of the header and every file it includes,
+     *     the header first
+     */
+    public PrecompiledHeader(String compilerVersion, Map<Path, String> dependencies, List<Macro> macros,
+                             Map<String, IRType> symbols, List<IRGlobalVariable> globals) {
+        this.compilerVersion = compilerVersion;
+        this.dependencies = dependencies;
+        this.macros = macros;
+        this.symbols = symbols;
+        this.globals = globals;
+    }
+
+    public String getCompilerVersion() { return compilerVersion; }
+    public Map<Path, String> getDependencies() { return dependencies; }
+    public List<Macro> getMacros() { return macros; }
+    public Map<String, IRType> getSymbols() { return symbols; }
+    public List<IRGlobalVariable> getGlobals() { return globals; }
+
+    public Path getHeader() {
+        return dependencies.keySet().iterator().next();
+    }
+
+    /**
+     * Combined hash of all dependencies, identifying the header state this snapshot was made from
+     */
+    public String getContentHash() {
+        return hash(String.join("\0", dependencies.values()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks the snapshot against the files on disk.
+     *
+     * @return why the snapshot cannot be used, or null if it is up to date
+     */
+    public String checkStale(String currentCompilerVersion) {
+        if (!compilerVersion.equals(currentCompilerVersion)) {
+            return "created by compiler version " + compilerVersion;
+        }
+        for (Map.Entry<Path, String> dependency : dependencies.entrySet()) {
+            try {
+                if (!hashFile(dependency.getKey()).equals(dependency.getValue())) {
+                    return dependency.getKey() + " has changed";
+                }
+            } catch (IOException e) {
+                return dependency.getKey() + " cannot be read";
+            }
+        }
+        return null;
+    }
+
+    public static String hashFile(Path file) throws IOException {
+        return hash(Files.readAllBytes(file));
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Writes the snapshot atomically, so concurrent readers never see a partial file
+     */
+    public void write(Path file) throws IOException {
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+
+        data.writeInt(dependencies.size());
+        for (Map.Entry<Path, String> dependency : dependencies.entrySet()) {
+            data.writeInt(strings.index(dependency.getKey().toString()));
+            data.writeInt(strings.index(dependency.getValue()));
+        }
+
+        data.writeInt(macros.size());
+        for (Macro macro : macros) {
+            data.writeInt(strings.index(macro.getName()));
+            data.writeBoolean(macro.isVariadic());
+            if (macro.isFunctionLike()) {
+                data.writeInt(macro.getParameters().size());
+                for (String parameter : macro.getParameters()) {
+                    data.writeInt(strings.index(parameter));
+                }
+            } else {
+                data.writeInt(-1);
+            }
+            data.writeInt(macro.getBody().size());
+            for (PPToken token : macro.getBody()) {
+                data.writeByte(token.getKind().ordinal() | (token.hasSpaceBefore() ? 0x80 : 0));
+                data.writeInt(strings.index(token.getText()));
+            }
+        }
+
+        data.writeInt(symbols.size());
+        for (Map.Entry<String, IRType> symbol : symbols.entrySet()) {
+            data.writeInt(strings.index(symbol.getKey()));
+            data.writeByte(symbol.getValue().ordinal());
+        }
+
+        data.writeInt(globals.size());
+        for (IRGlobalVariable global : globals) {
+            data.writeInt(strings.index(global.getName()));
+            data.writeByte(global.getType().ordinal());
+            String initialValue = global.getInitialValueText();
+            data.writeInt(initialValue == null ? -1 : strings.index(initialValue));
+            data.writeInt(global.getLength());
+        }
+        data.flush();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeUTF(compilerVersion);
+            output.writeInt(strings.size());
+            for (String string : strings.strings) {
+                output.writeUTF(string);
+            }
+            body.writeTo(output);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static PrecompiledHeader read(Path file) throws IOException {
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not a precompiled header");
+            }
+            String compilerVersion = data.readUTF();
+            String[] strings = new String[data.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = data.readUTF();
+            }
+
+            Map<Path, String> dependencies = new LinkedHashMap<>();
+            for (int i = data.readInt(); i > 0; i--) {
+                dependencies.put(Paths.get(strings[data.readInt()]), strings[data.readInt()]);
+            }
+
+            PPToken.Kind[] kinds = PPToken.Kind.values();
+            List<Macro> macros = new ArrayList<>();
+            for (int i = data.readInt(); i > 0; i--) {
+                String name = strings[data.readInt()];
+                boolean variadic = data.readBoolean();
+                int parameterCount = data.readInt();
+                List<String> parameters = null;
+                if (parameterCount >= 0) {
+                    parameters = new ArrayList<>(parameterCount);
+                    for (int j = 0; j < parameterCount; j++) {
+                        parameters.add(strings[data.readInt()]);
+                    }
+                }
+                int bodySize = data.readInt();
+                List<PPToken> body = new ArrayList<>(bodySize);
+                for (int j = 0; j < bodySize; j++) {
+                    int flags = data.readUnsignedByte();
+                    body.add(new PPToken(kinds[flags & 0x7f], strings[data.readInt()], (flags & 0x80) != 0));
+                }
+                macros.add(new Macro(name, parameters, variadic, body));
+            }
+
+            IRType[] types = IRType.values();
+            Map<String, IRType> symbols = new LinkedHashMap<>();
+            for (int i = data.readInt(); i > 0; i--) {
+                symbols.put(strings[data.readInt()], types[data.readUnsignedByte()]);
+            }
+
+            List<IRGlobalVariable> globals = new ArrayList<>();
+            for (int i = data.readInt(); i > 0; i--) {
+                String name = strings[data.readInt()];
+                IRType type = types[data.readUnsignedByte()];
+                int initialValue = data.readInt();
+                int length = data.readInt();
+                globals.add(new IRGlobalVariable(name, type, initialValue < 0 ? null : strings[initialValue], length));
+            }
+            return new PrecompiledHeader(compilerVersion, dependencies, macros, symbols, globals);
+        } catch (ArrayIndexOutOfBoundsException | EOFException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Strings in first-use order, each stored once
+     */
+    private static class StringTable {
+        private List<String> strings = new ArrayList<>();
+        private Map<String, Integer> indexes = new HashMap<>();
+
+        int index(String string) {
+            Integer index = indexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                indexes.put(string, index);
+            }
+            return index;
+        }
+
+        int size() {
+            return strings.size();
+        }
+    }
+}
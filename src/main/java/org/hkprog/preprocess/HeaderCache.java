@@ -0,0 +1,149 @@
+package org.hkprog.preprocess;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of tokenized headers, shared by every translation unit preprocessed in the
+ * same process. An entry is reused as long as the file's size and modification time are
+ * unchanged. Each entry also records the include guard macro, if the header has the classic
+ * {@code #ifndef X / #define X ... #endif} shape, so a repeated include can be skipped
+ * without touching the file at all.
+ */
+public class HeaderCache {
+
+    private static final HeaderCache SHARED = new HeaderCache();
+
+    private Map<Path, CachedHeader> headers;
+    private AtomicLong hits;
+    private AtomicLong misses;
+
+    public HeaderCache() {
+        this.headers = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    public static HeaderCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the tokenized lines of a header, reading and tokenizing it only if it is not
+     * cached or has changed on disk
+     *
+     * @param path canonical path of the header
+     */
+    public CachedHeader get(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        CachedHeader cached = headers.get(path);
+        if (cached != null && cached.lastModified == lastModified && cached.size == attributes.size()) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        misses.incrementAndGet();
+        List<PPLine> lines = new ArrayList<>();
+        try (PPLineReader reader = new PPLineReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+            PPLine line;
+            while ((line = reader.next()) != null) {
+                lines.add(line);
+            }
+        }
+        cached = new CachedHeader(Collections.unmodifiableList(lines), detectIncludeGuard(lines), lastModified, attributes.size());
+        headers.put(path, cached);
+        return cached;
+    }
+
+    /**
+     * Finds the guard macro of a header whose only significant content is
+     * {@code #ifndef X} or {@code #if !defined X}, then {@code #define X}, then everything
+     * else, closed by an {@code #endif} that is the last significant line
+     */
+    static String detectIncludeGuard(List<PPLine> lines) {
+        List<PPLine> significant = new ArrayList<>();
+        for (PPLine line : lines) {
+            boolean blank = line.getTokens().isEmpty() && (line.getDirective() == null || line.getDirective().isEmpty());
+            if (!blank) {
+                significant.add(line);
+            }
+        }
+        if (significant.size() < 3) {
+            return null;
+        }
+
+        String guard = guardName(significant.get(0));
+        PPLine define = significant.get(1);
+        if (guard == null || !"define".equals(define.getDirective()) || define.getTokens().isEmpty()
+                || !define.getTokens().get(0).getText().equals(guard)) {
+            return null;
+        }
+
+        // The opening conditional must be closed by the very last significant line
+        int depth = 0;
+        for (int i = 0; i < significant.size(); i++) {
+            String directive = significant.get(i).getDirective();
+            if ("if".equals(directive) || "ifdef".equals(directive) || "ifndef".equals(directive)) {
+                depth++;
+            } else if ("endif".equals(directive)) {
+                depth--;
+                if (depth == 0) {
+                    return i == significant.size() - 1 ? guard : null;
+                }
+            } else if (depth == 1 && ("else".equals(directive) || "elif".equals(directive))) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String guardName(PPLine line) {
+        List<PPToken> tokens = line.getTokens();
+        if ("ifndef".equals(line.getDirective()) && tokens.size() == 1 && tokens.get(0).isIdentifier()) {
+            return tokens.get(0).getText();
+        }
+        if ("if".equals(line.getDirective()) && tokens.size() >= 3 && tokens.get(0).is("!")
+                && tokens.get(1).getText().equals("defined")) {
+            if (tokens.size() == 3 && tokens.get(2).isIdentifier()) {
+                return tokens.get(2).getText();
+            }
+            if (tokens.size() == 5 && tokens.get(2).is("(") && tokens.get(3).isIdentifier() && tokens.get(4).is(")")) {
+                return tokens.get(3).getText();
+            }
+        }
+        return null;
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+
+    /**
+     * A tokenized header
+     */
+    public static class CachedHeader {
+        private List<PPLine> lines;
+        private String guardMacro;
+        private long lastModified;
+        private long size;
+
+        CachedHeader(List<PPLine> lines, String guardMacro, long lastModified, long size) {
+            this.lines = lines;
+            this.guardMacro = guardMacro;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        public List<PPLine> getLines() { return lines; }
+        public String getGuardMacro() { return guardMacro; }
+    }
+}
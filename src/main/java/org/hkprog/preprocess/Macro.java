@@ -0,0 +1,46 @@
+package org.hkprog.preprocess;
+
+import java.util.List;
+
+/**
+ * An object-like or function-like macro definition
+ */
+public class Macro {
+    private String name;
+    private List<String> parameters;
+    private boolean variadic;
+    private List<PPToken> body;
+
+    /**
+     * @param parameters parameter names, or null for an object-like macro
+     */
+    public Macro(String name, List<String> parameters, boolean variadic, List<PPToken> body) {
+        this.name = name;
+        this.parameters = parameters;
+        this.variadic = variadic;
+        this.body = body;
+    }
+
+    public String getName() { return name; }
+    public List<String> getParameters() { return parameters; }
+    public boolean isVariadic() { return variadic; }
+    public List<PPToken> getBody() { return body; }
+
+    public boolean isFunctionLike() {
+        return parameters != null;
+    }
+
+    /**
+     * Index of a parameter name in the replacement list, with __VA_ARGS__ mapping to the
+     * variadic slot after the named parameters
+     */
+    public int parameterIndex(String identifier) {
+        if (parameters == null) {
+            return -1;
+        }
+        if (variadic && identifier.equals("__VA_ARGS__")) {
+            return parameters.size();
+        }
+        return parameters.indexOf(identifier);
+    }
+}
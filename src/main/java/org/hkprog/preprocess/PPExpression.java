@@ -0,0 +1,205 @@
+package org.hkprog.preprocess;
+
+import java.util.List;
+
+/**
+ * Evaluates the controlling expression of #if and #elif after macro expansion and after
+ * {@code defined} and all remaining identifiers have been replaced by numbers. Arithmetic is
+ * done in 64 bits, as intmax_t on the target.
+ */
+class PPExpression {
+    private List<PPToken> tokens;
+    private int position;
+    /** Greater than zero while parsing an operand that short-circuiting leaves unevaluated */
+    private int unevaluated;
+
+    PPExpression(List<PPToken> tokens) {
+        this.tokens = tokens;
+        this.position = 0;
+    }
+
+    long evaluate() {
+        long value = conditional();
+        if (position < tokens.size()) {
+            throw new IllegalArgumentException("unexpected '" + tokens.get(position) + "' in #if expression");
+        }
+        return value;
+    }
+
+    private long conditional() {
+        long condition = binary(0);
+        if (accept("?")) {
+            long whenTrue = operand(condition == 0);
+            expect(":");
+            long whenFalse = operand(condition != 0);
+            return condition != 0 ? whenTrue : whenFalse;
+        }
+        return condition;
+    }
+
+    private static final String[][] PRECEDENCE = {
+        {"||"}, {"&&"}, {"|"}, {"^"}, {"&"}, {"==", "!="}, {"<", ">", "<=", ">="}, {"<<", ">>"}, {"+", "-"}, {"*", "/", "%"}
+    };
+
+    private long binary(int level) {
+        if (level == PRECEDENCE.length) {
+            return unary();
+        }
+        long left = binary(level + 1);
+        while (true) {
+            String operator = matchOperator(PRECEDENCE[level]);
+            if (operator == null) {
+                return left;
+            }
+            boolean skipped = (operator.equals("&&") && left == 0) || (operator.equals("||") && left != 0);
+            long right;
+            if (skipped) {
+                unevaluated++;
+                right = binary(level + 1);
+                unevaluated--;
+            } else {
+                right = binary(level + 1);
+            }
+            left = apply(operator, left, right);
+        }
+    }
+
+    private long operand(boolean skipped) {
+        if (skipped) {
+            unevaluated++;
+        }
+        long value = conditional();
+        if (skipped) {
+            unevaluated--;
+        }
+        return value;
+    }
+
+    private long apply(String operator, long left, long right) {
+        switch (operator) {
+            case "||": return (left != 0 || right != 0) ? 1 : 0;
+            case "&&": return (left != 0 && right != 0) ? 1 : 0;
+            case "|": return left | right;
+            case "^": return left ^ right;
+            case "&": return left & right;
+            case "==": return left == right ? 1 : 0;
+            case "!=": return left != right ? 1 : 0;
+            case "<": return left < right ? 1 : 0;
+            case ">": return left > right ? 1 : 0;
+            case "<=": return left <= right ? 1 : 0;
+            case ">=": return left >= right ? 1 : 0;
+            case "<<": return left << right;
+            case ">>": return left >> right;
+            case "+": return left + right;
+            case "-": return left - right;
+            case "*": return left * right;
+            case "/":
+                if (right == 0) {
+                    return divisionByZero();
+                }
+                return left / right;
+            default:
+                if (right == 0) {
+                    return divisionByZero();
+                }
+                return left % right;
+        }
+    }
+
+    private long divisionByZero() {
+        if (unevaluated > 0) {
+            return 0;
+        }
+        throw new IllegalArgumentException("division by zero in #if expression");
+    }
+
+    private long unary() {
+        if (accept("+")) {
+            return unary();
+        } else if (accept("-")) {
+            return -unary();
+        } else if (accept("~")) {
+            return ~unary();
+        } else if (accept("!")) {
+            return unary() == 0 ? 1 : 0;
+        } else if (accept("(")) {
+            long value = conditional();
+            expect(")");
+            return value;
+        }
+        if (position >= tokens.size()) {
+            throw new IllegalArgumentException("missing operand in #if expression");
+        }
+        PPToken token = tokens.get(position++);
+        if (token.getKind() == PPToken.Kind.NUMBER) {
+            return parseInteger(token.getText());
+        } else if (token.getKind() == PPToken.Kind.CHARACTER) {
+            return parseCharacter(token.getText());
+        }
+        throw new IllegalArgumentException("unexpected '" + token + "' in #if expression");
+    }
+
+    static long parseInteger(String text) {
+        String digits = text;
+        while (!digits.isEmpty() && "uUlL".indexOf(digits.charAt(digits.length() - 1)) >= 0) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        if (digits.startsWith("0x") || digits.startsWith("0X")) {
+            return Long.parseUnsignedLong(digits.substring(2), 16);
+        } else if (digits.startsWith("0b") || digits.startsWith("0B")) {
+            return Long.parseUnsignedLong(digits.substring(2), 2);
+        } else if (digits.length() > 1 && digits.startsWith("0")) {
+            return Long.parseUnsignedLong(digits.substring(1), 8);
+        }
+        return Long.parseUnsignedLong(digits);
+    }
+
+    static long parseCharacter(String text) {
+        int quote = text.indexOf('\'');
+        String body = text.substring(quote + 1, text.length() - 1);
+        if (!body.startsWith("\\")) {
+            return body.isEmpty() ? 0 : body.charAt(0);
+        }
+        char escape = body.charAt(1);
+        switch (escape) {
+            case 'n': return '\n';
+            case 't': return '\t';
+            case 'r': return '\r';
+            case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7':
+                return Long.parseLong(body.substring(1), 8);
+            case 'x': return Long.parseLong(body.substring(2), 16);
+            case 'a': return 7;
+            case 'b': return 8;
+            case 'f': return 12;
+            case 'v': return 11;
+            default: return escape;
+        }
+    }
+
+    private String matchOperator(String[] operators) {
+        if (position < tokens.size()) {
+            PPToken token = tokens.get(position);
+            for (String operator : operators) {
+                if (token.is(operator)) {
+                    position++;
+                    return operator;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean accept(String punctuator) {
+        if (position < tokens.size() && tokens.get(position).is(punctuator)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String punctuator) {
+        if (!accept(punctuator)) {
+            throw new IllegalArgumentException("expected '" + punctuator + "' in #if expression");
+        }
+    }
+}
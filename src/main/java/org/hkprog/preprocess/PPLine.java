@@ -0,0 +1,32 @@
+package org.hkprog.preprocess;
+
+import java.util.List;
+
+/**
+ * One logical source line, already split into preprocessing tokens. For a directive the
+ * tokens are those after the directive name.
+ */
+public class PPLine {
+    private int lineNumber;
+    private int physicalLines;
+    private String directive;
+    private List<PPToken> tokens;
+
+    public PPLine(int lineNumber, int physicalLines, String directive, List<PPToken> tokens) {
+        this.lineNumber = lineNumber;
+        this.physicalLines = physicalLines;
+        this.directive = directive;
+        this.tokens = tokens;
+    }
+
+    public int getLineNumber() { return lineNumber; }
+    /** Number of physical lines this logical line was spliced from */
+    public int getPhysicalLines() { return physicalLines; }
+    /** Directive name, the empty string for a null directive, or null for a text line */
+    public String getDirective() { return directive; }
+    public List<PPToken> getTokens() { return tokens; }
+
+    public boolean isDirective() {
+        return directive != null;
+    }
+}
@@ -0,0 +1,226 @@
+package org.hkprog.preprocess;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads source text one logical line at a time (translation phases 1-3): backslash-newlines
+ * are spliced, comments are replaced by a space, including block comments that span several
+ * physical lines, and the result is split into preprocessing tokens.
+ */
+public class PPLineReader implements Closeable {
+
+    private static final String[] PUNCTUATORS = {
+        "%:%:", "...", "<<=", ">>=",
+        "->", "++", "--", "<<", ">>", "<=", ">=", "==", "!=", "&&", "||", "*=", "/=", "%=", "+=", "-=",
+        "&=", "^=", "|=", "##", "<:", ":>", "<%", "%>", "%:",
+        "[", "]", "(", ")", "{", "}", ".", "&", "*", "+", "-", "~", "!", "/", "%", "<", ">", "^", "|",
+        "?", ":", ";", "=", ",", "#"
+    };
+
+    private BufferedReader reader;
+    private int lineNumber;
+
+    public PPLineReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.lineNumber = 0;
+    }
+
+    /**
+     * @return the next logical line, or null at end of input
+     */
+    public PPLine next() throws IOException {
+        String physical = reader.readLine();
+        if (physical == null) {
+            return null;
+        }
+        int startLine = ++lineNumber;
+        StringBuilder logical = new StringBuilder();
+        boolean inComment = false;
+
+        while (true) {
+            // Splice backslash-newline
+            StringBuilder spliced = new StringBuilder(physical);
+            while (spliced.length() > 0 && spliced.charAt(spliced.length() - 1) == '\\') {
+                spliced.setLength(spliced.length() - 1);
+                String continuation = reader.readLine();
+                if (continuation == null) {
+                    break;
+                }
+                lineNumber++;
+                spliced.append(continuation);
+            }
+            inComment = stripComments(spliced.toString(), logical, inComment);
+            if (!inComment) {
+                break;
+            }
+            // A block comment continues on the next physical line, and so does this logical line
+            physical = reader.readLine();
+            if (physical == null) {
+                break;
+            }
+            lineNumber++;
+        }
+
+        List<PPToken> tokens = tokenize(logical);
+        int physicalLines = lineNumber - startLine + 1;
+        if (!tokens.isEmpty() && tokens.get(0).is("#")) {
+            String directive = "";
+            int first = 1;
+            if (tokens.size() > 1 && (tokens.get(1).isIdentifier() || tokens.get(1).getKind() == PPToken.Kind.NUMBER)) {
+                // "# 12 file" line markers are treated like #line
+                directive = tokens.get(1).isIdentifier() ? tokens.get(1).getText() : "line";
+                first = tokens.get(1).isIdentifier() ? 2 : 1;
+            }
+            return new PPLine(startLine, physicalLines, directive, new ArrayList<>(tokens.subList(first, tokens.size())));
+        }
+        return new PPLine(startLine, physicalLines, null, tokens);
+    }
+
+    /**
+     * Appends a physical line to the logical line with comments replaced by spaces.
+     *
+     * @return true if the line ends inside a block comment
+     */
+    private static boolean stripComments(String line, StringBuilder out, boolean inComment) {
+        int i = 0;
+        int length = line.length();
+        while (i < length) {
+            char c = line.charAt(i);
+            if (inComment) {
+                if (c == '*' && i + 1 < length && line.charAt(i + 1) == '/') {
+                    inComment = false;
+                    out.append(' ');
+                    i += 2;
+                } else {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && line.charAt(i + 1) == '*') {
+                inComment = true;
+                i += 2;
+            } else if (c == '/' && i + 1 < length && line.charAt(i + 1) == '/') {
+                break;
+            } else if (c == '"' || c == '\'') {
+                int end = skipQuoted(line, i);
+                out.append(line, i, end);
+                i = end;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return inComment;
+    }
+
+    private static int skipQuoted(CharSequence text, int start) {
+        char quote = text.charAt(start);
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return text.length();
+    }
+
+    /**
+     * Splits comment-free text into preprocessing tokens
+     */
+    public static List<PPToken> tokenize(CharSequence text) {
+        List<PPToken> tokens = new ArrayList<>();
+        int i = 0;
+        int length = text.length();
+        boolean space = false;
+
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\f' || c == '\u000b' || c == '\r') {
+                space = true;
+                i++;
+                continue;
+            }
+
+            int start = i;
+            PPToken.Kind kind;
+            if (isStringPrefix(text, i)) {
+                i = skipQuoted(text, i + prefixLength(text, i));
+                kind = text.charAt(start + prefixLength(text, start)) == '"' ? PPToken.Kind.STRING : PPToken.Kind.CHARACTER;
+            } else if (Character.isLetter(c) || c == '_' || c == '$') {
+                while (i < length && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_' || text.charAt(i) == '$')) {
+                    i++;
+                }
+                kind = PPToken.Kind.IDENTIFIER;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(text.charAt(i + 1)))) {
+                i++;
+                while (i < length) {
+                    char d = text.charAt(i);
+                    char previous = text.charAt(i - 1);
+                    if ((d == '+' || d == '-') && (previous == 'e' || previous == 'E' || previous == 'p' || previous == 'P')) {
+                        i++;
+                    } else if (Character.isLetterOrDigit(d) || d == '_' || d == '.') {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                kind = PPToken.Kind.NUMBER;
+            } else if (c == '"' || c == '\'') {
+                i = skipQuoted(text, i);
+                kind = c == '"' ? PPToken.Kind.STRING : PPToken.Kind.CHARACTER;
+            } else {
+                String punctuator = matchPunctuator(text, i);
+                if (punctuator != null) {
+                    i += punctuator.length();
+                    kind = PPToken.Kind.PUNCTUATOR;
+                } else {
+                    i++;
+                    kind = PPToken.Kind.OTHER;
+                }
+            }
+            tokens.add(new PPToken(kind, text.subSequence(start, i).toString(), space));
+            space = false;
+        }
+        return tokens;
+    }
+
+    private static boolean isStringPrefix(CharSequence text, int i) {
+        int prefix = prefixLength(text, i);
+        return prefix > 0 && i + prefix < text.length() && (text.charAt(i + prefix) == '"' || text.charAt(i + prefix) == '\'');
+    }
+
+    private static int prefixLength(CharSequence text, int i) {
+        char c = text.charAt(i);
+        if (c == 'u' && i + 1 < text.length() && text.charAt(i + 1) == '8') {
+            return 2;
+        }
+        return (c == 'u' || c == 'U' || c == 'L') ? 1 : 0;
+    }
+
+    private static String matchPunctuator(CharSequence text, int i) {
+        for (String punctuator : PUNCTUATORS) {
+            if (i + punctuator.length() <= text.length()
+                    && text.subSequence(i, i + punctuator.length()).toString().equals(punctuator)) {
+                return punctuator;
+            }
+        }
+        return null;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
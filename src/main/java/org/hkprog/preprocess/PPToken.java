@@ -0,0 +1,69 @@
+package org.hkprog.preprocess;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A preprocessing token. The hide set holds the names of the macros whose expansion produced
+ * this token, which stops them from being expanded again (C11 6.10.3.4).
+ */
+public class PPToken {
+
+    /**
+     * Preprocessing token categories (C11 6.4)
+     */
+    public enum Kind {
+        IDENTIFIER, NUMBER, CHARACTER, STRING, PUNCTUATOR, OTHER
+    }
+
+    private Kind kind;
+    private String text;
+    private boolean spaceBefore;
+    private Set<String> hideSet;
+
+    public PPToken(Kind kind, String text, boolean spaceBefore) {
+        this(kind, text, spaceBefore, Collections.emptySet());
+    }
+
+    public PPToken(Kind kind, String text, boolean spaceBefore, Set<String> hideSet) {
+        this.kind = kind;
+        this.text = text;
+        this.spaceBefore = spaceBefore;
+        this.hideSet = hideSet;
+    }
+
+    public Kind getKind() { return kind; }
+    public String getText() { return text; }
+    public boolean hasSpaceBefore() { return spaceBefore; }
+    public Set<String> getHideSet() { return hideSet; }
+
+    public boolean is(String punctuator) {
+        return kind == Kind.PUNCTUATOR && text.equals(punctuator);
+    }
+
+    public boolean isIdentifier() {
+        return kind == Kind.IDENTIFIER;
+    }
+
+    public PPToken withSpaceBefore(boolean space) {
+        return new PPToken(kind, text, space, hideSet);
+    }
+
+    /**
+     * Returns a copy of this token whose hide set also contains the given names
+     */
+    public PPToken withHidden(Set<String> names) {
+        if (names.isEmpty() || hideSet.containsAll(names)) {
+            return this;
+        }
+        Set<String> union = new HashSet<>(hideSet);
+        union.addAll(names);
+        return new PPToken(kind, text, spaceBefore, union);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
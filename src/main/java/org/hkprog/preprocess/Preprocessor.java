@@ -0,0 +1,709 @@
+package org.hkprog.preprocess;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Streaming C preprocessor placed in front of the lexer. Handles #include, object-like and
+ * function-like macros (with #, ## and __VA_ARGS__), conditional compilation and #pragma once.
+ *
+ * The main file is read and written one logical line at a time. Headers come from a
+ * {@link HeaderCache} shared across translation units, so each header is read and tokenized
+ * once per process. A header that was already included is skipped without even consulting
+ * the cache when it carried #pragma once, or when its include guard macro is still defined.
+ *
+ * Every physical source line produces exactly one output line, and line markers are written
+ * around included text, so line numbers reported by the parser stay meaningful.
+ */
+public class Preprocessor {
+
+    private static final int MAX_INCLUDE_DEPTH = 200;
+
+    /** Stands for an empty macro argument next to ## */
+    private static final PPToken PLACEMARKER = new PPToken(PPToken.Kind.OTHER, "", false);
+
+    private List<Path> includePaths;
+    private HeaderCache headerCache;
+    private PrintStream warnings;
+    private Map<String, Macro> macros;
+    private Set<Path> onceFiles;
+    private Map<Path, String> includeGuards;
+    private Set<Path> includedFiles;
+    private Appendable out;
+
+    private String currentFile;
+    private int currentLine;
+    private int includeDepth;
+    private int includesProcessed;
+    private int includesSkipped;
+
+    public Preprocessor(List<Path> includePaths, HeaderCache headerCache, PrintStream warnings) {
+        this.includePaths = includePaths;
+        this.headerCache = headerCache;
+        this.warnings = warnings;
+        this.macros = new HashMap<>();
+        this.onceFiles = new HashSet<>();
+        this.includeGuards = new HashMap<>();
+        this.includedFiles = new LinkedHashSet<>();
+
+        define("__STDC__", "1");
+        define("__STDC_VERSION__", "201112L");
+        define("__STDC_HOSTED__", "1");
+        define("__x86_64__", "1");
+        define("__linux__", "1");
+        define("__LP64__", "1");
+    }
+
+    /**
+     * Defines an object-like macro, as with {@code -Dname=value}
+     */
+    public void define(String name, String value) {
+        macros.put(name, new Macro(name, null, false, PPLineReader.tokenize(value)));
+    }
+
+    public void undefine(String name) {
+        macros.remove(name);
+    }
+
+    public Map<String, Macro> getMacros() {
+        return macros;
+    }
+
+    /**
+     * Treats a header as already included, for example because its contents were loaded from
+     * a precompiled header
+     */
+    public void markIncluded(Path header) throws IOException {
+        onceFiles.add(header.toRealPath());
+    }
+
+    public void preprocess(Path file, Appendable output) throws IOException {
+        this.out = output;
+        try (PPLineReader reader = new PPLineReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            processFile(file.toString(), new LineSource() {
+                private PPLine pushedBack;
+
+                @Override
+                public PPLine next() throws IOException {
+                    if (pushedBack != null) {
+                        PPLine line = pushedBack;
+                        pushedBack = null;
+                        return line;
+                    }
+                    return reader.next();
+                }
+
+                @Override
+                public void pushBack(PPLine line) {
+                    pushedBack = line;
+                }
+            });
+        }
+    }
+
+    public int getIncludesProcessed() { return includesProcessed; }
+    public int getIncludesSkipped() { return includesSkipped; }
+    /** Canonical paths of every header that was actually read into this translation unit */
+    public Set<Path> getIncludedFiles() { return includedFiles; }
+
+    /**
+     * Source of logical lines with one line of push-back
+     */
+    private interface LineSource {
+        PPLine next() throws IOException;
+        void pushBack(PPLine line);
+    }
+
+    /**
+     * State of one #if/#ifdef/#ifndef group
+     */
+    private static class Conditional {
+        boolean parentActive;
+        boolean taken;
+        boolean active;
+        boolean seenElse;
+
+        Conditional(boolean parentActive, boolean condition) {
+            this.parentActive = parentActive;
+            this.taken = condition;
+            this.active = parentActive && condition;
+        }
+    }
+
+    private void processFile(String fileName, LineSource source) throws IOException {
+        String savedFile = currentFile;
+        int savedLine = currentLine;
+        currentFile = fileName;
+        Deque<Conditional> conditionals = new ArrayDeque<>();
+
+        PPLine line;
+        while ((line = source.next()) != null) {
+            currentLine = line.getLineNumber();
+            boolean active = conditionals.isEmpty() || conditionals.peek().active;
+
+            if (line.isDirective()) {
+                processDirective(line, conditionals, active);
+            } else if (active) {
+                int consumed = expandTextLine(line, source);
+                newlines(consumed);
+            } else {
+                newlines(line.getPhysicalLines());
+            }
+        }
+
+        if (!conditionals.isEmpty()) {
+            throw new PreprocessorException(currentFile, currentLine, "unterminated conditional directive");
+        }
+        currentFile = savedFile;
+        currentLine = savedLine;
+    }
+
+    private void processDirective(PPLine line, Deque<Conditional> conditionals, boolean active) throws IOException {
+        String directive = line.getDirective();
+        List<PPToken> tokens = line.getTokens();
+
+        switch (directive) {
+            case "if":
+                conditionals.push(new Conditional(active, active && evaluate(tokens)));
+                break;
+            case "ifdef":
+            case "ifndef":
+                boolean defined = !tokens.isEmpty() && macros.containsKey(tokens.get(0).getText());
+                conditionals.push(new Conditional(active, directive.equals("ifdef") == defined));
+                break;
+            case "elif": {
+                Conditional conditional = currentConditional(conditionals, directive);
+                if (conditional.taken || !conditional.parentActive) {
+                    conditional.active = false;
+                } else {
+                    conditional.active = evaluate(tokens);
+                    conditional.taken = conditional.active;
+                }
+                break;
+            }
+            case "else": {
+                Conditional conditional = currentConditional(conditionals, directive);
+                if (conditional.seenElse) {
+                    throw new PreprocessorException(currentFile, currentLine, "#else after #else");
+                }
+                conditional.seenElse = true;
+                conditional.active = conditional.parentActive && !conditional.taken;
+                conditional.taken = true;
+                break;
+            }
+            case "endif":
+                currentConditional(conditionals, directive);
+                conditionals.pop();
+                break;
+            default:
+                if (active) {
+                    processActiveDirective(directive, tokens);
+                    if (directive.equals("include")) {
+                        // Line markers already account for the directive line
+                        return;
+                    }
+                }
+                break;
+        }
+        newlines(line.getPhysicalLines());
+    }
+
+    private Conditional currentConditional(Deque<Conditional> conditionals, String directive) {
+        if (conditionals.isEmpty()) {
+            throw new PreprocessorException(currentFile, currentLine, "#" + directive + " without #if");
+        }
+        return conditionals.peek();
+    }
+
+    private void processActiveDirective(String directive, List<PPToken> tokens) throws IOException {
+        switch (directive) {
+            case "include":
+                include(tokens);
+                break;
+            case "define":
+                defineMacro(tokens);
+                break;
+            case "undef":
+                if (!tokens.isEmpty()) {
+                    macros.remove(tokens.get(0).getText());
+                }
+                break;
+            case "pragma":
+                if (!tokens.isEmpty() && tokens.get(0).getText().equals("once")) {
+                    onceFiles.add(java.nio.file.Paths.get(currentFile).toRealPath());
+                }
+                break;
+            case "error":
+                throw new PreprocessorException(currentFile, currentLine, "#error " + join(tokens));
+            case "warning":
+                warnings.println(currentFile + ":" + currentLine + ": warning: " + join(tokens));
+                break;
+            default:
+                // #line, #ident, null directives and unknown directives are ignored
+                break;
+        }
+    }
+
+    private void include(List<PPToken> tokens) throws IOException {
+        if (tokens.isEmpty() || (tokens.get(0).getKind() != PPToken.Kind.STRING && !tokens.get(0).is("<"))) {
+            tokens = expand(new ArrayDeque<>(tokens), null);
+        }
+        if (tokens.isEmpty()) {
+            throw new PreprocessorException(currentFile, currentLine, "#include expects \"FILENAME\" or <FILENAME>");
+        }
+
+        String name;
+        boolean quoted = tokens.get(0).getKind() == PPToken.Kind.STRING;
+        if (quoted) {
+            String text = tokens.get(0).getText();
+            name = text.substring(1, text.length() - 1);
+        } else if (tokens.get(0).is("<")) {
+            StringBuilder builder = new StringBuilder();
+            int i = 1;
+            for (; i < tokens.size() && !tokens.get(i).is(">"); i++) {
+                if (tokens.get(i).hasSpaceBefore() && builder.length() > 0) {
+                    builder.append(' ');
+                }
+                builder.append(tokens.get(i).getText());
+            }
+            if (i == tokens.size()) {
+                throw new PreprocessorException(currentFile, currentLine, "missing '>' in #include");
+            }
+            name = builder.toString();
+        } else {
+            throw new PreprocessorException(currentFile, currentLine, "#include expects \"FILENAME\" or <FILENAME>");
+        }
+
+        Path header = resolveInclude(name, quoted);
+        if (header == null) {
+            throw new PreprocessorException(currentFile, currentLine, "'" + name + "' file not found");
+        }
+        int resumeLine = currentLine + 1;
+
+        // Skip headers that cannot contribute anything, without reading them again
+        String knownGuard = includeGuards.get(header);
+        if (onceFiles.contains(header) || (knownGuard != null && macros.containsKey(knownGuard))) {
+            includesSkipped++;
+            newlines(1);
+            return;
+        }
+        if (++includeDepth > MAX_INCLUDE_DEPTH) {
+            throw new PreprocessorException(currentFile, currentLine, "#include nested too deeply");
+        }
+
+        HeaderCache.CachedHeader cached = headerCache.get(header);
+        if (cached.getGuardMacro() != null) {
+            includeGuards.put(header, cached.getGuardMacro());
+            if (macros.containsKey(cached.getGuardMacro())) {
+                includeDepth--;
+                includesSkipped++;
+                newlines(1);
+                return;
+            }
+        }
+        includesProcessed++;
+        includedFiles.add(header);
+
+        out.append("# 1 \"").append(header.toString()).append("\"\n");
+        Iterator<PPLine> lines = cached.getLines().iterator();
+        processFile(header.toString(), new LineSource() {
+            private PPLine pushedBack;
+
+            @Override
+            public PPLine next() {
+                if (pushedBack != null) {
+                    PPLine line = pushedBack;
+                    pushedBack = null;
+                    return line;
+                }
+                return lines.hasNext() ? lines.next() : null;
+            }
+
+            @Override
+            public void pushBack(PPLine line) {
+                pushedBack = line;
+            }
+        });
+        out.append("# ").append(String.valueOf(resumeLine)).append(" \"").append(currentFile).append("\"\n");
+        includeDepth--;
+    }
+
+    private Path resolveInclude(String name, boolean quoted) throws IOException {
+        List<Path> candidates = new ArrayList<>();
+        if (quoted) {
+            Path parent = java.nio.file.Paths.get(currentFile).toAbsolutePath().getParent();
+            candidates.add(parent.resolve(name));
+        }
+        for (Path includePath : includePaths) {
+            candidates.add(includePath.resolve(name));
+        }
+        for (Path candidate : candidates) {
+            if (Files.isRegularFile(candidate)) {
+                return candidate.toRealPath();
+            }
+        }
+        return null;
+    }
+
+    private void defineMacro(List<PPToken> tokens) {
+        if (tokens.isEmpty() || !tokens.get(0).isIdentifier()) {
+            throw new PreprocessorException(currentFile, currentLine, "macro names must be identifiers");
+        }
+        String name = tokens.get(0).getText();
+        int bodyStart = 1;
+        List<String> parameters = null;
+        boolean variadic = false;
+
+        if (tokens.size() > 1 && tokens.get(1).is("(") && !tokens.get(1).hasSpaceBefore()) {
+            parameters = new ArrayList<>();
+            int i = 2;
+            while (i < tokens.size() && !tokens.get(i).is(")")) {
+                PPToken token = tokens.get(i);
+                if (token.is("...")) {
+                    variadic = true;
+                } else if (token.isIdentifier()) {
+                    parameters.add(token.getText());
+                } else if (!token.is(",")) {
+                    throw new PreprocessorException(currentFile, currentLine, "invalid macro parameter list");
+                }
+                i++;
+            }
+            if (i == tokens.size()) {
+                throw new PreprocessorException(currentFile, currentLine, "missing ')' in macro parameter list");
+            }
+            bodyStart = i + 1;
+        }
+
+        List<PPToken> body = new ArrayList<>(tokens.subList(bodyStart, tokens.size()));
+        if (!body.isEmpty()) {
+            body.set(0, body.get(0).withSpaceBefore(false));
+        }
+        macros.put(name, new Macro(name, parameters, variadic, body));
+    }
+
+    private boolean evaluate(List<PPToken> tokens) {
+        // Resolve "defined X" and "defined ( X )" before any macro expansion
+        List<PPToken> resolved = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            PPToken token = tokens.get(i);
+            if (token.isIdentifier() && token.getText().equals("defined")) {
+                String name = null;
+                if (i + 1 < tokens.size() && tokens.get(i + 1).isIdentifier()) {
+                    name = tokens.get(++i).getText();
+                } else if (i + 3 < tokens.size() && tokens.get(i + 1).is("(") && tokens.get(i + 3).is(")")) {
+                    name = tokens.get(i + 2).getText();
+                    i += 3;
+                }
+                if (name == null) {
+                    throw new PreprocessorException(currentFile, currentLine, "operator 'defined' requires an identifier");
+                }
+                resolved.add(new PPToken(PPToken.Kind.NUMBER, macros.containsKey(name) ? "1" : "0", token.hasSpaceBefore()));
+            } else {
+                resolved.add(token);
+            }
+        }
+
+        List<PPToken> expanded = expand(new ArrayDeque<>(resolved), null);
+        List<PPToken> numeric = new ArrayList<>();
+        for (PPToken token : expanded) {
+            // Identifiers left after expansion evaluate to 0
+            numeric.add(token.isIdentifier() ? new PPToken(PPToken.Kind.NUMBER, "0", token.hasSpaceBefore()) : token);
+        }
+        try {
+            return new PPExpression(numeric).evaluate() != 0;
+        } catch (IllegalArgumentException e) {
+            throw new PreprocessorException(currentFile, currentLine, e.getMessage());
+        }
+    }
+
+    /**
+     * Macro-expands a text line and writes it out. Function-like macro invocations may
+     * continue on the following lines, which are then consumed as well.
+     *
+     * @return the number of physical lines consumed
+     */
+    private int expandTextLine(PPLine line, LineSource source) throws IOException {
+        int[] consumed = {line.getPhysicalLines()};
+        List<PPToken> expanded = expand(new ArrayDeque<>(line.getTokens()), input -> {
+            PPLine next = source.next();
+            if (next == null) {
+                return false;
+            }
+            if (next.isDirective()) {
+                source.pushBack(next);
+                return false;
+            }
+            consumed[0] += next.getPhysicalLines();
+            for (PPToken token : next.getTokens()) {
+                input.addLast(token);
+            }
+            return true;
+        });
+        writeTokens(expanded);
+        return consumed[0];
+    }
+
+    /**
+     * Supplies more tokens when a macro invocation runs past the end of the line
+     */
+    private interface TokenSupplier {
+        boolean fill(Deque<PPToken> input) throws IOException;
+    }
+
+    private List<PPToken> expand(Deque<PPToken> input, TokenSupplier more) {
+        List<PPToken> result = new ArrayList<>();
+        try {
+            while (!input.isEmpty()) {
+                PPToken token = input.pollFirst();
+                if (!token.isIdentifier() || token.getHideSet().contains(token.getText())) {
+                    result.add(token);
+                    continue;
+                }
+
+                String name = token.getText();
+                if (name.equals("__LINE__")) {
+                    result.add(new PPToken(PPToken.Kind.NUMBER, String.valueOf(currentLine), token.hasSpaceBefore()));
+                    continue;
+                } else if (name.equals("__FILE__")) {
+                    String quoted = "\"" + currentFile.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+                    result.add(new PPToken(PPToken.Kind.STRING, quoted, token.hasSpaceBefore()));
+                    continue;
+                }
+
+                Macro macro = macros.get(name);
+                if (macro == null) {
+                    result.add(token);
+                    continue;
+                }
+
+                if (!macro.isFunctionLike()) {
+                    Set<String> hideSet = new HashSet<>(token.getHideSet());
+                    hideSet.add(name);
+                    pushFront(input, substitute(macro, null, hideSet), token.hasSpaceBefore());
+                    continue;
+                }
+
+                while (input.isEmpty() && more != null && more.fill(input)) {
+                    // keep pulling lines until there is a token to look at
+                }
+                if (input.isEmpty() || !input.peekFirst().is("(")) {
+                    // A function-like macro name without arguments is not an invocation
+                    result.add(token);
+                    continue;
+                }
+
+                List<List<PPToken>> arguments = new ArrayList<>();
+                PPToken closing = collectArguments(input, more, arguments);
+                if (macro.getParameters().isEmpty() && arguments.size() == 1 && arguments.get(0).isEmpty()) {
+                    arguments.clear();
+                }
+                int expected = macro.getParameters().size();
+                if (arguments.size() < expected || (!macro.isVariadic() && arguments.size() > expected)) {
+                    throw new PreprocessorException(currentFile, currentLine, "macro '" + name + "' expects "
+                        + expected + " arguments, but " + arguments.size() + " were given");
+                }
+
+                Set<String> hideSet = new HashSet<>(token.getHideSet());
+                hideSet.retainAll(closing.getHideSet());
+                hideSet.add(name);
+                pushFront(input, substitute(macro, arguments, hideSet), token.hasSpaceBefore());
+            }
+        } catch (IOException e) {
+            throw new PreprocessorException(currentFile, currentLine, e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Reads a parenthesized, comma separated argument list.
+     *
+     * @return the closing parenthesis
+     */
+    private PPToken collectArguments(Deque<PPToken> input, TokenSupplier more, List<List<PPToken>> arguments) throws IOException {
+        input.pollFirst(); // (
+        List<PPToken> current = new ArrayList<>();
+        int depth = 0;
+        while (true) {
+            while (input.isEmpty()) {
+                if (more == null || !more.fill(input)) {
+                    throw new PreprocessorException(currentFile, currentLine, "unterminated macro argument list");
+                }
+            }
+            PPToken token = input.pollFirst();
+            if (token.is(")") && depth == 0) {
+                arguments.add(current);
+                return token;
+            } else if (token.is(",") && depth == 0) {
+                arguments.add(current);
+                current = new ArrayList<>();
+                continue;
+            } else if (token.is("(")) {
+                depth++;
+            } else if (token.is(")")) {
+                depth--;
+            }
+            current.add(token);
+        }
+    }
+
+    private List<PPToken> argument(Macro macro, List<List<PPToken>> arguments, int index) {
+        if (index < macro.getParameters().size()) {
+            return arguments.get(index);
+        }
+        // __VA_ARGS__: all remaining arguments with their separating commas
+        List<PPToken> variadic = new ArrayList<>();
+        for (int i = macro.getParameters().size(); i < arguments.size(); i++) {
+            if (i > macro.getParameters().size()) {
+                variadic.add(new PPToken(PPToken.Kind.PUNCTUATOR, ",", false));
+            }
+            variadic.addAll(arguments.get(i));
+        }
+        return variadic;
+    }
+
+    /**
+     * Builds the replacement list of a macro invocation: parameters are replaced by their
+     * fully expanded arguments, or by the raw arguments next to # and ##, and then ## pastes
+     * its operands together. Every resulting token gets the given hide set.
+     */
+    private List<PPToken> substitute(Macro macro, List<List<PPToken>> arguments, Set<String> hideSet) {
+        List<PPToken> body = macro.getBody();
+        List<PPToken> substituted = new ArrayList<>();
+        List<Boolean> pasteOperator = new ArrayList<>();
+
+        for (int i = 0; i < body.size(); i++) {
+            PPToken token = body.get(i);
+            if (arguments != null && token.is("#") && i + 1 < body.size() && macro.parameterIndex(body.get(i + 1).getText()) >= 0) {
+                List<PPToken> argument = argument(macro, arguments, macro.parameterIndex(body.get(++i).getText()));
+                substituted.add(stringize(argument, token.hasSpaceBefore()));
+                pasteOperator.add(false);
+                continue;
+            }
+
+            int parameter = arguments != null && token.isIdentifier() ? macro.parameterIndex(token.getText()) : -1;
+            if (parameter >= 0) {
+                boolean pasted = (i > 0 && body.get(i - 1).is("##")) || (i + 1 < body.size() && body.get(i + 1).is("##"));
+                List<PPToken> argument = argument(macro, arguments, parameter);
+                List<PPToken> value = pasted ? argument : expand(new ArrayDeque<>(argument), null);
+                if (value.isEmpty()) {
+                    if (pasted) {
+                        substituted.add(PLACEMARKER);
+                        pasteOperator.add(false);
+                    }
+                    continue;
+                }
+                for (int j = 0; j < value.size(); j++) {
+                    substituted.add(j == 0 ? value.get(j).withSpaceBefore(token.hasSpaceBefore()) : value.get(j));
+                    pasteOperator.add(false);
+                }
+                continue;
+            }
+
+            substituted.add(token);
+            pasteOperator.add(token.is("##"));
+        }
+
+        List<PPToken> result = new ArrayList<>();
+        for (int i = 0; i < substituted.size(); i++) {
+            PPToken token = substituted.get(i);
+            if (pasteOperator.get(i) && !result.isEmpty() && i + 1 < substituted.size()) {
+                PPToken left = result.remove(result.size() - 1);
+                PPToken right = substituted.get(++i);
+                result.addAll(paste(left, right));
+            } else {
+                result.add(token);
+            }
+        }
+
+        List<PPToken> hidden = new ArrayList<>();
+        for (PPToken token : result) {
+            if (token != PLACEMARKER) {
+                hidden.add(token.withHidden(hideSet));
+            }
+        }
+        return hidden;
+    }
+
+    private List<PPToken> paste(PPToken left, PPToken right) {
+        if (left == PLACEMARKER) {
+            return List.of(right);
+        } else if (right == PLACEMARKER) {
+            return List.of(left);
+        }
+        List<PPToken> tokens = PPLineReader.tokenize(left.getText() + right.getText());
+        if (!tokens.isEmpty()) {
+            tokens.set(0, tokens.get(0).withSpaceBefore(left.hasSpaceBefore()));
+        }
+        return tokens;
+    }
+
+    private PPToken stringize(List<PPToken> argument, boolean spaceBefore) {
+        StringBuilder text = new StringBuilder("\"");
+        for (int i = 0; i < argument.size(); i++) {
+            PPToken token = argument.get(i);
+            if (i > 0 && token.hasSpaceBefore()) {
+                text.append(' ');
+            }
+            if (token.getKind() == PPToken.Kind.STRING || token.getKind() == PPToken.Kind.CHARACTER) {
+                text.append(token.getText().replace("\\", "\\\\").replace("\"", "\\\""));
+            } else {
+                text.append(token.getText());
+            }
+        }
+        return new PPToken(PPToken.Kind.STRING, text.append('"').toString(), spaceBefore);
+    }
+
+    private void pushFront(Deque<PPToken> input, List<PPToken> replacement, boolean spaceBefore) {
+        for (int i = replacement.size() - 1; i >= 0; i--) {
+            PPToken token = replacement.get(i);
+            input.addFirst(i == 0 ? token.withSpaceBefore(spaceBefore) : token);
+        }
+    }
+
+    private void writeTokens(List<PPToken> tokens) throws IOException {
+        PPToken previous = null;
+        for (PPToken token : tokens) {
+            if (previous != null && (token.hasSpaceBefore() || wouldMerge(previous, token))) {
+                out.append(' ');
+            }
+            out.append(token.getText());
+            previous = token;
+        }
+    }
+
+    /**
+     * Whether two adjacent tokens would lex as one if written without a space between them
+     */
+    private static boolean wouldMerge(PPToken left, PPToken right) {
+        if (left.getKind() == PPToken.Kind.STRING || left.getKind() == PPToken.Kind.CHARACTER) {
+            return false;
+        }
+        String joined = left.getText() + right.getText();
+        if (joined.contains("//") || joined.contains("/*")) {
+            return true;
+        }
+        List<PPToken> relexed = PPLineReader.tokenize(joined);
+        return relexed.isEmpty() || !relexed.get(0).getText().equals(left.getText());
+    }
+
+    private void newlines(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.append('\n');
+        }
+    }
+
+    private static String join(List<PPToken> tokens) {
+        StringBuilder text = new StringBuilder();
+        for (PPToken token : tokens) {
+            if (text.length() > 0 && token.hasSpaceBefore()) {
+                text.append(' ');
+            }
+            text.append(token.getText());
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package org.hkprog.preprocess;
+
+/**
+ * Raised for malformed directives, missing headers and #error
+ */
+public class PreprocessorException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PreprocessorException(String file, int line, String message) {
+        super(file + ":" + line + ": " + message);
+    }
+}
@@ -0,0 +1,85 @@
+package org.hkprog.server;
+
+import org.hkprog.CCompiler;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin command line client for {@link CompileServer}. Takes exactly the same arguments as
+ * {@link CCompiler}, forwards them to a running server and reproduces its output and exit
+ * status. If no server is listening the compilation runs in-process instead.
+ *
+ * Use {@code --server-socket=<path>} to pick a socket other than the default, and
+ * {@code --stop-server} to shut the server down.
+ */
+public class CompileClient {
+
+    public static void main(String[] args) throws Exception {
+        Path socketPath = CompileServer.defaultSocketPath();
+        boolean stop = false;
+        int argCount = 0;
+        String[] compilerArgs = new String[args.length];
+
+        for (String arg : args) {
+            if (arg.startsWith("--server-socket=")) {
+                socketPath = Paths.get(arg.substring("--server-socket=".length()));
+            } else if (arg.equals("--stop-server")) {
+                stop = true;
+            } else {
+                compilerArgs[argCount++] = arg;
+            }
+        }
+        String[] forwarded = new String[argCount];
+        System.arraycopy(compilerArgs, 0, forwarded, 0, argCount);
+
+        int status;
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+            status = stop ? send(channel, null) : send(channel, forwarded);
+        } catch (IOException e) {
+            if (stop) {
+                System.err.println("No compile server running at " + socketPath);
+                System.exit(1);
+            }
+            status = CCompiler.run(forwarded, Paths.get(""), System.out, System.err);
+        }
+
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    private static int send(SocketChannel channel, String[] args) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+        if (args == null) {
+            writer.write("stop\n");
+        } else {
+            writer.write("cwd\t" + Paths.get("").toAbsolutePath() + "\n");
+            for (String arg : args) {
+                writer.write("arg\t" + arg + "\n");
+            }
+            writer.write("run\n");
+        }
+        writer.flush();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("out\t")) {
+                System.out.println(line.substring(4));
+            } else if (line.startsWith("err\t")) {
+                System.err.println(line.substring(4));
+            } else if (line.startsWith("exit\t")) {
+                return Integer.parseInt(line.substring(5));
+            }
+        }
+        throw new IOException("Compile server closed the connection without an exit status");
+    }
+}
@@ -0,0 +1,197 @@
+package org.hkprog.server;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.hkprog.CCompiler;
+import org.hkprog.antlr.CLexer;
+import org.hkprog.ast.AstBuilder;
+import org.hkprog.ir.IRGenerator;
+import org.hkprog.parse.CParserDriver;
+import org.hkprog.parse.ParseStrategy;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived compile server. Keeps one JVM with the lexer and parser classes loaded and the
+ * ANTLR ATN/DFA caches (which are shared by all parser instances) warm, and serves compile
+ * requests concurrently, either over a Unix-domain socket or over stdin/stdout.
+ *
+ * Socket protocol, one tab separated record per line. The client sends
+ * <pre>
+ * cwd  &lt;working directory&gt;
+ * arg  &lt;argument&gt;          (repeated)
+ * run
+ * </pre>
+ * or a single {@code stop} line to shut the server down. The server answers with any number of
+ * {@code out <line>} and {@code err <line>} records followed by {@code exit <status>}.
+ *
+ * In stdin mode each input line is a whole request, {@code <id> <cwd> <arg>...}, and every
+ * response record is prefixed with the request id, since requests complete out of order.
+ */
+public class CompileServer {
+
+    private static final String USAGE = "Usage: java org.hkprog.server.CompileServer [--socket=<path> | --stdin] [--threads=<n>]";
+
+    private ExecutorService workers;
+    private volatile boolean running;
+
+    public CompileServer(int threads) {
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "compile-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.running = true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path socketPath = defaultSocketPath();
+        boolean useStdin = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (String arg : args) {
+            if (arg.startsWith("--socket=")) {
+                socketPath = Paths.get(arg.substring("--socket=".length()));
+            } else if (arg.equals("--stdin")) {
+                useStdin = true;
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else {
+                System.err.println(USAGE);
+                System.exit(1);
+            }
+        }
+
+        CompileServer server = new CompileServer(threads);
+        server.warmUp();
+        if (useStdin) {
+            server.serveStdin(System.in, System.out);
+        } else {
+            server.serveSocket(socketPath);
+        }
+    }
+
+    /**
+     * Default socket location shared by the server and the client
+     */
+    public static Path defaultSocketPath() {
+        String configured = System.getenv("CCOMPILER_SOCKET");
+        if (configured != null && !configured.isEmpty()) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "ccompiler-" + System.getProperty("user.name") + ".sock");
+    }
+
+    /**
+     * Loads the lexer, parser and IR generator classes and populates the shared DFA cache
+     * before the first request arrives
+     */
+    public void warmUp() {
+        String source = "int f(int a, char b) { return a; }\nint main() { int x = f(1, 2); printf(\"x\"); return x; }\n";
+        CommonTokenStream tokens = new CommonTokenStream(new CLexer(CharStreams.fromString(source)));
+        ParseTree tree = new CParserDriver(ParseStrategy.SLL_THEN_LL).parse(tokens).getTree();
+        new IRGenerator().generateIR(new AstBuilder().build(tree));
+    }
+
+    public void serveSocket(Path socketPath) throws IOException, InterruptedException {
+        Files.deleteIfExists(socketPath);
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+            System.err.println("Compile server listening on " + socketPath);
+
+            while (running) {
+                SocketChannel client = serverChannel.accept();
+                workers.submit(() -> handleConnection(client, serverChannel));
+            }
+        } catch (IOException e) {
+            // accept() fails with AsynchronousCloseException once a stop request closed the channel
+            if (running) {
+                throw e;
+            }
+        } finally {
+            Files.deleteIfExists(socketPath);
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void handleConnection(SocketChannel client, ServerSocketChannel serverChannel) {
+        try (client;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8))) {
+            Path workingDirectory = Paths.get("");
+            List<String> args = new ArrayList<>();
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals("stop")) {
+                    running = false;
+                    serverChannel.close();
+                    writer.write("exit\t0\n");
+                    return;
+                } else if (line.equals("run")) {
+                    int status = compile(args.toArray(new String[0]), workingDirectory, writer, "");
+                    writer.write("exit\t" + status + "\n");
+                    return;
+                } else if (line.startsWith("cwd\t")) {
+                    workingDirectory = Paths.get(line.substring(4));
+                } else if (line.startsWith("arg\t")) {
+                    args.add(line.substring(4));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Compile server: connection failed: " + e.getMessage());
+        }
+    }
+
+    public void serveStdin(InputStream in, PrintStream stdout) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Writer writer = new OutputStreamWriter(stdout, StandardCharsets.UTF_8);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 2) {
+                continue;
+            }
+            String id = fields[0];
+            Path workingDirectory = Paths.get(fields[1]);
+            String[] args = new String[fields.length - 2];
+            System.arraycopy(fields, 2, args, 0, args.length);
+
+            workers.submit(() -> {
+                int status = compile(args, workingDirectory, writer, id + "\t");
+                synchronized (writer) {
+                    writer.write(id + "\texit\t" + status + "\n");
+                    writer.flush();
+                }
+                return null;
+            });
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+
+    private int compile(String[] args, Path workingDirectory, Writer writer, String prefix) throws IOException {
+        try (PrintStream out = new PrintStream(new PrefixedLineOutputStream(writer, prefix + "out\t"), true, StandardCharsets.UTF_8);
+             PrintStream err = new PrintStream(new PrefixedLineOutputStream(writer, prefix + "err\t"), true, StandardCharsets.UTF_8)) {
+            return CCompiler.run(args, workingDirectory, out, err);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.hkprog.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output stream that splits what is written to it into lines and forwards each complete line,
+ * tagged with a fixed prefix, to a shared writer. Whole lines are written while holding the
+ * writer's lock, so output from concurrent compilations never interleaves within a line.
+ */
+public class PrefixedLineOutputStream extends OutputStream {
+    private Writer writer;
+    private String prefix;
+    private ByteArrayOutputStream line;
+
+    public PrefixedLineOutputStream(Writer writer, String prefix) {
+        this.writer = writer;
+        this.prefix = prefix;
+        this.line = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (b == '\n') {
+            emitLine();
+        } else if (b != '\r') {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        synchronized (writer) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (line.size() > 0) {
+            emitLine();
+        }
+        flush();
+    }
+
+    private void emitLine() throws IOException {
+        String text = line.toString(StandardCharsets.UTF_8);
+        line.reset();
+        synchronized (writer) {
+            writer.write(prefix + text + "\n");
+        }
+    }
+}
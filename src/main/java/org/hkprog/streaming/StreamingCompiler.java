@@ -0,0 +1,119 @@
+package org.hkprog.streaming;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.hkprog.antlr.CParser;
+import org.hkprog.ast.AstBuilder;
+import org.hkprog.codegen.AssemblySection;
+import org.hkprog.codegen.X86CodeGenerator;
+import org.hkprog.elf.FunctionCode;
+import org.hkprog.elf.MachineCodeGenerator;
+import org.hkprog.elf.StreamingELFWriter;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IRGenerator;
+import org.hkprog.ir.IRGlobalVariable;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.PassManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles a translation unit one external declaration at a time. Each declaration is
+ * parsed, turned into IR, assembly and machine code, and appended to the output file before
+ * the next one is read, after which its parse tree, AST, IR and assembly are garbage. What
+ * stays alive across declarations is the name table, the IR generator's file-scope symbol
+ * table and the output writer's symbol and relocation tables, so peak memory follows the
+ * largest function rather than the size of the file.
+ *
+ * The token stream should be unbuffered so that consumed tokens are released as well;
+ * parsing uses the parser's own prediction mode, normally full LL, because the stream
+ * cannot be rewound for a second pass.
+ */
+public class StreamingCompiler {
+    private IRGenerator irGenerator;
+    private ANTLRErrorListener errorListener;
+    private List<IRGlobalVariable> seededGlobals;
+    private PassManager passManager;
+    private int declarations;
+    private int functions;
+
+    /**
+     * @param irGenerator generator holding the file-scope state, possibly seeded from a
+     *     precompiled header
+     */
+    public StreamingCompiler(IRGenerator irGenerator, ANTLRErrorListener errorListener) {
+        this.irGenerator = irGenerator;
+        this.errorListener = errorListener;
+        this.seededGlobals = new ArrayList<>();
+    }
+
+    /**
+     * Global variables defined before the source, by a precompiled header, which need space
+     * in the data section as well
+     */
+    public void addSeededGlobals(List<IRGlobalVariable> globals) {
+        seededGlobals.addAll(globals);
+    }
+
+    /**
+     * Optimizes each declaration with the function-level passes of a pipeline; passes that
+     * need the whole program are skipped
+     */
+    public void setPassManager(PassManager passManager) {
+        this.passManager = passManager;
+    }
+
+    public void compile(TokenStream tokens, StreamingELFWriter writer) throws IOException {
+        CParser parser = new CParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+        AstBuilder astBuilder = new AstBuilder();
+        X86CodeGenerator codeGen = new X86CodeGenerator();
+        MachineCodeGenerator machineCodeGen = new MachineCodeGenerator();
+        AssemblySection dataSection = new AssemblySection(".data", false);
+        for (IRGlobalVariable global : seededGlobals) {
+            codeGen.generateGlobal(global, dataSection);
+        }
+        AssemblySection startSection = new AssemblySection(".text", true);
+        codeGen.generateStartStub(startSection);
+        for (FunctionCode code : machineCodeGen.encodeFunctions(startSection.getInstructions())) {
+            writer.appendFunction(code);
+        }
+
+        while (tokens.LA(1) != Token.EOF) {
+            int start = tokens.index();
+            CParser.ExternalDeclarationContext declaration = parser.externalDeclaration();
+            if (tokens.index() == start) {
+                // Error recovery consumed nothing, skip the offending token
+                parser.consume();
+                continue;
+            }
+            declarations++;
+
+            IRProgram fragment = irGenerator.generateDeclaration(astBuilder.buildDeclaration(declaration));
+            if (passManager != null) {
+                passManager.runOnFragment(fragment);
+            }
+            for (IRGlobalVariable global : fragment.getGlobalVariables()) {
+                codeGen.generateGlobal(global, dataSection);
+            }
+            for (IRFunction function : fragment.getFunctions()) {
+                AssemblySection textSection = new AssemblySection(".text", true);
+                codeGen.generateFunction(function, textSection, dataSection);
+                for (FunctionCode code : machineCodeGen.encodeFunctions(textSection.getInstructions())) {
+                    writer.appendFunction(code);
+                }
+                functions++;
+            }
+            // The data section's directives are only kept for dumps
+            dataSection.getInstructions().clear();
+        }
+        writer.finish(dataSection.getDataAsBytes(), dataSection.getLabels());
+    }
+
+    public int getDeclarations() { return declarations; }
+    public int getFunctions() { return functions; }
+}
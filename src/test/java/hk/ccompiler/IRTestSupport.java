@@ -0,0 +1,86 @@
+package hk.ccompiler;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.hkprog.CCompiler;
+import org.hkprog.CompilerOptions;
+import org.hkprog.antlr.CLexer;
+import org.hkprog.ast.AstBuilder;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IRGenerator;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.parse.CParserDriver;
+import org.hkprog.parse.ParseStrategy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Shared fixture of the IR and optimizer tests: lowers C source to unoptimized IR, inspects
+ * functions, and compiles and runs whole programs.
+ */
+final class IRTestSupport {
+
+	private IRTestSupport() {
+	}
+
+	/** Parse tree of a source, with syntax errors left to error recovery */
+	static ParseTree parse(String source) {
+		CommonTokenStream tokens = new CommonTokenStream(new CLexer(CharStreams.fromString(source)));
+		return new CParserDriver(ParseStrategy.SLL_THEN_LL, new BaseErrorListener()).parse(tokens).getTree();
+	}
+
+	/** Unoptimized IR of a source */
+	static IRProgram lower(String source) {
+		return new IRGenerator().generateIR(new AstBuilder().build(parse(source)));
+	}
+
+	static IRFunction function(IRProgram program, String name) {
+		return program.getFunctions().stream().filter(f -> f.getName().equals(name)).findFirst().orElseThrow();
+	}
+
+	/** Number of instructions with an opcode in the reachable blocks of a function */
+	static int count(IRFunction function, IROpcode opcode) {
+		int count = 0;
+		for (IRBasicBlock block : function.getBlocks()) {
+			for (int i = 0; i < block.size(); i++) {
+				count += function.opcode(block.get(i)) == opcode ? 1 : 0;
+			}
+		}
+		return count;
+	}
+
+	/** Whether compiled executables can run on this machine */
+	static boolean canRun() {
+		return System.getProperty("os.name").toLowerCase().contains("linux")
+			&& System.getProperty("os.arch").matches("amd64|x86_64");
+	}
+
+	/**
+	 * Compiles a program under target/{@code directory} at an optimization level, runs it and
+	 * returns its exit status
+	 */
+	static int run(String directory, String name, String source, OptimizationLevel level) throws Exception {
+		Path dir = Paths.get("target", directory);
+		Files.createDirectories(dir);
+		Path input = dir.resolve(name + ".c");
+		Path output = dir.resolve(name + "-" + level + ".out");
+		Files.writeString(input, source);
+		CompilerOptions options = new CompilerOptions();
+		options.setOptimizationLevel(level);
+		PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+		new CCompiler(options, quiet, quiet).compile(input.toString(), output.toString());
+		output.toFile().setExecutable(true);
+		Process process = new ProcessBuilder(output.toAbsolutePath().toString()).redirectErrorStream(true).start();
+		process.getInputStream().readAllBytes();
+		return process.waitFor();
+	}
+}
@@ -0,0 +1,40 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CompilerOptions;
+import org.hkprog.batch.BatchCompiler;
+import org.hkprog.batch.BatchJob;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class TestBatchCompile {
+
+	@Test
+	void testBatchIsolatesFailures() throws Exception {
+		Path outputDirectory = Paths.get("target", "batch-test");
+		outputDirectory.toFile().mkdirs();
+
+		List<BatchJob> jobs = BatchCompiler.collectJobs(
+			List.of("examples/test_simple.c", "examples/test_function.c", "examples/does_not_exist.c"),
+			Paths.get(""), outputDirectory);
+		assertEquals(3, jobs.size());
+
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		BatchCompiler batchCompiler = new BatchCompiler(new CompilerOptions(), 2, false, out, out);
+		int failures = batchCompiler.compileAll(jobs);
+
+		assertEquals(1, failures, "Only the missing file should fail");
+		assertTrue(new File("target/batch-test/test_simple.out").length() > 0, "Output file should be created");
+		assertTrue(new File("target/batch-test/test_function.out").length() > 0, "Output file should be created");
+		assertTrue(log.toString().contains("=== Batch Summary ==="), "Run should end with a summary");
+	}
+}
@@ -0,0 +1,131 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.hkprog.ast.AstBuilder;
+import org.hkprog.ast.AstPrinter;
+import org.hkprog.ast.CompactAst;
+import org.hkprog.ast.NodeKind;
+import org.hkprog.ir.IRGenerator;
+import org.hkprog.ir.IRProgram;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class TestCompactAst {
+
+	private CompactAst lower(String source) {
+		return new AstBuilder().build(IRTestSupport.parse(source));
+	}
+
+	/** S-expression of the only function's body */
+	private String body(String statements) {
+		CompactAst ast = lower("int f(int a, int b) {\n" + statements + "\n}\n");
+		int function = ast.child(ast.getRoot(), 0);
+		return AstPrinter.tree(ast, ast.child(function, ast.childCount(function) - 1));
+	}
+
+	private int countContexts(ParseTree tree) {
+		int count = tree instanceof ParserRuleContext ? 1 : 0;
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			count += countContexts(tree.getChild(i));
+		}
+		return count;
+	}
+
+	@Test
+	public void testPrecedenceLevelsCollapse() {
+		assertEquals("(BLOCK (RETURN (IDENTIFIER a)))", body("return a;"));
+		assertEquals("(BLOCK (RETURN (BINARY + (IDENTIFIER a) (BINARY * (IDENTIFIER b) (BINARY - (IDENTIFIER a) (CONSTANT 1))))))",
+			body("return a + b * (a - 1);"));
+		assertEquals("(BLOCK (RETURN (BINARY - (BINARY - (IDENTIFIER a) (IDENTIFIER b)) (CONSTANT 1))))", body("return a - b - 1;"));
+		assertEquals("(BLOCK (RETURN (BINARY || (BINARY && (BINARY < (IDENTIFIER a) (IDENTIFIER b)) (UNARY ! (IDENTIFIER a))) (BINARY == (IDENTIFIER b) (CONSTANT 0)))))",
+			body("return a < b && !a || b == 0;"));
+
+		// One node per primary expression instead of a chain of contexts
+		CompactAst ast = lower("int x = 1;");
+		int variable = ast.child(ast.child(ast.getRoot(), 0), 0);
+		assertEquals(NodeKind.CONSTANT, ast.kind(ast.child(variable, 0)));
+		assertEquals(4, ast.size());
+	}
+
+	@Test
+	public void testStatements() {
+		assertEquals("(BLOCK (IF (BINARY > (IDENTIFIER a) (IDENTIFIER b)) (RETURN (IDENTIFIER a)) (BLOCK (EXPRESSION_STATEMENT (ASSIGN = (IDENTIFIER a) (IDENTIFIER b))))))",
+			body("if (a > b) return a; else { a = b; }"));
+		assertEquals("(BLOCK (DECLARATION (VARIABLE i:int (CONSTANT 0))) (WHILE (BINARY < (IDENTIFIER i) (IDENTIFIER a)) (EXPRESSION_STATEMENT (POSTFIX ++ (IDENTIFIER i)))))",
+			body("int i = 0; while (i < a) i++;"));
+		assertEquals("(BLOCK (FOR (DECLARATION (VARIABLE i:int (CONSTANT 0))) (BINARY < (IDENTIFIER i) (CONSTANT 10)) (ASSIGN += (IDENTIFIER i) (CONSTANT 2)) (BLOCK (CONTINUE))))",
+			body("for (int i = 0; i < 10; i += 2) { continue; }"));
+		assertEquals("(BLOCK (FOR (EMPTY) (EMPTY) (EMPTY) (BREAK)))", body("for (;;) break;"));
+		assertEquals("(BLOCK (DO_WHILE (BLOCK (EXPRESSION_STATEMENT (UNARY -- (IDENTIFIER a)))) (IDENTIFIER a)))", body("do { --a; } while (a);"));
+		assertEquals("(BLOCK (SWITCH (IDENTIFIER a) (BLOCK (CASE (CONSTANT 1) (RETURN (CONSTANT 2))) (DEFAULT (BREAK)))))",
+			body("switch (a) { case 1: return 2; default: break; }"));
+		assertEquals("(BLOCK (LABEL out (RETURN)) (GOTO out))", body("out: return; goto out;"));
+		assertEquals("(BLOCK (EXPRESSION_STATEMENT (CALL (IDENTIFIER g) (IDENTIFIER a) (CALL (IDENTIFIER h)) (STRING \"s\"))))",
+			body("g(a, h(), \"s\");"));
+		assertEquals("(BLOCK (RETURN (CONDITIONAL (IDENTIFIER a) (INDEX (IDENTIFIER p) (CONSTANT 1)) (MEMBER ->x (MEMBER .s (IDENTIFIER q))))))",
+			body("return a ? p[1] : q.s->x;"));
+		assertEquals("(BLOCK (RETURN (BINARY + (CAST long (UNARY - (IDENTIFIER a))) (SIZEOF_TYPE sizeof pointer))))",
+			body("return (long) -a + sizeof(char *);"));
+		assertEquals("(BLOCK (EXPRESSION_STATEMENT (COMMA (ASSIGN = (IDENTIFIER a) (CONSTANT 1)) (ASSIGN = (IDENTIFIER b) (CONSTANT 2)))))",
+			body("a = 1, b = 2;"));
+	}
+
+	@Test
+	public void testDeclarations() {
+		CompactAst ast = lower("typedef int T; extern int e; static char *s = \"x\"; int p(int, char *q); int arr[2] = {1, [1] = 2};\n"
+			+ "int main(void) { return 0; }");
+		int root = ast.getRoot();
+		assertEquals("(DECLARATION (VARIABLE T:int))", AstPrinter.tree(ast, ast.child(root, 0)));
+		assertEquals(CompactAst.TYPEDEF, ast.aux(ast.child(ast.child(root, 0), 0)) & CompactAst.TYPEDEF);
+		assertEquals(CompactAst.EXTERN, ast.aux(ast.child(ast.child(root, 1), 0)) & CompactAst.EXTERN);
+		assertEquals("(DECLARATION (VARIABLE s:pointer (STRING \"x\")))", AstPrinter.tree(ast, ast.child(root, 2)));
+		assertEquals("(DECLARATION (PROTOTYPE p:int))", AstPrinter.tree(ast, ast.child(root, 3)));
+		int array = ast.child(ast.child(root, 4), 0);
+		assertEquals(CompactAst.ARRAY, ast.aux(array) & CompactAst.ARRAY);
+		assertEquals("2", AstPrinter.source(ast, ast.child(array, 0)));
+		assertEquals("{1,[1]=2}", AstPrinter.source(ast, ast.child(array, 1)));
+		assertEquals("(FUNCTION main:int (PARAMETER _:void) (BLOCK (RETURN (CONSTANT 0))))", AstPrinter.tree(ast, ast.child(root, 5)));
+	}
+
+	@Test
+	public void testSourceKeepsNeededParentheses() {
+		CompactAst ast = lower("int x = (1 + 2) * 3; int y = 1 + (2 * 3); int z = (a = b) ? -(c) : d - (e - f);");
+		String[] expected = { "(1+2)*3", "1+2*3", "(a=b)?-c:d-(e-f)" };
+		for (int i = 0; i < expected.length; i++) {
+			int variable = ast.child(ast.child(ast.getRoot(), i), 0);
+			assertEquals(expected[i], AstPrinter.source(ast, ast.child(variable, 0)));
+		}
+	}
+
+	@Test
+	public void testExamplesLowerToFewerNodes() throws Exception {
+		File[] examples = new File("examples").listFiles((dir, name) -> name.endsWith(".c"));
+		assertNotNull(examples);
+		for (File example : examples) {
+			ParseTree tree = IRTestSupport.parse(Files.readString(example.toPath()));
+			CompactAst ast = new AstBuilder().build(tree);
+			assertTrue(ast.size() * 3 < countContexts(tree), example.getName() + ": " + ast.size() + " nodes");
+
+			IRProgram program = new IRGenerator().generateIR(ast);
+			assertNotNull(program.getFunctions());
+		}
+	}
+
+	@Test
+	public void testErrorRecoveryTreesLower() throws Exception {
+		String source = Files.readString(new File("examples/FuncCallAsFuncArgument.c").toPath())
+			+ "\nint g(int a) { for (int i = 0; i < a; i++) { if (a) return (long) a[i] ? b : c; } switch (a) { case 1: break; } }\n";
+		for (int cut = 1; cut < source.length(); cut += 3) {
+			String truncated = source.substring(0, cut) + source.substring(Math.min(source.length(), cut + 2));
+			CompactAst ast = new AstBuilder().build(IRTestSupport.parse(truncated));
+			new IRGenerator().generateIR(ast);
+			assertEquals(NodeKind.TRANSLATION_UNIT, ast.kind(ast.getRoot()));
+		}
+	}
+}
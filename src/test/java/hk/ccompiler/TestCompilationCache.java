@@ -0,0 +1,82 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CCompiler;
+import org.hkprog.CompilerOptions;
+import org.hkprog.cache.CompilationCache;
+import org.hkprog.ir.IRProgram;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class TestCompilationCache {
+
+	private static void deleteRecursively(Path directory) throws Exception {
+		if (Files.exists(directory)) {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+
+	@Test
+	void testSecondCompileIsServedFromCache() throws Exception {
+		Path cacheDirectory = Paths.get("target", "cache-test");
+		deleteRecursively(cacheDirectory);
+
+		CompilerOptions options = new CompilerOptions();
+		options.setCacheDirectory(cacheDirectory);
+		options.setCacheIntermediates(true);
+
+		File first = new File("target/cache-first.out");
+		File second = new File("target/cache-second.out");
+		new CCompiler(options).compile("examples/test_function.c", first.getPath());
+		new CCompiler(options).compile("examples/test_function.c", second.getPath());
+
+		CompilationCache cache = CompilationCache.forDirectory(cacheDirectory, options.getCacheMaxBytes());
+		assertEquals(1, cache.getStatistics().getHits(), "Second compile should hit the cache");
+		assertEquals(1, cache.getStatistics().getMisses());
+		assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+
+		String key = CompilationCache.computeKey(CCompiler.VERSION, options.fingerprint(),
+			Files.readAllBytes(Paths.get("examples/test_function.c")));
+		IRProgram program = cache.loadIR(key);
+		assertNotNull(program, "Intermediate IR should be stored");
+		assertNotNull(cache.loadAssembly(key), "Intermediate assembly should be stored");
+	}
+
+	@Test
+	void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+		Path cacheDirectory = Paths.get("target", "cache-evict-test");
+		deleteRecursively(cacheDirectory);
+		CompilationCache cache = new CompilationCache(cacheDirectory, 2500);
+
+		byte[] image = new byte[1000];
+		for (int i = 0; i < 2; i++) {
+			cache.store(CompilationCache.computeKey("v", "", new byte[] {(byte) i}), image, null, null);
+			Thread.sleep(20);
+		}
+		// Using the oldest entry makes the second one the least recently used
+		assertNotNull(cache.lookup(CompilationCache.computeKey("v", "", new byte[] {0})));
+		Thread.sleep(20);
+		cache.store(CompilationCache.computeKey("v", "", new byte[] {2}), image, null, null);
+
+		assertNull(cache.lookup(CompilationCache.computeKey("v", "", new byte[] {1})), "LRU entry should be evicted");
+		assertNotNull(cache.lookup(CompilationCache.computeKey("v", "", new byte[] {0})));
+		assertNotNull(cache.lookup(CompilationCache.computeKey("v", "", new byte[] {2})));
+		assertEquals(1, cache.getStatistics().getEvictions());
+	}
+
+	@Test
+	void testVersionIdentifiesTheBuild() {
+		// The key salt must follow the compiler classes, not a hand-maintained number
+		assertTrue(CCompiler.VERSION.matches(".+\\+[0-9a-f]{16}"), CCompiler.VERSION);
+	}
+}
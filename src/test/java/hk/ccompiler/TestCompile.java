@@ -13,9 +13,9 @@ public class TestCompile {
     
     @Test
     void testCompileSimpleProgram() throws Exception {
-        // Create a test C file in current directory
-        File inputFile = new File("test_simple.c");
-        File outputFile = new File("test_simple.out");
+        // Create a test C file under target/
+        File inputFile = new File("target", "test_simple.c");
+        File outputFile = new File("target", "test_simple.out");
         
         String cCode = """
             int main()
@@ -55,7 +55,7 @@ public class TestCompile {
             return;
         }
         
-        File outputFile = new File("helloworld_test.out");
+        File outputFile = new File("target", "helloworld_test.out");
         
         CCompiler compiler = new CCompiler();
         assertDoesNotThrow(() -> {
@@ -81,7 +81,7 @@ public class TestCompile {
             return;
         }
         
-        File outputFile = new File("funccall_test.out");
+        File outputFile = new File("target", "funccall_test.out");
         
         CCompiler compiler = new CCompiler();
         assertDoesNotThrow(() -> {
@@ -98,8 +98,8 @@ public class TestCompile {
     @Test
     void testCompileWithVariables() throws Exception {
         // Create a test with variable declarations
-        File inputFile = new File("test_variables.c");
-        File outputFile = new File("test_variables.out");
+        File inputFile = new File("target", "test_variables.c");
+        File outputFile = new File("target", "test_variables.out");
         
         String cCode = """
             int main()
@@ -131,8 +131,8 @@ public class TestCompile {
     @Test
     void testCompileWithFunctionDefinition() throws Exception {
         // Create a test with function definition
-        File inputFile = new File("test_function.c");
-        File outputFile = new File("test_function.out");
+        File inputFile = new File("target", "test_function.c");
+        File outputFile = new File("target", "test_function.out");
         
         String cCode = """
             int add(int a, int b)
@@ -0,0 +1,178 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.server.CompileServer;
+import org.hkprog.server.PrefixedLineOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestCompileServer {
+
+	@Test
+	void testStdinRequestsCompleteIndependently() throws Exception {
+		Path cwd = Paths.get("").toAbsolutePath();
+		Files.createDirectories(Paths.get("target", "server-test"));
+		StringBuilder requests = new StringBuilder();
+		for (int i = 0; i < 16; i++) {
+			String input = i % 4 == 3 ? "examples/does_not_exist.c" : "examples/test_simple.c";
+			requests.append("r").append(i).append('\t').append(cwd).append('\t')
+				.append(input).append("\ttarget/server-test/stdin_").append(i).append(".out\n");
+		}
+
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		new CompileServer(4).serveStdin(new ByteArrayInputStream(requests.toString().getBytes(StandardCharsets.UTF_8)),
+			new PrintStream(log, true, StandardCharsets.UTF_8));
+
+		Map<String, List<String>> responses = new HashMap<>();
+		for (String line : log.toString(StandardCharsets.UTF_8).split("\n")) {
+			String[] fields = line.split("\t", 3);
+			assertEquals(3, fields.length, line);
+			assertTrue(fields[1].equals("out") || fields[1].equals("err") || fields[1].equals("exit"), line);
+			responses.computeIfAbsent(fields[0], id -> new ArrayList<>()).add(fields[1] + "\t" + fields[2]);
+		}
+		assertEquals(16, responses.size());
+		for (int i = 0; i < 16; i++) {
+			List<String> records = responses.get("r" + i);
+			assertNotNull(records, "r" + i);
+			String expectedStatus = i % 4 == 3 ? "exit\t1" : "exit\t0";
+			assertEquals(expectedStatus, records.get(records.size() - 1), "r" + i + ": " + records);
+			assertEquals(1, records.stream().filter(record -> record.startsWith("exit\t")).count(), "r" + i);
+			assertTrue(records.contains("out\tCompiling " + cwd.resolve(i % 4 == 3 ? "examples/does_not_exist.c" : "examples/test_simple.c")
+				+ " to " + cwd.resolve("target/server-test/stdin_" + i + ".out")), "r" + i + ": " + records);
+			if (i % 4 == 3) {
+				assertTrue(records.stream().anyMatch(record -> record.startsWith("err\tCompilation failed")), "r" + i);
+			} else {
+				assertTrue(Files.size(Paths.get("target", "server-test", "stdin_" + i + ".out")) > 0, "r" + i);
+			}
+		}
+	}
+
+	@Test
+	void testRelativePathsFollowTheClientDirectory() throws Exception {
+		// A client working in its own project directory, not the server's
+		Path project = Paths.get("target", "server-test", "project").toAbsolutePath();
+		Files.createDirectories(project.resolve("include"));
+		Files.writeString(project.resolve("include").resolve("value.h"), "#define VALUE 7\n");
+		Files.writeString(project.resolve("main.c"), "#include <value.h>\nint main() { return VALUE; }\n");
+
+		String request = "p\t" + project + "\t-Iinclude\t--cache-dir=cache\tmain.c\tmain.out\n";
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		new CompileServer(1).serveStdin(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)),
+			new PrintStream(log, true, StandardCharsets.UTF_8));
+
+		assertTrue(log.toString(StandardCharsets.UTF_8).endsWith("p\texit\t0\n"), log.toString(StandardCharsets.UTF_8));
+		assertTrue(Files.size(project.resolve("main.out")) > 0);
+		assertTrue(Files.isDirectory(project.resolve("cache")), "Cache directory should be created in the client's directory");
+		assertFalse(Files.exists(Paths.get("cache")), "Nothing should be created in the server's directory");
+		if (IRTestSupport.canRun()) {
+			Process process = new ProcessBuilder(project.resolve("main.out").toString()).start();
+			assertEquals(7, process.waitFor());
+		}
+	}
+
+	@Test
+	void testSocketRoundTripAndStop() throws Exception {
+		Path socketPath = Files.createTempDirectory("ccserver").resolve("server.sock");
+		Files.createDirectories(Paths.get("target", "server-test"));
+		CompileServer server = new CompileServer(2);
+		Thread serverThread = new Thread(() -> {
+			try {
+				server.serveSocket(socketPath);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		serverThread.start();
+		// The socket file appears on bind, slightly before the server listens
+		for (int i = 0; i < 500 && !accepts(socketPath); i++) {
+			Thread.sleep(10);
+		}
+
+		List<String> response = send(socketPath, "cwd\t" + Paths.get("").toAbsolutePath() + "\n"
+			+ "arg\texamples/test_simple.c\narg\ttarget/server-test/socket.out\nrun\n");
+		assertEquals("exit\t0", response.get(response.size() - 1), response.toString());
+		assertTrue(response.contains("out\tCompilation completed successfully!"), response.toString());
+		assertTrue(Files.size(Paths.get("target", "server-test", "socket.out")) > 0);
+
+		response = send(socketPath, "arg\tonly-one-argument.c\nrun\n");
+		assertEquals("exit\t1", response.get(response.size() - 1), response.toString());
+		assertTrue(response.stream().anyMatch(line -> line.startsWith("err\tUsage")), response.toString());
+
+		assertEquals(List.of("exit\t0"), send(socketPath, "stop\n"));
+		serverThread.join(60_000);
+		assertFalse(serverThread.isAlive(), "Server should exit after a stop request");
+		assertFalse(Files.exists(socketPath), "Socket file should be removed on shutdown");
+	}
+
+	@Test
+	void testConcurrentLinesAreNeverSplit() throws Exception {
+		StringWriter shared = new StringWriter();
+		Thread[] writers = new Thread[8];
+		for (int t = 0; t < writers.length; t++) {
+			int id = t;
+			writers[t] = new Thread(() -> {
+				try (PrintStream out = new PrintStream(new PrefixedLineOutputStream(shared, "w" + id + "\t"), true, StandardCharsets.UTF_8)) {
+					for (int i = 0; i < 500; i++) {
+						// Print the line in pieces so the stream sees partial lines from every thread
+						out.print("line " + i + " ");
+						out.print("from writer " + id);
+						out.println();
+					}
+				}
+			});
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		String[] lines = shared.toString().split("\n");
+		assertEquals(8 * 500, lines.length);
+		int[] next = new int[writers.length];
+		for (String line : lines) {
+			String[] fields = line.split("\t", 2);
+			int id = Integer.parseInt(fields[0].substring(1));
+			assertEquals("line " + next[id] + " from writer " + id, fields[1]);
+			next[id]++;
+		}
+	}
+
+	private boolean accepts(Path socketPath) {
+		try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+			return channel.connect(UnixDomainSocketAddress.of(socketPath));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private List<String> send(Path socketPath, String request) throws IOException {
+		try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+			channel.connect(UnixDomainSocketAddress.of(socketPath));
+			Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+			writer.write(request);
+			writer.flush();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+			List<String> lines = new ArrayList<>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+			return lines;
+		}
+	}
+}
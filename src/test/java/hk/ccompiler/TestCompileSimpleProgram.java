@@ -13,7 +13,7 @@ public class TestCompileSimpleProgram {
 	void testCompileSimpleProgram() throws Exception {
 		// Create a test C file in current directory
 		File inputFile = new File("examples/test_function.c");
-		File outputFile = new File("test_function.out");
+		File outputFile = new File("target", "test_function.out");
 
 		// Test the full compilation pipeline
 		CCompiler compiler = new CCompiler();
@@ -0,0 +1,211 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CCompiler;
+import org.hkprog.CompilerOptions;
+import org.hkprog.codegen.ConstantArithmetic;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRType;
+import org.hkprog.opt.ConstantFolder;
+import org.hkprog.opt.OptimizationLevel;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class TestConstantArithmetic {
+
+	/**
+	 * Runs a sequence from ConstantArithmetic on a value in %rax, modelling just the
+	 * instructions it uses
+	 */
+	private long execute(List<String> code, long value) {
+		Map<String, Long> registers = new HashMap<>(Map.of("%rax", value, "%rcx", 0x5a5a5a5aL, "%rdx", -1L));
+		for (String line : code) {
+			int space = line.indexOf(' ');
+			String mnemonic = line.substring(0, space);
+			String[] operands = line.substring(space + 1).split(", (?![^(]*\\))");
+			String destination = operands[operands.length - 1];
+			long source = operands.length < 2 ? 0 : operands[0].startsWith("$")
+				? Long.parseLong(operands[0].substring(1)) : operands[0].startsWith("(") ? 0 : registers.get(operands[0]);
+			long target = registers.get(destination);
+			switch (mnemonic) {
+				case "mov":
+				case "movabs":
+					target = source;
+					break;
+				case "lea": {
+					String[] parts = operands[0].substring(1, operands[0].length() - 1).split(",");
+					target = registers.get(parts[0]) + registers.get(parts[1]) * Long.parseLong(parts[2]);
+					break;
+				}
+				case "add": target += source; break;
+				case "sub": target -= source; break;
+				case "and": target &= source; break;
+				case "shl": target <<= source; break;
+				case "shr": target >>>= source; break;
+				case "sar": target >>= source; break;
+				case "neg": target = -target; break;
+				case "imul":
+					if (operands.length == 1) {
+						long rax = registers.get("%rax");
+						registers.put("%rdx", Math.multiplyHigh(rax, target));
+						destination = "%rax";
+						target = rax * target;
+					} else {
+						target *= source;
+					}
+					break;
+				default:
+					fail("Unexpected instruction " + line);
+			}
+			registers.put(destination, target);
+		}
+		return registers.get("%rax");
+	}
+
+	/**
+	 * Checks the sequences for every divisor against every dividend, as values of a type:
+	 * sign-extended in, narrowed out, as the code generator does
+	 */
+	private void check(IRType type, long[] divisors, long[] dividends) {
+		for (long divisor : divisors) {
+			List<String> multiply = ConstantArithmetic.multiply(divisor);
+			List<String> divide = ConstantArithmetic.divide(divisor);
+			List<String> remainder = ConstantArithmetic.remainder(divisor);
+			for (long dividend : dividends) {
+				String what = dividend + " by " + divisor + " as " + type;
+				assertEquals(ConstantFolder.fold(IROpcode.MUL, type, dividend, divisor),
+					type.wrap(execute(multiply, dividend)), "multiplying " + what);
+				Long quotient = ConstantFolder.fold(IROpcode.DIV, type, dividend, divisor);
+				if (divide != null && quotient != null) {
+					assertEquals(quotient, type.wrap(execute(divide, dividend)), "dividing " + what);
+					assertEquals(ConstantFolder.fold(IROpcode.MOD, type, dividend, divisor),
+						type.wrap(execute(remainder, dividend)), "remainder of " + what);
+				}
+			}
+		}
+	}
+
+	/** Powers of two, their neighbours and negations, and the extremes, within a type */
+	private TreeSet<Long> interesting(IRType type) {
+		TreeSet<Long> values = new TreeSet<>();
+		for (int k = 0; k < type.getSize() * 8; k++) {
+			for (long delta = -1; delta <= 1; delta++) {
+				long value = type.wrap((1L << k) + delta);
+				values.add(value);
+				values.add(type.wrap(-value));
+			}
+		}
+		return values;
+	}
+
+	private static long[] array(TreeSet<Long> values) {
+		return values.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	@Test
+	public void testEveryCharOperation() {
+		long[] all = new long[256];
+		for (int i = 0; i < 256; i++) {
+			all[i] = i - 128;
+		}
+		check(IRType.CHAR, all, all);
+	}
+
+	@Test
+	public void testIntOperations() {
+		TreeSet<Long> divisors = interesting(IRType.INT);
+		for (long d = -1100; d <= 1100; d++) {
+			divisors.add(d);
+		}
+		divisors.addAll(List.of(1000000L, 1000000007L, -86400L, 641L * 6700417L % Integer.MAX_VALUE));
+		TreeSet<Long> dividends = interesting(IRType.INT);
+		Random random = new Random(24);
+		for (int i = 0; i < 100; i++) {
+			dividends.add((long) random.nextInt());
+			dividends.add((long) random.nextInt(20000) - 10000);
+		}
+		check(IRType.INT, array(divisors), array(dividends));
+	}
+
+	@Test
+	public void testLongOperations() {
+		TreeSet<Long> divisors = interesting(IRType.LONG);
+		for (long d = -300; d <= 300; d++) {
+			divisors.add(d);
+		}
+		divisors.addAll(List.of(1000000000000L, 7L * 24 * 3600 * 1000000000L, -3037000499L, Long.MAX_VALUE / 3));
+		TreeSet<Long> dividends = interesting(IRType.LONG);
+		Random random = new Random(64);
+		for (int i = 0; i < 60; i++) {
+			dividends.add(random.nextLong());
+			dividends.add(random.nextLong() >> random.nextInt(64));
+		}
+		check(IRType.LONG, array(divisors), array(dividends));
+	}
+
+	@Test
+	public void testSequencesAvoidSlowInstructions() {
+		assertEquals(List.of("lea (%rax,%rax,4), %rax", "add %rax, %rax"), ConstantArithmetic.multiply(10));
+		assertEquals(List.of("mov %rax, %rcx", "shl $3, %rax", "sub %rcx, %rax"), ConstantArithmetic.multiply(7));
+		assertEquals(List.of("imul $1000, %rax"), ConstantArithmetic.multiply(1000));
+		assertEquals(List.of("mov %rax, %rdx", "sar $63, %rdx", "shr $60, %rdx", "add %rdx, %rax", "sar $4, %rax"),
+			ConstantArithmetic.divide(16));
+		for (long divisor : new long[] {3, 7, 10, -10, 641, 1L << 40 | 1}) {
+			assertTrue(ConstantArithmetic.divide(divisor).stream().noneMatch(line -> line.startsWith("idiv")));
+			assertTrue(ConstantArithmetic.remainder(divisor).stream().noneMatch(line -> line.startsWith("idiv")));
+		}
+		assertNull(ConstantArithmetic.divide(0));
+		assertNull(ConstantArithmetic.remainder(Long.MIN_VALUE));
+	}
+
+	private int run(String name, String source, OptimizationLevel level) throws Exception {
+		Path dir = Paths.get("target", "constant-arithmetic");
+		Files.createDirectories(dir);
+		Path input = dir.resolve(name + ".c");
+		Path output = dir.resolve(name + "-" + level + ".out");
+		Files.writeString(input, source);
+		CompilerOptions options = new CompilerOptions();
+		options.setOptimizationLevel(level);
+		PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+		new CCompiler(options, quiet, quiet).compile(input.toString(), output.toString());
+		output.toFile().setExecutable(true);
+		Process process = new ProcessBuilder(output.toAbsolutePath().toString()).redirectErrorStream(true).start();
+		process.getInputStream().readAllBytes();
+		return process.waitFor();
+	}
+
+	private boolean canRun() {
+		return System.getProperty("os.name").toLowerCase().contains("linux")
+			&& System.getProperty("os.arch").matches("amd64|x86_64");
+	}
+
+	@Test
+	public void testProgramsKeepTheirResults() throws Exception {
+		assumeTrue(canRun());
+		// Digits of numbers formatted by repeated division, and a hash mixing constants in
+		String source = "int a[8] = {0, 7, -7, 12345, -98765, 2147483647, -2147483647, 100};\n"
+			+ "long l[4] = {9000000000000000000, -9000000000000000000, 123456789012, -5};\n"
+			+ "int main() { int s = 0; int i;\n"
+			+ "for (i = 0; i < 8; i++) { int n = a[i]; while (n != 0) { s += n % 10 * 3 + n / 7 % 5; n = n / 10; }\n"
+			+ "s += a[i] / -4 % 9 + a[i] % 16 + a[i] * 9 % 13 + a[i] * -6 / 1000; }\n"
+			+ "for (i = 0; i < 4; i++) { long v = l[i]; s += (int) (v / 1000000007 % 97) + (int) (v % 4096) + (int) (v * 45 / 3 % 11); }\n"
+			+ "char c = 100; s += c * 3 / 5 + c % -7;\n"
+			+ "return s % 256 + (s < 0 ? 256 : 0); }\n";
+		for (OptimizationLevel level : OptimizationLevel.values()) {
+			assertEquals(40, run("arithmetic", source, level), "at -O" + level.getName());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CCompiler;
+import org.hkprog.CompilerOptions;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IRGlobalVariable;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.DcePass;
+import org.hkprog.opt.GlobalDcePass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.opt.PassManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestDeadCode {
+
+	private IRProgram optimize(String source, PassManager manager) {
+		IRProgram program = IRTestSupport.lower(source);
+		manager.setVerify(true);
+		manager.run(program);
+		return program;
+	}
+
+	private List<String> functionNames(IRProgram program) {
+		return program.getFunctions().stream().map(IRFunction::getName).collect(Collectors.toList());
+	}
+
+	private List<String> globalNames(IRProgram program) {
+		return program.getGlobalVariables().stream().map(IRGlobalVariable::getName).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testDeadInstructions() {
+		IRProgram program = optimize("int g;\n"
+			+ "int f(int a) { int unused = a * 3; int b = a + 1; a * a; g = b; return a; }\n",
+			new PassManager().add(new DcePass()));
+		IRFunction f = program.getFunctions().get(0);
+		assertEquals(0, IRTestSupport.count(f, IROpcode.MUL));
+		// The write-only local goes with its alloca, the global store stays
+		assertEquals(2, IRTestSupport.count(f, IROpcode.ALLOCA));
+		assertEquals(3, IRTestSupport.count(f, IROpcode.STORE));
+	}
+
+	@Test
+	public void testUnreachableFunctionsAndGlobals() {
+		IRProgram program = optimize("int used; int unused; int counter;\n"
+			+ "int helper() { static int calls; calls++; return used; }\n"
+			+ "int dead() { return unused; }\n"
+			+ "int target(int x) { return x; }\n"
+			+ "int main() { int (*p)(int) = target; counter = 1; return helper() + p(1); }\n",
+			new PassManager().add(new GlobalDcePass()));
+		assertEquals(List.of("helper", "target", "main"), functionNames(program));
+		assertEquals(List.of("used", "counter", "helper.calls"), globalNames(program));
+	}
+
+	@Test
+	public void testLibraryKeepsExportedSymbols() {
+		IRProgram program = optimize("static int hidden; int shared; static int table;\n"
+			+ "static int helper() { return table; }\nstatic int orphan() { return hidden; }\n"
+			+ "int api() { return helper(); }\n",
+			new PassManager().add(new GlobalDcePass()));
+		assertEquals(List.of("helper", "api"), functionNames(program));
+		assertEquals(List.of("shared", "table"), globalNames(program));
+	}
+
+	@Test
+	public void testSmallerImage() throws Exception {
+		Path dir = Paths.get("target", "dead-code");
+		Files.createDirectories(dir);
+		Path input = dir.resolve("program.c");
+		Files.writeString(input, "int table[64]; int debug;\n"
+			+ "int unused(int n) { int s = 0; for (int i = 0; i < n; i++) s += table[i]; return s; }\n"
+			+ "int main() { int x = 2; int y = x * 5; if (y != 10) return unused(y); return debug; }\n");
+		long[] sizes = new long[2];
+		for (OptimizationLevel level : new OptimizationLevel[] { OptimizationLevel.O0, OptimizationLevel.O1 }) {
+			CompilerOptions options = new CompilerOptions();
+			options.setOptimizationLevel(level);
+			Path output = dir.resolve("program-" + level + ".out");
+			PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+			new CCompiler(options, quiet, quiet).compile(input.toString(), output.toString());
+			sizes[level.ordinal()] = Files.size(output);
+		}
+		assertTrue(sizes[1] < sizes[0], "-O1 image of " + sizes[1] + " bytes is not smaller than " + sizes[0]);
+	}
+}
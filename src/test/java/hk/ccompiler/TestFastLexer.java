@@ -0,0 +1,110 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.hkprog.antlr.CLexer;
+import org.hkprog.lexer.FastCLexer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestFastLexer {
+
+	/** Exercises the corners of the grammar's lexer rules */
+	private static final String EDGE_CASES = """
+		#include <stdio.h>
+		#define LONG_MACRO(a, b) \\
+		    ((a) + \\
+		     (b))
+		#define EMPTY_CONTINUATION \\
+
+		/* block
+		   comment */ // line comment
+		int main(void) {
+		    unsigned long long x = 0x1Fu + 0777 + 09 + 0b101 + 123ULL + 1lu + 10LL;
+		    double d = 1.5 + .5e-3 + 2. + 3e10f + 0x1.8p3 + 0x.8P-1L + 1e;
+		    char c = 'a', e = '\\n', o = '\\101', h = L'\\x41', u = U'\\u00e9';
+		    const char *s = u8"utf8" "plain \\"quoted\\"" L"wide" u"sixteen" U"thirty-two" "";
+		    int identifier_with_\\u00e9 = x >>= 2, y = x <<= 1;
+		    x->y.z[0] ... && || ++ -- -> <= >= == != %= ^= |= &= *= /= += -=;
+		    __attribute__((unused)) __builtin_va_arg __extension__ _Static_assert
+		    asm volatile { mov eax, 1 }
+		    return x ? 1 : 0;
+		}\r
+		int tail;\r\n/* unterminated
+		""";
+
+	private List<String> tokens(TokenSource lexer) {
+		List<String> tokens = new ArrayList<>();
+		Token token;
+		do {
+			token = lexer.nextToken();
+			tokens.add(token.getType() + "/" + token.getChannel() + " " + token.getStartIndex() + ":" + token.getStopIndex()
+				+ " @" + token.getLine() + ":" + token.getCharPositionInLine() + " '" + token.getText() + "'");
+		} while (token.getType() != Token.EOF);
+		return tokens;
+	}
+
+	private void assertConforms(String name, String source) {
+		CLexer antlr = new CLexer(CharStreams.fromString(source, name));
+		List<String> antlrErrors = new ArrayList<>();
+		antlr.removeErrorListeners();
+		antlr.addErrorListener(collect(antlrErrors));
+		List<String> fastErrors = new ArrayList<>();
+		CharStream input = CharStreams.fromString(source, name);
+		assertEquals(tokens(antlr), tokens(new FastCLexer(input, collect(fastErrors))), name);
+		assertEquals(antlrErrors.size(), fastErrors.size(), name + " errors");
+	}
+
+	private BaseErrorListener collect(List<String> errors) {
+		return new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+					int charPositionInLine, String msg, RecognitionException e) {
+				errors.add(line + ":" + charPositionInLine);
+			}
+		};
+	}
+
+	@Test
+	void testExamplesCorpus() throws Exception {
+		File[] examples = new File("examples").listFiles((dir, name) -> name.endsWith(".c"));
+		assertNotNull(examples);
+		assertTrue(examples.length > 0);
+		for (File example : examples) {
+			assertConforms(example.getName(), Files.readString(example.toPath()));
+		}
+	}
+
+	@Test
+	void testEdgeCases() {
+		assertConforms("edge cases", EDGE_CASES);
+	}
+
+	@Test
+	void testAsmPrefixedIdentifierWithoutBlock() {
+		assertConforms("asm identifier", "int asmCount = 0;");
+		assertConforms("numbers", "08 0x 0b2 1. .1 1.e5 0x1p 1ul 1uLL 1Lu 1lL");
+	}
+
+	@Test
+	void testRecognitionErrors() {
+		assertConforms("errors", "int a = @ $ `;\nchar *q = \"open\n;\nchar c = '';\nL'x\n");
+		// Everything scanned before the failing character is skipped along with it
+		assertConforms("stray backslash", "\\int09 a\\ub \\u12g \\U0000004g\n");
+		assertConforms("backslash newline", "int a \\\nb; x \\\r\ny\n");
+		assertConforms("empty character", "char c = ''\\n; d = ''ab';\n");
+		assertConforms("invalid escapes", "'\\x'y \"\\x\" z \"\\\r\" w '\\u12' \"\\q\" v\n");
+	}
+}
@@ -0,0 +1,88 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRPrinter;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.DcePass;
+import org.hkprog.opt.GvnPass;
+import org.hkprog.opt.PassManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestGvn {
+
+	private IRFunction optimize(String source) {
+		IRProgram program = IRTestSupport.lower(source);
+		PassManager manager = new PassManager().add(new GvnPass()).add(new DcePass());
+		manager.setVerify(true);
+		manager.run(program);
+		return program.getFunctions().get(program.getFunctions().size() - 1);
+	}
+
+	/** Loads of a global, which only go away when reused */
+	private int globalLoads(IRFunction function, String name) {
+		int count = 0;
+		for (IRBasicBlock block : function.getBlocks()) {
+			for (int i = 0; i < block.size(); i++) {
+				int instruction = block.get(i);
+				if (function.opcode(instruction) == IROpcode.LOAD && function.operandCount(instruction) == 1
+						&& name.equals(IRPrinter.operand(function, function.operand(instruction, 0)))) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testReusesDominatingComputations() {
+		IRFunction f = optimize("int f(int a, int b) { int x = a * b + a * b; if (a > 0) return b * a + x; return x - a * b; }\n");
+		assertEquals(1, IRTestSupport.count(f, IROpcode.MUL));
+	}
+
+	@Test
+	public void testSiblingsDoNotShare() {
+		IRFunction f = optimize("int f(int a, int b, int c) { int r; if (c) r = a * b; else r = a * b + 1; return r; }\n");
+		assertEquals(2, IRTestSupport.count(f, IROpcode.MUL));
+	}
+
+	@Test
+	public void testSharesAddressComputations() {
+		IRFunction f = optimize("int arr[16];\nint f(int i) { arr[i] = arr[i] + 1; return arr[i]; }\n");
+		// One index scaling, one load of arr[i]; the final read takes the stored value
+		assertEquals(1, IRTestSupport.count(f, IROpcode.MUL));
+		assertEquals(1, IRTestSupport.count(f, IROpcode.LOAD));
+		assertEquals(1, IRTestSupport.count(f, IROpcode.STORE));
+	}
+
+	@Test
+	public void testLoadsKilledByAliasingStores() {
+		assertEquals(1, globalLoads(optimize("int g; int h;\nint f() { int a = g; h = 5; return a + g; }\n"), "g"));
+		assertEquals(2, globalLoads(optimize("int g;\nint f(int *p) { int a = g; *p = 5; return a + g; }\n"), "g"));
+		assertEquals(2, globalLoads(optimize("int g;\nint k();\nint f() { int a = g; k(); return a + g; }\n"), "g"));
+		assertEquals(1, globalLoads(optimize("int g;\nint f(int c) { int a = g; if (c) a = a + g; return a; }\n"), "g"));
+		assertEquals(2, globalLoads(optimize("int g;\nint f(int n) { int a = g; while (n--) a = a + g; return a; }\n"), "g"));
+	}
+
+	@Test
+	public void testPrivateSlotsSurviveCallsAndPointerStores() {
+		IRFunction f = optimize("int k();\nint f(int *p, int v) { int x = v; k(); *p = 1; return x; }\n");
+		// x's slot never escapes, so the read of x takes v straight from its store
+		for (IRBasicBlock block : f.getBlocks()) {
+			int last = block.last();
+			if (f.opcode(last) == IROpcode.RET) {
+				assertEquals(IROpcode.PARAM, f.opcode(f.definition(f.operand(last, 0))));
+			}
+		}
+	}
+
+	@Test
+	public void testEscapedSlotsAreKilled() {
+		IRFunction f = optimize("void set(int *p);\nint f() { int x = 1; set(&x); return x; }\n");
+		assertEquals(1, IRTestSupport.count(f, IROpcode.LOAD));
+	}
+}
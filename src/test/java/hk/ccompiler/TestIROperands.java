@@ -0,0 +1,97 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IROperand;
+import org.hkprog.ir.IRPrinter;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.ir.IRType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+public class TestIROperands {
+
+	@Test
+	public void testOperandEncoding() {
+		int vreg = IROperand.vreg(7);
+		assertEquals(IROperand.VREG, IROperand.kind(vreg));
+		assertEquals(7, IROperand.index(vreg));
+		assertTrue(IROperand.isVreg(vreg));
+		assertNotEquals(IROperand.NONE, IROperand.vreg(0));
+		assertThrows(IllegalArgumentException.class, () -> IROperand.make(IROperand.SYMBOL, -1));
+	}
+
+	@Test
+	public void testPoolsIntern() {
+		IRFunction function = new IRFunction("f", IRType.INT);
+		assertEquals(function.constant(42), function.constant(42));
+		assertNotEquals(function.constant(42), function.constant(-42));
+		assertEquals(-42, function.constantValue(function.constant(-42)));
+		assertEquals(Long.MIN_VALUE, function.constantValue(function.constant(Long.MIN_VALUE)));
+		assertEquals(function.symbol("x"), function.symbol("x"));
+		assertNotEquals(function.symbol("x"), function.string("x"));
+		assertEquals("x", function.symbolName(function.string("x")));
+		assertNotEquals(function.newVreg(), function.newVreg());
+		assertEquals(2, function.getVregCount());
+	}
+
+	@Test
+	public void testInstructionsGrow() {
+		IRFunction function = new IRFunction("f", IRType.INT);
+		int last = IROperand.NONE;
+		for (int i = 0; i < 1000; i++) {
+			last = function.newVreg();
+			function.addInstruction(IROpcode.CALL, IRType.INT, last, function.symbol("g"), function.constant(i), function.constant(i + 1));
+		}
+		assertEquals(1000, function.getInstructionCount());
+		assertEquals(last, function.result(999));
+		assertEquals(3, function.operandCount(999));
+		assertEquals("t999 = call g(999, 1000)", IRPrinter.instruction(function, 999));
+	}
+
+	@Test
+	public void testReturnOperands() {
+		IRProgram program = IRTestSupport.lower("int a(int x) { return 0x10; }\nint b(int x) { return x; }\n"
+			+ "int c(int x) { return 'A'; }\nint d(int x) { return x + 1; }\nint e() { return 10UL; }\n");
+		String[] expected = { "return 16", "return t2", "return 65", "return t3", "return 10" };
+		for (int i = 0; i < expected.length; i++) {
+			IRFunction function = program.getFunctions().get(i);
+			assertEquals(expected[i], IRPrinter.instruction(function, function.getEntryBlock().last()));
+		}
+		IRFunction a = program.getFunctions().get(0);
+		int ret = a.getEntryBlock().last();
+		assertEquals(IROpcode.RET, a.opcode(ret));
+		assertTrue(IROperand.isConstant(a.operand(ret, 0)));
+		assertEquals(16, a.constantValue(a.operand(ret, 0)));
+	}
+
+	@Test
+	public void testNestedCallsUseVirtualRegisters() {
+		IRProgram program = IRTestSupport.lower("int main() { return f(g(1, \"s\"), h()); }\n");
+		IRFunction main = program.getFunctions().get(0);
+		assertEquals("L0:\n  t0 = call g(1, \"s\")\n  t1 = call h()\n  t2 = call f(t0, t1)\n  return t2\n", IRPrinter.function(main));
+		assertEquals(IROperand.STRING, IROperand.kind(main.operand(0, 2)));
+		assertEquals(main.result(2), main.operand(3, 0));
+	}
+
+	@Test
+	public void testFunctionSerializes() throws Exception {
+		IRFunction main = IRTestSupport.lower("int main() { return f(1, x); }\n").getFunctions().get(0);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+			output.writeObject(main);
+		}
+		try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			IRFunction copy = (IRFunction) input.readObject();
+			assertEquals(IRPrinter.function(main), IRPrinter.function(copy));
+			assertEquals(main.constant(1), copy.constant(1));
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CCompiler;
+import org.hkprog.CompilerOptions;
+import org.hkprog.incremental.IncrementalState;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+public class TestIncrementalCompile {
+
+	private String compile(Path source, String output, boolean incremental) throws Exception {
+		CompilerOptions options = new CompilerOptions();
+		options.setIncremental(incremental);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		new CCompiler(options, out, out).compile(source.toString(), output);
+		return log.toString();
+	}
+
+	@Test
+	void testOnlyChangedFunctionsAreRegenerated() throws Exception {
+		Path source = Paths.get("target", "incremental_test.c");
+		String output = "target/incremental_test.out";
+		new File(output + ".inc").delete();
+
+		Files.writeString(source, """
+			int add(int a, int b)
+			{
+			    return a + b;
+			}
+
+			int main()
+			{
+			    int result = add(5, 7);
+			    return result;
+			}
+			""");
+		assertTrue(compile(source, output, true).contains("reused 0 of 2"));
+		assertTrue(compile(source, output, true).contains("reused 2 of 2"));
+
+		Files.writeString(source, Files.readString(source).replace("return result;", "return 0;"));
+		assertTrue(compile(source, output, true).contains("reused 1 of 2"), "Only main should be regenerated");
+
+		compile(source, "target/incremental_full.out", false);
+		assertArrayEquals(Files.readAllBytes(Paths.get("target/incremental_full.out")), Files.readAllBytes(Paths.get(output)),
+			"Incremental build should match a full build");
+	}
+
+	@Test
+	void testStateChangedOnDiskIsReloaded() throws Exception {
+		Path statePath = Paths.get("target", "incremental_reload.out.inc");
+		Path otherPath = Paths.get("target", "incremental_reload_other.out.inc");
+		new IncrementalState().save(statePath);
+		assertEquals(0, IncrementalState.load(statePath).size());
+
+		// Another process rewrites the state; the in-memory copy must not hide it
+		IncrementalState other = new IncrementalState();
+		other.put("fingerprint", null);
+		other.save(otherPath);
+		Files.copy(otherPath, statePath, StandardCopyOption.REPLACE_EXISTING);
+		assertEquals(1, IncrementalState.load(statePath).size());
+
+		Files.delete(statePath);
+		assertEquals(0, IncrementalState.load(statePath).size());
+	}
+}
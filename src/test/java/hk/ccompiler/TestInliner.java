@@ -0,0 +1,103 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.ir.CallGraph;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.InlinerPass;
+import org.hkprog.opt.Mem2RegPass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.opt.PassManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestInliner {
+
+	private IRProgram inline(String source, int threshold) {
+		IRProgram program = IRTestSupport.lower(source);
+		PassManager manager = new PassManager().add(new Mem2RegPass()).add(new InlinerPass(threshold));
+		manager.setVerify(true);
+		manager.run(program);
+		return program;
+	}
+
+	@Test
+	public void testCallGraphComponents() {
+		CallGraph graph = new CallGraph(IRTestSupport.lower("int leaf(int x) { return x; }\n"
+			+ "int fact(int n) { return n < 2 ? 1 : n * fact(n - 1); }\n"
+			+ "int even(int n); int odd(int n) { return n ? even(n - 1) : 0; }\n"
+			+ "int even(int n) { return n ? odd(n - 1) : 1; }\n"
+			+ "int main() { int (*p)(int) = leaf; return leaf(1) + fact(3) + even(4) + p(2); }\n"));
+		List<List<String>> components = graph.bottomUpComponents().stream()
+			.map(component -> component.stream().map(IRFunction::getName).sorted().collect(Collectors.toList()))
+			.collect(Collectors.toList());
+		assertEquals(List.of("main"), components.get(components.size() - 1));
+		assertTrue(components.contains(List.of("even", "odd")));
+		assertTrue(graph.isRecursive(graph.getFunction("fact")));
+		assertTrue(graph.isRecursive(graph.getFunction("odd")));
+		assertFalse(graph.isRecursive(graph.getFunction("leaf")));
+		assertTrue(graph.isAddressTaken(graph.getFunction("leaf")));
+		assertEquals(1, graph.callSites(graph.getFunction("leaf")));
+		assertEquals(2, graph.callSites(graph.getFunction("fact")));
+	}
+
+	@Test
+	public void testInlinesAccessorsAndCleansUp() {
+		IRProgram program = inline("int get(int *p) { return *p; }\n"
+			+ "int sum(int n) { int s = 0; for (int i = 0; i < n; i++) { int x = i; s += get(&x); } return s; }\n", 5);
+		IRFunction sum = IRTestSupport.function(program, "sum");
+		assertEquals(0, IRTestSupport.count(sum, IROpcode.CALL));
+		// With the call gone x's address no longer escapes, so mem2reg reran and promoted it
+		assertEquals(0, IRTestSupport.count(sum, IROpcode.ALLOCA));
+	}
+
+	@Test
+	public void testRecursionIsNotInlinedIntoItself() {
+		IRProgram program = inline("int fact(int n) { if (n < 2) return 1; return n * fact(n - 1); }\n"
+			+ "int even(int n); int odd(int n) { if (n == 0) return 0; return even(n - 1); }\n"
+			+ "int even(int n) { if (n == 0) return 1; return odd(n - 1); }\n"
+			+ "int main() { return fact(5) + even(6); }\n", 1000);
+		assertEquals(1, IRTestSupport.count(IRTestSupport.function(program, "fact"), IROpcode.CALL));
+		assertEquals(1, IRTestSupport.count(IRTestSupport.function(program, "odd"), IROpcode.CALL));
+		assertEquals(1, IRTestSupport.count(IRTestSupport.function(program, "even"), IROpcode.CALL));
+		// Each recursive function is copied into main once, leaving its own recursive call
+		assertEquals(2, IRTestSupport.count(IRTestSupport.function(program, "main"), IROpcode.CALL));
+	}
+
+	@Test
+	public void testCostModel() {
+		String body = "{ int s = 0; for (int i = 0; i < n; i++) { if (i % 3 == 0) s += i * k; else s -= i; } return s; }\n";
+		String source = "static int once(int n, int k) " + body + "int shared(int n, int k) " + body
+			+ "int a(int n) { return once(n, 2) + shared(n, 3); }\n";
+		IRFunction a = IRTestSupport.function(inline(source, 5), "a");
+		// Only the last call to a static function earns enough to pay for a loop
+		assertEquals(1, IRTestSupport.count(a, IROpcode.CALL));
+		assertEquals(0, IRTestSupport.count(IRTestSupport.function(inline(source, 100), "a"), IROpcode.CALL));
+		assertEquals(2, IRTestSupport.count(IRTestSupport.function(inline("int id(int x) { return x; }\nint f(int y) { return id(y) + id(1); }\n", -100), "f"),
+			IROpcode.CALL));
+	}
+
+	@Test
+	public void testProgramsKeepTheirResults() throws Exception {
+		assumeTrue(IRTestSupport.canRun());
+		String source = "static int sq(int x) { return x * x; }\n"
+			+ "int get(int *p) { return *p; }\n"
+			+ "int clamp(int v, int lo, int hi) { if (v < lo) return lo; if (v > hi) return hi; return v; }\n"
+			+ "int fact(int n) { if (n < 2) return 1; return n * fact(n - 1); }\n"
+			+ "int even(int n); int odd(int n) { if (n == 0) return 0; return even(n - 1); }\n"
+			+ "int even(int n) { if (n == 0) return 1; return odd(n - 1); }\n"
+			+ "char low(long v) { return v; }\n"
+			+ "void bump(int *p) { *p = *p + 1; }\n"
+			+ "int main() { int s = 0; for (int i = 0; i < 10; i++) { int x = i; bump(&x); s += get(&x) + clamp(i, 2, 7); }\n"
+			+ "return s + sq(3) + fact(4) + even(10) + low(258) - 110; }\n";
+		for (OptimizationLevel level : OptimizationLevel.values()) {
+			assertEquals(26, IRTestSupport.run("inliner", "calls", source, level), "at -O" + level.getName());
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.IpcpPass;
+import org.hkprog.opt.Mem2RegPass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.opt.PassManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestIpcp {
+
+	private IRProgram optimize(String source, boolean specialize) {
+		IRProgram program = IRTestSupport.lower(source);
+		PassManager manager = new PassManager().add(new Mem2RegPass()).add(new IpcpPass(specialize));
+		manager.setVerify(true);
+		manager.run(program);
+		return program;
+	}
+
+	private List<String> names(IRProgram program) {
+		return program.getFunctions().stream().map(IRFunction::getName).collect(Collectors.toList());
+	}
+
+	private List<Integer> calls(IRFunction function) {
+		List<Integer> calls = new ArrayList<>();
+		for (IRBasicBlock block : function.getBlocks()) {
+			for (int i = 0; i < block.size(); i++) {
+				if (function.opcode(block.get(i)) == IROpcode.CALL) {
+					calls.add(block.get(i));
+				}
+			}
+		}
+		return calls;
+	}
+
+	@Test
+	public void testConstantArgumentsArePropagated() {
+		IRProgram program = optimize("static int leaf(int x, int mode) { if (mode == 1) return x + 1; return x * 2; }\n"
+			+ "static int mid(int x, int mode) { return leaf(x, mode) + leaf(x + 1, mode); }\n"
+			+ "int main() { return mid(3, 1) + mid(4, 1); }\n", false);
+		for (String name : List.of("leaf", "mid")) {
+			IRFunction function = IRTestSupport.function(program, name);
+			// The flag followed through mid is gone, and so is leaf's branch on it
+			assertEquals(1, function.getParameters().size(), name);
+			assertEquals(1, IRTestSupport.count(function, IROpcode.PARAM), name);
+			assertEquals(0, IRTestSupport.count(function, IROpcode.BR), name);
+		}
+		for (int call : calls(IRTestSupport.function(program, "main"))) {
+			assertEquals(2, IRTestSupport.function(program, "main").operandCount(call));
+		}
+	}
+
+	@Test
+	public void testRecursionKeepsItsFlag() {
+		IRProgram program = optimize("static int walk(int n, int flag) { if (n == 0) return flag; return walk(n - 1, flag); }\n"
+			+ "int main() { return walk(10, 7); }\n", false);
+		IRFunction walk = IRTestSupport.function(program, "walk");
+		assertEquals(List.of("n"), walk.getParameters().stream().map(p -> p.getName()).collect(Collectors.toList()));
+		assertEquals(2, walk.operandCount(calls(walk).get(0)));
+	}
+
+	@Test
+	public void testUnusedParametersAreRemoved() {
+		IRProgram program = optimize("static int many(int a, int b, int c, int d, int e, int f, int g, int h, int i)\n"
+			+ "{ return a + c + h + i; }\n"
+			+ "int main() { int s = 0; for (int k = 0; k < 3; k++) s += many(k, k, k, k, k, k, k, k, k); return s; }\n", false);
+		IRFunction many = IRTestSupport.function(program, "many");
+		assertEquals(List.of("a", "c", "h", "i"), many.getParameters().stream().map(p -> p.getName()).collect(Collectors.toList()));
+		IRFunction main = IRTestSupport.function(program, "main");
+		assertEquals(5, main.operandCount(calls(main).get(0)));
+	}
+
+	@Test
+	public void testOnlyFunctionsWithKnownCallsChange() {
+		// Without main, a function that is not static can be called from elsewhere
+		IRProgram library = optimize("int api(int x, int unused) { return x; }\n"
+			+ "int user() { return api(1, 2); }\n", false);
+		assertEquals(2, IRTestSupport.function(library, "api").getParameters().size());
+		IRFunction user = IRTestSupport.function(library, "user");
+		assertEquals(3, user.operandCount(calls(user).get(0)));
+		// Nor can a function whose address is taken change
+		IRProgram pointer = optimize("static int add(int x, int k) { return x + k; }\n"
+			+ "int apply(int (*f)(int, int), int v) { return f(v, 3); }\n"
+			+ "int main() { return apply(add, 4) + add(1, 3); }\n", false);
+		assertEquals(2, IRTestSupport.count(IRTestSupport.function(pointer, "add"), IROpcode.PARAM));
+	}
+
+	@Test
+	public void testStaticFunctionsAreSpecialized() {
+		String source = "static int format(int n, int upper) { int s = 0; while (n > 0) { s += upper ? n % 16 * 2 : n % 16; n /= 16; }\n"
+			+ "return s; }\n"
+			+ "int main() { int s = 0; for (int i = 1; i < 9; i++) s += format(i * 37, 0) + format(i * 41, 1); return s; }\n";
+		IRProgram program = optimize(source, true);
+		assertEquals(List.of("format", "format.spec1", "format.spec2", "main"), names(program));
+		for (String name : List.of("format.spec1", "format.spec2")) {
+			assertEquals(1, IRTestSupport.function(program, name).getParameters().size(), name);
+		}
+		// No call is left to the original, which globaldce deletes
+		IRFunction main = IRTestSupport.function(program, "main");
+		for (int call : calls(main)) {
+			assertTrue(main.symbolName(main.operand(call, 0)).startsWith("format.spec"));
+		}
+		assertEquals(List.of("format", "main"), names(optimize(source, false)));
+	}
+
+	@Test
+	public void testProgramsKeepTheirResults() throws Exception {
+		assumeTrue(IRTestSupport.canRun());
+		String source = "int g;\n"
+			+ "static int fmt(int n, int base, int upper) { int s = 0; while (n > 0) { int d = n % base; s += upper ? d * 2 : d;\n"
+			+ "n = n / base; } return s; }\n"
+			+ "static int leaf(int x, int mode) { if (mode == 1) return x + 1; if (mode == 2) return x * 2; return x - 1; }\n"
+			+ "static int mid(int x, int mode) { return leaf(x, mode) + leaf(x + 1, mode); }\n"
+			+ "static int walk(int n, int flag) { if (n == 0) return flag; if (flag) return 1 + walk(n - 1, flag);\n"
+			+ "return 2 + walk(n - 1, flag); }\n"
+			+ "static int many(int a, int b, int c, int d, int e, int f, int h, int i, int unused) { return a + c + e + h + i; }\n"
+			+ "static char narrow(char c, int k) { return c + k; }\n"
+			+ "int pub(int x, int y) { return x * y; }\n"
+			+ "static int viaptr(int x, int k) { return x + k; }\n"
+			+ "static int side(int x, int dead) { g = g + 1; return x; }\n"
+			+ "int apply(int (*fp)(int, int), int v) { return fp(v, 3); }\n"
+			+ "int main() { int s = 0; int i;\n"
+			+ "for (i = 1; i < 50; i++) { s += fmt(i * 37, 10, 0); s += fmt(i * 37, 16, 1); }\n"
+			+ "for (i = 0; i < 5; i++) s += mid(i, 2);\n"
+			+ "s += walk(30, 1) + walk(20, 0);\n"
+			+ "s += many(1, 2, 3, 4, 5, 6, 7, 8, 9) + many(10, 20, 30, 40, 50, 60, 70, s, 90);\n"
+			+ "s += narrow(100, 200) + narrow(-3, 200);\n"
+			+ "s += pub(s, 2) % 17;\n"
+			+ "s += apply(viaptr, 4) + viaptr(s, 3) % 5;\n"
+			+ "s += side(3, g++) + g;\n"
+			+ "return s % 256; }\n";
+		for (OptimizationLevel level : OptimizationLevel.values()) {
+			assertEquals(127, IRTestSupport.run("ipcp", "ipcp", source, level), "at -O" + level.getName());
+		}
+	}
+}
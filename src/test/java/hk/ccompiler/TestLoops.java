@@ -0,0 +1,167 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.ir.LoopInfo;
+import org.hkprog.opt.Analysis;
+import org.hkprog.opt.AnalysisManager;
+import org.hkprog.opt.LicmPass;
+import org.hkprog.opt.LoopStrengthReducePass;
+import org.hkprog.opt.Mem2RegPass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.opt.PassManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TestLoops {
+
+	private IRFunction promoted(String source) {
+		IRProgram program = IRTestSupport.lower(source);
+		PassManager manager = new PassManager().add(new Mem2RegPass());
+		manager.setVerify(true);
+		manager.run(program);
+		return program.getFunctions().get(0);
+	}
+
+	private LoopInfo loops(IRFunction function) {
+		return new AnalysisManager().get(Analysis.LOOPS, function);
+	}
+
+	private IRFunction optimize(String source, PassManager manager) {
+		IRProgram program = IRTestSupport.lower(source);
+		manager.setVerify(true);
+		manager.run(program);
+		return program.getFunctions().get(0);
+	}
+
+	/** How many of the instructions with an opcode lie inside a loop */
+	private int countInLoops(IRFunction function, IROpcode opcode) {
+		LoopInfo loops = loops(function);
+		int count = 0;
+		for (IRBasicBlock block : function.getBlocks()) {
+			if (loops.loopFor(block) == null) {
+				continue;
+			}
+			for (int i = 0; i < block.size(); i++) {
+				count += function.opcode(block.get(i)) == opcode ? 1 : 0;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testLoopNest() {
+		LoopInfo loops = loops(promoted("int f(int n) { int s = 0;\n"
+			+ "for (int i = 0; i < n; i++) for (int j = 0; j < i; j++) s += j;\n"
+			+ "while (s > 100) s -= 7; return s; }\n"));
+		assertEquals(3, loops.getLoops().size());
+		assertEquals(2, loops.getTopLevelLoops().size());
+		LoopInfo.Loop outer = loops.getTopLevelLoops().get(0);
+		assertEquals(1, outer.getChildren().size());
+		LoopInfo.Loop inner = outer.getChildren().get(0);
+		assertEquals(2, inner.getDepth());
+		assertSame(outer, inner.getParent());
+		assertTrue(outer.getBlocks().containsAll(inner.getBlocks()));
+		assertSame(inner, loops.loopFor(inner.getHeader()));
+		// Inner loops come first
+		assertTrue(loops.getLoops().indexOf(inner) < loops.getLoops().indexOf(outer));
+	}
+
+	@Test
+	public void testTripCounts() {
+		assertEquals(10, tripCount("int f() { int s = 0; for (int i = 0; i < 10; i++) s += i; return s; }\n"));
+		assertEquals(4, tripCount("int f() { int s = 0; for (int i = 10; i > 0; i -= 3) s += i; return s; }\n"));
+		assertEquals(6, tripCount("int f() { int s = 0; for (long i = 0; i != 12; i += 2) s++; return s; }\n"));
+		assertEquals(0, tripCount("int f() { int s = 0; for (int i = 5; i < 5; i++) s++; return s; }\n"));
+		assertEquals(-1, tripCount("int f(int n) { int s = 0; for (int i = 0; i <= n; i++) s++; return s; }\n"));
+		assertEquals(-1, tripCount("int f(int n) { int s = 0; for (int i = 0; i < 10; i++) { if (i == n) break; s++; } return s; }\n"));
+		assertEquals(-1, tripCount("int f() { int s = 0; for (int i = 0; i != 7; i += 2) s++; return s; }\n"));
+		// A char counting to 200 wraps first
+		assertEquals(-1, tripCount("int f() { int s = 0; for (char c = 0; c < 200; c++) s++; return s; }\n"));
+	}
+
+	private long tripCount(String source) {
+		// licm gives the loop the preheader the trip count is computed from
+		IRFunction function = optimize(source, new PassManager().add(new Mem2RegPass()).add(new LicmPass()));
+		LoopInfo loops = loops(function);
+		assertEquals(1, loops.getLoops().size());
+		return loops.tripCount(loops.getLoops().get(0));
+	}
+
+	@Test
+	public void testLicmHoistsInvariants() {
+		IRFunction function = optimize("int g; int f(int n, int k) { int s = 0;\n"
+			+ "for (int i = 0; i < n; i++) s += g * (k + 3) + i; return s; }\n",
+			new PassManager().add(new Mem2RegPass()).add(new LicmPass()));
+		assertEquals(0, countInLoops(function, IROpcode.LOAD));
+		assertEquals(0, countInLoops(function, IROpcode.MUL));
+		assertEquals(1, IRTestSupport.count(function, IROpcode.MUL));
+	}
+
+	@Test
+	public void testLicmKeepsLoadsTheLoopMayChange() {
+		IRFunction stored = optimize("int g; int f(int n) { int s = 0;\n"
+			+ "for (int i = 0; i < n; i++) { s += g; g = i; } return s; }\n",
+			new PassManager().add(new Mem2RegPass()).add(new LicmPass()));
+		assertEquals(1, countInLoops(stored, IROpcode.LOAD));
+		IRFunction called = optimize("int g; void h(); int f(int n) { int s = 0;\n"
+			+ "for (int i = 0; i < n; i++) { s += g; h(); } return s; }\n",
+			new PassManager().add(new Mem2RegPass()).add(new LicmPass()));
+		assertEquals(1, countInLoops(called, IROpcode.LOAD));
+		// A division by a variable may trap, so it stays where the loop guards it
+		IRFunction divided = optimize("int f(int n, int d) { int s = 0;\n"
+			+ "for (int i = 0; i < n; i++) s += 100 / d; return s; }\n",
+			new PassManager().add(new Mem2RegPass()).add(new LicmPass()));
+		assertEquals(1, countInLoops(divided, IROpcode.DIV));
+	}
+
+	@Test
+	public void testStrengthReducesArrayIndexing() {
+		String source = "long f(long *a, int n) { long s = 0; for (int i = 0; i < n; i++) s += a[i] * 3 + i * 5; return s; }\n";
+		IRFunction before = optimize(source, new PassManager().add(new Mem2RegPass()).add(new LicmPass()));
+		assertTrue(countInLoops(before, IROpcode.MUL) + countInLoops(before, IROpcode.SHL) > 1);
+		IRFunction after = optimize(source, new PassManager().add(new Mem2RegPass()).add(new LicmPass())
+			.add(new LoopStrengthReducePass()));
+		// Only the multiplication of a loaded value is left
+		assertEquals(1, countInLoops(after, IROpcode.MUL) + countInLoops(after, IROpcode.SHL));
+	}
+
+	@Test
+	public void testSmallLoopsAreUnrolled() {
+		String source = "int f(int k) { int s = 0; for (int i = 0; i < 8; i++) s += i * k; return s; }\n";
+		IRFunction o2 = optimize(source, PassManager.forLevel(OptimizationLevel.O2));
+		assertTrue(loops(o2).getLoops().isEmpty());
+		IRFunction o1 = optimize(source, PassManager.forLevel(OptimizationLevel.O1));
+		assertEquals(1, loops(o1).getLoops().size());
+		IRFunction folded = optimize("int f() { int s = 0; for (int i = 0; i < 4; i++) s += i; return s; }\n",
+			PassManager.forLevel(OptimizationLevel.O1));
+		assertEquals(1, folded.getBlocks().size());
+		assertEquals(1, folded.size());
+	}
+
+	@Test
+	public void testProgramsKeepTheirResults() throws Exception {
+		assumeTrue(IRTestSupport.canRun());
+		String source = "int g; int a[40]; long la[10];\n"
+			+ "int f(int k) { g = g + k; return g; }\n"
+			+ "int main() { int i; int j; int s = 0;\n"
+			+ "for (i = 0; i < 40; i++) a[i] = i * 3 + 1;\n"
+			+ "for (i = 0; i < 5; i++) for (j = 0; j < 4; j++) s += a[i * 4 + j] * (i + j);\n"
+			+ "for (i = 9; i >= 0; i -= 2) la[i] = (long) i * 100000;\n"
+			+ "long t = 0; for (i = 0; i < 10; i++) t += la[i];\n"
+			+ "for (i = 0; i != 12; i += 3) s += f(i);\n"
+			+ "int n = 0; for (i = 0; i < 100; i++) { if (a[i % 40] > 50) break; n++; }\n"
+			+ "char c = 0; int m = 0; for (i = 0; i < 3; i++) { c = c + 100; m += c; }\n"
+			+ "int w = 0; while (w < 7) w += 2;\n"
+			+ "int k2 = 0; for (i = 1; i <= 8; i = i * 2) k2 += i;\n"
+			+ "return (s + (int) (t / 100000) + n + m + w + k2) % 256; }\n";
+		for (OptimizationLevel level : OptimizationLevel.values()) {
+			assertEquals(243, IRTestSupport.run("loops", "loops", source, level), "at -O" + level.getName());
+		}
+	}
+}
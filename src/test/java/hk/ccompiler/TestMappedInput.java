@@ -0,0 +1,125 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.hkprog.CCompiler;
+import org.hkprog.antlr.CLexer;
+import org.hkprog.parse.MappedCharStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestMappedInput {
+
+	private List<String> tokens(CharStream input) {
+		CLexer lexer = new CLexer(input);
+		List<String> tokens = new ArrayList<>();
+		for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+			tokens.add(token.getType() + ":" + token.getText() + "@" + token.getLine() + ":" + token.getCharPositionInLine());
+		}
+		return tokens;
+	}
+
+	@Test
+	void testMappedStreamMatchesDecodedStream() throws Exception {
+		File[] examples = new File("examples").listFiles((dir, name) -> name.endsWith(".c"));
+		assertNotNull(examples);
+		for (File example : examples) {
+			MappedCharStream mapped = MappedCharStream.fromPath(example.toPath());
+			assertTrue(mapped.isAscii());
+			assertEquals(tokens(CharStreams.fromPath(example.toPath())), tokens(mapped), example.getName());
+		}
+	}
+
+	@Test
+	void testUtf8Input() throws Exception {
+		Path source = Paths.get("target", "mapped_utf8.c");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			text.append("/* café ✓ 😀 */ int v").append(i).append(" = ").append(i).append(";\n");
+		}
+		text.append("const char *s = \"über\";\n");
+		Files.writeString(source, text);
+
+		MappedCharStream mapped = MappedCharStream.fromPath(source);
+		CharStream decoded = CharStreams.fromPath(source);
+		assertFalse(mapped.isAscii());
+		assertEquals(decoded.size(), mapped.size());
+		assertEquals(tokens(decoded), tokens(MappedCharStream.fromPath(source)));
+
+		// Random access in both directions, across checkpoints
+		for (int index : new int[] { mapped.size() / 2, 5, mapped.size() / 3, mapped.size() - 3, 1023, 1024, 1025 }) {
+			mapped.seek(index);
+			decoded.seek(index);
+			assertEquals(decoded.LA(1), mapped.LA(1), "LA(1) at " + index);
+			assertEquals(decoded.LA(-1), mapped.LA(-1), "LA(-1) at " + index);
+			assertEquals(decoded.LA(3), mapped.LA(3), "LA(3) at " + index);
+			Interval interval = Interval.of(Math.max(0, index - 40), index);
+			assertEquals(decoded.getText(interval), mapped.getText(interval));
+		}
+	}
+
+	private String name(int[] sequence) {
+		return Arrays.toString(Arrays.stream(sequence).mapToObj(Integer::toHexString).toArray());
+	}
+
+	@Test
+	void testMalformedUtf8MatchesDecodedStream() throws Exception {
+		int[][] sequences = {
+			{ 0xE0, 0x80, 0x80 }, { 0xED, 0xA0, 0x80 }, { 0xF0, 0x80, 0x80, 0x80 }, { 0xF4, 0x90, 0x80, 0x80 },
+			{ 0xC0, 0xAF }, { 0xE0, 0xA0 }, { 0xF0, 0x90, 0x80 }, { 0xFF }, { 0xED, 0xA0 }, { 0xF5, 0x80 }, { 0xE1, 0x80 },
+			{ 0xE0, 0xA0, 0x80 }, { 0xED, 0x9F, 0xBF }, { 0xF0, 0x90, 0x80, 0x80 }, { 0xF4, 0x8F, 0xBF, 0xBF },
+		};
+		for (int[] sequence : sequences) {
+			String name = name(sequence);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			bytes.writeBytes("/* ".getBytes());
+			for (int b : sequence) {
+				bytes.write(b);
+			}
+			bytes.writeBytes(" */ int x;\n".getBytes());
+			Path source = Paths.get("target", "mapped_malformed.c");
+			Files.write(source, bytes.toByteArray());
+			// The same bytes ending the file
+			Path atEnd = Paths.get("target", "mapped_malformed_end.c");
+			Files.write(atEnd, Arrays.copyOf(bytes.toByteArray(), 3 + sequence.length));
+			assertEquals(CharStreams.fromPath(atEnd).getText(Interval.of(0, 100)),
+				MappedCharStream.fromPath(atEnd).getText(Interval.of(0, 100)), name + " at end of file");
+
+			MappedCharStream mapped = MappedCharStream.fromPath(source);
+			CharStream decoded = CharStreams.fromPath(source);
+			assertEquals(decoded.size(), mapped.size(), name);
+			for (int i = 0; i < decoded.size(); i++) {
+				mapped.seek(i);
+				decoded.seek(i);
+				assertEquals(decoded.LA(1), mapped.LA(1), name + " at " + i);
+			}
+			assertEquals(decoded.getText(Interval.of(0, decoded.size() - 1)), mapped.getText(Interval.of(0, mapped.size() - 1)), name);
+			decoded.seek(0);
+			assertEquals(tokens(decoded), tokens(MappedCharStream.fromPath(source)), name);
+		}
+	}
+
+	@Test
+	void testCompileWithMappedUnbufferedInput() throws Exception {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		assertEquals(0, CCompiler.run(new String[] { "examples/test_function.c", "target/mapped_buffered.out" }, Paths.get(""), out, out));
+		assertEquals(0, CCompiler.run(new String[] { "--mmap", "--unbuffered-tokens", "examples/test_function.c", "target/mapped_unbuffered.out" },
+			Paths.get(""), out, out), log.toString());
+		assertArrayEquals(Files.readAllBytes(Paths.get("target/mapped_buffered.out")), Files.readAllBytes(Paths.get("target/mapped_unbuffered.out")));
+	}
+}
@@ -0,0 +1,70 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.Mem2RegPass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.opt.PassManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TestMem2Reg {
+
+	private IRProgram promote(String source) {
+		IRProgram program = IRTestSupport.lower(source);
+		PassManager manager = new PassManager().add(new Mem2RegPass());
+		manager.setVerify(true);
+		manager.run(program);
+		return program;
+	}
+
+	@Test
+	public void testScalarsBecomeValues() {
+		IRFunction f = promote("int f(int n) { int s = 0; for (int i = 0; i < n; i++) s = s + i; return s; }\n")
+			.getFunctions().get(0);
+		assertEquals(0, IRTestSupport.count(f, IROpcode.ALLOCA));
+		assertEquals(0, IRTestSupport.count(f, IROpcode.LOAD));
+		assertEquals(0, IRTestSupport.count(f, IROpcode.STORE));
+		// s and i meet at the loop header; n is never stored after its parameter
+		assertEquals(2, IRTestSupport.count(f, IROpcode.PHI));
+	}
+
+	@Test
+	public void testStraightLineNeedsNoPhis() {
+		IRFunction f = promote("int f(int a, int b) { int t = a; a = b; b = t; return a - b; }\n").getFunctions().get(0);
+		assertEquals(0, IRTestSupport.count(f, IROpcode.ALLOCA));
+		assertEquals(0, IRTestSupport.count(f, IROpcode.PHI));
+	}
+
+	@Test
+	public void testEscapingLocalsKeepSlots() {
+		IRProgram program = promote("void set(int *p);\n"
+			+ "int f() { int x = 1; int y = 2; set(&x); return x + y; }\n"
+			+ "int g(int i) { int a[4]; a[i] = 1; return a[0]; }\n"
+			+ "int h(int v) { int y = v; int *p = &y; *p = *p + 1; return y; }\n");
+		IRFunction f = program.getFunctions().get(0);
+		assertEquals(1, IRTestSupport.count(f, IROpcode.ALLOCA));
+		assertEquals(1, IRTestSupport.count(f, IROpcode.LOAD));
+		IRFunction g = program.getFunctions().get(1);
+		assertEquals(1, IRTestSupport.count(g, IROpcode.ALLOCA));
+		// Once p is promoted, y is only loaded and stored through its own address
+		IRFunction h = program.getFunctions().get(2);
+		assertEquals(0, IRTestSupport.count(h, IROpcode.ALLOCA));
+	}
+
+	@Test
+	public void testProgramsKeepTheirResults() throws Exception {
+		assumeTrue(IRTestSupport.canRun());
+		String source = "int fib(int n) { int a = 0; int b = 1; while (n > 0) { int t = a; a = b; b = t + b; n--; } return a; }\n"
+			+ "int sum(int n) { int s = 0; for (int i = 0; i < n; i++) for (int j = 0; j < i; j++) { if (j % 2) continue; s += j; } return s; }\n"
+			+ "char narrow(int v) { char c = v; return c; }\n"
+			+ "int main() { int x; int *p = &x; *p = 3; return fib(10) + sum(6) + narrow(300) + x; }\n";
+		for (OptimizationLevel level : OptimizationLevel.values()) {
+			assertEquals(112, IRTestSupport.run("mem2reg", "locals", source, level), "at -O" + level.getName());
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.hkprog.CCompiler;
+import org.hkprog.antlr.CLexer;
+import org.hkprog.antlr.CParser;
+import org.hkprog.parse.CParserDriver;
+import org.hkprog.parse.ParseResult;
+import org.hkprog.parse.ParseStrategy;
+import org.hkprog.parse.StreamErrorListener;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestParallelParse {
+
+	private String generateSource(int functions) {
+		StringBuilder source = new StringBuilder("#include <stdio.h>\n\ntypedef struct { int x; int y; } point;\nint counter;\n\n");
+		for (int i = 0; i < functions; i++) {
+			source.append("/* function ").append(i).append(" */\n");
+			source.append("int f").append(i).append("(int a, int b) {\n");
+			source.append("    int table[3] = {1, 2, 3};\n");
+			source.append("    if (a > b) { return a * ").append(i).append("; }\n");
+			source.append("    return table[b % 3] + f").append(i > 0 ? i - 1 : 0).append("(b, a);\n");
+			source.append("}\n\n");
+			if (i % 5 == 0) {
+				source.append("static const int ids").append(i).append("[2] = {").append(i).append(", -").append(i).append("};\n");
+			}
+		}
+		source.append("int main() {\n    printf(\"%d\\n\", f3(1, 2));\n    return 0;\n}\n// trailing comment\n");
+		return source.toString();
+	}
+
+	private CommonTokenStream tokens(String source) {
+		return new CommonTokenStream(new CLexer(CharStreams.fromString(source)));
+	}
+
+	/** Token indexes of every terminal, which must refer to the shared stream */
+	private List<Integer> terminalIndexes(ParseTree tree, List<Integer> indexes) {
+		if (tree instanceof TerminalNode) {
+			indexes.add(((TerminalNode) tree).getSymbol().getTokenIndex());
+		}
+		for (int i = 0; i < tree.getChildCount(); i++) {
+			terminalIndexes(tree.getChild(i), indexes);
+		}
+		return indexes;
+	}
+
+	@Test
+	public void testParallelTreeMatchesSequential() {
+		String source = generateSource(40);
+		CParserDriver driver = new CParserDriver(ParseStrategy.SLL_THEN_LL);
+		CParser sequentialParser = new CParser(tokens(source));
+		ParseTree sequential = driver.parse((CommonTokenStream) sequentialParser.getTokenStream()).getTree();
+
+		ParseResult parallel = driver.parseParallel(tokens(source), 4);
+		assertEquals(ParseResult.Path.PARALLEL, parallel.getPath(), parallel.toString());
+		assertEquals(4, parallel.getChunks());
+		assertEquals(sequential.toStringTree(sequentialParser), parallel.getTree().toStringTree(sequentialParser));
+		assertEquals(terminalIndexes(sequential, new ArrayList<>()), terminalIndexes(parallel.getTree(), new ArrayList<>()));
+
+		CParser.CompilationUnitContext unit = (CParser.CompilationUnitContext) parallel.getTree();
+		for (CParser.ExternalDeclarationContext declaration : unit.translationUnit().externalDeclaration()) {
+			assertSame(unit.translationUnit(), declaration.getParent());
+		}
+		assertEquals(CLexer.EOF, unit.stop.getType());
+	}
+
+	@Test
+	public void testSmallInputParsesSequentially() {
+		ParseResult result = new CParserDriver(ParseStrategy.SLL_THEN_LL).parseParallel(tokens("int main() { return 0; }"), 4);
+		assertNotEquals(ParseResult.Path.PARALLEL, result.getPath());
+		assertNotNull(result.getFallbackReason());
+	}
+
+	@Test
+	public void testMisplacedSplitFallsBack() {
+		// The ';' ending the K&R parameter declaration looks like the end of a declaration
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			source.append("int g").append(i).append("(a) int a; { return a; }\n");
+		}
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		ParseResult result = new CParserDriver(ParseStrategy.SLL_THEN_LL, new StreamErrorListener(new PrintStream(errors)))
+			.parseParallel(tokens(source.toString()), 4);
+		assertNotEquals(ParseResult.Path.PARALLEL, result.getPath());
+		assertTrue(result.toString().contains("parallel parse skipped"), result.toString());
+		assertEquals(10, ((CParser.CompilationUnitContext) result.getTree()).translationUnit().externalDeclaration().size());
+	}
+
+	@Test
+	public void testSyntaxErrorReportedOnce() {
+		String source = generateSource(12).replace("return a * 7;", "return a * ;");
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		ParseResult result = new CParserDriver(ParseStrategy.SLL_THEN_LL, new StreamErrorListener(new PrintStream(errors)))
+			.parseParallel(tokens(source), 4);
+		assertNotEquals(ParseResult.Path.PARALLEL, result.getPath());
+		String reported = errors.toString();
+		assertEquals(reported.indexOf("line"), reported.lastIndexOf("line"), reported);
+	}
+
+	@Test
+	public void testCompileWithParallelParse() throws Exception {
+		Path dir = Paths.get("target/parallel-parse-test");
+		Files.createDirectories(dir);
+		Path input = dir.resolve("many.c");
+		Files.writeString(input, generateSource(30));
+		File output = dir.resolve("many.out").toFile();
+		output.delete();
+
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log);
+		int status = CCompiler.run(new String[] {"--parallel-parse", input.toString(), output.toString()}, Paths.get(""), out, out);
+		assertEquals(0, status, log.toString());
+		assertTrue(output.exists());
+	}
+}
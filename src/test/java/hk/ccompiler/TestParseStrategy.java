@@ -0,0 +1,64 @@
+package hk.ccompiler;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.antlr.CLexer;
+import org.hkprog.parse.CParserDriver;
+import org.hkprog.parse.ParseResult;
+import org.hkprog.parse.ParseStrategy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestParseStrategy {
+
+	private ParseResult parse(String code, ParseStrategy strategy) {
+		CLexer lexer = new CLexer(CharStreams.fromString(code));
+		return new CParserDriver(strategy).parse(new CommonTokenStream(lexer));
+	}
+
+	@Test
+	void testSllProducesSameTreeAsLl() {
+		String cCode = """
+			int add(int a, int b)
+			{
+			    return a + b;
+			}
+
+			int main()
+			{
+			    int result = add(5, 7);
+			    return result;
+			}
+			""";
+
+		ParseResult sll = parse(cCode, ParseStrategy.SLL_THEN_LL);
+		ParseResult ll = parse(cCode, ParseStrategy.LL);
+
+		assertEquals(ParseResult.Path.SLL, sll.getPath(), "Valid input should parse with SLL alone");
+		assertEquals(ParseResult.Path.LL, ll.getPath());
+		assertEquals(ll.getTree().toStringTree(), sll.getTree().toStringTree());
+	}
+
+	@Test
+	void testSyntaxErrorFallsBackToLl() {
+		ParseResult result = parse("int main() { return 1 }", ParseStrategy.SLL_THEN_LL);
+
+		assertEquals(ParseResult.Path.SLL_FALLBACK_LL, result.getPath(), "Syntax errors should be re-parsed with LL");
+		assertNotNull(result.getTree());
+	}
+
+	@Test
+	void testFallbackResumesAtCallerPosition() {
+		CommonTokenStream tokens = new CommonTokenStream(new CLexer(CharStreams.fromString("int skipped;\nint main() { return 1 }")));
+		tokens.fill();
+		tokens.seek(3);
+		ParseResult result = new CParserDriver(ParseStrategy.SLL_THEN_LL, new BaseErrorListener()).parse(tokens);
+
+		assertEquals(ParseResult.Path.SLL_FALLBACK_LL, result.getPath());
+		assertEquals(3, result.getTree().getSourceInterval().a, "LL should re-parse from where the caller started");
+		assertFalse(result.getTree().getText().contains("skipped"), result.getTree().getText());
+	}
+}
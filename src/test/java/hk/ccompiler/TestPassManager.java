@@ -0,0 +1,159 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CompilerOptions;
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.DominatorTree;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.ir.IRVerifier;
+import org.hkprog.opt.Analysis;
+import org.hkprog.opt.AnalysisManager;
+import org.hkprog.opt.FunctionPass;
+import org.hkprog.opt.InlinerPass;
+import org.hkprog.opt.IpcpPass;
+import org.hkprog.opt.LicmPass;
+import org.hkprog.opt.LoopStrengthReducePass;
+import org.hkprog.opt.Mem2RegPass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.opt.Pass;
+import org.hkprog.opt.PassManager;
+import org.hkprog.opt.PassTiming;
+import org.hkprog.opt.SimplifyCfgPass;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+
+public class TestPassManager {
+
+	/** Requests the dominator tree and reports a change without touching the IR */
+	private static class TouchPass extends FunctionPass {
+		private String name;
+		private Set<Analysis<?>> preserved;
+
+		TouchPass(String name, Set<Analysis<?>> preserved) {
+			this.name = name;
+			this.preserved = preserved;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean run(IRFunction function, AnalysisManager analyses) {
+			analyses.get(Analysis.DOMINATOR_TREE, function);
+			return true;
+		}
+
+		@Override
+		public Set<Analysis<?>> getPreserved() {
+			return preserved;
+		}
+	}
+
+	@Test
+	public void testLevels() {
+		assertTrue(PassManager.forLevel(OptimizationLevel.O0).getPasses().isEmpty());
+		assertTrue(PassManager.forLevel(OptimizationLevel.O1).contains("simplify-cfg"));
+		assertTrue(PassManager.forLevel(OptimizationLevel.O2).getPasses().size()
+			>= PassManager.forLevel(OptimizationLevel.O1).getPasses().size());
+		assertEquals(OptimizationLevel.O1, OptimizationLevel.fromString(""));
+		assertEquals(OptimizationLevel.O2, OptimizationLevel.fromString("3"));
+		assertThrows(IllegalArgumentException.class, () -> OptimizationLevel.fromString("s"));
+
+		CompilerOptions options = new CompilerOptions();
+		String unoptimized = options.fingerprint();
+		assertTrue(options.parseFlag("-O2"));
+		assertEquals(OptimizationLevel.O2, options.getOptimizationLevel());
+		assertNotEquals(unoptimized, options.fingerprint());
+	}
+
+	@Test
+	public void testRequiredPasses() {
+		Pass dependent = new TouchPass("dependent", Set.of()) {
+			@Override
+			public List<String> getRequired() {
+				return List.of("simplify-cfg");
+			}
+		};
+		assertThrows(IllegalStateException.class, () -> new PassManager().add(dependent));
+		PassManager manager = new PassManager().add(new SimplifyCfgPass()).add(dependent);
+		assertEquals(2, manager.getPasses().size());
+	}
+
+	@Test
+	public void testPassesOverPromotedIRRequireMem2Reg() {
+		List<Pass> dependents = List.of(new IpcpPass(true), new InlinerPass(100), new LicmPass(), new LoopStrengthReducePass());
+		for (Pass pass : dependents) {
+			IllegalStateException e = assertThrows(IllegalStateException.class, () -> new PassManager().add(pass), pass.getName());
+			assertTrue(e.getMessage().contains("requires mem2reg"), e.getMessage());
+			assertEquals(2, new PassManager().add(new Mem2RegPass()).add(pass).getPasses().size());
+		}
+	}
+
+	@Test
+	public void testAnalysisCaching() {
+		IRProgram program = IRTestSupport.lower("int f(int a) { if (a) return 1; return 2; }\n");
+		IRFunction f = program.getFunctions().get(0);
+		AnalysisManager analyses = new AnalysisManager();
+		DominatorTree dominators = analyses.get(Analysis.DOMINATOR_TREE, f);
+		assertSame(dominators, analyses.get(Analysis.DOMINATOR_TREE, f));
+		assertTrue(analyses.isCached(Analysis.CONTROL_FLOW_GRAPH, f));
+		assertEquals(2, analyses.getComputed());
+		assertEquals(1, analyses.getReused());
+
+		ControlFlowGraph cfg = analyses.get(Analysis.CONTROL_FLOW_GRAPH, f);
+		analyses.invalidate(f, Set.of(Analysis.CONTROL_FLOW_GRAPH));
+		assertSame(cfg, analyses.get(Analysis.CONTROL_FLOW_GRAPH, f));
+		assertFalse(analyses.isCached(Analysis.DOMINATOR_TREE, f));
+
+		// A pass preserving nothing forces the next one to recompute
+		PassManager manager = new PassManager()
+			.add(new TouchPass("keeps", Set.of(Analysis.CONTROL_FLOW_GRAPH, Analysis.DOMINATOR_TREE)))
+			.add(new TouchPass("drops", Set.of()))
+			.add(new TouchPass("again", Set.of()));
+		manager.run(program);
+		assertEquals(4, manager.getAnalyses().getComputed());
+		assertEquals(1, manager.getAnalyses().getReused());
+	}
+
+	@Test
+	public void testTimingsRecordSize() {
+		IRProgram program = IRTestSupport.lower("int f(int a) { if (1) a = a + 1; else a = a - 1; while (0) a++; return a; }\n");
+		PassManager manager = new PassManager().add(new SimplifyCfgPass());
+		manager.setVerify(true);
+		manager.run(program);
+		PassTiming timing = manager.getTimings().get(0);
+		assertEquals("simplify-cfg", timing.getPass());
+		assertTrue(timing.isChanged());
+		assertTrue(timing.getBlocksAfter() < timing.getBlocksBefore());
+		assertTrue(timing.getInstructionsAfter() < timing.getInstructionsBefore());
+		assertTrue(timing.getNanos() >= 0);
+		assertTrue(manager.report().startsWith("simplify-cfg"));
+	}
+
+	@Test
+	public void testSimplifyCfg() {
+		IRProgram program = IRTestSupport.lower("int f(int a) { int r; if (a > 0 && 1) r = 1; else r = 2; for (;;) { if (r) break; } return r; }\n"
+			+ "int g(int a) { return a || 0 ? 3 : 4; }\n");
+		IRFunction f = program.getFunctions().get(0);
+		int blocks = f.getBlocks().size();
+		PassManager manager = new PassManager().add(new SimplifyCfgPass());
+		manager.setVerify(true);
+		manager.run(program);
+		IRVerifier.verify(program);
+		for (var block : f.getBlocks()) {
+			int terminator = block.last();
+			if (f.opcode(terminator) == IROpcode.BR) {
+				assertNotEquals(f.operand(terminator, 1), f.operand(terminator, 2));
+			}
+		}
+		assertTrue(f.getBlocks().size() < blocks);
+	}
+}
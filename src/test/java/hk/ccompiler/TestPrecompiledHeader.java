@@ -0,0 +1,69 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CCompiler;
+import org.hkprog.pch.PrecompiledHeader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TestPrecompiledHeader {
+
+	private String run(String... args) {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		int status = CCompiler.run(args, Paths.get(""), out, out);
+		assertEquals(0, status, log.toString());
+		return log.toString();
+	}
+
+	@Test
+	void testPrecompiledHeaderSeedsCompilation() throws Exception {
+		Path directory = Paths.get("target", "pch_test");
+		Files.createDirectories(directory);
+		Path header = directory.resolve("prelude.h");
+		Files.writeString(header, """
+			#pragma once
+			#define ANSWER 42
+			extern int counter;
+			int table_size = 16;
+			int lookup(int key);
+			""");
+		Path source = directory.resolve("main.c");
+		Files.writeString(source, """
+			#include "prelude.h"
+			int main()
+			{
+			    return ANSWER;
+			}
+			""");
+		Path snapshot = directory.resolve("prelude.pch");
+
+		run("--create-pch", header.toString(), snapshot.toString());
+		PrecompiledHeader precompiledHeader = PrecompiledHeader.read(snapshot);
+		assertNull(precompiledHeader.checkStale(CCompiler.VERSION));
+		assertTrue(precompiledHeader.getSymbols().containsKey("counter"));
+		assertTrue(precompiledHeader.getSymbols().containsKey("lookup"));
+		assertEquals(1, precompiledHeader.getGlobals().size());
+		assertEquals("table_size", precompiledHeader.getGlobals().get(0).getName());
+
+		String log = run("--include-pch=" + snapshot, source.toString(), directory.resolve("main.out").toString());
+		assertTrue(log.contains("Using precompiled header"), log);
+		assertTrue(log.contains("0 includes read, 1 skipped"), log);
+		assertTrue(log.contains("table_size : int = 16"), log);
+		assertTrue(log.contains("return 42"), log);
+
+		Files.writeString(header, Files.readString(header) + "int extra;\n");
+		assertNotNull(precompiledHeader.checkStale(CCompiler.VERSION));
+		log = run("--include-pch=" + snapshot, source.toString(), directory.resolve("main.out").toString());
+		assertTrue(log.contains("Ignoring stale precompiled header"), log);
+		assertTrue(log.contains("1 includes read"), log);
+		assertTrue(log.contains("extra : int"), log);
+	}
+}
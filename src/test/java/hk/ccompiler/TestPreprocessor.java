@@ -0,0 +1,109 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CCompiler;
+import org.hkprog.preprocess.HeaderCache;
+import org.hkprog.preprocess.Preprocessor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class TestPreprocessor {
+
+	private Path writeSources() throws Exception {
+		Path directory = Paths.get("target", "preprocess_test");
+		Files.createDirectories(directory.resolve("include"));
+		Files.writeString(directory.resolve("include/guarded.h"), """
+			/* classic include guard */
+			#ifndef GUARDED_H
+			#define GUARDED_H
+			#define SQUARE(x) ((x) * (x))
+			int helper(int a);
+			#endif
+			""");
+		Files.writeString(directory.resolve("include/once.h"), """
+			#pragma once
+			#define GREETING "Hello"
+			""");
+		Files.writeString(directory.resolve("main.c"), """
+			#include "guarded.h"
+			#include <guarded.h>
+			#include "once.h"
+			#include "once.h"
+			#define CAT(a, b) a ## b
+			#define STR(x) #x
+			#define LOG(fmt, ...) printf(fmt, __VA_ARGS__)
+			#if defined(GUARDED_H) && SQUARE(3) == 9 && (1 || 1 / 0)
+			int CAT(fo, o) = SQUARE(2 + 1);
+			#elif 1
+			int wrong;
+			#endif
+			const char *s = STR(a "b");
+			int line = __LINE__;
+			""");
+		return directory;
+	}
+
+	@Test
+	void testMacrosConditionalsAndIncludeSkipping() throws Exception {
+		Path directory = writeSources();
+		Preprocessor preprocessor = new Preprocessor(List.of(directory.resolve("include")), new HeaderCache(), System.err);
+		StringBuilder text = new StringBuilder();
+		preprocessor.preprocess(directory.resolve("main.c"), text);
+
+		String output = text.toString();
+		assertTrue(output.contains("int helper(int a);"));
+		assertTrue(output.contains("int foo = ((2 + 1) * (2 + 1));"));
+		assertTrue(output.contains("const char *s = \"a \\\"b\\\"\";"));
+		assertTrue(output.contains("int line = 14;"));
+		assertFalse(output.contains("wrong"));
+		assertEquals(2, preprocessor.getIncludesProcessed());
+		assertEquals(2, preprocessor.getIncludesSkipped(), "Second includes should be skipped by the guard and #pragma once");
+	}
+
+	@Test
+	void testHeadersAreTokenizedOncePerProcess() throws Exception {
+		Path directory = writeSources();
+		HeaderCache cache = new HeaderCache();
+		for (int i = 0; i < 3; i++) {
+			Preprocessor preprocessor = new Preprocessor(List.of(directory.resolve("include")), cache, System.err);
+			preprocessor.preprocess(directory.resolve("main.c"), new StringBuilder());
+		}
+		assertEquals(2, cache.getMisses());
+		assertEquals(4, cache.getHits());
+	}
+
+	@Test
+	void testCompileWithPreprocessor() throws Exception {
+		Path directory = Paths.get("target", "preprocess_test");
+		Files.createDirectories(directory);
+		Files.writeString(directory.resolve("hello.c"), """
+			#define MESSAGE "Hello from the preprocessor\\n"
+			#ifdef USE_PRINTF
+			int main()
+			{
+			    printf(MESSAGE);
+			    return 0;
+			}
+			#endif
+			""");
+		String output = "target/preprocess_test/hello.out";
+		new File(output).delete();
+
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		int status = CCompiler.run(new String[] { "-DUSE_PRINTF", directory.resolve("hello.c").toString(), output },
+			Paths.get(""), out, out);
+		assertEquals(0, status, log.toString());
+		assertTrue(log.toString().contains("Preprocessed"));
+		assertTrue(new File(output).exists());
+	}
+}
@@ -0,0 +1,119 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CCompiler;
+import org.hkprog.ir.ControlFlowGraph;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.ir.IRVerifier;
+import org.hkprog.ir.UnsupportedConstructException;
+import org.hkprog.opt.OptimizationLevel;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TestSSALowering {
+
+	@Test
+	public void testLoopsFormBlocks() {
+		IRProgram program = IRTestSupport.lower("int f(int n) { int s = 0; for (int i = 0; i < n; i++) { if (i % 2) continue; s += i; } return s; }\n"
+			+ "int g(int n) { while (n > 10) n = n - 3; do n++; while (n < 5); return n; }\n");
+		IRVerifier.verify(program);
+		IRFunction f = program.getFunctions().get(0);
+		assertTrue(f.getBlocks().size() >= 5);
+		ControlFlowGraph cfg = new ControlFlowGraph(f);
+		boolean backEdge = false;
+		for (IRBasicBlock block : f.getBlocks()) {
+			for (IRBasicBlock successor : cfg.successors(block)) {
+				backEdge |= successor.getId() <= block.getId();
+			}
+		}
+		assertTrue(backEdge, "a loop needs a back edge");
+		assertEquals(1, IRTestSupport.count(f, IROpcode.RET));
+	}
+
+	@Test
+	public void testShortCircuitUsesPhis() {
+		IRProgram program = IRTestSupport.lower("int f(int a, int b) { return a && b || !a; }\n"
+			+ "int g(int a) { return a > 0 ? a : -a; }\n");
+		IRVerifier.verify(program);
+		assertEquals(2, IRTestSupport.count(program.getFunctions().get(0), IROpcode.PHI));
+		assertEquals(1, IRTestSupport.count(program.getFunctions().get(1), IROpcode.PHI));
+	}
+
+	@Test
+	public void testUnreachableBlocksRemoved() {
+		IRProgram program = IRTestSupport.lower("int f(int a) { return a; a = 2; while (1) { } }\n");
+		IRVerifier.verify(program);
+		IRFunction f = program.getFunctions().get(0);
+		assertEquals(1, f.getBlocks().size());
+	}
+
+	@Test
+	public void testVerifierRejectsMissingTerminator() {
+		IRProgram program = IRTestSupport.lower("int f() { return 1; }\n");
+		IRFunction f = program.getFunctions().get(0);
+		f.newBlock();
+		assertThrows(IllegalStateException.class, () -> IRVerifier.verify(f));
+	}
+
+	@Test
+	public void testUnsupportedExpressionsAreRejected() throws Exception {
+		String source = "int main(){ struct P{int x;} p; p.x = 3; return p.x; }\n";
+		UnsupportedConstructException e = assertThrows(UnsupportedConstructException.class, () -> IRTestSupport.lower(source));
+		assertTrue(e.getMessage().contains("MEMBER") && e.getMessage().contains("'p.x'"), e.getMessage());
+
+		Path input = Paths.get("target", "ssa-lowering", "member.c");
+		Files.createDirectories(input.getParent());
+		Files.writeString(input, source);
+		for (String level : new String[] { "-O0", "-O2" }) {
+			ByteArrayOutputStream log = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(log, true);
+			assertEquals(1, CCompiler.run(new String[] { level, input.toString(), "target/ssa-lowering/member.out" }, Paths.get(""), out, out));
+			assertTrue(log.toString().contains("line 1: unsupported MEMBER expression 'p.x'"), log.toString());
+			assertFalse(log.toString().contains("Compilation completed successfully!"), log.toString());
+		}
+	}
+
+	@Test
+	public void testAddressInitializersOfGlobalsAreRejected() {
+		for (String source : new String[] { "char *s = \"hi\";\nint main() { return s[1]; }\n",
+				"int x;\nint *p = &x;\nint main() { return *p; }\n", "char s[] = \"hi\";\nint main() { return s[1]; }\n" }) {
+			UnsupportedConstructException e = assertThrows(UnsupportedConstructException.class, () -> IRTestSupport.lower(source), source);
+			assertTrue(e.getMessage().contains("unsupported initializer of global"), e.getMessage());
+		}
+	}
+
+	@Test
+	public void testGlobalInitializerListsRun() throws Exception {
+		assumeTrue(IRTestSupport.canRun());
+		assertEquals(6, IRTestSupport.run("ssa-lowering", "initlist", "int arr[3] = {1, 2, 3};\nint main() { return arr[0] + arr[1] + arr[2]; }\n",
+			OptimizationLevel.O0));
+		assertEquals(39, IRTestSupport.run("ssa-lowering", "initlists", "char c[] = {-1, 2, 3};\nlong l[4] = {5000000000, -2};\nint k = 7;\n"
+			+ "int main() { return (int) (l[0] / 1000000000) + (int) l[1] + c[0] + c[1] * c[2] + (int) l[3] + k * 4 + (int) sizeof(c); }\n",
+			OptimizationLevel.O2));
+	}
+
+	@Test
+	public void testCompiledProgramsRun() throws Exception {
+		assumeTrue(IRTestSupport.canRun());
+		assertEquals(55, IRTestSupport.run("ssa-lowering", "fib", "int fib(int n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+			+ "int main() { return fib(10); }\n", OptimizationLevel.O0));
+		assertEquals(60, IRTestSupport.run("ssa-lowering", "loops", "int main() { int s = 0; for (int i = 0; i < 10; i++) { if (i == 7) break; if (i % 2) continue; s += i * 5; }\n"
+			+ "int j = 0; do j++; while (j < 3); return s + j - 3; }\n", OptimizationLevel.O0));
+		assertEquals(9, IRTestSupport.run("ssa-lowering", "arrays", "int g[3];\nint sum(int *p, int n) { int s = 0; while (n-- > 0) s += *p++; return s; }\n"
+			+ "int main() { int a[3]; for (int i = 0; i < 3; i++) a[i] = g[i] = i + 1; return sum(a, 3) + sum(g, 3) - 3; }\n", OptimizationLevel.O0));
+		assertEquals(3, IRTestSupport.run("ssa-lowering", "logic", "int calls;\nint hit() { calls++; return 1; }\n"
+			+ "int main() { int x = 0 && hit(); int y = 1 || hit(); int z = 1 && hit(); return x + y + z + calls - 0; }\n", OptimizationLevel.O0));
+		assertEquals(200, IRTestSupport.run("ssa-lowering", "narrow", "int main() { char c = 300; unsigned char u = 200; int n = -8; return (c == 44) * (u + ((n >> 1) == -4) - 1); }\n", OptimizationLevel.O0));
+	}
+}
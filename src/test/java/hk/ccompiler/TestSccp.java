@@ -0,0 +1,101 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRPrinter;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.ir.IRType;
+import org.hkprog.opt.ConstantFolder;
+import org.hkprog.opt.PassManager;
+import org.hkprog.opt.SccpPass;
+import org.hkprog.opt.SimplifyCfgPass;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSccp {
+
+	private IRProgram optimize(String source) {
+		IRProgram program = IRTestSupport.lower(source);
+		PassManager manager = new PassManager().add(new SccpPass()).add(new SimplifyCfgPass());
+		manager.setVerify(true);
+		manager.run(program);
+		return program;
+	}
+
+	private String returned(IRFunction function) {
+		assertEquals(1, function.getBlocks().size(), IRPrinter.function(function));
+		return IRPrinter.instruction(function, function.getEntryBlock().last());
+	}
+
+	@Test
+	public void testFoldingWrapsToWidth() {
+		assertEquals(Integer.MIN_VALUE, ConstantFolder.fold(IROpcode.ADD, IRType.INT, Integer.MAX_VALUE, 1));
+		assertEquals(Integer.MAX_VALUE + 1L, ConstantFolder.fold(IROpcode.ADD, IRType.LONG, Integer.MAX_VALUE, 1));
+		assertEquals(-56, ConstantFolder.fold(IROpcode.ADD, IRType.CHAR, 100, 100));
+		assertEquals(0, ConstantFolder.fold(IROpcode.MUL, IRType.CHAR, 16, 16));
+		assertEquals(Long.MIN_VALUE, ConstantFolder.fold(IROpcode.SHL, IRType.LONG, 1, 63));
+		assertEquals(0, ConstantFolder.fold(IROpcode.SHL, IRType.INT, 1, 32));
+		assertEquals(-1, ConstantFolder.fold(IROpcode.SHR, IRType.INT, -8, 3));
+		assertEquals(-3, ConstantFolder.fold(IROpcode.DIV, IRType.INT, -7, 2));
+		assertEquals(-1, ConstantFolder.fold(IROpcode.MOD, IRType.INT, -7, 2));
+		assertEquals(Integer.MIN_VALUE, ConstantFolder.fold(IROpcode.DIV, IRType.INT, Integer.MIN_VALUE, -1));
+		assertNull(ConstantFolder.fold(IROpcode.DIV, IRType.INT, 1, 0));
+		assertNull(ConstantFolder.fold(IROpcode.MOD, IRType.LONG, Long.MIN_VALUE, -1));
+		assertEquals(1, ConstantFolder.fold(IROpcode.LT, IRType.INT, -1, 0));
+		assertEquals(44, ConstantFolder.fold(IROpcode.CAST, IRType.CHAR, 300));
+		assertEquals(-1, ConstantFolder.fold(IROpcode.CAST, IRType.INT, 0xFFFFFFFFL));
+		assertEquals(Integer.MIN_VALUE, ConstantFolder.fold(IROpcode.NEG, IRType.INT, Integer.MIN_VALUE));
+		assertEquals(-1, ConstantFolder.fold(IROpcode.NOT, IRType.CHAR, 0));
+	}
+
+	@Test
+	public void testFoldsExpressions() {
+		IRProgram program = optimize("int a() { return 6 * 7; }\n"
+			+ "int b() { int x = 6; int y = x * 7; return y; }\n"
+			+ "char c() { int x = 100; char c = x + 100; return c; }\n"
+			+ "long d() { long big = 2147483647; return big + 1; }\n"
+			+ "int e() { int x = 2147483647; return x + 1; }\n");
+		assertEquals("return 42", returned(program.getFunctions().get(0)));
+		assertEquals("return 42", returned(program.getFunctions().get(1)));
+		assertEquals("return -56", returned(program.getFunctions().get(2)));
+		assertEquals("return 2147483648", returned(program.getFunctions().get(3)));
+		assertEquals("return -2147483648", returned(program.getFunctions().get(4)));
+	}
+
+	@Test
+	public void testPrunesBranches() {
+		IRProgram program = optimize("int a(int p) { int debug = 0; if (debug) p = p * 3; return p; }\n"
+			+ "int b() { int x = 1; int r; if (x > 0 && x < 5) r = 10; else r = 20; return r; }\n"
+			+ "int c() { int i = 3; while (i < 3) i++; return i; }\n"
+			+ "int d() { return 1 || (1 / 0) ? 7 : 8; }\n");
+		IRFunction a = program.getFunctions().get(0);
+		assertEquals(1, a.getBlocks().size());
+		for (int i = 0; i < a.getEntryBlock().size(); i++) {
+			assertNotEquals(IROpcode.MUL, a.opcode(a.getEntryBlock().get(i)));
+		}
+		assertEquals("return 10", returned(program.getFunctions().get(1)));
+		assertEquals("return 3", returned(program.getFunctions().get(2)));
+		assertEquals("return 7", returned(program.getFunctions().get(3)));
+	}
+
+	@Test
+	public void testLeavesVariablesAlone() {
+		IRProgram program = optimize("int a(int n) { int s = 0; for (int i = 0; i < n; i++) s = s + i; return s; }\n"
+			+ "int b() { int x; return x; }\n"
+			+ "int c() { int x = 1; int *p = &x; *p = 2; return x; }\n"
+			+ "int d() { return 1 / 0; }\n");
+		IRFunction a = program.getFunctions().get(0);
+		assertTrue(a.getBlocks().size() > 1);
+		for (var block : a.getBlocks()) {
+			int last = block.last();
+			if (a.opcode(last) == IROpcode.RET) {
+				assertTrue(IRPrinter.instruction(a, last).startsWith("return t"));
+			}
+		}
+		assertTrue(returned(program.getFunctions().get(1)).startsWith("return t"));
+		assertTrue(returned(program.getFunctions().get(2)).startsWith("return t"));
+		assertTrue(returned(program.getFunctions().get(3)).startsWith("return t"));
+	}
+}
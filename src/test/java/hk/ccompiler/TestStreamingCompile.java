@@ -0,0 +1,78 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.CCompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class TestStreamingCompile {
+
+	private int compile(PrintStream out, String... args) {
+		return CCompiler.run(args, Paths.get(""), out, out);
+	}
+
+	@Test
+	void testStreamedOutputMatchesInMemoryOutput() throws Exception {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		File[] examples = new File("examples").listFiles((dir, name) -> name.endsWith(".c"));
+		assertNotNull(examples);
+		for (File example : examples) {
+			String name = example.getName().replace(".c", "");
+			Path inMemory = Paths.get("target", "stream_" + name + "_memory.out");
+			Path streamed = Paths.get("target", "stream_" + name + "_streamed.out");
+			assertEquals(0, compile(out, example.getPath(), inMemory.toString()), log.toString());
+			assertEquals(0, compile(out, "--stream", example.getPath(), streamed.toString()), log.toString());
+			assertArrayEquals(Files.readAllBytes(inMemory), Files.readAllBytes(streamed), example.getName());
+			assertTrue(streamed.toFile().canExecute());
+		}
+		assertTrue(log.toString().contains("Streamed examples"), log.toString());
+	}
+
+	@Test
+	void testForwardCallsAreRelocated() throws Exception {
+		Path source = Paths.get("target", "stream_forward.c");
+		StringBuilder text = new StringBuilder("int main() {\n    last();\n    return 0;\n}\n");
+		for (int i = 0; i < 200; i++) {
+			text.append("int f").append(i).append("() {\n    f").append(i + 1).append("();\n    return ").append(i).append(";\n}\n");
+		}
+		text.append("int f200() {\n    return 0;\n}\nint last() {\n    f0();\n    return 1;\n}\n");
+		Files.writeString(source, text);
+
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		for (String lexer : new String[] { "--lexer=antlr", "--lexer=fast" }) {
+			assertEquals(0, compile(out, source.toString(), "target/stream_forward_memory.out"), log.toString());
+			assertEquals(0, compile(out, "--stream", lexer, source.toString(), "target/stream_forward_streamed.out"), log.toString());
+			assertArrayEquals(Files.readAllBytes(Paths.get("target/stream_forward_memory.out")),
+				Files.readAllBytes(Paths.get("target/stream_forward_streamed.out")), lexer);
+		}
+		assertTrue(log.toString().contains("203 declarations, 203 functions"), log.toString());
+	}
+
+	@Test
+	void testSyntaxErrorsAreReported() throws Exception {
+		Path source = Paths.get("target", "stream_error.c");
+		Files.writeString(source, "int main() {\n    return 0;\n}\n} int g() { return 1 + ; }\nint h() { return 2; }\n");
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		assertEquals(0, compile(out, "--stream", source.toString(), "target/stream_error.out"), log.toString());
+		assertTrue(log.toString().contains("line 4:"), log.toString());
+	}
+
+	@Test
+	void testRejectsBufferedModes() {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(log, true);
+		assertNotEquals(0, compile(out, "--stream", "--incremental", "examples/helloworld.c", "target/stream_rejected.out"));
+		assertTrue(log.toString().contains("--stream cannot be combined"), log.toString());
+	}
+}
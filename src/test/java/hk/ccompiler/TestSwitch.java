@@ -0,0 +1,130 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.codegen.AssemblySection;
+import org.hkprog.codegen.X86CodeGenerator;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.opt.Mem2RegPass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.opt.PassManager;
+import org.hkprog.opt.SccpPass;
+import org.hkprog.opt.SimplifyCfgPass;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestSwitch {
+
+	private IRFunction optimize(String source, PassManager manager) {
+		IRProgram program = IRTestSupport.lower(source);
+		manager.setVerify(true);
+		manager.run(program);
+		return program.getFunctions().get(0);
+	}
+
+	private List<String> assemble(String source) {
+		IRFunction function = optimize(source, new PassManager().add(new Mem2RegPass()).add(new SimplifyCfgPass()));
+		AssemblySection text = new AssemblySection(".text", true);
+		new X86CodeGenerator().generateFunction(function, text, new AssemblySection(".data", false));
+		return text.getInstructions().stream().map(String::trim).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testSwitchIsOneTerminator() {
+		IRFunction function = IRTestSupport.lower("int f(int x) { switch (x) { case 1: return 10; case 2: case 3: return 20;\n"
+			+ "case 9: return 30; default: return 0; } }\n").getFunctions().get(0);
+		assertEquals(1, IRTestSupport.count(function, IROpcode.SWITCH));
+		assertEquals(0, IRTestSupport.count(function, IROpcode.BR));
+		int terminator = -1;
+		for (IRBasicBlock block : function.getBlocks()) {
+			if (function.opcode(block.last()) == IROpcode.SWITCH) {
+				terminator = block.last();
+			}
+		}
+		// The value, the default and four (constant, block) pairs
+		assertEquals(10, function.operandCount(terminator));
+	}
+
+	@Test
+	public void testConstantSwitchesFold() {
+		String source = "int f() { int x = 3; switch (x) { case 1: return 10; case 3: return 30; default: return 0; } }\n";
+		IRFunction folded = optimize(source, new PassManager().add(new Mem2RegPass()).add(new SccpPass())
+			.add(new SimplifyCfgPass()));
+		assertEquals(0, IRTestSupport.count(folded, IROpcode.SWITCH));
+		assertEquals(1, folded.getBlocks().size());
+		// Cases that go where the default goes are dropped, and then the whole switch
+		IRFunction trivial = optimize("int f(int x) { int r = 1; switch (x) { case 1: case 2: default: r = 2; } return r; }\n",
+			new PassManager().add(new Mem2RegPass()).add(new SimplifyCfgPass()));
+		assertEquals(0, IRTestSupport.count(trivial, IROpcode.SWITCH));
+	}
+
+	@Test
+	public void testDenseCasesUseAJumpTable() {
+		List<String> code = assemble("int f(int x) { switch (x) { case 0: return 10; case 1: return 11; case 2: return 12;\n"
+			+ "case 3: return 13; case 5: return 15; case 6: return 16; default: return 99; } }\n");
+		assertTrue(code.contains("jmp *%rdx"));
+		// One entry per value from 0 to 6, the gap at 4 going to the default
+		assertEquals(7, code.stream().filter(line -> line.startsWith(".long ")).count());
+	}
+
+	@Test
+	public void testSparseCasesUseABinarySearch() {
+		List<String> code = assemble("int f(int x) { switch (x) { case -1000: return 1; case 7: return 2; case 300: return 3;\n"
+			+ "case 5000: return 4; case 70000: return 5; case 1000000: return 6; default: return 0; } }\n");
+		assertFalse(code.contains("jmp *%rdx"));
+		assertTrue(code.stream().anyMatch(line -> line.startsWith("jl ")));
+		assertEquals(6, code.stream().filter(line -> line.startsWith("je ")).count());
+	}
+
+	@Test
+	public void testFewTargetsUseBitTests() {
+		List<String> code = assemble("int f(int c) { switch (c) { case 'a': case 'e': case 'i': case 'o': case 'u': return 1;\n"
+			+ "case 'y': return 2; default: return 0; } }\n");
+		assertEquals(2, code.stream().filter(line -> line.equals("shr %cl, %rdx")).count());
+		assertTrue(code.stream().noneMatch(line -> line.startsWith("je ")));
+	}
+
+	@Test
+	public void testSwitchesKeepTheirResults() throws Exception {
+		assumeTrue(IRTestSupport.canRun());
+		String source = "int dense(int x) { switch (x) { case 0: return 10; case 1: return 11; case 2: return 12;\n"
+			+ "case 3: return 13; case 5: return 15; case 6: return 16; case 7: return 17; default: return 99; } }\n"
+			+ "int sparse(int x) { switch (x) { case -1000: return 1; case 7: return 2; case 300: return 3; case 5000: return 4;\n"
+			+ "case 70000: return 5; case 1000000: return 6; case -7: return 7; default: return 0; } }\n"
+			+ "int bits(int c) { switch (c) { case 'a': case 'e': case 'i': case 'o': case 'u': return 1;\n"
+			+ "case ' ': case '\\t': case '\\n': return 2; default: return 0; } }\n"
+			+ "int fall(int x) { int r = 0; switch (x) { case 1: r += 1; case 2: r += 2; break; default: r = 50; case 3: r += 3; }\n"
+			+ "return r; }\n"
+			+ "long big(long x) { switch (x) { case 10000000000: return 1; case -10000000000: return 2; case 3: return 3;\n"
+			+ "case 4: return 4; case 5: return 5; case 6: return 6; default: return 7; } }\n"
+			+ "int chr(char c) { switch (c) { case -1: return 5; case 100: return 6; default: return 7; } }\n"
+			+ "int nest(int a, int b) { switch (a) { case 1: switch (b) { case 1: return 11; case 2: return 12; } return 10;\n"
+			+ "case 2: return 20; } return 0; }\n"
+			+ "int mixed(int x) { int v; switch (x) { case 1: v = 3; break; case 2: v = 5; break; case 3: v = 7; break;\n"
+			+ "case 4: v = 11; break; case 10: v = 13; break; case 11: v = 17; break; case 12: v = 19; break;\n"
+			+ "case 13: v = 23; break; case 40: v = 1; break; case 41: v = 2; break; case 42: v = 1; break;\n"
+			+ "case 900: v = 4; break; default: v = 0; } return v; }\n"
+			+ "int main() { int s = 0; int i;\n"
+			+ "for (i = -3; i < 10; i++) s += dense(i) * (i + 4);\n"
+			+ "int sp[9] = {-1000, 7, 300, 5000, 70000, 1000000, -7, 8, 0};\n"
+			+ "for (i = 0; i < 9; i++) s += sparse(sp[i]) * (i + 1);\n"
+			+ "char *t = \"hello world\\tout\\n\";\n"
+			+ "for (i = 0; t[i]; i++) s += bits(t[i]) * (i + 1);\n"
+			+ "for (i = 0; i < 5; i++) s += fall(i) * (i + 1);\n"
+			+ "s += (int) big(10000000000) + 2 * (int) big(-10000000000) + 3 * (int) big(5) + 4 * (int) big(8);\n"
+			+ "s += chr(-1) + chr(100) * 2 + chr(3) * 3;\n"
+			+ "s += nest(1, 1) + nest(1, 2) + nest(1, 3) + nest(2, 0) + nest(3, 0);\n"
+			+ "for (i = -1; i < 950; i++) s += mixed(i) * (i % 7 + 1);\n"
+			+ "return s % 256; }\n";
+		for (OptimizationLevel level : OptimizationLevel.values()) {
+			assertEquals(1, IRTestSupport.run("switch", "switches", source, level), "at -O" + level.getName());
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package hk.ccompiler;
+
+import org.junit.jupiter.api.Test;
+
+import org.hkprog.codegen.AssemblySection;
+import org.hkprog.codegen.X86CodeGenerator;
+import org.hkprog.ir.IRBasicBlock;
+import org.hkprog.ir.IRFunction;
+import org.hkprog.ir.IROpcode;
+import org.hkprog.ir.IRProgram;
+import org.hkprog.ir.LoopInfo;
+import org.hkprog.opt.Analysis;
+import org.hkprog.opt.AnalysisManager;
+import org.hkprog.opt.Mem2RegPass;
+import org.hkprog.opt.OptimizationLevel;
+import org.hkprog.opt.PassManager;
+import org.hkprog.opt.TailCallPass;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestTailCalls {
+
+	private IRProgram optimize(String source) {
+		IRProgram program = IRTestSupport.lower(source);
+		PassManager manager = new PassManager().add(new Mem2RegPass()).add(new TailCallPass());
+		manager.setVerify(true);
+		manager.run(program);
+		return program;
+	}
+
+	private List<Integer> calls(IRFunction function) {
+		List<Integer> calls = new ArrayList<>();
+		for (IRBasicBlock block : function.getBlocks()) {
+			for (int i = 0; i < block.size(); i++) {
+				if (function.opcode(block.get(i)) == IROpcode.CALL) {
+					calls.add(block.get(i));
+				}
+			}
+		}
+		return calls;
+	}
+
+	@Test
+	public void testSelfRecursionBecomesALoop() {
+		IRProgram program = optimize("int gcd(int a, int b) { if (b == 0) return a; return gcd(b, a % b); }\n"
+			+ "char down(char c, long n) { if (n == 0) return c; return down(c + 1, n - 1); }\n");
+		for (String name : List.of("gcd", "down")) {
+			IRFunction function = IRTestSupport.function(program, name);
+			assertTrue(calls(function).isEmpty(), name);
+			LoopInfo loops = new AnalysisManager().get(Analysis.LOOPS, function);
+			assertEquals(1, loops.getLoops().size(), name);
+		}
+	}
+
+	@Test
+	public void testOnlyCallsInTailPositionAreMarked() {
+		IRProgram program = optimize("int even(int n); int odd(int n) { if (n == 0) return 0; return even(n - 1); }\n"
+			+ "int even(int n) { if (n == 0) return 1; return odd(n - 1); }\n"
+			+ "int fact(int n) { if (n < 2) return 1; return n * fact(n - 1); }\n"
+			+ "int sum(int *p, int n) { return n; }\n"
+			+ "int local(int n) { int a[2]; a[0] = n; return sum(a, 1); }\n"
+			+ "int seven(int a, int b, int c, int d, int e, int f, int g) { return g; }\n"
+			+ "int stack(int n) { return seven(n, n, n, n, n, n, n); }\n"
+			+ "long widened(int n) { return odd(n); }\n");
+		assertTrue(IRTestSupport.function(program, "odd").isTailCall(calls(IRTestSupport.function(program, "odd")).get(0)));
+		assertTrue(IRTestSupport.function(program, "even").isTailCall(calls(IRTestSupport.function(program, "even")).get(0)));
+		for (String name : List.of("fact", "local", "stack", "widened")) {
+			IRFunction function = IRTestSupport.function(program, name);
+			assertEquals(1, calls(function).size(), name);
+			assertFalse(function.isTailCall(calls(function).get(0)), name);
+		}
+	}
+
+	@Test
+	public void testTailCallsJump() {
+		IRProgram program = optimize("int even(int n); int odd(int n) { if (n == 0) return 0; return even(n - 1); }\n"
+			+ "int even(int n) { if (n == 0) return 1; return odd(n - 1); }\n"
+			+ "int apply(int (*f)(int), int x) { return f(x); }\n");
+		AssemblySection text = new AssemblySection(".text", true);
+		X86CodeGenerator generator = new X86CodeGenerator();
+		for (IRFunction function : program.getFunctions()) {
+			generator.generateFunction(function, text, new AssemblySection(".data", false));
+		}
+		List<String> code = text.getInstructions().stream().map(String::trim).collect(Collectors.toList());
+		assertTrue(code.contains("jmp even"));
+		assertTrue(code.contains("jmp odd"));
+		assertTrue(code.contains("jmp *%r11"));
+		assertTrue(code.stream().noneMatch(line -> line.startsWith("call")));
+	}
+
+	@Test
+	public void testChangedReturnIsNoTailCall() {
+		IRProgram program = optimize("int even(int n); int odd(int n) { if (n == 0) return 0; return even(n - 1); }\n");
+		IRFunction odd = IRTestSupport.function(program, "odd");
+		int call = calls(odd).get(0);
+		assertTrue(odd.isTailCall(call));
+		// A later pass returning something other than the call's result keeps the mark
+		for (IRBasicBlock block : odd.getBlocks()) {
+			if (block.size() >= 2 && block.get(block.size() - 2) == call) {
+				odd.setOperand(block.last(), 0, odd.constant(5));
+			}
+		}
+		AssemblySection text = new AssemblySection(".text", true);
+		new X86CodeGenerator().generateFunction(odd, text, new AssemblySection(".data", false));
+		List<String> code = text.getInstructions().stream().map(String::trim).collect(Collectors.toList());
+		assertTrue(code.contains("call even"), code.toString());
+		assertFalse(code.contains("jmp even"), code.toString());
+	}
+
+	@Test
+	public void testDeepRecursionRuns() throws Exception {
+		assumeTrue(IRTestSupport.canRun());
+		String source = "int gcd(int a, int b) { if (b == 0) return a; return gcd(b, a % b); }\n"
+			+ "long sum(long n, long acc) { if (n == 0) return acc; return sum(n - 1, acc + n); }\n"
+			+ "char wrap(char c, int n) { if (n == 0) return c; return wrap(c + 1, n - 1); }\n"
+			+ "int isodd(int n);\n"
+			+ "int iseven(int n) { if (n == 0) return 1; return isodd(n - 1); }\n"
+			+ "int isodd(int n) { if (n == 0) return 0; return iseven(n - 1); }\n"
+			+ "int twice(int x) { return x * 2; }\n"
+			+ "int apply(int (*f)(int), int x) { return f(x); }\n"
+			+ "int count;\n"
+			+ "void tick(int n) { if (n == 0) return; count++; tick(n - 1); }\n"
+			+ "int main() { tick(DEPTH);\n"
+			+ "return (gcd(1071, 462) + (int) (sum(DEPTH, 0) % 1000) + wrap(120, 300) + iseven(DEPTH + 1)\n"
+			+ "+ apply(twice, 5) + count % 7) % 256; }\n";
+		for (OptimizationLevel level : OptimizationLevel.values()) {
+			assertEquals(201, IRTestSupport.run("tailcalls", "shallow", source.replace("DEPTH", "50000"), level), "at -O" + level.getName());
+		}
+		// Far deeper than the stack could hold a frame per call
+		assertEquals(198, IRTestSupport.run("tailcalls", "deep", source.replace("DEPTH", "10000000"), OptimizationLevel.O1));
+	}
+}